@@ -7,14 +7,30 @@ package ome.formats.importer;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static omero.rtypes.rint;
 import static omero.rtypes.rstring;
@@ -40,6 +56,11 @@ import org.slf4j.LoggerFactory;
  * number and members of a given import. This facility permits iterating over a
  * directory.
  *
+ * If more than one thread is requested, the directories are listed by a
+ * work-stealing pool and the files are parsed ahead of time by a pool of
+ * readers. The results are still applied in the order of the directory walk
+ * so that the final containers do not depend on the number of threads.
+ *
  * This class is NOT thread-safe.
  *
  * @since Beta4.1
@@ -106,6 +127,58 @@ public class ImportCandidates extends DirectoryWalker
 
 	private static final long serialVersionUID = 1L;};
 
+    /**
+     * Event raised, when scanning with more than one thread, as soon as a
+     * file has been parsed into an
+     * {@link ImportContainer}, before the directory scan completes. The
+     * containers are provisional: once the scan has finished, containers
+     * whose files are used by another container are dropped and the file
+     * of each remaining container may be changed. The final list is
+     * available from {@link ImportCandidates#getContainers()}.
+     */
+    public static class FOUND extends ImportEvent
+    {
+        public final ImportContainer container;
+
+        public FOUND(ImportContainer container)
+        {
+            this.container = container;
+        }
+
+        public String toLog()
+        {
+            return super.toLog() + ": " + container.getFile();
+        }
+    }
+
+    /**
+     * The outcome of parsing a single file, applied to the
+     * {@link ImportCandidates} in the order of the directory walk.
+     */
+    private static class Scan
+    {
+        ImportContainer container;
+        final List<ImportEvent> events = new ArrayList<ImportEvent>();
+        long time;
+        boolean unknown;
+        boolean unreadable;
+    }
+
+    /**
+     * A file found during the directory walk with its depth.
+     */
+    private static class Listed
+    {
+        final File file;
+        final int depth;
+
+        Listed(File file, int depth)
+        {
+            this.file = file;
+            this.depth = depth;
+        }
+    }
+
     final private static Logger log = LoggerFactory.getLogger(ImportCandidates.class);
 
     final public static int DEPTH = Integer.valueOf(
@@ -113,9 +186,24 @@ public class ImportCandidates extends DirectoryWalker
     final public static MetadataLevel METADATA_LEVEL =
         MetadataLevel.valueOf(System.getProperty(
                 "omero.import.metadata.level","MINIMUM"));
+    final public static int THREADS = Integer.valueOf(
+            System.getProperty("omero.import.scan.threads","1"));
+
+    /**
+     * Number of files per thread which are parsed ahead of the file being
+     * added by {@link #execute(String[], int)}.
+     */
+    final private static int LOOKAHEAD = 4;
+
+    /**
+     * Milliseconds between {@link SCANNING} events while directories are
+     * being listed by {@link #execute(String[], int)}.
+     */
+    final private static long SCAN_INTERVAL = 250;
 
     final private IObserver observer;
     final private OMEROWrapper reader;
+    final private int depth;
     final private Set<String> allFiles = new HashSet<String>();
     final private Map<String, List<String>> usedBy = new LinkedHashMap<String, List<String>>();
     final private List<ImportContainer> containers = new ArrayList<ImportContainer>();
@@ -192,12 +280,42 @@ public class ImportCandidates extends DirectoryWalker
      */
     public ImportCandidates(int depth, OMEROWrapper reader, String[] paths,
             IObserver observer)
+    {
+        this(depth, THREADS, reader, paths, observer);
+    }
+
+    /**
+     * Constructor which permits a descent to the given depth and parses the
+     * files with the given number of threads. With more than one thread, the
+     * directories are listed concurrently and each file is parsed ahead of
+     * time by a separate {@link OMEROWrapper}. A {@link FOUND} event is
+     * raised for each file as soon as it has been parsed.
+     *
+     * @param depth
+     *            number of directory levels to search down.
+     * @param threads
+     *            number of threads which list directories and parse files.
+     *            If less than two, the paths are scanned by the calling
+     *            thread only.
+     * @param reader
+     *            instance used for parsing each of the paths. Not used once the
+     *            constructor completes.
+     * @param paths
+     *            file paths which are searched. May be directories.
+     * @param observer
+     *            {@link IObserver} which will monitor any exceptions during
+     *            {@link OMEROWrapper#setId(String)}. Otherwise no error
+     *            reporting takes place.
+     */
+    public ImportCandidates(int depth, int threads, OMEROWrapper reader,
+            String[] paths, IObserver observer)
     {
         super(TrueFileFilter.INSTANCE, depth);
         this.reader = reader;
         this.observer = observer;
-        log.info(String.format("Depth: %s Metadata Level: %s", depth,
-                METADATA_LEVEL));
+        this.depth = depth;
+        log.info(String.format("Depth: %s Metadata Level: %s Threads: %s",
+                depth, METADATA_LEVEL, threads));
 
         if (paths != null && paths.length == 2 && "".equals(paths[0])
                 && "".equals(paths[1]))
@@ -216,10 +334,14 @@ public class ImportCandidates extends DirectoryWalker
 
         Groups g;
         try {
-            execute(paths);
-            total = count;
-            count = 0;
-            execute(paths);
+            if (threads > 1) {
+                execute(paths, threads);
+            } else {
+                execute(paths);
+                total = count;
+                count = 0;
+                execute(paths);
+            }
             g = new Groups(usedBy);
             g.parse(containers);
             long totalElapsed = System.currentTimeMillis() - start;
@@ -393,6 +515,247 @@ public class ImportCandidates extends DirectoryWalker
         }
     }
 
+    /**
+     * Concurrent alternative to calling {@link #execute(String[])} twice.
+     * All the paths are first listed by a work-stealing pool, which fixes
+     * the total. The files are then parsed by a pool of readers, at most
+     * {@link #LOOKAHEAD} files per thread ahead of the file being added,
+     * and the results are added in the order of the directory walk so
+     * that the same files are skipped as used by an earlier file. Files
+     * which are already known to be used by a file earlier in the walk
+     * are not parsed ahead of time.
+     *
+     * @param paths
+     * @param threads the number of threads to list and parse with
+     */
+    protected void execute(String[] paths, int threads)
+    {
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        final ExecutorService parsers = Executors.newFixedThreadPool(threads);
+        try {
+            final List<List<Listed>> listings = list(paths, pool);
+            final List<Listed> files = new ArrayList<Listed>();
+            for (List<Listed> listing : listings) {
+                files.addAll(listing);
+            }
+            total = files.size();
+            count = 0;
+
+            final ConcurrentMap<String, Integer> claimedBy =
+                    new ConcurrentHashMap<String, Integer>();
+            final ThreadLocal<OMEROWrapper> readers =
+                    new ThreadLocal<OMEROWrapper>() {
+                @Override
+                protected OMEROWrapper initialValue() {
+                    return new OMEROWrapper(reader.getConfig());
+                }
+            };
+            final Deque<Future<Scan>> window = new ArrayDeque<Future<Scan>>();
+            int submitted = 0;
+            int index = 0;
+            for (int i = 0; i < paths.length; i++) {
+                for (Listed listed : listings.get(i)) {
+                    while (submitted < files.size()
+                            && submitted <= index + threads * LOOKAHEAD) {
+                        window.add(parsers.submit(parse(files.get(submitted),
+                                submitted, claimedBy, readers)));
+                        submitted++;
+                    }
+                    handleFile(listed, window.poll());
+                    index++;
+                }
+                // As in execute(String[]), one event per path.
+                scanWithCancel(new File(paths[i]), 0);
+            }
+        } finally {
+            parsers.shutdownNow();
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Lists the files of all the given paths in the order that
+     * {@link #walk(File, Collection)} would visit them, raising
+     * {@link SCANNING} events with an unknown total while waiting.
+     */
+    private List<List<Listed>> list(String[] paths, ForkJoinPool pool)
+    {
+        final AtomicInteger found = new AtomicInteger();
+        final List<List<Listed>> listings = new ArrayList<List<Listed>>();
+        for (String string : paths) {
+            final File f = new File(string);
+            if (!f.isDirectory()) {
+                listings.add(Collections.singletonList(new Listed(f, 0)));
+                found.incrementAndGet();
+                continue;
+            }
+            final ForkJoinTask<List<Listed>> task =
+                    pool.submit(new Listing(f, 0, found));
+            while (true) {
+                try {
+                    listings.add(task.get(SCAN_INTERVAL, TimeUnit.MILLISECONDS));
+                    break;
+                } catch (TimeoutException te) {
+                    SCANNING s = new SCANNING(f, 0, found.get(), -1);
+                    safeUpdate(s);
+                    if (s.cancel) {
+                        task.cancel(true);
+                        throw new CANCEL();
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new CANCEL();
+                } catch (ExecutionException ee) {
+                    throw new RuntimeException(ee.getCause());
+                }
+            }
+        }
+        return listings;
+    }
+
+    /**
+     * Lists a directory, forking a task for each subdirectory. The children
+     * are visited as in {@link DirectoryWalker}: in the order returned by
+     * {@link File#listFiles()}, and only if they lie within the depth limit.
+     */
+    private class Listing extends RecursiveTask<List<Listed>>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final File directory;
+        private final int directoryDepth;
+        private final AtomicInteger found;
+
+        Listing(File directory, int directoryDepth, AtomicInteger found)
+        {
+            this.directory = directory;
+            this.directoryDepth = directoryDepth;
+            this.found = found;
+        }
+
+        @Override
+        protected List<Listed> compute()
+        {
+            final List<Listed> listed = new ArrayList<Listed>();
+            final int childDepth = directoryDepth + 1;
+            if (depth >= 0 && childDepth > depth) {
+                return listed;
+            }
+            final File[] children = directory.listFiles();
+            if (children == null) {
+                return listed;
+            }
+            final List<Object> parts = new ArrayList<Object>(children.length);
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    parts.add(new Listing(child, childDepth, found).fork());
+                } else {
+                    parts.add(new Listed(child, childDepth));
+                    found.incrementAndGet();
+                }
+            }
+            for (Object part : parts) {
+                if (part instanceof Listing) {
+                    listed.addAll(((Listing) part).join());
+                } else {
+                    listed.add((Listed) part);
+                }
+            }
+            return listed;
+        }
+    }
+
+    /**
+     * Parses a file ahead of time unless it is a dot file or used by a
+     * file earlier in the walk, in which case {@code null} is returned.
+     */
+    private Callable<Scan> parse(final Listed listed, final int index,
+            final ConcurrentMap<String, Integer> claimedBy,
+            final ThreadLocal<OMEROWrapper> readers)
+    {
+        return new Callable<Scan>() {
+            public Scan call() {
+                final File file = listed.file;
+                if (file.getName().startsWith(".")) {
+                    return null;
+                }
+                final Integer claim = claimedBy.get(file.getAbsolutePath());
+                if (claim != null && claim < index) {
+                    return null;
+                }
+                final Scan scan = scan(file, reader.getConfig(), readers.get());
+                if (scan.container != null) {
+                    for (String used : scan.container.getUsedFiles()) {
+                        claim(claimedBy, used, index);
+                    }
+                }
+                return scan;
+            }
+        };
+    }
+
+    /**
+     * Notes that the given file is used by the file at the given index,
+     * keeping the lowest such index.
+     */
+    private static void claim(ConcurrentMap<String, Integer> claimedBy,
+            String used, int index)
+    {
+        while (true) {
+            final Integer claim = claimedBy.putIfAbsent(used, index);
+            if (claim == null || claim <= index
+                    || claimedBy.replace(used, claim, index)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Equivalent of {@link #handleFile(File, int, Collection)} for the
+     * second pass of {@link #execute(String[], int)}: uses the result parsed
+     * ahead of time if there is one, otherwise parses the file with
+     * {@link #reader}.
+     */
+    private void handleFile(Listed listed, Future<Scan> future)
+    {
+        final File file = listed.file;
+        count++;
+
+        if (file.getName().startsWith(".")) {
+            return;
+        }
+
+        if (count%100 == 0) {
+            scanWithCancel(file, listed.depth);
+        }
+
+        if (allFiles.contains(file.getAbsolutePath())) {
+            future.cancel(false);
+            return;
+        }
+
+        Scan scan;
+        try {
+            scan = future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new CANCEL();
+        } catch (ExecutionException ee) {
+            throw new RuntimeException(ee.getCause());
+        }
+        if (scan == null) {
+            // Claimed by a file which was itself skipped.
+            scan = scan(file, reader.getConfig(), reader);
+        }
+
+        ImportContainer info = apply(scan);
+        if (info == null) {
+            return;
+        }
+        add(file, info);
+        safeUpdate(new FOUND(info));
+    }
+
     /**
      * Return an import container for a single file
      * @param file - single file
@@ -400,17 +763,46 @@ public class ImportCandidates extends DirectoryWalker
      */
     protected ImportContainer singleFile(File file, ImportConfig config)
     {
-
         if (file == null) {
             // Can't do anything about it.
             return null;
         }
+        return apply(scan(file, config, reader));
+    }
+
+    /**
+     * Adds the statistics of a parsed file and raises its events.
+     * @return the import container of the file, may be {@code null}
+     */
+    private ImportContainer apply(Scan scan)
+    {
+        if (!scan.unreadable) {
+            setids++;
+            readerTime += scan.time;
+        }
+        if (scan.unknown) {
+            unknown++;
+        }
+        for (ImportEvent event : scan.events) {
+            safeUpdate(event);
+        }
+        return scan.container;
+    }
 
+    /**
+     * Parses a single file with the given reader without modifying the
+     * state of this instance, so that files may be parsed concurrently.
+     * The events which are to be raised are collected in the result.
+     */
+    private Scan scan(File file, ImportConfig config, OMEROWrapper reader)
+    {
+        final Scan scan = new Scan();
         final String path = file.getAbsolutePath();
         if (!file.exists() || !file.canRead()) {
-            safeUpdate(new ErrorHandler.UNREADABLE_FILE(path,
+            scan.unreadable = true;
+            scan.events.add(new ErrorHandler.UNREADABLE_FILE(path,
                 new java.io.FileNotFoundException(path), this));
-            return null;
+            return scan;
         }
 
         String format = null;
@@ -419,14 +811,13 @@ public class ImportCandidates extends DirectoryWalker
         try {
 
             try {
-                setids++;
                 reader.close();
                 reader.setMetadataStore(new ImageNameMetadataStore());
                 reader.setMetadataOptions(
                         new DynamicMetadataOptions(METADATA_LEVEL));
                 reader.setId(path);
                 format = reader.getFormat();
-                usedFiles = getOrderedFiles();
+                usedFiles = getOrderedFiles(reader);
                 String[] domains = reader.getReader().getDomains();
                 boolean isSPW = Arrays.asList(domains).contains(FormatTools.HCS_DOMAIN);
 
@@ -440,25 +831,25 @@ public class ImportCandidates extends DirectoryWalker
                 ic.setUserSpecifiedName(configImageName);
                 ic.setUserSpecifiedDescription(config.userSpecifiedDescription.get());
                 ic.setCustomAnnotationList(config.annotations.get());
-                return ic;
+                scan.container = ic;
             } finally
             {
-                readerTime += (System.currentTimeMillis() - start);
+                scan.time = System.currentTimeMillis() - start;
                 reader.close();
             }
 
         } catch (UnsupportedCompressionException uce)
         {
-            unknown++;
+            scan.unknown = true;
             // Handling as UNKNOWN_FORMAT for 4.3.0
-            safeUpdate(new ErrorHandler.UNKNOWN_FORMAT(path, uce, this));
+            scan.events.add(new ErrorHandler.UNKNOWN_FORMAT(path, uce, this));
         } catch (UnknownFormatException ufe)
         {
-            unknown++;
-            safeUpdate(new ErrorHandler.UNKNOWN_FORMAT(path, ufe, this));
+            scan.unknown = true;
+            scan.events.add(new ErrorHandler.UNKNOWN_FORMAT(path, ufe, this));
         } catch (MissingLibraryException mle)
         {
-            safeUpdate(new ErrorHandler.MISSING_LIBRARY(path, mle, usedFiles, format));
+            scan.events.add(new ErrorHandler.MISSING_LIBRARY(path, mle, usedFiles, format));
         } catch (Throwable t)
         {
             Exception e = null;
@@ -468,10 +859,10 @@ public class ImportCandidates extends DirectoryWalker
             else {
                 e = new Exception(t);
             }
-            safeUpdate(new ErrorHandler.FILE_EXCEPTION(path, e, usedFiles, format));
+            scan.events.add(new ErrorHandler.FILE_EXCEPTION(path, e, usedFiles, format));
         }
 
-        return null;
+        return scan;
 
     }
 
@@ -479,7 +870,7 @@ public class ImportCandidates extends DirectoryWalker
      * Retrieves Image names for each image that Bio-Formats has detected.
      * @return a list of Image names, in the order of <i>series</i>.
      */
-    private List<String> getImageNames() {
+    private List<String> getImageNames(OMEROWrapper reader) {
         List<String> toReturn = new ArrayList<String>();
         Map<Integer, String> imageNames = ((ImageNameMetadataStore)
                 reader.getMetadataStore()).getImageNames();
@@ -494,7 +885,7 @@ public class ImportCandidates extends DirectoryWalker
      * used files. All files which can be used to initialize a fileset are
      * returned first.
      */
-    private String[] getOrderedFiles() {
+    private String[] getOrderedFiles(OMEROWrapper reader) {
 
         FileInfo[] infos = reader.getAdvancedUsedFiles(false);
         String[] usedFiles = new String[infos.length];
@@ -578,6 +969,13 @@ public class ImportCandidates extends DirectoryWalker
             return;
         }
 
+        add(file, info);
+    }
+
+    /**
+     * Record the container parsed from the given file.
+     */
+    private void add(File file, ImportContainer info) {
         containers.add(info);
         allFiles.addAll(Arrays.asList(info.getUsedFiles()));
         for (String string : info.getUsedFiles()) {
@@ -596,7 +994,7 @@ public class ImportCandidates extends DirectoryWalker
      * These objects should never leave the outer class.
      *
      * It is important that the Groups keep their used files ordered.
-     * @see ImportCandidates#getOrderedFiles()
+     * @see ImportCandidates#getOrderedFiles(OMEROWrapper)
      */
     private static class Groups {
 
@@ -69,6 +69,11 @@ public class OMEROWrapper extends MinMaxCalculator {
     private Memoizer memoizer;
     public Boolean minMaxSet = null;
 
+    /**
+     * If min/max values are to be calculated regardless of the metadata store.
+     */
+    private boolean minMaxRequired = false;
+
     /**
      * Reference copy of <i>reader</i> so that we can be compatible with the
      * IFormatReader/ReaderWrapper interface but still maintain functionality
@@ -216,6 +221,17 @@ public class OMEROWrapper extends MinMaxCalculator {
         return iReader.getReader() instanceof LeicaReader;
     }
 
+    /**
+     * Sets if min/max values are to be calculated regardless of the metadata
+     * store. This is for readers opened without the import's metadata store,
+     * for which {@link #isMinMaxSet()} could not otherwise tell if the
+     * values are needed.
+     * @param minMaxRequired if min/max values are to be calculated
+     */
+    public void setMinMaxRequired(boolean minMaxRequired) {
+        this.minMaxRequired = minMaxRequired;
+    }
+
     /**
      * @return true if min-max is set
      * @throws FormatException
@@ -223,6 +239,9 @@ public class OMEROWrapper extends MinMaxCalculator {
      */
     @SuppressWarnings("unchecked")
     public boolean isMinMaxSet() throws FormatException, IOException {
+        if (minMaxRequired) {
+            return false;
+        }
         if (minMaxSet == null) {
             MetadataStore store = reader.getMetadataStore();
             int series = reader.getSeries();
@@ -23,6 +23,7 @@ import javax.imageio.ImageIO;
 
 import ome.api.IQuery;
 import ome.api.IUpdate;
+import ome.api.local.LocalAdmin;
 import ome.model.IObject;
 import ome.model.core.OriginalFile;
 import ome.parameters.Filter;
@@ -30,8 +31,11 @@ import ome.services.blitz.util.BlitzExecutor;
 import ome.services.blitz.util.BlitzOnly;
 import ome.services.blitz.util.ServiceFactoryAware;
 import ome.services.roi.GeomTool;
+import ome.services.roi.ShapeIndex;
+import ome.services.roi.ShapeProjection;
 import ome.services.throttling.Adapter;
 import ome.services.util.Executor.SimpleWork;
+import ome.system.EventContext;
 import ome.system.ServiceFactory;
 import ome.tools.hibernate.QueryBuilder;
 import ome.util.SqlAction;
@@ -39,6 +43,7 @@ import omero.ServerError;
 import omero.api.AMD_IRoi_findByImage;
 import omero.api.AMD_IRoi_findByPlane;
 import omero.api.AMD_IRoi_findByRoi;
+import omero.api.AMD_IRoi_findShapes;
 import omero.api.AMD_IRoi_getMeasuredRois;
 import omero.api.AMD_IRoi_getMeasuredRoisMap;
 import omero.api.AMD_IRoi_getPoints;
@@ -51,6 +56,7 @@ import omero.api.AMD_IRoi_getTable;
 import omero.api.AMD_IRoi_uploadMask;
 import omero.api.RoiOptions;
 import omero.api.RoiResult;
+import omero.api.ShapeOptions;
 import omero.api._IRoiOperations;
 import omero.constants.namespaces.NSMEASUREMENT;
 import omero.model.OriginalFileI;
@@ -80,10 +86,18 @@ public class RoiI extends AbstractAmdServant implements _IRoiOperations,
     
     protected final SqlAction sql;
 
+    protected final ShapeIndex shapeIndex;
+
     public RoiI(BlitzExecutor be, GeomTool geomTool, SqlAction sql) {
+        this(be, geomTool, sql, null);
+    }
+
+    public RoiI(BlitzExecutor be, GeomTool geomTool, SqlAction sql,
+            ShapeIndex shapeIndex) {
     	super(null, be);
         this.geomTool = geomTool;
 	this.sql = sql;
+        this.shapeIndex = shapeIndex;
     }
 
     public void setServiceFactory(ServiceFactoryI sf) {
@@ -177,6 +191,37 @@ public class RoiI extends AbstractAmdServant implements _IRoiOperations,
         }));
     }
 
+    public void findShapes_async(AMD_IRoi_findShapes __cb,
+            final long imageId, final ShapeOptions opts, Current __current)
+            throws ServerError {
+
+        final IceMapper mapper = new IceMapper(IceMapper.UNMAPPED);
+
+        runnableCall(__current, new Adapter(__cb, __current, mapper, factory
+                .getExecutor(), factory.principal, new SimpleWork(this,
+                "findShapes", imageId) {
+
+            @Transactional(readOnly = true)
+            public Object doWork(Session session, ServiceFactory sf) {
+                final ShapeProjection projection = new ShapeProjection(imageId, opts);
+                if (projection.getBox() != null && shapeIndex != null
+                        && shapeIndex.isEnabled()) {
+                    // shapes' visibility depends on the reader
+                    final EventContext ec = ((LocalAdmin) sf.getAdminService())
+                            .getEventContextQuiet();
+                    final String scope = ec.getCurrentUserId() + "/"
+                            + ec.getCurrentGroupId();
+                    projection.setCandidateIds(shapeIndex.find(session, scope,
+                            imageId,
+                            opts.theZ == null ? null : opts.theZ.getValue(),
+                            opts.theT == null ? null : opts.theT.getValue(),
+                            projection.getBox()));
+                }
+                return projection.page(session);
+            }
+        }));
+    }
+
     public void getPoints_async(AMD_IRoi_getPoints __cb, final long shapeId,
             Current __current) throws ServerError {
 
@@ -22,7 +22,6 @@ import ome.services.blitz.util.BlitzExecutor;
 import ome.services.blitz.util.BlitzOnly;
 import ome.services.blitz.util.ParamsCache;
 import ome.services.blitz.util.ServiceFactoryAware;
-import ome.services.scripts.RepoFile;
 import ome.services.scripts.ScriptRepoHelper;
 import ome.services.util.Executor;
 import ome.system.EventContext;
@@ -287,8 +286,7 @@ public class ScriptI extends AbstractAmdServant implements _IScriptOperations,
                         log.info("Overwriting existing non-script: " + fileID);
                         cache.removeParams(fileID);
                     }
-                    RepoFile f = scripts.write(path, scriptText);
-                    OriginalFile file = scripts.addOrReplace(f, fileID);
+                    OriginalFile file = scripts.writeAndAdd(path, scriptText, fileID);
                     if (!scripts.isInert(file)) {
                         validateParams(__current, file);
                     }
@@ -335,8 +333,7 @@ public class ScriptI extends AbstractAmdServant implements _IScriptOperations,
                 OriginalFile official = scripts.load(file.getId(), true);
                 if (official != null) {
                     String fullname = official.getPath() + official.getName();
-                    RepoFile f = scripts.write(fullname, scriptText);
-                    file = scripts.update(f, file.getId(), __current.ctx);
+                    file = scripts.writeAndUpdate(fullname, scriptText, file.getId(), __current.ctx);
                 } else {
                     file = writeContent(file, scriptText, __current);
                 }
@@ -4,6 +4,8 @@
  */
 package ome.services.blitz.measurements;
 
+import java.lang.reflect.Array;
+
 import omero.ServerError;
 import omero.ValidationException;
 import omero.grid.BoolColumn;
@@ -77,6 +79,47 @@ public abstract class Helper {
 
     abstract void setValue(Column col, int rowIdx, Object object);
 
+    /**
+     * @param col a column of this helper's type
+     * @return the primitive or String array of the column's values
+     */
+    abstract Object getValues(Column col);
+
+    /**
+     * @param col a column of this helper's type
+     * @param values a primitive or String array of the column's values
+     */
+    abstract void setValues(Column col, Object values);
+
+    /**
+     * Copy values into a column without boxing them.
+     *
+     * @param col a column of this helper's type, already sized
+     * @param rowIdx the row from which to set values in the column
+     * @param source an array of the same type as the column's values
+     * @param sourceIdx the index of the first value to copy from the source
+     * @param length how many values to copy
+     * @throws ArrayStoreException if the source is of the wrong type
+     */
+    void copyValues(Column col, int rowIdx, Object source, int sourceIdx,
+            int length) {
+        System.arraycopy(source, sourceIdx, getValues(col), rowIdx, length);
+    }
+
+    /**
+     * Shorten the column's values to the given length.
+     *
+     * @param col a column of this helper's type, already sized
+     * @param length the new length of the values
+     */
+    void truncate(Column col, int length) {
+        Object values = getValues(col);
+        Object truncated = Array.newInstance(values.getClass()
+                .getComponentType(), length);
+        System.arraycopy(values, 0, truncated, 0, length);
+        setValues(col, truncated);
+    }
+
     static class FileHelper extends Helper {
         @Override
         Column newInstance() {
@@ -92,6 +135,16 @@ public abstract class Helper {
         void setValue(Column col, int rowIdx, Object value) {
             ((FileColumn) col).values[rowIdx] = ((Long) value).longValue();
         }
+
+        @Override
+        Object getValues(Column col) {
+            return ((FileColumn) col).values;
+        }
+
+        @Override
+        void setValues(Column col, Object values) {
+            ((FileColumn) col).values = (long[]) values;
+        }
     }
     
     static class RoiHelper extends Helper {
@@ -109,6 +162,16 @@ public abstract class Helper {
         void setValue(Column col, int rowIdx, Object value) {
             ((RoiColumn) col).values[rowIdx] = ((Long) value).longValue();
         }
+
+        @Override
+        Object getValues(Column col) {
+            return ((RoiColumn) col).values;
+        }
+
+        @Override
+        void setValues(Column col, Object values) {
+            ((RoiColumn) col).values = (long[]) values;
+        }
     }
 
     static class ImageHelper extends Helper {
@@ -127,6 +190,16 @@ public abstract class Helper {
             ((ImageColumn) col).values[rowIdx] = ((Long) value).longValue();
         }
 
+        @Override
+        Object getValues(Column col) {
+            return ((ImageColumn) col).values;
+        }
+
+        @Override
+        void setValues(Column col, Object values) {
+            ((ImageColumn) col).values = (long[]) values;
+        }
+
     }
 
     static class WellHelper extends Helper {
@@ -144,6 +217,16 @@ public abstract class Helper {
         void setValue(Column col, int rowIdx, Object value) {
             ((WellColumn) col).values[rowIdx] = ((Long) value).longValue();
         }
+
+        @Override
+        Object getValues(Column col) {
+            return ((WellColumn) col).values;
+        }
+
+        @Override
+        void setValues(Column col, Object values) {
+            ((WellColumn) col).values = (long[]) values;
+        }
     }
 
     static class BoolHelper extends Helper {
@@ -162,6 +245,16 @@ public abstract class Helper {
             ((BoolColumn) col).values[rowIdx] = ((Boolean) value)
                     .booleanValue();
         }
+
+        @Override
+        Object getValues(Column col) {
+            return ((BoolColumn) col).values;
+        }
+
+        @Override
+        void setValues(Column col, Object values) {
+            ((BoolColumn) col).values = (boolean[]) values;
+        }
     }
 
     static class DoubleHelper extends Helper {
@@ -180,6 +273,16 @@ public abstract class Helper {
             ((DoubleColumn) col).values[rowIdx] = ((Double) value)
                     .doubleValue();
         }
+
+        @Override
+        Object getValues(Column col) {
+            return ((DoubleColumn) col).values;
+        }
+
+        @Override
+        void setValues(Column col, Object values) {
+            ((DoubleColumn) col).values = (double[]) values;
+        }
     }
 
     static class LongHelper extends Helper {
@@ -197,6 +300,16 @@ public abstract class Helper {
         void setValue(Column col, int rowIdx, Object value) {
             ((LongColumn) col).values[rowIdx] = ((Long) value).longValue();
         }
+
+        @Override
+        Object getValues(Column col) {
+            return ((LongColumn) col).values;
+        }
+
+        @Override
+        void setValues(Column col, Object values) {
+            ((LongColumn) col).values = (long[]) values;
+        }
     }
 
     static class StringHelper extends Helper {
@@ -214,5 +327,15 @@ public abstract class Helper {
         void setValue(Column col, int rowIdx, Object value) {
             ((StringColumn) col).values[rowIdx] = (String) value;
         }
+
+        @Override
+        Object getValues(Column col) {
+            return ((StringColumn) col).values;
+        }
+
+        @Override
+        void setValues(Column col, Object values) {
+            ((StringColumn) col).values = (String[]) values;
+        }
     }
 }
\ No newline at end of file
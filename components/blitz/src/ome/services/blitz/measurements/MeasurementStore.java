@@ -9,6 +9,8 @@ package ome.services.blitz.measurements;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -28,6 +30,11 @@ import org.slf4j.LoggerFactory;
 /**
  * Parser API implementation for storing result measurements from SPW companion
  * files as ROIs and OMERO.tables.
+ *
+ * Rows are sent to the table in row groups of a fixed size and ROIs are saved
+ * in batches, so that memory use does not grow with the number of rows. Rows
+ * may be given as columns of primitive values via
+ * {@link #addColumns(Object[], int)} to avoid boxing each value.
  * 
  * @since Beta4.1
  */
@@ -37,16 +44,35 @@ public class MeasurementStore implements OmeroMeasurementStore {
 
     private final static Logger log = LoggerFactory.getLogger(MeasurementStore.class);
 
+    /**
+     * The default number of rows sent to the table in each call to
+     * {@link TablePrx#addData(omero.grid.Column[])}.
+     */
+    public final static int DEFAULT_ROW_GROUP_SIZE = 10000;
+
+    /**
+     * The number of objects saved in each call to
+     * {@link LocalUpdate#saveAndReturnIds(IObject[])}.
+     */
+    public final static int DEFAULT_SAVE_BATCH_SIZE = 1000;
+
     // Final
 
     private final Map<String, IObject> lsidMap = new HashMap<String, IObject>();
 
+    /** Objects from {@link #lsidMap} which are yet to be saved. */
+    private final Map<String, IObject> unsaved = new LinkedHashMap<String, IObject>();
+
     private final List<Long> roiIds = new ArrayList<Long>();
 
     private final LocalUpdate update;
 
     private final TablePrx table;
 
+    private final int rowGroupSize;
+
+    private final int saveBatchSize;
+
     // Mutable
 
     private Map<String, Object> metadata;
@@ -65,8 +91,25 @@ public class MeasurementStore implements OmeroMeasurementStore {
 
     public MeasurementStore(LocalUpdate update, TablePrx table)
             throws ServerError {
+        this(update, table, DEFAULT_ROW_GROUP_SIZE, DEFAULT_SAVE_BATCH_SIZE);
+    }
+
+    /**
+     * @param update the update service with which to save the ROIs
+     * @param table the table to which to add the rows
+     * @param rowGroupSize the number of rows to send to the table at once
+     * @param saveBatchSize the number of ROIs to save at once
+     */
+    public MeasurementStore(LocalUpdate update, TablePrx table,
+            int rowGroupSize, int saveBatchSize) throws ServerError {
+        if (rowGroupSize < 1 || saveBatchSize < 1) {
+            throw new ApiUsageException(null, null,
+                    "Batch sizes must be positive");
+        }
         this.table = table;
         this.update = update;
+        this.rowGroupSize = rowGroupSize;
+        this.saveBatchSize = saveBatchSize;
     }
 
     // LOCI API
@@ -85,7 +128,7 @@ public class MeasurementStore implements OmeroMeasurementStore {
         this.idTypes = idTypes;
         this.types = types;
 
-        cols = new SmartColumns(lsidMap, headers, idTypes, types);
+        cols = new SmartColumns(lsidMap, headers, idTypes, types, rowGroupSize);
         table.initialize(cols.asArray());
         Map<String, RType> dict = new HashMap<String, RType>();
         if (metadata != null) {
@@ -102,8 +145,10 @@ public class MeasurementStore implements OmeroMeasurementStore {
         if (lsid != null) {
             if (obj == null) {
                 lsidMap.remove(lsid);
+                unsaved.remove(lsid);
             } else {
                 lsidMap.put(lsid, obj);
+                unsaved.put(lsid, obj);
             }
         }
     }
@@ -111,11 +156,12 @@ public class MeasurementStore implements OmeroMeasurementStore {
     public void addObjects(Map<String, IObject> map) {
         if (map != null) {
             lsidMap.putAll(map);
+            unsaved.putAll(map);
         }
     }
 
     public void addRows(Object[][] rows) throws ServerError {
-        if (rows != null) {
+        if (this.rows != null) {
             throw new ApiUsageException(null, null,
                     "Call save before adding more data");
         }
@@ -146,6 +192,81 @@ public class MeasurementStore implements OmeroMeasurementStore {
         }
         roi.setImage(image);
         lsidMap.put(lsid, roi);
+        unsaved.put(lsid, roi);
+        if (unsaved.size() >= saveBatchSize) {
+            saveObjects();
+        }
+    }
+
+    /**
+     * Adds rows to the store given as an array for each column, in the order
+     * of the headers passed to {@link #initialize}. LSID columns may be given
+     * as String[] or, if the ids are already known, as long[]; value columns
+     * must be long[], double[], boolean[] or String[] matching the column
+     * types. Any unsaved ROIs are saved first so that their ids may be looked
+     * up, then the rows are copied without boxing into row groups which are
+     * sent to the table as each fills. {@link #save()} must be called to send
+     * the final, partial row group.
+     *
+     * Unlike {@link #addRows(Object[][])}, the arrays are not retained so may
+     * be reused by the caller for the next call.
+     *
+     * @param columns an array of values for each column
+     * @param rowCount the number of rows to add from the start of the arrays
+     * @throws ServerError if the rows could not be added or sent
+     */
+    public void addColumns(Object[] columns, int rowCount) throws ServerError {
+        if (!initialized) {
+            throw new ApiUsageException(null, null, "Not initialized");
+        }
+        if (columns == null || rowCount < 0) {
+            throw new ApiUsageException(null, null, "No columns");
+        }
+        saveObjects();
+        int offset = 0;
+        while (offset < rowCount) {
+            int length = Math.min(cols.remaining(), rowCount - offset);
+            cols.append(columns, offset, length);
+            offset += length;
+            if (cols.remaining() == 0) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Save the objects added since the last call, in batches, and replace them
+     * in the LSID map by their unloaded form so that they may be collected.
+     */
+    private void saveObjects() throws ServerError {
+        while (!unsaved.isEmpty()) {
+            int size = Math.min(saveBatchSize, unsaved.size());
+            List<IObject> batch = new ArrayList<IObject>(size);
+            for (Iterator<IObject> it = unsaved.values().iterator();
+                    batch.size() < size; ) {
+                batch.add(it.next());
+                it.remove();
+            }
+            IObject[] objs = batch.toArray(new IObject[size]);
+            List<Long> ids = update.saveAndReturnIds(objs);
+            for (int i = 0; i < ids.size(); i++) {
+                batch.get(i).setId(ids.get(i));
+                batch.get(i).unload();
+                roiIds.add(ids.get(i));
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Saved " + ids.size() + " objects");
+            }
+        }
+    }
+
+    /**
+     * Send the buffered row group to the table.
+     */
+    private void flush() throws ServerError {
+        if (cols.buffered() > 0) {
+            table.addData(cols.drain());
+        }
     }
 
     /*
@@ -161,26 +282,22 @@ public class MeasurementStore implements OmeroMeasurementStore {
 
         //
         // First save the rois, so that if it fails, no changes will be
-        // made to the table
+        // made to the table by the rows added since the last save
         //
-        List<IObject> unsaved = new ArrayList<IObject>();
-        for (Map.Entry<String, IObject> entry : lsidMap.entrySet()) {
-            unsaved.add(entry.getValue());
-        }
-        if (unsaved.size() > 0) {
-            IObject[] objs = unsaved.toArray(new IObject[unsaved.size()]);
-            List<Long> ids = update.saveAndReturnIds(objs);
-            for (int i = 0; i < ids.size(); i++) {
-                unsaved.get(i).setId(ids.get(i));
-                unsaved.get(i).unload();
-                roiIds.add(ids.get(i));
-            }
-        }
+        saveObjects();
 
         // Now fill the columns with data, and send to the table instance
-        cols.fill(rows);
-        table.addData(cols.asArray());
-        rows = null;
+        // one row group at a time
+        if (rows != null) {
+            for (Object[] row : rows) {
+                cols.append(row);
+                if (cols.remaining() == 0) {
+                    flush();
+                }
+            }
+            rows = null;
+        }
+        flush();
 
     }
 
@@ -42,6 +42,19 @@ public interface OmeroMeasurementStore {
     public abstract void addCircle(String roiLsid, double x, double y, double r)
             throws Exception;
 
+    /**
+     * Adds rows to the store given as an array of primitive values, or of
+     * Strings, for each column. Rows are sent to the table in fixed-size row
+     * groups as they are added, so the arrays may be reused by the caller
+     * between calls; {@link #save()} sends any remaining rows.
+     *
+     * @param columns an array of values for each column
+     * @param rowCount the number of rows in the arrays
+     * @throws Exception
+     */
+    public abstract void addColumns(Object[] columns, int rowCount)
+            throws Exception;
+
     public abstract void save() throws Exception;
 
     // OMERO-specific API
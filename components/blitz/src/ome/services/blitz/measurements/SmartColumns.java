@@ -15,7 +15,9 @@ import omero.grid.Column;
 
 /**
  * Wrapper around an array of columns for facilitating instantiation and
- * mutation.
+ * mutation. Rows are buffered in the columns up to a fixed row group size,
+ * after which the columns must be {@link #drain() drained} to the table and
+ * are then reused for the next row group.
  * 
  * @since Beta4.1
  */
@@ -26,8 +28,18 @@ class SmartColumns {
     Column[] cols;
     Helper[] helpers;
 
+    /** The number of rows held in each column before they must be drained. */
+    final int rowGroupSize;
+
+    /** If the columns are currently sized to hold a full row group. */
+    boolean allocated = false;
+
+    /** The number of rows appended since the columns were last drained. */
+    int buffered = 0;
+
     SmartColumns(Map<String, IObject> lsidMap, String[] headers,
-            String[] idTypes, Class[] types) throws ServerError {
+            String[] idTypes, Class[] types, int rowGroupSize)
+            throws ServerError {
 
         if (types == null || headers == null) {
             throw new omero.ApiUsageException(null, null,
@@ -40,8 +52,14 @@ class SmartColumns {
                     headers.length));
         }
 
+        if (rowGroupSize < 1) {
+            throw new omero.ApiUsageException(null, null,
+                    "Row group size must be positive");
+        }
+
         this.lsidMap = lsidMap;
         this.idTypes = idTypes;
+        this.rowGroupSize = rowGroupSize;
         cols = new Column[headers.length];
         helpers = new Helper[headers.length];
 
@@ -65,43 +83,131 @@ class SmartColumns {
 
     }
 
-    public void fill(Object[][] data) {
-
-        //
-        // Now that we have ids for all of the objects, we can parse the
-        // data[][] into columns and pass to the table instance.
-        //
-
-        // Initialize the columns
+    /**
+     * Size the columns to hold a full row group, if not already sized.
+     */
+    private void allocate() {
+        if (allocated) {
+            return;
+        }
         for (int colIdx = 0; colIdx < cols.length; colIdx++) {
             Helper helper = helpers[colIdx];
             Column col = cols[colIdx];
-            helper.setSize(col, data.length);
+            helper.setSize(col, rowGroupSize);
+        }
+        allocated = true;
+    }
+
+    /**
+     * Look up the id of the saved object with the given LSID.
+     */
+    private long getId(String lsid) throws ServerError {
+        IObject obj = lsidMap.get(lsid);
+        if (obj == null || obj.getId() == null) {
+            throw new ValidationException(null, null, "No saved object for lsid: "
+                    + lsid);
+        }
+        return obj.getId();
+    }
+
+    /**
+     * @return the number of rows which fit in the columns before
+     * {@link #drain()} must be called
+     */
+    public int remaining() {
+        return rowGroupSize - buffered;
+    }
+
+    /**
+     * @return the number of rows held in the columns
+     */
+    public int buffered() {
+        return buffered;
+    }
+
+    /**
+     * Append a single row to the columns. The objects referred to by the
+     * LSIDs of the row must already be saved.
+     *
+     * @param row the row's values, beginning with the LSIDs
+     */
+    public void append(Object[] row) throws ServerError {
+        allocate();
+        // LSIDS
+        for (int colIdx = 0; colIdx < idTypes.length; colIdx++) {
+            helpers[colIdx].setValue(cols[colIdx], buffered,
+                    getId((String) row[colIdx]));
+        }
+        // VALUES
+        for (int colIdx = idTypes.length; colIdx < cols.length; colIdx++) {
+            helpers[colIdx].setValue(cols[colIdx], buffered, row[colIdx]);
         }
+        buffered++;
+    }
 
-        for (int rowIdx = 0; rowIdx < data.length; rowIdx++) {
-            Object[] row = data[rowIdx];
-            // LSIDS
-            for (int colIdx = 0; colIdx < idTypes.length; colIdx++) {
-                Column col = cols[colIdx];
-                Helper helper = helpers[colIdx];
-                String lsid = (String) data[rowIdx][colIdx];
-                IObject obj = lsidMap.get(lsid);
-                Object value = null;
-                if (obj != null) {
-                    value = obj.getId();
+    /**
+     * Append rows to the columns from arrays of column values, without boxing
+     * the values. The LSID columns may be given as String[] of LSIDs of saved
+     * objects or as long[] of ids; the value columns must be given as arrays of
+     * the same type as the table's columns.
+     *
+     * @param columns an array for each column
+     * @param offset the index of the first row to append from the arrays
+     * @param length how many rows to append, no more than {@link #remaining()}
+     */
+    public void append(Object[] columns, int offset, int length)
+            throws ServerError {
+        if (columns.length != cols.length) {
+            throw new omero.ApiUsageException(null, null, String.format(
+                    "columns.length (%s) != headers.length (%s)",
+                    columns.length, cols.length));
+        }
+        allocate();
+        for (int colIdx = 0; colIdx < cols.length; colIdx++) {
+            Column col = cols[colIdx];
+            Helper helper = helpers[colIdx];
+            Object source = columns[colIdx];
+            if (colIdx < idTypes.length && source instanceof String[]) {
+                String[] lsids = (String[]) source;
+                for (int rowIdx = 0; rowIdx < length; rowIdx++) {
+                    helper.setValue(col, buffered + rowIdx,
+                            getId(lsids[offset + rowIdx]));
+                }
+            } else {
+                try {
+                    helper.copyValues(col, buffered, source, offset, length);
+                } catch (ArrayStoreException ase) {
+                    throw new ValidationException(null, null, String.format(
+                            "Wrong array type for column %s: %s", col.name,
+                            source == null ? null : source.getClass()
+                                    .getSimpleName()));
+                } catch (NullPointerException npe) {
+                    throw new omero.ApiUsageException(null, null,
+                            "No values for column " + col.name);
                 }
-                helper.setValue(col, rowIdx, value);
             }
+        }
+        buffered += length;
+    }
 
-            // VALUES
-            for (int colIdx = idTypes.length; colIdx < cols.length; colIdx++) {
-                Column col = cols[colIdx];
-                Helper helper = helpers[colIdx];
-                helper.setValue(col, rowIdx, data[rowIdx][colIdx]);
+    /**
+     * Return the buffered rows as columns to be passed to the table, and empty
+     * the buffer. The returned columns are reused by the next row group so must
+     * not be held after they are sent.
+     *
+     * @return the buffered rows as columns
+     */
+    public Column[] drain() {
+        allocate();
+        if (buffered < rowGroupSize) {
+            // A short final group: trim and reallocate on next append
+            for (int colIdx = 0; colIdx < cols.length; colIdx++) {
+                helpers[colIdx].truncate(cols[colIdx], buffered);
             }
+            allocated = false;
         }
-
+        buffered = 0;
+        return cols;
     }
 
     public Column[] asArray() {
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.blitz.repo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ome.util.checksum.ChecksumProviderFactory;
+import ome.util.checksum.ChecksumType;
+import ome.util.checksum.CompositeChecksumProvider;
+
+/**
+ * Computes the checksums of many repository files concurrently. Each file is
+ * read only once, in large blocks, with the blocks passed to the providers of
+ * both its existing and any new checksum algorithm. The number of files being
+ * read at once is bounded by the size of a thread pool that is shared by all
+ * callers, so that bulk verification cannot saturate the repository's disks.
+ * @since 5.5.0
+ */
+public class ChecksumVerifier {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChecksumVerifier.class);
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * A file whose checksums are to be computed, and the results of doing so.
+     */
+    public static class FileChecksum {
+
+        private final long id;
+        private final File file;
+        private final ChecksumType expectedType;
+        private final String expected;
+        private final ChecksumType newType;
+
+        private String actual;
+        private String newChecksum;
+        private long bytesRead;
+        private IOException failure;
+
+        /**
+         * Describe a file whose checksums are to be computed.
+         * @param id the ID of the original file
+         * @param file the file on the server's file-system
+         * @param expectedType the algorithm of the file's existing checksum, may be {@code null}
+         * @param expected the file's existing checksum, may be {@code null}
+         * @param newType the algorithm of a new checksum to compute, may be {@code null}
+         */
+        public FileChecksum(long id, File file, ChecksumType expectedType, String expected, ChecksumType newType) {
+            this.id = id;
+            this.file = file;
+            this.expectedType = expected == null ? null : expectedType;
+            this.expected = expectedType == null ? null : expected;
+            this.newType = newType;
+        }
+
+        /**
+         * @return the ID of the original file
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * @return if the file has an existing checksum that does not match its content
+         */
+        public boolean isMismatch() {
+            return expected != null && actual != null && !expected.equalsIgnoreCase(actual);
+        }
+
+        /**
+         * @return the new checksum of the file, or {@code null} if none was requested or the file could not be read
+         */
+        public String getNewChecksum() {
+            return newChecksum;
+        }
+
+        /**
+         * @return the number of bytes read from the file
+         */
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        /**
+         * @return why the file could not be read, or {@code null} if it was read
+         */
+        public IOException getFailure() {
+            return failure;
+        }
+    }
+
+    private final ChecksumProviderFactory checksumProviderFactory;
+
+    private final ExecutorService readers;
+
+    private final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    /**
+     * Construct a new checksum verifier.
+     * @param checksumProviderFactory the source of checksum providers
+     * @param threads the maximum number of files to read at once
+     */
+    public ChecksumVerifier(ChecksumProviderFactory checksumProviderFactory, int threads) {
+        this.checksumProviderFactory = checksumProviderFactory;
+        this.readers = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "ChecksumVerifier-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Compute the checksums of the given files, returning once all are done.
+     * @param files the files whose checksums are to be computed
+     * @throws InterruptedException if interrupted while waiting for the checksums
+     */
+    public void compute(Collection<FileChecksum> files) throws InterruptedException {
+        final List<Future<?>> futures = new ArrayList<Future<?>>(files.size());
+        for (final FileChecksum file : files) {
+            futures.add(readers.submit(new Runnable() {
+                @Override
+                public void run() {
+                    compute(file);
+                }
+            }));
+        }
+        try {
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException ee) {
+            throw new RuntimeException(ee.getCause());
+        } finally {
+            for (final Future<?> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private void compute(FileChecksum file) {
+        final List<ChecksumType> types = new ArrayList<ChecksumType>(2);
+        if (file.expectedType != null) {
+            types.add(file.expectedType);
+        }
+        if (file.newType != null) {
+            types.add(file.newType);
+        }
+        if (types.isEmpty()) {
+            return;
+        }
+        /* a single pass over the file computes both checksums */
+        final CompositeChecksumProvider provider = new CompositeChecksumProvider(checksumProviderFactory, types);
+        final byte[] buffer = buffers.get();
+        try (final InputStream in = new FileInputStream(file.file)) {
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                provider.putBytes(buffer, 0, count);
+                file.bytesRead += count;
+                bytesRead.addAndGet(count);
+            }
+        } catch (IOException ioe) {
+            LOGGER.warn("failed to read {} for checksum of original file #{}", file.file, file.id, ioe);
+            file.failure = ioe;
+            return;
+        }
+        if (file.expectedType != null) {
+            file.actual = provider.checksumAsString(file.expectedType);
+        }
+        if (file.newType != null) {
+            file.newChecksum = provider.checksumAsString(file.newType);
+        }
+    }
+
+    /**
+     * @return the total number of bytes read so far
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * Stop the threads that read the files.
+     */
+    public void close() {
+        readers.shutdownNow();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.blitz.repo;
+
+import java.util.List;
+
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+import omero.grid.ImportStage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Aggregates the profiles of completed imports into server metrics. For
+ * each stage a histogram of its duration in milliseconds is kept along with
+ * counters of the time, objects and bytes over all imports, exported via
+ * {@link Metrics} under {@code ome.services.blitz.repo.ImportMetrics.<stage>}.
+ *
+ * @since 5.5.0
+ */
+public class ImportMetrics {
+
+    private final static Logger log = LoggerFactory.getLogger(ImportMetrics.class);
+
+    private final Metrics metrics;
+
+    public ImportMetrics() {
+        this(new NullMetrics());
+    }
+
+    public ImportMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Record the profile of a completed import.
+     * @param fileset a description of the imported fileset, for logging
+     * @param profile the stages of the import
+     */
+    public void record(String fileset, List<ImportStage> profile) {
+        if (profile == null || profile.isEmpty()) {
+            return;
+        }
+        metrics.counter(this, "imports").inc();
+        final StringBuilder summary = new StringBuilder();
+        for (final ImportStage stage : profile) {
+            metrics.histogram(this, stage.name + ".millis").update((int) Math.min(Integer.MAX_VALUE, stage.millis));
+            metrics.counter(this, stage.name + ".totalMillis").inc(stage.millis);
+            metrics.counter(this, stage.name + ".count").inc(stage.count);
+            metrics.counter(this, stage.name + ".bytes").inc(stage.bytes);
+            if (summary.length() > 0) {
+                summary.append(", ");
+            }
+            summary.append(stage.name).append('=').append(stage.millis).append("ms");
+            if (stage.count > 0) {
+                summary.append('/').append(stage.count);
+            }
+            if (stage.bytes > 0) {
+                summary.append('/').append(stage.bytes).append('B');
+            }
+        }
+        log.info("Import profile of {}: {}", fileset, summary);
+    }
+}
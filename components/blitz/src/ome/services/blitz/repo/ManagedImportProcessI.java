@@ -23,6 +23,7 @@ import java.util.HashMap;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.perf4j.StopWatch;
 import org.perf4j.slf4j.Slf4JStopWatch;
@@ -159,6 +160,16 @@ public class ManagedImportProcessI extends AbstractCloseableAmdServant
      */
     private String rootToken;
 
+    /**
+     * When this process was created, taken as the start of the upload.
+     */
+    private final long created = System.currentTimeMillis();
+
+    /**
+     * The number of bytes written by the uploaders.
+     */
+    private final AtomicLong uploadedBytes = new AtomicLong();
+
     /**
      * Create and register a servant for servicing the import process
      * within a managed repository.
@@ -305,6 +316,7 @@ public class ManagedImportProcessI extends AbstractCloseableAmdServant
             @Override
             public void onWrite(byte[] buf, long position, long length) {
                 proc.setOffset(idx, position+length);
+                uploadedBytes.addAndGet(length);
             }
 
             /**
@@ -386,9 +398,13 @@ public class ManagedImportProcessI extends AbstractCloseableAmdServant
             req.location = location;
             req.settings = settings;
             req.logFile = logFile;
-            if (req instanceof ManagedImportRequestI && current.ctx != null) {
-                /* propagate this process' call context to the new import request */
-                ((ManagedImportRequestI) req).setCallContext(current.ctx);
+            if (req instanceof ManagedImportRequestI) {
+                final ManagedImportRequestI managedReq = (ManagedImportRequestI) req;
+                if (current.ctx != null) {
+                    /* propagate this process' call context to the new import request */
+                    managedReq.setCallContext(current.ctx);
+                }
+                managedReq.addImportStage("upload", created, size, uploadedBytes.get());
             }
             final AMD_submit submit = repo.submitRequest(sf, req, this.current, Executor.Priority.BACKGROUND);
             this.handle = submit.ret;
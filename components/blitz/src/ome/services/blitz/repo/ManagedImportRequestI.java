@@ -20,10 +20,11 @@ package ome.services.blitz.repo;
 import java.io.File;
 import java.io.IOException;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import loci.formats.FormatException;
 import loci.formats.FormatReader;
@@ -32,6 +33,7 @@ import loci.formats.MissingLibraryException;
 import loci.formats.UnknownFormatException;
 import loci.formats.UnsupportedCompressionException;
 import loci.formats.in.MIASReader;
+import loci.formats.meta.IMinMaxStore;
 import ome.formats.OMEROMetadataStoreClient;
 import ome.formats.OverlayMetadataStore;
 import ome.formats.importer.ImportConfig;
@@ -55,6 +57,7 @@ import omero.constants.namespaces.NSAUTOCLOSE;
 import omero.constants.namespaces.NSTARGETTEMPLATE;
 import omero.grid.ImportRequest;
 import omero.grid.ImportResponse;
+import omero.grid.ImportStage;
 import omero.model.Annotation;
 import omero.model.FilesetJobLink;
 import omero.model.IObject;
@@ -102,8 +105,6 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
      */
     private Helper helper;
 
-    private byte[] arrayBuf = new byte[omero.constants.DEFAULTBLOCKSIZE.value];  // not yet server-configurable
-
     private final Registry reg;
 
     private final TileSizes sizes;
@@ -168,6 +169,24 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
 
     private final String token;
 
+    private ImportMetrics importMetrics = null;
+
+    /**
+     * The stages of this import in the order in which they ran.
+     */
+    private final List<ImportStage> profile = new ArrayList<ImportStage>();
+
+    /**
+     * Reads the planes while calculating min/max values.
+     */
+    private final PixelDataParser parser;
+
+    private ExecutorService seriesExecutor = null;
+
+    private int seriesThreads = 1;
+
+    private Callable<OMEROWrapper> seriesReaders = null;
+
 
     /**
      * Set by ManagedImportProcessI when verifyUpload has been called.
@@ -179,6 +198,7 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
             RepositoryDao dao, OMEROWrapper wrapper, String token) {
         this.reg = reg;
         this.sizes = sizes;
+        this.parser = new PixelDataParser(sizes);
         this.dao = dao;
         this.reader = wrapper;
         this.token = token;
@@ -191,6 +211,40 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
         this.resources = resources;
     }
 
+    /**
+     * Late injection of the aggregator of import profiles.
+     */
+    public void setImportMetrics(ImportMetrics importMetrics) {
+        this.importMetrics = importMetrics;
+    }
+
+    /**
+     * Late injection of the means to read several series at once when
+     * calculating min/max values.
+     * @param executor the pool on which to read series
+     * @param threads the most series of this import to read at once
+     * @param readers creates the additional readers, each of which reads
+     * one series at a time
+     */
+    public void setSeriesReaders(ExecutorService executor, int threads,
+            Callable<OMEROWrapper> readers) {
+        this.seriesExecutor = executor;
+        this.seriesThreads = threads;
+        this.seriesReaders = readers;
+    }
+
+    /**
+     * Add a stage to the profile of this import, which is returned in the
+     * {@link ImportResponse}.
+     * @param name the name of the stage
+     * @param start when the stage started, in milliseconds since the epoch
+     * @param count the number of objects processed in the stage
+     * @param bytes the number of bytes processed in the stage
+     */
+    public void addImportStage(String name, long start, long count, long bytes) {
+        profile.add(new ImportStage(name, System.currentTimeMillis() - start, count, bytes));
+    }
+
     /**
      * @param callContext the call context to set
      */
@@ -241,6 +295,7 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
             format = null;
             usedFiles = new String[] {fileName};
 
+            final long scanStart = System.currentTimeMillis();
             open(reader, store, file);
             format = reader.getFormat();
             if (reader.getUsedFiles() != null)
@@ -251,6 +306,11 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
                 throw new NullPointerException(
                         "usedFiles must be non-null");
             }
+            long usedBytes = 0;
+            for (final String usedFile : usedFiles) {
+                usedBytes += new File(usedFile).length();
+            }
+            addImportStage("scan", scanStart, usedFiles.length, usedBytes);
 
             // Process all information which has been passed in as annotations
             detectKnownAnnotations();
@@ -593,6 +653,10 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
             rsp.objects = new ArrayList<IObject>();
             addObjects(rsp.objects, rv, Plate.class.getSimpleName());
             addObjects(rsp.objects, rv, Image.class.getSimpleName());
+            rsp.profile = new ArrayList<ImportStage>(profile);
+            if (importMetrics != null) {
+                importMetrics.record(fileName, rsp.profile);
+            }
             helper.setResponseIfNull(rsp);
         }
     }
@@ -633,6 +697,7 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
                 shortName, 0, 0, 0));
 
         // 1st we post-process the metadata that we've been given.
+        final long metadataStart = System.currentTimeMillis();
         notifyObservers(new ImportEvent.BEGIN_POST_PROCESS(
                 0, null, null, null, 0, null));
         store.setUserSpecifiedName(userSpecifiedName);
@@ -646,6 +711,8 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
         store.postProcess();
         notifyObservers(new ImportEvent.END_POST_PROCESS(
                 0, null, userSpecifiedTarget, null, 0, null));
+        addImportStage("metadata", metadataStart, 0, 0);
+        final long saveStart = System.currentTimeMillis();
 
         notifyObservers(new ImportEvent.BEGIN_SAVE_TO_DB(
                 0, null, userSpecifiedTarget, null, 0, null));
@@ -655,6 +722,11 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
         plateList = (List) objects.get(Plate.class.getSimpleName());
         notifyObservers(new ImportEvent.END_SAVE_TO_DB(
                 0, null, userSpecifiedTarget, null, 0, null));
+        long saved = 0;
+        for (final List<IObject> saveds : objects.values()) {
+            saved += saveds.size();
+        }
+        addImportStage("save", saveStart, saved, 0);
 
         sw.stop("omero.import.request.metadata");
         return objects;
@@ -667,19 +739,32 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
         if (!reader.isMinMaxSet() && !noStatsInfo)
         {
             // Parse the binary data to generate min/max values
+            final long minMaxStart = System.currentTimeMillis();
             int seriesCount = reader.getSeriesCount();
+            final MessageDigest[] mds;
+            if (seriesExecutor != null && seriesThreads > 1 && seriesCount > 1) {
+                mds = parseDataBySeries();
+            } else {
+                mds = new MessageDigest[seriesCount];
+                for (int series = 0; series < seriesCount; series++) {
+                    ImportSize size = new ImportSize(fileName,
+                            pixList.get(series), reader.getDimensionOrder());
+                    mds[series] = parseData(fileName, series, size);
+                }
+            }
             for (int series = 0; series < seriesCount; series++) {
-                ImportSize size = new ImportSize(fileName,
-                        pixList.get(series), reader.getDimensionOrder());
                 Pixels pixels = pixList.get(series);
-                MessageDigest md = parseData(fileName, series, size);
+                MessageDigest md = mds[series];
                 if (md != null) {
                    final String s = Hex.encodeHexString(md.digest());
                    pixels.setSha1(store.toRType(s));
                 }
             }
+            addImportStage("minmax", minMaxStart, parser.getPlanesRead(), parser.getBytesRead());
         }
 
+        final long pixelsStart = System.currentTimeMillis();
+
         // As we're in metadata-only mode on we need to
         // tell the server which Image matches which series.
         int series = 0;
@@ -701,7 +786,7 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
         {
             store.populateMinMax();
         }
-
+        addImportStage("pixels", pixelsStart, pixList.size(), 0);
 
         sw.stop("omero.import.request.pixels");
         return null;
@@ -722,13 +807,18 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
 
         notifyObservers(new ImportEvent.IMPORT_OVERLAYS(
                 0, null, userSpecifiedTarget, null, 0, null));
+        final long overlaysStart = System.currentTimeMillis();
         importOverlays(pixList, plateIds);
+        addImportStage("overlays", overlaysStart, 0, 0);
 
         notifyObservers(new ImportEvent.IMPORT_PROCESSING(
                 0, null, userSpecifiedTarget, null, 0, null));
         if (doThumbnails)
         {
-            store.resetDefaultsAndGenerateThumbnails(plateIds, pixelIds());
+            final long thumbnailsStart = System.currentTimeMillis();
+            final List<Long> pixelIds = pixelIds();
+            store.resetDefaultsAndGenerateThumbnails(plateIds, pixelIds);
+            addImportStage("thumbnails", thumbnailsStart, pixelIds.size(), 0);
         }
         else
         {
@@ -779,106 +869,45 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
             ImportSize size)
         throws FormatException, IOException, ServerError
     {
-        reader.setSeries(series);
-        int maxPlaneSize = sizes.getMaxPlaneWidth() * sizes.getMaxPlaneHeight();
-        if (((long) reader.getSizeX()
-             * (long) reader.getSizeY()) > maxPlaneSize) {
-            return null;
-        }
-
-        int bytesPerPixel = getBytesPerPixel(reader.getPixelType());
-        MessageDigest md;
-        try {
-            md = MessageDigest.getInstance("SHA-1");
-        }
-        catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(
-                "Required SHA-1 message digest algorithm unavailable.");
-        }
-        int planeNo = 1;
-        for (int t = 0; t < size.sizeT; t++) {
-            for (int c = 0; c < size.sizeC; c++) {
-                for (int z = 0; z < size.sizeZ; z++) {
-                    parseDataByPlane(size, z, c, t,
-                            bytesPerPixel, fileName, md);
-                    notifyObservers(new ImportEvent.IMPORT_STEP(
-                            planeNo, series, reader.getSeriesCount()));
-                    planeNo++;
-                }
-            }
-        }
-        return md;
+        return parser.parseData(reader, series, size);
     }
 
-
     /**
-     * Read a plane and update the pixels checksum
+     * Parse the binary data of every series to generate min/max values and
+     * allow an md to be calculated, reading several series at once. Each
+     * series is read by one of a number of additional readers which are
+     * opened from the memoizer cache written when {@link #reader} was
+     * opened, so do not parse the metadata again. The min/max values are
+     * reported to the {@link #store} as for {@link #reader}.
      *
-     * @param size Sizes of the Pixels set.
-     * @param z The Z-section offset to write to.
-     * @param c The channel offset to write to.
-     * @param t The timepoint offset to write to.
-     * @param bytesPerPixel Number of bytes per pixel.
-     * @param fileName Name of the file.
-     * @param md Current Pixels set message digest.
-     * @throws FormatException If there is an error reading Pixel data via
-     * Bio-Formats.
-     * @throws IOException If there is an I/O error reading Pixel data via
-     * Bio-Formats.
+     * @return The SHA1 message digest for the binary data of each series.
      */
-    private void parseDataByPlane(
-            ImportSize size, int z, int c, int t,
-            int bytesPerPixel, String fileName,
-            MessageDigest md)
-        throws FormatException, IOException
+    private MessageDigest[] parseDataBySeries()
+        throws Throwable
     {
-        int tileHeight = reader.getOptimalTileHeight();
-        int tileWidth = reader.getOptimalTileWidth();
-        int planeNumber, x, y, w, h;
-        for (int tileOffsetY = 0;
-             tileOffsetY < (size.sizeY + tileHeight - 1) / tileHeight;
-             tileOffsetY++)
-        {
-            for (int tileOffsetX = 0;
-                 tileOffsetX < (size.sizeX + tileWidth - 1) / tileWidth;
-                 tileOffsetX++)
-            {
-                x = tileOffsetX * tileWidth;
-                y = tileOffsetY * tileHeight;
-                w = tileWidth;
-                h = tileHeight;
-                if ((x + tileWidth) > size.sizeX)
-                {
-                    w = size.sizeX - x;
-                }
-                if ((y + tileHeight) > size.sizeY)
-                {
-                    h = size.sizeY - y;
-                }
-                int bytesToRead = w * h * bytesPerPixel;
-                if (arrayBuf.length != bytesToRead)
-                {
-                    arrayBuf = new byte[bytesToRead];
-                }
-                planeNumber = reader.getIndex(z, c, t);
-                if (log.isDebugEnabled())
-                {
-                    log.debug(String.format(
-                            "Plane:%d X:%d Y:%d TileWidth:%d TileHeight:%d " +
-                            "arrayBuf.length:%d", planeNumber, x, y, w, h,
-                            arrayBuf.length));
+        final IMinMaxStore minMaxStore = new IMinMaxStore() {
+            @Override
+            public void setChannelGlobalMinMax(int channel, double minimum,
+                    double maximum, int series) {
+                synchronized (store) {
+                    store.setChannelGlobalMinMax(channel, minimum, maximum, series);
                 }
-                arrayBuf = reader.openBytes(
-                        planeNumber, arrayBuf, x, y, w, h);
+            }
+        };
+        return parser.parseDataBySeries(pixList, minMaxStore, seriesExecutor,
+                seriesThreads, new Callable<OMEROWrapper>() {
+            @Override
+            public OMEROWrapper call() throws Exception {
+                final OMEROWrapper seriesReader = seriesReaders.call();
                 try {
-                    md.update(arrayBuf);
-                }
-                catch (Exception e) {
-                    // This better not happen. :)
-                    throw new RuntimeException(e);
+                    file.bfSetId(seriesReader);
+                } catch (Exception e) {
+                    seriesReader.close();
+                    throw e;
                 }
+                return seriesReader;
             }
-        }
+        });
     }
 
     /**
@@ -909,29 +938,6 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
         }
     }
 
-    /**
-     * Retrieves how many bytes per pixel the current plane or section has.
-     * @return the number of bytes per pixel.
-     */
-    private int getBytesPerPixel(int type)
-    {
-        switch(type) {
-            case 0:
-            case 1:
-                return 1;  // INT8 or UINT8
-            case 2:
-            case 3:
-                return 2;  // INT16 or UINT16
-            case 4:
-            case 5:
-            case 6:
-                return 4;  // INT32, UINT32 or FLOAT
-            case 7:
-                return 8;  // DOUBLE
-        }
-        throw new RuntimeException("Unknown type with id: '" + type + "'");
-    }
-
     private List<Long> pixelIds() {
         List<Long> pixelsIds = new ArrayList<Long>(pixList.size());
         for (Pixels pixels : pixList)
@@ -33,8 +33,10 @@ import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -55,7 +57,6 @@ import ome.services.blitz.util.ChecksumAlgorithmMapper;
 import ome.system.Roles;
 import ome.system.ServiceFactory;
 import ome.util.SqlAction;
-import ome.util.checksum.ChecksumProvider;
 import ome.util.checksum.ChecksumProviderFactory;
 import ome.util.checksum.ChecksumProviderFactoryImpl;
 import ome.util.checksum.ChecksumType;
@@ -156,6 +157,8 @@ public class ManagedRepositoryI extends PublicRepositoryI
 
     private final Set<String> managedRepoUuids;
 
+    private ChecksumVerifier checksumVerifier;
+
     /**
      * Creates a {@link ProcessContainer} internally that will not be managed
      * by background threads. Used primarily during testing.
@@ -349,24 +352,21 @@ public class ManagedRepositoryI extends PublicRepositoryI
         allGroupsCurrent.ctx.put(omero.constants.GROUP.value, "-1");
 
         /* verify the checksum of the specified files that are in this repository */
-        final List<Long> mismatchFiles = new ArrayList<Long>();
-        for (final long id : repositoryDao.filterFilesByRepository(getRepoUuid(), ids, allGroupsCurrent)) {
-            /* get one of the files */
-            final OriginalFile file = repositoryDao.getOriginalFileWithHasher(id, allGroupsCurrent);
-            final FsFile fsPath = new FsFile(file.getPath() + file.getName());
-            final String osPath = serverPaths.getServerFileFromFsFile(fsPath).getAbsolutePath();
-
-            /* check the file's checksum */
+        final List<ChecksumVerifier.FileChecksum> checksums = new ArrayList<ChecksumVerifier.FileChecksum>();
+        for (final OriginalFile file : getOriginalFilesInRepository(ids, allGroupsCurrent)) {
             final ome.model.enums.ChecksumAlgorithm hasher = file.getHasher();
-            final String hash = file.getHash();
-            if (hasher != null && hash != null) {
+            if (hasher != null && file.getHash() != null) {
                 /* has a valid checksum, so check it */
-                final ChecksumProvider fromProvider =
-                        checksumProviderFactory.getProvider(ChecksumAlgorithmMapper.getChecksumType(hasher));
-                fromProvider.putFile(osPath);
-                if (!fromProvider.checksumAsString().equalsIgnoreCase(hash)) {
-                    mismatchFiles.add(id);
-                }
+                checksums.add(new ChecksumVerifier.FileChecksum(file.getId(), getServerFile(file),
+                        ChecksumAlgorithmMapper.getChecksumType(hasher), file.getHash(), null));
+            }
+        }
+        computeChecksums(checksums);
+
+        final List<Long> mismatchFiles = new ArrayList<Long>();
+        for (final ChecksumVerifier.FileChecksum checksum : checksums) {
+            if (checksum.isMismatch()) {
+                mismatchFiles.add(checksum.getId());
             }
         }
         return mismatchFiles;
@@ -384,18 +384,13 @@ public class ManagedRepositoryI extends PublicRepositoryI
         final ome.model.enums.ChecksumAlgorithm toHasher = repositoryDao.getChecksumAlgorithm(toHasherName, adjustedGroupCurrent);
         final ChecksumType toType = ChecksumAlgorithmMapper.getChecksumType(toHasher);
 
-        /* set the specified files that are in this repository */
-        final List<Long> adjustedFiles = new ArrayList<Long>();
-        for (final long id : repositoryDao.filterFilesByRepository(getRepoUuid(), ids, adjustedGroupCurrent)) {
-            /* get one of the files */
-            final OriginalFile file = repositoryDao.getOriginalFileWithHasher(id, adjustedGroupCurrent);
-            final FsFile fsPath = new FsFile(file.getPath() + file.getName());
-            final String osPath = serverPaths.getServerFileFromFsFile(fsPath).getAbsolutePath();
-
-            /* check the file's existing hasher */
+        /* find the new hash of the specified files that are in this repository, checking any old hash in the same read */
+        final Map<Long, OriginalFile> filesById = new HashMap<Long, OriginalFile>();
+        final List<ChecksumVerifier.FileChecksum> checksums = new ArrayList<ChecksumVerifier.FileChecksum>();
+        for (final OriginalFile file : getOriginalFilesInRepository(ids, adjustedGroupCurrent)) {
             final ome.model.enums.ChecksumAlgorithm fromHasher = file.getHasher();
             final String fromHash = file.getHash();
-            ChecksumProvider fromProvider = null;
+            ChecksumType fromType = null;
             if (fromHasher != null && fromHash != null) {
                 /* already has a valid hash */
                 if (toHasherName.equals(fromHasher.getValue())) {
@@ -403,32 +398,107 @@ public class ManagedRepositoryI extends PublicRepositoryI
                     continue;
                 } else {
                     /* hashed with a different hasher */
-                    fromProvider = checksumProviderFactory.getProvider(ChecksumAlgorithmMapper.getChecksumType(fromHasher));
+                    fromType = ChecksumAlgorithmMapper.getChecksumType(fromHasher);
                 }
             }
-            /* find the new hash */
-            final ChecksumProvider toProvider = checksumProviderFactory.getProvider(toType);
-            toProvider.putFile(osPath);
-            final String toHash = toProvider.checksumAsString();
-            if (fromProvider != null) {
-                /* check old hash after new one is calculated */
-                fromProvider.putFile(osPath);
-                if (!fromProvider.checksumAsString().equals(fromHash)) {
-                    throw new ServerError(null, null, "hash mismatch on file ID " + id);
-                }
+            filesById.put(file.getId(), file);
+            checksums.add(new ChecksumVerifier.FileChecksum(file.getId(), getServerFile(file), fromType, fromHash, toType));
+        }
+        computeChecksums(checksums);
+
+        /* check all the old hashes before any file is adjusted */
+        for (final ChecksumVerifier.FileChecksum checksum : checksums) {
+            if (checksum.isMismatch()) {
+                throw new ServerError(null, null, "hash mismatch on file ID " + checksum.getId());
             }
-            /* update the file's checksum */
+        }
+
+        /* update the files' checksums */
+        final List<Long> adjustedFiles = new ArrayList<Long>();
+        for (final ChecksumVerifier.FileChecksum checksum : checksums) {
+            final OriginalFile file = filesById.get(checksum.getId());
             file.setHasher(toHasher);
-            file.setHash(toHash);
+            file.setHash(checksum.getNewChecksum());
             final String fileGroup = Long.toString(file.getDetails().getGroup().getId());
             adjustedGroupCurrent.ctx.put(omero.constants.GROUP.value, fileGroup);
             repositoryDao.saveObject(file, adjustedGroupCurrent);
             adjustedGroupCurrent.ctx.put(omero.constants.GROUP.value, "-1");
-            adjustedFiles.add(id);
+            adjustedFiles.add(checksum.getId());
         }
         return adjustedFiles;
     }
 
+    /**
+     * Set the verifier which computes the checksums of files in bulk.
+     * @param checksumVerifier the checksum verifier
+     */
+    public synchronized void setChecksumVerifier(ChecksumVerifier checksumVerifier) {
+        this.checksumVerifier = checksumVerifier;
+    }
+
+    /**
+     * @return the verifier which computes the checksums of files in bulk,
+     * by default one that reads a single file at a time
+     */
+    private synchronized ChecksumVerifier getChecksumVerifier() {
+        if (checksumVerifier == null) {
+            checksumVerifier = new ChecksumVerifier(checksumProviderFactory, 1);
+        }
+        return checksumVerifier;
+    }
+
+    /**
+     * Bulk-load those of the given original files that are in this repository.
+     * @param ids the IDs of original files
+     * @param current the Ice method invocation context
+     * @return the original files in this repository, with their hasher joined, in the order of the given IDs
+     */
+    private List<OriginalFile> getOriginalFilesInRepository(List<Long> ids, Current current) {
+        final Map<Long, OriginalFile> filesById = new HashMap<Long, OriginalFile>();
+        for (final OriginalFile file : repositoryDao.getOriginalFilesWithHasher(getRepoUuid(), ids, current)) {
+            filesById.put(file.getId(), file);
+        }
+        final List<OriginalFile> files = new ArrayList<OriginalFile>(filesById.size());
+        for (final Long id : new LinkedHashSet<Long>(ids)) {
+            final OriginalFile file = filesById.get(id);
+            if (file != null) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * @param file an original file in this repository
+     * @return the file on the server's file-system
+     */
+    private File getServerFile(OriginalFile file) {
+        return serverPaths.getServerFileFromFsFile(new FsFile(file.getPath() + file.getName()));
+    }
+
+    /**
+     * Compute the checksums of the given files.
+     * @param checksums the files whose checksums are to be computed
+     * @throws ServerError if any of the files could not be read
+     */
+    private void computeChecksums(List<ChecksumVerifier.FileChecksum> checksums) throws ServerError {
+        if (checksums.isEmpty()) {
+            return;
+        }
+        try {
+            getChecksumVerifier().compute(checksums);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ServerError(null, null, "interrupted while computing checksums");
+        }
+        for (final ChecksumVerifier.FileChecksum checksum : checksums) {
+            if (checksum.getFailure() != null) {
+                throw new ResourceError(null, null, "cannot read file ID " + checksum.getId() + ": " +
+                        checksum.getFailure().getMessage());
+            }
+        }
+    }
+
     //
     // HELPERS
     //
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.blitz.repo;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import loci.formats.FormatException;
+import loci.formats.meta.IMinMaxStore;
+import ome.formats.importer.ImportSize;
+import ome.formats.importer.OMEROWrapper;
+import ome.io.nio.TileSizes;
+import omero.model.Pixels;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+/**
+ * Reads the planes of an imported image's series so that the reader can
+ * calculate min/max values and a checksum can be calculated of the pixel
+ * data. The series may be read one after another by one reader or several
+ * at once by additional readers.
+ *
+ * @since 5.5.0
+ */
+public class PixelDataParser {
+
+    private static final Logger log = LoggerFactory.getLogger(PixelDataParser.class);
+
+    private final TileSizes sizes;
+
+    private final AtomicLong planesRead = new AtomicLong(), bytesRead = new AtomicLong();
+
+    /**
+     * @param sizes the sizes beyond which planes are too large to be read
+     */
+    public PixelDataParser(TileSizes sizes) {
+        this.sizes = sizes;
+    }
+
+    /**
+     * @return the number of planes read so far
+     */
+    public long getPlanesRead() {
+        return planesRead.get();
+    }
+
+    /**
+     * @return the number of bytes read so far
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * Parse the binary data of a series to generate min/max values and
+     * allow an md to be calculated.
+     *
+     * @param reader The reader to use, which is set to the series.
+     * @param series The series to read.
+     * @param size Sizes of the Pixels set.
+     * @return The SHA1 message digest for the binary data, or {@code null}
+     * if the planes are too large to be read.
+     * @throws FormatException If there is an error reading Pixel data via
+     * Bio-Formats.
+     * @throws IOException If there is an I/O error reading Pixel data via
+     * Bio-Formats.
+     */
+    public MessageDigest parseData(OMEROWrapper reader, int series,
+            ImportSize size)
+        throws FormatException, IOException
+    {
+        reader.setSeries(series);
+        int maxPlaneSize = sizes.getMaxPlaneWidth() * sizes.getMaxPlaneHeight();
+        if (((long) reader.getSizeX()
+             * (long) reader.getSizeY()) > maxPlaneSize) {
+            return null;
+        }
+
+        int bytesPerPixel = getBytesPerPixel(reader.getPixelType());
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(
+                "Required SHA-1 message digest algorithm unavailable.");
+        }
+        byte[] arrayBuf = new byte[omero.constants.DEFAULTBLOCKSIZE.value];
+        for (int t = 0; t < size.sizeT; t++) {
+            for (int c = 0; c < size.sizeC; c++) {
+                for (int z = 0; z < size.sizeZ; z++) {
+                    arrayBuf = parseDataByPlane(reader, arrayBuf, size, z, c, t,
+                            bytesPerPixel, md);
+                    planesRead.incrementAndGet();
+                }
+            }
+        }
+        return md;
+    }
+
+    /**
+     * Parse the binary data of every series to generate min/max values and
+     * allow an md to be calculated, reading several series at once. Each
+     * reader reads one series at a time, taking the next series not yet
+     * read. The readers calculate min/max values whatever their metadata
+     * store and report them to the given min/max store.
+     *
+     * @param pixels The Pixels set of each series.
+     * @param minMaxStore The store for the min/max values, which must allow
+     * concurrent calls.
+     * @param executor The pool on which to read series.
+     * @param threads The most series to read at once.
+     * @param readers Creates a reader which is opened on the image.
+     * @return The SHA1 message digest for the binary data of each series.
+     * @throws Throwable the failure of any of the readers, in which case
+     * the others are stopped
+     */
+    public MessageDigest[] parseDataBySeries(final List<Pixels> pixels,
+            final IMinMaxStore minMaxStore, ExecutorService executor,
+            int threads, final Callable<OMEROWrapper> readers)
+        throws Throwable
+    {
+        final int seriesCount = pixels.size();
+        final MessageDigest[] mds = new MessageDigest[seriesCount];
+        final AtomicInteger nextSeries = new AtomicInteger();
+        @SuppressWarnings("unchecked")
+        final Map<String, String> context = MDC.getCopyOfContextMap();
+        final int readerCount = Math.min(threads, seriesCount);
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>(readerCount);
+        for (int i = 0; i < readerCount; i++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    if (context != null) {
+                        MDC.setContextMap(context);
+                    }
+                    try {
+                        final OMEROWrapper seriesReader = readers.call();
+                        try {
+                            seriesReader.setMinMaxRequired(true);
+                            seriesReader.setMinMaxStore(minMaxStore);
+                            int series;
+                            while ((series = nextSeries.getAndIncrement()) < seriesCount) {
+                                seriesReader.setSeries(series);
+                                final ImportSize size = new ImportSize(seriesReader.getCurrentFile(),
+                                        pixels.get(series), seriesReader.getDimensionOrder());
+                                mds[series] = parseData(seriesReader, series, size);
+                            }
+                        } finally {
+                            seriesReader.close();
+                        }
+                    } finally {
+                        MDC.clear();
+                    }
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (final Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ee) {
+                    throw ee.getCause();
+                }
+            }
+        } finally {
+            /* on failure, stop the other readers */
+            nextSeries.set(seriesCount);
+            for (final Future<Void> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return mds;
+    }
+
+    /**
+     * Read a plane and update the pixels checksum
+     *
+     * @param reader The reader set to the series to read.
+     * @param arrayBuf A buffer for reading tiles, which may be replaced.
+     * @param size Sizes of the Pixels set.
+     * @param z The Z-section offset to write to.
+     * @param c The channel offset to write to.
+     * @param t The timepoint offset to write to.
+     * @param bytesPerPixel Number of bytes per pixel.
+     * @param md Current Pixels set message digest.
+     * @return The buffer for reading further tiles.
+     * @throws FormatException If there is an error reading Pixel data via
+     * Bio-Formats.
+     * @throws IOException If there is an I/O error reading Pixel data via
+     * Bio-Formats.
+     */
+    private byte[] parseDataByPlane(
+            OMEROWrapper reader, byte[] arrayBuf,
+            ImportSize size, int z, int c, int t,
+            int bytesPerPixel, MessageDigest md)
+        throws FormatException, IOException
+    {
+        int tileHeight = reader.getOptimalTileHeight();
+        int tileWidth = reader.getOptimalTileWidth();
+        int planeNumber, x, y, w, h;
+        for (int tileOffsetY = 0;
+             tileOffsetY < (size.sizeY + tileHeight - 1) / tileHeight;
+             tileOffsetY++)
+        {
+            for (int tileOffsetX = 0;
+                 tileOffsetX < (size.sizeX + tileWidth - 1) / tileWidth;
+                 tileOffsetX++)
+            {
+                x = tileOffsetX * tileWidth;
+                y = tileOffsetY * tileHeight;
+                w = tileWidth;
+                h = tileHeight;
+                if ((x + tileWidth) > size.sizeX)
+                {
+                    w = size.sizeX - x;
+                }
+                if ((y + tileHeight) > size.sizeY)
+                {
+                    h = size.sizeY - y;
+                }
+                int bytesToRead = w * h * bytesPerPixel;
+                if (arrayBuf.length != bytesToRead)
+                {
+                    arrayBuf = new byte[bytesToRead];
+                }
+                planeNumber = reader.getIndex(z, c, t);
+                if (log.isDebugEnabled())
+                {
+                    log.debug(String.format(
+                            "Plane:%d X:%d Y:%d TileWidth:%d TileHeight:%d " +
+                            "arrayBuf.length:%d", planeNumber, x, y, w, h,
+                            arrayBuf.length));
+                }
+                arrayBuf = reader.openBytes(
+                        planeNumber, arrayBuf, x, y, w, h);
+                bytesRead.addAndGet(arrayBuf.length);
+                try {
+                    md.update(arrayBuf);
+                }
+                catch (Exception e) {
+                    // This better not happen. :)
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        return arrayBuf;
+    }
+
+    /**
+     * Retrieves how many bytes per pixel the current plane or section has.
+     * @return the number of bytes per pixel.
+     */
+    private static int getBytesPerPixel(int type)
+    {
+        switch(type) {
+            case 0:
+            case 1:
+                return 1;  // INT8 or UINT8
+            case 2:
+            case 3:
+                return 2;  // INT16 or UINT16
+            case 4:
+            case 5:
+            case 6:
+                return 4;  // INT32, UINT32 or FLOAT
+            case 7:
+                return 8;  // DOUBLE
+        }
+        throw new RuntimeException("Unknown type with id: '" + type + "'");
+    }
+}
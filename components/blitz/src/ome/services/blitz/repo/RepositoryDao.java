@@ -316,6 +316,16 @@ public interface RepositoryDao {
      */
     ome.model.core.OriginalFile getOriginalFileWithHasher(long id, Current current);
 
+    /**
+     * Retrieve the original files of the given IDs that are in the given repository.
+     * The files are loaded in batches rather than one at a time.
+     * @param repo the UUID of a repository
+     * @param ids the IDs of original files
+     * @param current Ice method invocation context
+     * @return the corresponding original file model objects, with their hasher joined, in no particular order
+     */
+    List<ome.model.core.OriginalFile> getOriginalFilesWithHasher(String repo, List<Long> ids, Current current);
+
     /**
      * Save the given model object.
      * @param object a model object
@@ -1177,6 +1177,27 @@ public class RepositoryDaoImpl implements RepositoryDao {
         });
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<ome.model.core.OriginalFile> getOriginalFilesWithHasher(final String repo, List<Long> ids,
+            Ice.Current current) {
+        final List<ome.model.core.OriginalFile> files = new ArrayList<ome.model.core.OriginalFile>(ids.size());
+        for (final List<Long> idsBatch : Iterables.partition(ids, BATCH_SIZE)) {
+            files.addAll((Collection<ome.model.core.OriginalFile>) executor.execute(current.ctx, currentUser(current),
+                    new Executor.SimpleWork(this, "getOriginalFilesWithHasher") {
+                @Override
+                @Transactional(readOnly = true)
+                public List<ome.model.core.OriginalFile> doWork(Session session, ServiceFactory sf) {
+                    final String query =
+                            "FROM OriginalFile o LEFT OUTER JOIN FETCH o.hasher WHERE o.id IN (:ids) AND o.repo = :repo";
+                    final Parameters params = new Parameters().addIds(idsBatch).addString("repo", repo);
+                    return sf.getQueryService().findAllByQuery(query, params);
+                }
+            }));
+        }
+        return files;
+    }
+
     @Override
     public void saveObject(final IObject object, Ice.Current current) {
         executor.execute(current.ctx, currentUser(current),
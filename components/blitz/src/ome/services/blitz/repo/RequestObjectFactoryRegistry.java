@@ -19,6 +19,9 @@ package ome.services.blitz.repo;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
@@ -35,6 +38,8 @@ import ome.formats.importer.OMEROWrapper;
 
 import omero.util.Resources;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 
 /**
  * Requests which are handled by the repository servants.
@@ -54,6 +59,12 @@ public class RequestObjectFactoryRegistry extends
 
     private final Resources resources;
 
+    private ImportMetrics importMetrics = null;
+
+    private int seriesThreads = 1;
+
+    private ExecutorService seriesExecutor = null;
+
     private/* final */OmeroContext ctx;
 
     public RequestObjectFactoryRegistry(Registry reg, TileSizes sizes,
@@ -72,6 +83,30 @@ public class RequestObjectFactoryRegistry extends
         this.resources = resources;
     }
 
+    public void setImportMetrics(ImportMetrics importMetrics) {
+        this.importMetrics = importMetrics;
+    }
+
+    /**
+     * Sets the most series of multi-series filesets that may be read at once
+     * over all imports when calculating min/max values, each by its own
+     * reader. If more than one, a pool of that many threads is created.
+     */
+    public void setSeriesThreads(int seriesThreads) {
+        this.seriesThreads = seriesThreads;
+        if (seriesThreads > 1 && seriesExecutor == null) {
+            seriesExecutor = Executors.newFixedThreadPool(seriesThreads, new ThreadFactoryBuilder()
+                    .setNameFormat("ImportSeries-%d").setDaemon(true).build());
+        }
+    }
+
+    private OMEROWrapper createReader() {
+        return new OMEROWrapper(
+                new ImportConfig(),
+                pixels.getMemoizerWait(),
+                pixels.getMemoizerDirectory());
+    }
+
     public void setApplicationContext(ApplicationContext ctx)
             throws BeansException {
         this.ctx = (OmeroContext) ctx;
@@ -84,12 +119,15 @@ public class RequestObjectFactoryRegistry extends
             @Override
             public Ice.Object create(String name) {
                 ManagedImportRequestI mir = new ManagedImportRequestI(reg, sizes, dao,
-                        new OMEROWrapper(
-                                new ImportConfig(),
-                                pixels.getMemoizerWait(),
-                                pixels.getMemoizerDirectory()),
-                        ring.uuid);
+                        createReader(), ring.uuid);
                 mir.setResources(resources);
+                mir.setImportMetrics(importMetrics);
+                mir.setSeriesReaders(seriesExecutor, seriesThreads, new Callable<OMEROWrapper>() {
+                    @Override
+                    public OMEROWrapper call() {
+                        return createReader();
+                    }
+                });
                 return mir;
             }
 
@@ -9,19 +9,19 @@ import static omero.rtypes.rdouble;
 import static omero.rtypes.rint;
 import static omero.rtypes.rlong;
 
-import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import ome.conditions.ApiUsageException;
-import ome.io.nio.PixelBuffer;
 import ome.model.IObject;
 import ome.model.core.Pixels;
 import ome.services.util.Executor;
@@ -50,6 +50,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import org.hibernate.Query;
 import org.hibernate.Session;
@@ -75,6 +76,8 @@ public class GeomTool {
 
     protected final String uuid;
 
+    protected final ExecutorService statsExecutor;
+
     public GeomTool(PixelData data, SqlAction sql,
             SessionFactory factory) {
         this(data, sql, factory, null, null);
@@ -82,11 +85,23 @@ public class GeomTool {
 
     public GeomTool(PixelData data, SqlAction sql,
             SessionFactory factory, Executor ex, String uuid) {
+        this(data, sql, factory, ex, uuid, MoreExecutors.sameThreadExecutor());
+    }
+
+    /**
+     * @param statsExecutor the pool, shared among requests, with which to
+     * help measure the planes of shapes
+     * @see ScanlineStats#newExecutor()
+     */
+    public GeomTool(PixelData data, SqlAction sql,
+            SessionFactory factory, Executor ex, String uuid,
+            ExecutorService statsExecutor) {
         this.data = data;
         this.sql = sql;
         this.factory = factory;
         this.ex = ex;
         this.uuid = uuid;
+        this.statsExecutor = statsExecutor;
     }
 
     /**
@@ -246,6 +261,10 @@ public class GeomTool {
         final Session session = factory.getSession();
         final RoiStats rs = new RoiStats();
         rs.perShape = new ShapeStats[shapeIds.size()];
+        final Map<Long, ScanlineStats> measurements =
+                new HashMap<Long, ScanlineStats>();
+        final ScanlineStats.Accumulator[][] accumulators =
+                new ScanlineStats.Accumulator[shapeIds.size()][];
 
         for (int i = 0; i < shapeIds.size(); i++) {
 
@@ -294,8 +313,8 @@ public class GeomTool {
             stats.shapeId = shape.getId();
 
             final int ch = stats.channelIds.length;
-            final double[] sumOfSquares = new double[ch];
 
+            final Integer theC = shape.getTheC(); // May be null
             final Integer theZ = shape.getTheZ(); // May be null
             final Integer theT = shape.getTheT(); // May be null
 
@@ -305,42 +324,39 @@ public class GeomTool {
             final int endZ = (theZ == null) ? (maxZ - 1) : theZ.intValue();
             final int endT = (theT == null) ? (maxT - 1) : theT.intValue();
 
-            final PixelBuffer buf = data.getBuffer(pixId);
-            try {
-                SmartShape.PointCallback cb = new SmartShape.PointCallback() {
+            // Measure all the shapes of each image together once they are
+            // all known so that each plane is read only once.
+            ScanlineStats measurement = measurements.get(pixId);
+            if (measurement == null) {
+                measurement = new ScanlineStats(data, pixId, statsExecutor);
+                measurements.put(pixId, measurement);
+            }
+            final ShapeSpans spans = ShapeSpans.rasterize(smartShape,
+                    pix.getSizeX(), pix.getSizeY());
+            accumulators[i] = new ScanlineStats.Accumulator[ch];
+            for (int w = 0; w < ch; w++) {
+                accumulators[i][w] = new ScanlineStats.Accumulator();
+                final int c = (theC == null) ? w : theC.intValue();
+                for (int z = startZ; z <= endZ; z++) {
+                    for (int t = startT; t <= endT; t++) {
+                        measurement.add(z, c, t, spans, accumulators[i][w]);
+                    }
+                }
+            }
 
-                    public void handle(int x, int y) {
+            rs.perShape[i] = stats;
+        }
 
-                        for (int w = 0; w < ch; w++) {
+        for (final ScanlineStats measurement : measurements.values()) {
+            measurement.measure();
+        }
 
-                            for (int z = startZ; z <= endZ; z++) {
-                                for (int t = startT; t <= endT; t++) {
+        for (int i = 0; i < shapeIds.size(); i++) {
 
-                                    // WHAT TO DO ABOUT THE CHANNELS IN AGGREGATION?
-                                    stats.pointsCount[w]++;
-                                    double value = data.get(buf, x, y, z, w, t);
-                                    stats.min[w] = Math.min(value, stats.min[w]);
-                                    stats.max[w] = Math.max(value, stats.max[w]);
-                                    stats.sum[w] += value;
-                                    sumOfSquares[w] += value * value;
+            final ShapeStats stats = rs.perShape[i];
+            final double[] sumOfSquares = copyStats(accumulators[i], stats);
 
-                                }
-                            }
-
-                        }
-                    }
-                };
-
-                smartShape.areaPoints(cb);
-            } finally {
-                try {
-                    buf.close();
-                } catch (IOException e) {
-                    log.error("Error closing " + buf, e);
-                }
-            }
-
-            for (int w = 0; w < ch; w++) {
+            for (int w = 0; w < stats.channelIds.length; w++) {
 
                 stats.mean[w] = stats.sum[w] / stats.pointsCount[w];
                 if (stats.pointsCount[w] > 1) {
@@ -352,8 +368,6 @@ public class GeomTool {
                     }
                 }
             }
-
-            rs.perShape[i] = stats;
         }
 
         return rs;
@@ -410,10 +424,6 @@ public class GeomTool {
            zt_lookup.put(theZ + "/" + theT, shape);
        }
 
-       // any point iteration in a tiled image is a lost cause
-       if (data.requiresPixelsPyramid(pixels)) 
-           throw new ApiUsageException("This method cannot handle tiled images yet.");
-
        // check if given channels are valid
        Set<Integer> validChannels = new HashSet<Integer>();
        if (channels != null && channels.length > 0) {
@@ -429,7 +439,10 @@ public class GeomTool {
        final int sizeX = pixels.getSizeX();
        final int sizeY = pixels.getSizeY();
 
-       // loop over shapes (grouped by z/t planes)
+       // rasterize shapes (grouped by z/t planes) then measure them together
+       final ScanlineStats measurement = new ScanlineStats(data, pixelId, statsExecutor);
+       final List<ScanlineStats.Accumulator[]> accumulators =
+               new ArrayList<ScanlineStats.Accumulator[]>(shapeIds.size());
        for (final String key : zt_lookup.keySet()) {
            final String[] keyTokens = key.split("/");
            final int z = Integer.parseInt(keyTokens[0]);
@@ -440,46 +453,37 @@ public class GeomTool {
                final int size_stats = validChannels.size();
                final ShapeStats stats = makeStats(size_stats);
                stats.shapeId = shape.getId();
-               final double[] sumOfSquares = new double[size_stats];
-
-               try (final PixelBuffer buf = data.getBuffer(pixelId)) {
-            	   int i = 0;
-                   for (int c : validChannels) {
-                       final int w = i;
-                       stats.channelIds[w] = c;
-                       final ome.util.PixelData pd = data.getPlane(buf, z, c, t);
-                       smartShape.areaPoints(
-                           new SmartShape.PointCallback() {
-                               public void handle(int x, int y) {
-                                   // we won't use pixels outside of the image 
-                                   if (x < 0 || y < 0 || x >= sizeX || y >= sizeY) return;
-                                   stats.pointsCount[w]++;
-                                   double value = pd.getPixelValue(sizeX * y + x);
-                                   stats.min[w] = Math.min(value, stats.min[w]);
-                                   stats.max[w] = Math.max(value, stats.max[w]);
-                                   stats.sum[w] += value;
-                                   sumOfSquares[w] += value * value;
-                               }
-                           });
-                       pd.dispose();
-                       i++;
-                   }
-               } catch (IOException io) {
-                   log.error("Error closing buffer", io);
+               final ScanlineStats.Accumulator[] accumulator =
+                       new ScanlineStats.Accumulator[size_stats];
+
+               // we won't use pixels outside of the image
+               final ShapeSpans spans = ShapeSpans.rasterize(smartShape, sizeX, sizeY);
+               int w = 0;
+               for (int c : validChannels) {
+                   stats.channelIds[w] = c;
+                   accumulator[w] = new ScanlineStats.Accumulator();
+                   measurement.add(z, c, t, spans, accumulator[w]);
+                   w++;
                }
-
-               for (int w = 0; w < size_stats; w++) {
-                   if (stats.pointsCount[w] > 0) {
-                       stats.mean[w] = stats.sum[w] / stats.pointsCount[w];
-                       if (stats.pointsCount[w] > 1) {
-                           double sigmaSquare =
-                               (sumOfSquares[w] - stats.sum[w] * stats.mean[w]) /
-                               (stats.pointsCount[w] - 1);
-                           if (sigmaSquare > 0) stats.stdDev[w] = Math.sqrt(sigmaSquare);
-                       }
+               shapeStats.add(stats);
+               accumulators.add(accumulator);
+           }
+       }
+       measurement.measure();
+
+       for (int i = 0; i < shapeStats.size(); i++) {
+           final ShapeStats stats = shapeStats.get(i);
+           final double[] sumOfSquares = copyStats(accumulators.get(i), stats);
+           for (int w = 0; w < stats.channelIds.length; w++) {
+               if (stats.pointsCount[w] > 0) {
+                   stats.mean[w] = stats.sum[w] / stats.pointsCount[w];
+                   if (stats.pointsCount[w] > 1) {
+                       double sigmaSquare =
+                           (sumOfSquares[w] - stats.sum[w] * stats.mean[w]) /
+                           (stats.pointsCount[w] - 1);
+                       if (sigmaSquare > 0) stats.stdDev[w] = Math.sqrt(sigmaSquare);
                    }
                }
-               shapeStats.add(stats);
            }
        }
        
@@ -524,6 +528,26 @@ public class GeomTool {
         return stats;
     }
 
+    /**
+     * Copies the point count, minimum, maximum and sum of each channel from
+     * the accumulated statistics.
+     *
+     * @param from the accumulated statistics of each channel
+     * @param to the statistics to update
+     * @return the sum of squares of each channel
+     */
+    private double[] copyStats(ScanlineStats.Accumulator[] from, ShapeStats to) {
+        final double[] sumOfSquares = new double[from.length];
+        for (int w = 0; w < from.length; w++) {
+            to.pointsCount[w] = from[w].getCount();
+            to.min[w] = Math.min(to.min[w], from[w].getMin());
+            to.max[w] = Math.max(to.max[w], from[w].getMax());
+            to.sum[w] = from[w].getSum();
+            sumOfSquares[w] = from[w].getSumOfSquares();
+        }
+        return sumOfSquares;
+    }
+
     private ShapeStats makeStats(Pixels pix, ome.model.roi.Shape shape) {
 
         // If the shape does not explicitly list any channels, then we will
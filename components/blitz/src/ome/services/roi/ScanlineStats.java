@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.roi;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ome.conditions.InternalException;
+import ome.io.nio.PixelBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Computes statistics of the pixel values within shapes by reading each
+ * plane of an image one tile at a time, rather than one row per point. Only
+ * the tiles that the shapes' bounding boxes overlap are read, each at most
+ * once however many shapes use it, so this works for pyramid-backed images
+ * too. Planes are measured concurrently, each by a thread with its own
+ * {@link PixelBuffer}, by the calling thread and by a pool shared among
+ * measurements.
+ *
+ * @since 5.5.0
+ */
+public class ScanlineStats {
+
+    /**
+     * The maximum number of planes to measure at once.
+     */
+    public final static int MAX_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    private final static Logger log = LoggerFactory.getLogger(ScanlineStats.class);
+
+    /**
+     * Running statistics of pixel values. Only {@link #addAll(Accumulator)}
+     * and the getters may be called concurrently.
+     */
+    public static class Accumulator {
+        private long count = 0;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double sum = 0;
+        private double sumOfSquares = 0;
+
+        /**
+         * Include a value in the statistics. Not synchronized: the value must
+         * be added to an accumulator that is not shared.
+         * @param value a pixel value
+         */
+        void add(double value) {
+            count++;
+            if (value < min) {
+                min = value;
+            }
+            if (value > max) {
+                max = value;
+            }
+            sum += value;
+            sumOfSquares += value * value;
+        }
+
+        /**
+         * Include the values of another accumulator in these statistics.
+         * @param other another accumulator
+         */
+        synchronized void addAll(Accumulator other) {
+            count += other.count;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            sum += other.sum;
+            sumOfSquares += other.sumOfSquares;
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the minimum value, or positive infinity if none were added
+         */
+        public synchronized double getMin() {
+            return min;
+        }
+
+        /**
+         * @return the maximum value, or negative infinity if none were added
+         */
+        public synchronized double getMax() {
+            return max;
+        }
+
+        public synchronized double getSum() {
+            return sum;
+        }
+
+        public synchronized double getSumOfSquares() {
+            return sumOfSquares;
+        }
+    }
+
+    /**
+     * A shape to measure on a plane.
+     */
+    private static class Job {
+        final ShapeSpans spans;
+        final Accumulator stats;
+
+        Job(ShapeSpans spans, Accumulator stats) {
+            this.spans = spans;
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * The shapes to measure on a plane.
+     */
+    private static class Plane {
+        final int z, c, t;
+        final List<Job> jobs = new ArrayList<Job>();
+
+        Plane(int z, int c, int t) {
+            this.z = z;
+            this.c = c;
+            this.t = t;
+        }
+    }
+
+    private final PixelData data;
+
+    private final long pixelsId;
+
+    private final ExecutorService executor;
+
+    private final Map<String, Plane> planes = new LinkedHashMap<String, Plane>();
+
+    /**
+     * Create a pool of {@link #MAX_THREADS} daemon threads to share among
+     * measurements.
+     * @return a new thread pool
+     */
+    public static ExecutorService newExecutor() {
+        return Executors.newFixedThreadPool(MAX_THREADS,
+                new ThreadFactoryBuilder().setNameFormat("ScanlineStats-%d").setDaemon(true).build());
+    }
+
+    /**
+     * @param data the source of pixel buffers
+     * @param pixelsId the ID of the pixels set on which shapes are to be measured
+     * @param executor the pool, shared among measurements, with which to help measure planes
+     */
+    public ScanlineStats(PixelData data, long pixelsId, ExecutorService executor) {
+        this.data = data;
+        this.pixelsId = pixelsId;
+        this.executor = executor;
+    }
+
+    /**
+     * Note that a shape is to be measured on a plane.
+     * @param z the Z of the plane
+     * @param c the C of the plane
+     * @param t the T of the plane
+     * @param spans the points of the shape
+     * @param stats the statistics to which the shape's pixel values on the plane are to be added
+     */
+    public void add(int z, int c, int t, ShapeSpans spans, Accumulator stats) {
+        if (spans.isEmpty()) {
+            return;
+        }
+        final String key = z + "/" + c + "/" + t;
+        Plane plane = planes.get(key);
+        if (plane == null) {
+            plane = new Plane(z, c, t);
+            planes.put(key, plane);
+        }
+        plane.jobs.add(new Job(spans, stats));
+    }
+
+    /**
+     * Measure the shapes on their planes, adding the pixel values to the
+     * statistics. The pixel buffers are opened by the calling thread, which
+     * also measures planes so that progress is made however busy the pool.
+     */
+    public void measure() {
+        final int threads = Math.max(1, Math.min(MAX_THREADS, planes.size()));
+        final Queue<Plane> queue = new ConcurrentLinkedQueue<Plane>(planes.values());
+        final List<PixelBuffer> buffers = new ArrayList<PixelBuffer>(threads);
+        final List<Future<?>> results = new ArrayList<Future<?>>(threads - 1);
+        try {
+            for (int thread = 0; thread < threads; thread++) {
+                buffers.add(data.getBuffer(pixelsId));
+            }
+            for (final PixelBuffer buffer : buffers.subList(1, threads)) {
+                results.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        measure(buffer, queue);
+                    }
+                }));
+            }
+            measure(buffers.get(0), queue);
+            for (final Future<?> result : results) {
+                result.get();
+            }
+        } catch (ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new InternalException("failed to measure shapes: " + cause);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InternalException("interrupted while measuring shapes");
+        } finally {
+            /* on failure, stop the helpers taking planes and let them finish before closing their buffers */
+            queue.clear();
+            for (final Future<?> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException ee) {
+                    /* already reported */
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            for (final PixelBuffer buffer : buffers) {
+                try {
+                    buffer.close();
+                } catch (IOException e) {
+                    log.error("Error closing " + buffer, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Measure planes from the queue until it is empty.
+     * @param buffer the pixel buffer from which to read
+     * @param queue the planes to measure
+     */
+    private void measure(PixelBuffer buffer, Queue<Plane> queue) {
+        final Dimension tileSize = buffer.getTileSize();
+        Plane plane;
+        while ((plane = queue.poll()) != null) {
+            measure(buffer, tileSize.width, tileSize.height, plane);
+        }
+    }
+
+    /**
+     * Measure the shapes on a plane, reading one tile at a time.
+     * @param buffer the pixel buffer from which to read
+     * @param tileWidth the width of the buffer's tiles
+     * @param tileHeight the height of the buffer's tiles
+     * @param plane the plane to measure
+     */
+    private void measure(PixelBuffer buffer, int tileWidth, int tileHeight, Plane plane) {
+        final int jobCount = plane.jobs.size();
+        final Accumulator[] stats = new Accumulator[jobCount];
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int job = 0; job < jobCount; job++) {
+            final ShapeSpans spans = plane.jobs.get(job).spans;
+            stats[job] = new Accumulator();
+            minX = Math.min(minX, spans.getMinX());
+            minY = Math.min(minY, spans.getMinY());
+            maxX = Math.max(maxX, spans.getMaxX());
+            maxY = Math.max(maxY, spans.getMaxY());
+        }
+        for (int tileY = minY - minY % tileHeight; tileY <= maxY; tileY += tileHeight) {
+            for (int tileX = minX - minX % tileWidth; tileX <= maxX; tileX += tileWidth) {
+                /* read only the part of the tile that the overlapping shapes' bounding boxes cover */
+                int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+                int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+                for (final Job job : plane.jobs) {
+                    final ShapeSpans spans = job.spans;
+                    if (spans.intersects(tileX, tileY, tileWidth, tileHeight)) {
+                        left = Math.min(left, Math.max(tileX, spans.getMinX()));
+                        top = Math.min(top, Math.max(tileY, spans.getMinY()));
+                        right = Math.max(right, Math.min(tileX + tileWidth - 1, spans.getMaxX()));
+                        bottom = Math.max(bottom, Math.min(tileY + tileHeight - 1, spans.getMaxY()));
+                    }
+                }
+                if (left > right) {
+                    continue;
+                }
+                final int width = right - left + 1;
+                final int height = bottom - top + 1;
+                final ome.util.PixelData region =
+                        data.getTile(buffer, plane.z, plane.c, plane.t, left, top, width, height);
+                try {
+                    for (int job = 0; job < jobCount; job++) {
+                        final ShapeSpans spans = plane.jobs.get(job).spans;
+                        if (spans.intersects(left, top, width, height)) {
+                            spans.accumulate(region, left, top, width, height, stats[job]);
+                        }
+                    }
+                } finally {
+                    region.dispose();
+                }
+            }
+        }
+        for (int job = 0; job < jobCount; job++) {
+            plane.jobs.get(job).stats.addAll(stats[job]);
+        }
+    }
+}
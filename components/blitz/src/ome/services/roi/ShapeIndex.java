@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.roi;
+
+import static omero.rtypes.rint;
+import static omero.rtypes.rlong;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import ome.conditions.ApiUsageException;
+import omero.api.ShapeOptions;
+import omero.api.ShapePage;
+import omero.model.Shape;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * Keeps a grid index over the bounds of the shapes of recently viewed
+ * images, per plane, so that the shapes in a region of a large image can be
+ * found without loading all the image's shapes. An index is built when an
+ * image's shapes are first queried by region and is brought up to date on
+ * each later query: if shapes were only added then just those are indexed,
+ * otherwise the index is rebuilt. As shapes' visibility depends on the
+ * reader, each index is held for a particular scope, for instance user and
+ * group. The number of shapes indexed over all images is limited, the least
+ * recently used indexes being dropped.
+ *
+ * @since 5.5.0
+ */
+public class ShapeIndex {
+
+    private final static Logger log = LoggerFactory.getLogger(ShapeIndex.class);
+
+    /**
+     * The most cells that a shape is added to. Shapes that cover more cells
+     * are tested for each query instead.
+     */
+    private final static int MAX_CELLS_PER_SHAPE = 64;
+
+    /**
+     * A shape in the index.
+     */
+    private static class Entry {
+        final long id;
+        final Rectangle2D bounds;
+
+        Entry(long id, Rectangle2D bounds) {
+            this.id = id;
+            this.bounds = bounds;
+        }
+    }
+
+    /**
+     * The shapes on one plane, or on all planes along one or both dimensions.
+     */
+    private static class Plane {
+        final Integer z, t;
+        final Map<Long, List<Entry>> cells = new HashMap<Long, List<Entry>>();
+        final List<Entry> large = new ArrayList<Entry>();
+        final List<Long> unbounded = new ArrayList<Long>();
+
+        Plane(Integer z, Integer t) {
+            this.z = z;
+            this.t = t;
+        }
+    }
+
+    /**
+     * The index of one image's shapes.
+     */
+    private static class ImageIndex {
+        final Map<Long, Plane> planes = new HashMap<Long, Plane>();
+        long count = 0;
+        long maxShapeId = 0;
+        Long maxUpdateEventId = null;
+        boolean valid = false;
+    }
+
+    private final long maxShapes;
+
+    private final int cellSize;
+
+    private final Cache<String, ImageIndex> indexes;
+
+    /**
+     * @param maxShapes the most shapes to index over all images, or
+     * {@code 0} if none are to be indexed
+     * @param cellSize the width and height of a cell of the grid, in pixels
+     */
+    public ShapeIndex(long maxShapes, int cellSize) {
+        if (maxShapes < 0) {
+            throw new ApiUsageException("maximum number of shapes to index may not be negative");
+        }
+        if (cellSize < 1) {
+            throw new ApiUsageException("cell size of shape index must be positive");
+        }
+        this.maxShapes = maxShapes;
+        this.cellSize = cellSize;
+        this.indexes = CacheBuilder.newBuilder().maximumWeight(maxShapes).weigher(new Weigher<String, ImageIndex>() {
+            @Override
+            public int weigh(String key, ImageIndex index) {
+                return (int) Math.min(Integer.MAX_VALUE, index.count);
+            }
+        }).build();
+    }
+
+    /**
+     * @return if any shapes may be indexed
+     */
+    public boolean isEnabled() {
+        return maxShapes > 0;
+    }
+
+    /**
+     * Find the shapes of an image that may be in a region. The index of the
+     * image's shapes is first brought up to date.
+     * @param session the Hibernate session of the reader
+     * @param scope the scope of the reader, such that readers with the same
+     * scope can see the same shapes
+     * @param imageId the ID of the image
+     * @param z the Z plane of the shapes, or {@code null} for any
+     * @param t the T plane of the shapes, or {@code null} for any
+     * @param box the region
+     * @return the IDs of the shapes whose bounds overlap the region, or whose
+     * bounds are not known, including transformed shapes
+     */
+    public SortedSet<Long> find(Session session, String scope, long imageId, Integer z, Integer t,
+            Rectangle2D box) {
+        final String key = imageId + "/" + scope;
+        final ImageIndex newIndex = new ImageIndex();
+        final ImageIndex oldIndex = indexes.asMap().putIfAbsent(key, newIndex);
+        final ImageIndex index = oldIndex == null ? newIndex : oldIndex;
+        final SortedSet<Long> ids = new TreeSet<Long>();
+        synchronized (index) {
+            if (update(session, imageId, index)) {
+                /* re-weigh the index */
+                indexes.put(key, index);
+            }
+            for (final Plane plane : index.planes.values()) {
+                if ((z == null || plane.z == null || plane.z.equals(z)) &&
+                        (t == null || plane.t == null || plane.t.equals(t))) {
+                    find(plane, box, ids);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Bring an index up to date with the shapes in the database.
+     * @param session the Hibernate session of the reader
+     * @param imageId the ID of the image
+     * @param index the image's index
+     * @return if the index changed
+     */
+    private boolean update(Session session, long imageId, ImageIndex index) {
+        if (index.valid) {
+            /* the shapes that were indexed must be unchanged for the index to be extended */
+            final Object[] indexed = (Object[]) session.createQuery(
+                    "SELECT COUNT(s.id), MAX(s.details.updateEvent.id) FROM Shape s " +
+                    "WHERE s.roi.image.id = :id AND s.id <= :max")
+                    .setParameter("id", imageId)
+                    .setParameter("max", index.maxShapeId)
+                    .uniqueResult();
+            if (((Number) indexed[0]).longValue() != index.count ||
+                    !equal(toLong(indexed[1]), index.maxUpdateEventId)) {
+                log.debug("rebuilding shape index for image {}", imageId);
+                index.planes.clear();
+                index.count = 0;
+                index.maxShapeId = 0;
+                index.valid = false;
+            } else {
+                final Long maxShapeId = toLong(session.createQuery(
+                        "SELECT MAX(s.id) FROM Shape s WHERE s.roi.image.id = :id")
+                        .setParameter("id", imageId)
+                        .uniqueResult());
+                if (maxShapeId == null || maxShapeId <= index.maxShapeId) {
+                    return false;
+                }
+            }
+        }
+
+        final ShapeOptions opts = new ShapeOptions();
+        opts.limit = rint(ShapeProjection.MAX_LIMIT);
+        if (index.valid) {
+            opts.afterId = rlong(index.maxShapeId);
+        }
+        ShapePage page;
+        do {
+            page = new ShapeProjection(imageId, opts).page(session);
+            for (final Shape shape : page.shapes) {
+                add(index, shape);
+            }
+            opts.afterId = page.nextId;
+        } while (page.nextId != null);
+        index.maxUpdateEventId = toLong(session.createQuery(
+                "SELECT MAX(s.details.updateEvent.id) FROM Shape s WHERE s.roi.image.id = :id AND s.id <= :max")
+                .setParameter("id", imageId)
+                .setParameter("max", index.maxShapeId)
+                .uniqueResult());
+        index.valid = true;
+        return true;
+    }
+
+    /**
+     * Add a shape to an index.
+     * @param index the index of the shape's image
+     * @param shape the shape
+     */
+    private void add(ImageIndex index, Shape shape) {
+        final long id = shape.getId().getValue();
+        final Integer z = shape.getTheZ() == null ? null : shape.getTheZ().getValue();
+        final Integer t = shape.getTheT() == null ? null : shape.getTheT().getValue();
+        final long planeKey = key(z == null ? -1 : z, t == null ? -1 : t);
+        Plane plane = index.planes.get(planeKey);
+        if (plane == null) {
+            plane = new Plane(z, t);
+            index.planes.put(planeKey, plane);
+        }
+        index.count++;
+        index.maxShapeId = Math.max(index.maxShapeId, id);
+
+        final Rectangle2D shapeBounds = shape.getTransform() == null ? ShapeProjection.bounds(shape) : null;
+        if (shapeBounds == null) {
+            plane.unbounded.add(id);
+            return;
+        }
+        /* rectangles may have negative extents */
+        final Rectangle2D bounds = new Rectangle2D.Double();
+        bounds.setFrameFromDiagonal(shapeBounds.getMinX(), shapeBounds.getMinY(),
+                shapeBounds.getMaxX(), shapeBounds.getMaxY());
+        final Entry entry = new Entry(id, bounds);
+        final long minX = cell(bounds.getMinX()), maxX = cell(bounds.getMaxX());
+        final long minY = cell(bounds.getMinY()), maxY = cell(bounds.getMaxY());
+        if (cellCount(minX, maxX, minY, maxY) > MAX_CELLS_PER_SHAPE) {
+            plane.large.add(entry);
+            return;
+        }
+        for (long cellY = minY; cellY <= maxY; cellY++) {
+            for (long cellX = minX; cellX <= maxX; cellX++) {
+                final long cellKey = key(cellX, cellY);
+                List<Entry> cell = plane.cells.get(cellKey);
+                if (cell == null) {
+                    cell = new ArrayList<Entry>();
+                    plane.cells.put(cellKey, cell);
+                }
+                cell.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Find the shapes of a plane that may be in a region.
+     * @param plane the plane
+     * @param box the region
+     * @param ids the set to which to add the IDs of the shapes found
+     */
+    private void find(Plane plane, Rectangle2D box, SortedSet<Long> ids) {
+        ids.addAll(plane.unbounded);
+        for (final Entry entry : plane.large) {
+            if (ShapeProjection.overlaps(entry.bounds, box)) {
+                ids.add(entry.id);
+            }
+        }
+        final long minX = cell(box.getMinX()), maxX = cell(box.getMaxX());
+        final long minY = cell(box.getMinY()), maxY = cell(box.getMaxY());
+        if (cellCount(minX, maxX, minY, maxY) > plane.cells.size()) {
+            /* the region covers more cells than are occupied */
+            for (final List<Entry> cell : plane.cells.values()) {
+                find(cell, box, ids);
+            }
+        } else {
+            for (long cellY = minY; cellY <= maxY; cellY++) {
+                for (long cellX = minX; cellX <= maxX; cellX++) {
+                    final List<Entry> cell = plane.cells.get(key(cellX, cellY));
+                    if (cell != null) {
+                        find(cell, box, ids);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the shapes of a cell that overlap a region.
+     * @param cell the shapes of the cell
+     * @param box the region
+     * @param ids the set to which to add the IDs of the shapes found
+     */
+    private static void find(List<Entry> cell, Rectangle2D box, SortedSet<Long> ids) {
+        for (final Entry entry : cell) {
+            if (ShapeProjection.overlaps(entry.bounds, box)) {
+                ids.add(entry.id);
+            }
+        }
+    }
+
+    /**
+     * @param coordinate a coordinate of the image
+     * @return the cell along the coordinate's dimension that contains it
+     */
+    private long cell(double coordinate) {
+        return (long) Math.floor(coordinate / cellSize);
+    }
+
+    /**
+     * @return the number of cells in a range, as a {@code double} as it may
+     * be huge
+     */
+    private static double cellCount(long minX, long maxX, long minY, long maxY) {
+        return ((double) maxX - minX + 1) * ((double) maxY - minY + 1);
+    }
+
+    /**
+     * @return a key for a pair of 32-bit values
+     */
+    private static long key(long x, long y) {
+        return x << 32 | y & 0xFFFFFFFFL;
+    }
+
+    private static Long toLong(Object value) {
+        return value == null ? null : ((Number) value).longValue();
+    }
+
+    private static boolean equal(Long x, Long y) {
+        return x == null ? y == null : x.equals(y);
+    }
+}
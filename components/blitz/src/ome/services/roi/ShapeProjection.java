@@ -0,0 +1,619 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.roi;
+
+import static omero.rtypes.rbool;
+import static omero.rtypes.rdouble;
+import static omero.rtypes.rint;
+import static omero.rtypes.rlong;
+import static omero.rtypes.rstring;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+
+import ome.conditions.ApiUsageException;
+import ome.tools.hibernate.QueryBuilder;
+import omero.RDouble;
+import omero.RInt;
+import omero.api.ShapeOptions;
+import omero.api.ShapePage;
+import omero.model.AffineTransformI;
+import omero.model.EllipseI;
+import omero.model.LabelI;
+import omero.model.LineI;
+import omero.model.MaskI;
+import omero.model.PathI;
+import omero.model.PointI;
+import omero.model.PolygonI;
+import omero.model.PolylineI;
+import omero.model.RectangleI;
+import omero.model.RoiI;
+import omero.model.Shape;
+import omero.model.SmartShape;
+
+import org.apache.batik.parser.DefaultPointsHandler;
+import org.apache.batik.parser.ParseException;
+import org.apache.batik.parser.PointsParser;
+import org.hibernate.Session;
+
+/**
+ * Loads a page of an image's shapes by querying only the columns that are
+ * wanted, building the Ice shapes directly from the rows rather than mapping
+ * whole {@link ome.model.roi.Roi} graphs. Shapes are ordered by ID and paged
+ * by the last ID returned, so later pages cost no more than the first. The
+ * points of polygons and polylines are returned as stored and only parsed if
+ * a bounding box must be tested; the bytes of masks are only loaded on
+ * request.
+ *
+ * @since 5.5.0
+ */
+public class ShapeProjection {
+
+    /**
+     * The number of shapes in a page if no limit is given.
+     */
+    public final static int DEFAULT_LIMIT = 1000;
+
+    /**
+     * The greatest number of shapes in a page.
+     */
+    public final static int MAX_LIMIT = 10000;
+
+    /**
+     * The columns common to all shapes, in the order that
+     * {@link #build(Type, Object[])} expects them.
+     */
+    private final static String COMMON_COLUMNS = "s.id, s.theZ, s.theT, s.theC, r.id, tr.id";
+
+    private final static int STYLE_COLUMN = 6;
+
+    private final static String STYLE_COLUMNS = "s.fillColor, s.strokeColor, s.locked";
+
+    /**
+     * How to query and build one type of shape.
+     */
+    private static abstract class Type {
+        final String name;
+        final String columns;
+        final String overlapCondition;
+
+        /**
+         * @param name the model class of the shape
+         * @param columns the columns of the shape's geometry
+         * @param overlapCondition the condition for the shape to overlap the
+         * box from {@code (:left, :top)} to {@code (:right, :bottom)}, or
+         * {@code null} if the overlap must be tested from the shape's
+         * {@link #bounds(Shape) bounds}
+         */
+        Type(String name, String columns, String overlapCondition) {
+            this.name = name;
+            this.columns = columns;
+            this.overlapCondition = overlapCondition;
+        }
+
+        /**
+         * @param row the row of the query
+         * @param column the index of the first geometry column in the row
+         * @return a shape with the geometry from the row
+         */
+        abstract Shape build(Object[] row, int column);
+
+        /**
+         * @param shape a shape as built from a row
+         * @return the untransformed bounds of the shape, or {@code null} if
+         * they cannot be determined
+         */
+        abstract Rectangle2D bounds(Shape shape);
+    }
+
+    private final static String RECTANGLE_OVERLAPS =
+            "s.x <= :right and s.x + s.width >= :left and s.y <= :bottom and s.y + s.height >= :top";
+
+    private final static String POINT_OVERLAPS =
+            "s.x between :left and :right and s.y between :top and :bottom";
+
+    private final static List<Type> TYPES = new ArrayList<Type>();
+
+    static {
+        TYPES.add(new Type("Rectangle", "s.x, s.y, s.width, s.height", RECTANGLE_OVERLAPS) {
+            Shape build(Object[] row, int column) {
+                final RectangleI shape = new RectangleI();
+                shape.setX(toRDouble(row[column]));
+                shape.setY(toRDouble(row[column + 1]));
+                shape.setWidth(toRDouble(row[column + 2]));
+                shape.setHeight(toRDouble(row[column + 3]));
+                return shape;
+            }
+
+            Rectangle2D bounds(Shape shape) {
+                final RectangleI rectangle = (RectangleI) shape;
+                return box(rectangle.getX(), rectangle.getY(), rectangle.getWidth(), rectangle.getHeight());
+            }
+        });
+        TYPES.add(new Type("Mask", "s.x, s.y, s.width, s.height", RECTANGLE_OVERLAPS) {
+            Shape build(Object[] row, int column) {
+                final MaskI shape = new MaskI();
+                shape.setX(toRDouble(row[column]));
+                shape.setY(toRDouble(row[column + 1]));
+                shape.setWidth(toRDouble(row[column + 2]));
+                shape.setHeight(toRDouble(row[column + 3]));
+                if (row.length > column + 4) {
+                    shape.setBytes((byte[]) row[column + 4]);
+                }
+                return shape;
+            }
+
+            Rectangle2D bounds(Shape shape) {
+                final MaskI mask = (MaskI) shape;
+                return box(mask.getX(), mask.getY(), mask.getWidth(), mask.getHeight());
+            }
+        });
+        TYPES.add(new Type("Ellipse", "s.x, s.y, s.radiusX, s.radiusY",
+                "s.x - s.radiusX <= :right and s.x + s.radiusX >= :left and " +
+                "s.y - s.radiusY <= :bottom and s.y + s.radiusY >= :top") {
+            Shape build(Object[] row, int column) {
+                final EllipseI shape = new EllipseI();
+                shape.setX(toRDouble(row[column]));
+                shape.setY(toRDouble(row[column + 1]));
+                shape.setRadiusX(toRDouble(row[column + 2]));
+                shape.setRadiusY(toRDouble(row[column + 3]));
+                return shape;
+            }
+
+            Rectangle2D bounds(Shape shape) {
+                final EllipseI ellipse = (EllipseI) shape;
+                if (ellipse.getX() == null || ellipse.getY() == null ||
+                        ellipse.getRadiusX() == null || ellipse.getRadiusY() == null) {
+                    return null;
+                }
+                final double radiusX = ellipse.getRadiusX().getValue();
+                final double radiusY = ellipse.getRadiusY().getValue();
+                return new Rectangle2D.Double(ellipse.getX().getValue() - radiusX,
+                        ellipse.getY().getValue() - radiusY, 2 * radiusX, 2 * radiusY);
+            }
+        });
+        TYPES.add(new Type("Point", "s.x, s.y", POINT_OVERLAPS) {
+            Shape build(Object[] row, int column) {
+                final PointI shape = new PointI();
+                shape.setX(toRDouble(row[column]));
+                shape.setY(toRDouble(row[column + 1]));
+                return shape;
+            }
+
+            Rectangle2D bounds(Shape shape) {
+                final PointI point = (PointI) shape;
+                return box(point.getX(), point.getY(), rdouble(0), rdouble(0));
+            }
+        });
+        TYPES.add(new Type("Label", "s.x, s.y, s.textValue", POINT_OVERLAPS) {
+            Shape build(Object[] row, int column) {
+                final LabelI shape = new LabelI();
+                shape.setX(toRDouble(row[column]));
+                shape.setY(toRDouble(row[column + 1]));
+                if (row[column + 2] != null) {
+                    shape.setTextValue(rstring((String) row[column + 2]));
+                }
+                return shape;
+            }
+
+            Rectangle2D bounds(Shape shape) {
+                final LabelI label = (LabelI) shape;
+                return box(label.getX(), label.getY(), rdouble(0), rdouble(0));
+            }
+        });
+        TYPES.add(new Type("Line", "s.x1, s.y1, s.x2, s.y2",
+                "(s.x1 <= :right or s.x2 <= :right) and (s.x1 >= :left or s.x2 >= :left) and " +
+                "(s.y1 <= :bottom or s.y2 <= :bottom) and (s.y1 >= :top or s.y2 >= :top)") {
+            Shape build(Object[] row, int column) {
+                final LineI shape = new LineI();
+                shape.setX1(toRDouble(row[column]));
+                shape.setY1(toRDouble(row[column + 1]));
+                shape.setX2(toRDouble(row[column + 2]));
+                shape.setY2(toRDouble(row[column + 3]));
+                return shape;
+            }
+
+            Rectangle2D bounds(Shape shape) {
+                final LineI line = (LineI) shape;
+                if (line.getX1() == null || line.getY1() == null || line.getX2() == null || line.getY2() == null) {
+                    return null;
+                }
+                final Rectangle2D bounds = new Rectangle2D.Double(line.getX1().getValue(), line.getY1().getValue(), 0, 0);
+                bounds.add(line.getX2().getValue(), line.getY2().getValue());
+                return bounds;
+            }
+        });
+        TYPES.add(new Type("Polygon", "s.points", null) {
+            Shape build(Object[] row, int column) {
+                final PolygonI shape = new PolygonI();
+                if (row[column] != null) {
+                    shape.setPoints(rstring((String) row[column]));
+                }
+                return shape;
+            }
+
+            Rectangle2D bounds(Shape shape) {
+                final PolygonI polygon = (PolygonI) shape;
+                return polygon.getPoints() == null ? null : pointsBounds(polygon.getPoints().getValue());
+            }
+        });
+        TYPES.add(new Type("Polyline", "s.points", null) {
+            Shape build(Object[] row, int column) {
+                final PolylineI shape = new PolylineI();
+                if (row[column] != null) {
+                    shape.setPoints(rstring((String) row[column]));
+                }
+                return shape;
+            }
+
+            Rectangle2D bounds(Shape shape) {
+                final PolylineI polyline = (PolylineI) shape;
+                return polyline.getPoints() == null ? null : pointsBounds(polyline.getPoints().getValue());
+            }
+        });
+        TYPES.add(new Type("Path", "s.d", null) {
+            Shape build(Object[] row, int column) {
+                final PathI shape = new PathI();
+                if (row[column] != null) {
+                    shape.setD(rstring((String) row[column]));
+                }
+                return shape;
+            }
+
+            Rectangle2D bounds(Shape shape) {
+                final PathI path = (PathI) shape;
+                return path.getD() == null ? null : SmartShape.Util.parseAwtPath(path.getD().getValue()).getBounds2D();
+            }
+        });
+    }
+
+    /**
+     * A shape built from a row, with the type that built it.
+     */
+    private static class Result {
+        final long id;
+        final Type type;
+        final Shape shape;
+
+        Result(long id, Type type, Shape shape) {
+            this.id = id;
+            this.type = type;
+            this.shape = shape;
+        }
+    }
+
+    private final long imageId;
+
+    private final ShapeOptions opts;
+
+    private final int limit;
+
+    private final Rectangle2D box;
+
+    /**
+     * The IDs of the shapes that may be in the bounding box, if known.
+     */
+    private SortedSet<Long> candidateIds = null;
+
+    /**
+     * @param imageId the ID of the image whose shapes are to be loaded
+     * @param opts the options for the shapes, may be {@code null}
+     */
+    public ShapeProjection(long imageId, ShapeOptions opts) {
+        this.imageId = imageId;
+        this.opts = opts == null ? new ShapeOptions() : opts;
+        if (this.opts.limit == null) {
+            limit = DEFAULT_LIMIT;
+        } else if (this.opts.limit.getValue() < 1) {
+            throw new ApiUsageException("limit must be positive");
+        } else {
+            limit = Math.min(MAX_LIMIT, this.opts.limit.getValue());
+        }
+        if (this.opts.boxX == null && this.opts.boxY == null &&
+                this.opts.boxWidth == null && this.opts.boxHeight == null) {
+            box = null;
+        } else if (this.opts.boxX == null || this.opts.boxY == null ||
+                this.opts.boxWidth == null || this.opts.boxHeight == null) {
+            throw new ApiUsageException("bounding box must have all of x, y, width and height");
+        } else {
+            box = new Rectangle2D.Double(this.opts.boxX.getValue(), this.opts.boxY.getValue(),
+                    this.opts.boxWidth.getValue(), this.opts.boxHeight.getValue());
+        }
+    }
+
+    /**
+     * Limit the shapes to those that a spatial index found may overlap the
+     * bounding box. The shapes are still filtered by the other options and,
+     * for those whose bounds are tested here, by the box.
+     * @param candidateIds the IDs of the shapes that may be in the bounding box
+     */
+    public void setCandidateIds(SortedSet<Long> candidateIds) {
+        this.candidateIds = candidateIds;
+    }
+
+    /**
+     * @return the bounding box that shapes must overlap, or {@code null} if
+     * there is none
+     */
+    public Rectangle2D getBox() {
+        return box;
+    }
+
+    /**
+     * @return the number of shapes in a page
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Find the untransformed bounds of a shape of one of the types that this
+     * class loads.
+     * @param shape a shape
+     * @return the shape's bounds, or {@code null} if they cannot be determined
+     */
+    public static Rectangle2D bounds(Shape shape) {
+        final String[] parts = shape.ice_id().split(":");
+        final String name = parts[parts.length - 1];
+        for (final Type type : TYPES) {
+            if (type.name.equals(name)) {
+                return type.bounds(shape);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Load the page of shapes.
+     * @param session the Hibernate session
+     * @return the shapes
+     */
+    public ShapePage page(Session session) {
+        /* with a spatial index, query only the IDs that could fill the page */
+        List<Long> ids = null;
+        if (candidateIds != null) {
+            final SortedSet<Long> remaining = opts.afterId == null ? candidateIds :
+                candidateIds.tailSet(opts.afterId.getValue() + 1);
+            ids = new ArrayList<Long>(Math.min(limit + 1, remaining.size()));
+            for (final Long id : remaining) {
+                if (ids.size() > limit) {
+                    break;
+                }
+                ids.add(id);
+            }
+        }
+        final ShapePage page = new ShapePage();
+        if (ids != null && ids.isEmpty()) {
+            page.shapes = new ArrayList<Shape>();
+            return page;
+        }
+
+        final List<Result> candidates = new ArrayList<Result>();
+        for (final Type type : types()) {
+            for (final Object row : query(session, type, ids).list()) {
+                final Object[] columns = (Object[]) row;
+                candidates.add(new Result((Long) columns[0], type, build(type, columns)));
+            }
+        }
+        Collections.sort(candidates, new Comparator<Result>() {
+            @Override
+            public int compare(Result r1, Result r2) {
+                return Long.compare(r1.id, r2.id);
+            }
+        });
+
+        /* each type fetched one row more than the limit so the smallest IDs overall are complete */
+        page.shapes = new ArrayList<Shape>(Math.min(limit, candidates.size()));
+        final int count = Math.min(limit, candidates.size());
+        for (final Result result : candidates.subList(0, count)) {
+            if (box == null || result.shape.getTransform() != null || result.type.overlapCondition != null ||
+                    ids != null || overlaps(result.type.bounds(result.shape), box)) {
+                page.shapes.add(result.shape);
+            }
+        }
+        if (candidates.size() > limit) {
+            page.nextId = rlong(candidates.get(limit - 1).id);
+        } else if (ids != null && ids.size() > limit) {
+            /* some of the indexed shapes were filtered out but more may follow */
+            page.nextId = rlong(ids.get(limit - 1));
+        }
+        return page;
+    }
+
+    /**
+     * @return the types of shape requested
+     */
+    private List<Type> types() {
+        if (opts.shapes == null || opts.shapes.isEmpty()) {
+            return TYPES;
+        }
+        final Set<String> names = new HashSet<String>();
+        for (String name : opts.shapes) {
+            /* accept model class names and Ice type IDs as well as simple names */
+            final String[] parts = name.split("[.:]");
+            name = parts[parts.length - 1];
+            if (name.endsWith("I")) {
+                name = name.substring(0, name.length() - 1);
+            }
+            names.add(name.toLowerCase());
+        }
+        final List<Type> types = new ArrayList<Type>();
+        for (final Type type : TYPES) {
+            if (names.remove(type.name.toLowerCase())) {
+                types.add(type);
+            }
+        }
+        if (!names.isEmpty()) {
+            throw new ApiUsageException("unknown shape types: " + names);
+        }
+        return types;
+    }
+
+    /**
+     * Query the next rows of the given type of shape.
+     * @param session the Hibernate session
+     * @param type the type of shape
+     * @param ids the IDs to which to limit the shapes, or {@code null}
+     * @return the query
+     */
+    private org.hibernate.Query query(Session session, Type type, List<Long> ids) {
+        final StringBuilder columns = new StringBuilder(COMMON_COLUMNS);
+        if (opts.style) {
+            columns.append(", ");
+            columns.append(STYLE_COLUMNS);
+        }
+        columns.append(", ");
+        columns.append(type.columns);
+        if (opts.maskBytes && "Mask".equals(type.name)) {
+            columns.append(", s.bytes");
+        }
+        final QueryBuilder qb = new QueryBuilder();
+        qb.select(columns.toString());
+        qb.from(type.name, "s");
+        qb.join("s.roi", "r", false, false);
+        qb.join("r.image", "i", false, false);
+        qb.join("s.transform", "tr", true, false);
+        qb.where();
+        qb.and("i.id = :id");
+        qb.param("id", imageId);
+        if (opts.afterId != null) {
+            qb.and("s.id > :after");
+            qb.param("after", opts.afterId.getValue());
+        }
+        if (ids != null) {
+            qb.and("s.id in (:ids)");
+            qb.paramList("ids", ids);
+        }
+        if (opts.theZ != null) {
+            qb.and("(s.theZ is null or s.theZ = :z)");
+            qb.param("z", opts.theZ.getValue());
+        }
+        if (opts.theT != null) {
+            qb.and("(s.theT is null or s.theT = :t)");
+            qb.param("t", opts.theT.getValue());
+        }
+        if (box != null && type.overlapCondition != null) {
+            qb.and("(tr.id is not null or (" + type.overlapCondition + "))");
+            qb.param("left", box.getMinX());
+            qb.param("right", box.getMaxX());
+            qb.param("top", box.getMinY());
+            qb.param("bottom", box.getMaxY());
+        }
+        qb.order("s.id", true);
+        final org.hibernate.Query query = qb.queryWithoutFilter(session);
+        query.setMaxResults(limit + 1);
+        return query;
+    }
+
+    /**
+     * Build a shape from a row of its query.
+     * @param type the type of shape
+     * @param row the row
+     * @return the shape
+     */
+    private Shape build(Type type, Object[] row) {
+        final int geometry = opts.style ? STYLE_COLUMN + 3 : STYLE_COLUMN;
+        final Shape shape = type.build(row, geometry);
+        shape.setId(rlong((Long) row[0]));
+        shape.setTheZ(toRInt(row[1]));
+        shape.setTheT(toRInt(row[2]));
+        shape.setTheC(toRInt(row[3]));
+        shape.setRoi(new RoiI((Long) row[4], false));
+        if (row[5] != null) {
+            shape.setTransform(new AffineTransformI((Long) row[5], false));
+        }
+        if (opts.style) {
+            shape.setFillColor(toRInt(row[STYLE_COLUMN]));
+            shape.setStrokeColor(toRInt(row[STYLE_COLUMN + 1]));
+            if (row[STYLE_COLUMN + 2] != null) {
+                shape.setLocked(rbool((Boolean) row[STYLE_COLUMN + 2]));
+            }
+        }
+        return shape;
+    }
+
+    /**
+     * Test if bounds overlap a box. Unlike {@link Rectangle2D#intersects}
+     * this counts touching edges and empty bounds.
+     * @param bounds the bounds of a shape, may be {@code null}
+     * @param box the bounding box
+     * @return if the bounds overlap the box, or {@code true} if the bounds
+     * are {@code null}
+     */
+    public static boolean overlaps(Rectangle2D bounds, Rectangle2D box) {
+        return bounds == null || bounds.getMinX() <= box.getMaxX() && bounds.getMaxX() >= box.getMinX() &&
+                bounds.getMinY() <= box.getMaxY() && bounds.getMaxY() >= box.getMinY();
+    }
+
+    /**
+     * Find the bounds of a list of points, parsing the points without
+     * building objects for them.
+     * @param points the points as stored in the database
+     * @return the points' bounds, or {@code null} if the points cannot be
+     * parsed
+     */
+    private static Rectangle2D pointsBounds(String points) {
+        final double[] bounds = {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        final PointsParser parser = new PointsParser();
+        parser.setPointsHandler(new DefaultPointsHandler() {
+            @Override
+            public void point(float x, float y) {
+                bounds[0] = Math.min(bounds[0], x);
+                bounds[1] = Math.min(bounds[1], y);
+                bounds[2] = Math.max(bounds[2], x);
+                bounds[3] = Math.max(bounds[3], y);
+            }
+        });
+        try {
+            parser.parse(points);
+        } catch (ParseException pe) {
+            return null;
+        }
+        if (bounds[0] > bounds[2]) {
+            return null;
+        }
+        return new Rectangle2D.Double(bounds[0], bounds[1], bounds[2] - bounds[0], bounds[3] - bounds[1]);
+    }
+
+    /**
+     * @return the box with the given corner and size, or {@code null} if any
+     * is missing
+     */
+    private static Rectangle2D box(RDouble x, RDouble y, RDouble width, RDouble height) {
+        if (x == null || y == null || width == null || height == null) {
+            return null;
+        }
+        return new Rectangle2D.Double(x.getValue(), y.getValue(), width.getValue(), height.getValue());
+    }
+
+    private static RDouble toRDouble(Object value) {
+        return value == null ? null : rdouble((Double) value);
+    }
+
+    private static RInt toRInt(Object value) {
+        return value == null ? null : rint((Integer) value);
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.roi;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import ome.util.PixelData;
+import omero.model.SmartShape;
+
+/**
+ * The points of a {@link SmartShape} that lie within an image, rasterized
+ * into runs of consecutive pixels along each row. Each pixel is included
+ * at most once. Instances are immutable.
+ *
+ * @since 5.5.0
+ */
+public class ShapeSpans {
+
+    /* the y coordinate of each row that has spans, ascending */
+    private final int[] rows;
+
+    /* the index of the first span of each row, followed by the number of spans */
+    private final int[] rowSpans;
+
+    /* the first and last x coordinate of each span, inclusive */
+    private final int[] spanStarts, spanEnds;
+
+    private final long pointCount;
+
+    private final int minX, minY, maxX, maxY;
+
+    private ShapeSpans(int[] rows, int[] rowSpans, int[] spanStarts, int[] spanEnds, long pointCount,
+            int minX, int minY, int maxX, int maxY) {
+        this.rows = rows;
+        this.rowSpans = rowSpans;
+        this.spanStarts = spanStarts;
+        this.spanEnds = spanEnds;
+        this.pointCount = pointCount;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+
+    /**
+     * Rasterize the given shape. Points outside of the image are dropped.
+     * @param shape a shape
+     * @param sizeX the width of the image
+     * @param sizeY the height of the image
+     * @return the spans of the shape's points within the image
+     */
+    public static ShapeSpans rasterize(SmartShape shape, final int sizeX, final int sizeY) {
+        final Builder builder = new Builder();
+        shape.areaPoints(new SmartShape.PointCallback() {
+            public void handle(int x, int y) {
+                if (x >= 0 && y >= 0 && x < sizeX && y < sizeY) {
+                    builder.add(x, y);
+                }
+            }
+        });
+        return builder.build();
+    }
+
+    /**
+     * Collects points into spans as they arrive. Area shapes report their
+     * points row by row, left to right, so each point usually extends the
+     * last span and memory scales with the number of spans rather than the
+     * number of points. Points that arrive out of order, as from lines,
+     * start spans that are sorted and merged when the spans are built.
+     */
+    private static class Builder {
+
+        private int[] spanYs = new int[16], spanStarts = new int[16], spanEnds = new int[16];
+
+        private int spanCount = 0;
+
+        private boolean isOrdered = true;
+
+        /**
+         * @param x the x coordinate of a point
+         * @param y the y coordinate of the point
+         */
+        void add(int x, int y) {
+            if (spanCount > 0) {
+                final int last = spanCount - 1;
+                if (y == spanYs[last]) {
+                    if (x >= spanStarts[last] && x <= spanEnds[last]) {
+                        return;
+                    }
+                    if (x == spanEnds[last] + 1) {
+                        spanEnds[last] = x;
+                        return;
+                    }
+                    if (x < spanStarts[last]) {
+                        isOrdered = false;
+                    }
+                } else if (y < spanYs[last]) {
+                    isOrdered = false;
+                }
+            }
+            if (spanCount == spanYs.length) {
+                final int length = spanCount + (spanCount >> 1);
+                spanYs = Arrays.copyOf(spanYs, length);
+                spanStarts = Arrays.copyOf(spanStarts, length);
+                spanEnds = Arrays.copyOf(spanEnds, length);
+            }
+            spanYs[spanCount] = y;
+            spanStarts[spanCount] = x;
+            spanEnds[spanCount] = x;
+            spanCount++;
+        }
+
+        /**
+         * Sort the spans by row then start and merge those that overlap or abut.
+         */
+        private void normalize() {
+            final Integer[] order = new Integer[spanCount];
+            for (int span = 0; span < spanCount; span++) {
+                order[span] = span;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer span1, Integer span2) {
+                    if (spanYs[span1] != spanYs[span2]) {
+                        return spanYs[span1] < spanYs[span2] ? -1 : 1;
+                    }
+                    return spanStarts[span1] < spanStarts[span2] ? -1 : spanStarts[span1] == spanStarts[span2] ? 0 : 1;
+                }
+            });
+            final int[] ys = new int[spanCount], starts = new int[spanCount], ends = new int[spanCount];
+            int merged = 0;
+            for (final int span : order) {
+                if (merged > 0 && ys[merged - 1] == spanYs[span] && ends[merged - 1] + 1 >= spanStarts[span]) {
+                    ends[merged - 1] = Math.max(ends[merged - 1], spanEnds[span]);
+                } else {
+                    ys[merged] = spanYs[span];
+                    starts[merged] = spanStarts[span];
+                    ends[merged] = spanEnds[span];
+                    merged++;
+                }
+            }
+            spanYs = ys;
+            spanStarts = starts;
+            spanEnds = ends;
+            spanCount = merged;
+            isOrdered = true;
+        }
+
+        /**
+         * @return the spans of the points added so far
+         */
+        ShapeSpans build() {
+            if (!isOrdered) {
+                normalize();
+            }
+            int rowCount = 0;
+            for (int span = 0; span < spanCount; span++) {
+                if (span == 0 || spanYs[span] != spanYs[span - 1]) {
+                    rowCount++;
+                }
+            }
+            final int[] rows = new int[rowCount];
+            final int[] rowSpans = new int[rowCount + 1];
+            long pointCount = 0;
+            int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+            int row = -1;
+            for (int span = 0; span < spanCount; span++) {
+                if (span == 0 || spanYs[span] != spanYs[span - 1]) {
+                    rows[++row] = spanYs[span];
+                    rowSpans[row] = span;
+                }
+                pointCount += spanEnds[span] - spanStarts[span] + 1;
+                minX = Math.min(minX, spanStarts[span]);
+                maxX = Math.max(maxX, spanEnds[span]);
+            }
+            rowSpans[rowCount] = spanCount;
+            final int minY = rowCount == 0 ? Integer.MAX_VALUE : rows[0];
+            final int maxY = rowCount == 0 ? Integer.MIN_VALUE : rows[rowCount - 1];
+            return new ShapeSpans(rows, rowSpans, Arrays.copyOf(spanStarts, spanCount),
+                    Arrays.copyOf(spanEnds, spanCount), pointCount, minX, minY, maxX, maxY);
+        }
+    }
+
+    /**
+     * @return if the shape has no points within the image
+     */
+    public boolean isEmpty() {
+        return pointCount == 0;
+    }
+
+    /**
+     * @return the number of the shape's points within the image
+     */
+    public long getPointCount() {
+        return pointCount;
+    }
+
+    public int getMinX() {
+        return minX;
+    }
+
+    public int getMinY() {
+        return minY;
+    }
+
+    public int getMaxX() {
+        return maxX;
+    }
+
+    public int getMaxY() {
+        return maxY;
+    }
+
+    /**
+     * @param x the left of a region
+     * @param y the top of a region
+     * @param w the width of the region
+     * @param h the height of the region
+     * @return if the shape's bounding box overlaps the region
+     */
+    public boolean intersects(int x, int y, int w, int h) {
+        return !isEmpty() && minX < x + w && maxX >= x && minY < y + h && maxY >= y;
+    }
+
+    /**
+     * Accumulate the values of the shape's points that lie within a region of
+     * a plane.
+     * @param region the pixel data of the region, ordered by row
+     * @param x the left of the region
+     * @param y the top of the region
+     * @param w the width of the region
+     * @param h the height of the region
+     * @param stats the statistics to which to add the points' values
+     */
+    public void accumulate(PixelData region, int x, int y, int w, int h, ScanlineStats.Accumulator stats) {
+        int row = Arrays.binarySearch(rows, y);
+        if (row < 0) {
+            row = -row - 1;
+        }
+        final int right = x + w - 1;
+        for (; row < rows.length && rows[row] < y + h; row++) {
+            final int rowOffset = (rows[row] - y) * w - x;
+            for (int span = rowSpans[row]; span < rowSpans[row + 1]; span++) {
+                final int from = Math.max(spanStarts[span], x);
+                final int to = Math.min(spanEnds[span], right);
+                for (int point = from; point <= to; point++) {
+                    stats.add(region.getPixelValue(rowOffset + point));
+                }
+            }
+        }
+    }
+}
@@ -8,11 +8,15 @@ package omero.cmd;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import ome.io.nio.PixelsService;
 import ome.io.nio.ThumbnailService;
 import ome.security.ACLVoter;
@@ -76,6 +80,10 @@ public class RequestObjectFactoryRegistry extends
     
     private final GraphRequestFactory graphRequestFactory;
 
+    /* shared by all disk usage requests for finding the sizes of files */
+    private final ExecutorService diskUsageExecutor = Executors.newFixedThreadPool(DiskUsage2I.STAT_THREADS,
+            new ThreadFactoryBuilder().setNameFormat("DiskUsage2I-%d").setDaemon(true).build());
+
     private/* final */OmeroContext ctx;
 
     public RequestObjectFactoryRegistry(ExtendedMetadata em,
@@ -221,6 +229,7 @@ public class RequestObjectFactoryRegistry extends
                         final DiskUsage2I request = graphRequestFactory.getRequest(DiskUsage2I.class);
                         request.setPixelsService(pixelsService);
                         request.setThumbnailService(thumbnailService);
+                        request.setStatExecutor(diskUsageExecutor);
                         return request;
                     }
                 });
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package omero.cmd.admin;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ome.conditions.SecurityViolation;
+import ome.security.basic.CurrentDetails;
+import ome.services.util.MethodStatistics;
+import ome.services.util.ReadOnlyStatus;
+import omero.cmd.ERR;
+import omero.cmd.HandleI.Cancel;
+import omero.cmd.Helper;
+import omero.cmd.IRequest;
+import omero.cmd.MethodStatisticsRequest;
+import omero.cmd.MethodStatisticsResponse;
+import omero.cmd.Response;
+import omero.util.ObjectFactoryRegistry;
+
+import Ice.Communicator;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Reports the statistics collected by {@link MethodStatistics}.
+ * Only administrators may submit this request.
+ * @since 5.5.0
+ */
+@SuppressWarnings("serial")
+public class MethodStatisticsRequestI extends MethodStatisticsRequest
+    implements IRequest, ReadOnlyStatus.IsAware {
+
+    public static class Factory extends ObjectFactoryRegistry {
+        private final ObjectFactory factory;
+        public Factory(final CurrentDetails current,
+                final MethodStatistics statistics) {
+            factory = new ObjectFactory(ice_staticId()) {
+                @Override
+                public Ice.Object create(String name) {
+                    return new MethodStatisticsRequestI(current, statistics);
+                }};
+            }
+
+        @Override
+        public Map<String, ObjectFactory> createFactories(Communicator ic) {
+            return new ImmutableMap.Builder<String, ObjectFactory>()
+                    .put(ice_staticId(), factory).build();
+        }
+    }
+
+    protected Helper helper;
+
+    protected final CurrentDetails current;
+
+    protected final MethodStatistics statistics;
+
+    public MethodStatisticsRequestI(CurrentDetails current,
+            MethodStatistics statistics) {
+        this.current = current;
+        this.statistics = statistics;
+    }
+
+    //
+    // CMD API
+    //
+
+    @Override
+    public Map<String, String> getCallContext() {
+        return null;
+    }
+
+    public void init(Helper helper) {
+        this.helper = helper;
+        this.helper.setSteps(1);
+        if (!current.getCurrentEventContext().isCurrentUserAdmin()) {
+            throw helper.cancel(new ERR(), new SecurityViolation(
+                    "Only administrators may view method statistics"),
+                    "not-admin");
+        }
+    }
+
+    public Object step(int step) throws Cancel {
+        helper.assertStep(step);
+        try {
+            return statistics.getStatistics(prefix == null || prefix.isEmpty() ? null : prefix,
+                    quantiles == null ? new double[0] : quantiles);
+        } catch (IllegalArgumentException iae) {
+            throw helper.cancel(new ERR(), iae, "bad-quantile");
+        }
+    }
+
+    @Override
+    public void finish() throws Cancel {
+        // no-op
+    }
+
+    @SuppressWarnings("unchecked")
+    public void buildResponse(int step, Object object) {
+        helper.assertResponse(step);
+        if (helper.isLast(step)) {
+            final MethodStatisticsResponse rsp = new MethodStatisticsResponse();
+            rsp.methods = new HashMap<String, Map<String, Long>>(
+                    (Map<String, Map<String, Long>>) object);
+            helper.setResponseIfNull(rsp);
+        }
+    }
+
+    public Response getResponse() {
+        return helper.getResponse();
+    }
+
+    @Override
+    public boolean isReadOnly(ReadOnlyStatus readOnly) {
+        return true;
+    }
+}
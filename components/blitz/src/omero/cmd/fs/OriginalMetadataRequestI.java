@@ -53,6 +53,9 @@ import omero.constants.annotation.file.ORIGINALMETADATA;
 import omero.constants.namespaces.NSCOMPANIONFILE;
 import omero.util.IceMapper;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 
@@ -67,6 +70,8 @@ public class OriginalMetadataRequestI extends OriginalMetadataRequest implements
 
 	private static final long serialVersionUID = -1L;
 
+	private static final Logger log = LoggerFactory.getLogger(OriginalMetadataRequestI.class);
+
 	private final OriginalMetadataResponse rsp = new OriginalMetadataResponse();
 
 	private final PixelsService pixelsService;
@@ -133,14 +138,23 @@ public class OriginalMetadataRequestI extends OriginalMetadataRequest implements
 			final Image image = helper.getServiceFactory().getQueryService().get(Image.class, imageId);
 			final Pixels pixels = image.getPrimaryPixels();
 
+			IFormatReader reader = null;
 			try {
-				final IFormatReader reader = pixelsService.getBfReader(pixels);
+				reader = pixelsService.getBfReader(pixels);
 				final Hashtable<String, Object> global = reader.getGlobalMetadata();
 				final Hashtable<String, Object> series = reader.getSeriesMetadata();
 				rsp.globalMetadata = wrap(global);
 				rsp.seriesMetadata = wrap(series);
 			} catch (Throwable t) {
 				helper.cancel(new ERR(), t, "bf-reader-failure", "pixels", ""+pixels.getId());
+			} finally {
+				if (reader != null) {
+					try {
+						reader.close();
+					} catch (IOException e) {
+						log.warn("failed to close reader for pixels " + pixels.getId(), e);
+					}
+				}
 			}
 		}
 	}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package omero.cmd.fs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import Ice.Communicator;
+
+import ome.model.core.OriginalFile;
+import ome.model.enums.ChecksumAlgorithm;
+import ome.services.blitz.repo.ChecksumVerifier;
+import ome.services.blitz.repo.path.FsFile;
+import ome.services.blitz.util.ChecksumAlgorithmMapper;
+import ome.services.util.ReadOnlyStatus;
+import ome.system.Login;
+import omero.cmd.ERR;
+import omero.cmd.HandleI.Cancel;
+import omero.cmd.Helper;
+import omero.cmd.IRequest;
+import omero.cmd.Response;
+import omero.cmd.VerifyChecksums;
+import omero.cmd.VerifyChecksumsResponse;
+import omero.util.ObjectFactoryRegistry;
+
+/**
+ * Verifies the checksums of original files in the managed repository. The
+ * files are loaded and read in batches, one per step, so that the progress
+ * can be followed from the request's status. The files of each batch are
+ * read concurrently by the {@link ChecksumVerifier}.
+ * @since 5.5.0
+ */
+public class VerifyChecksumsI extends VerifyChecksums implements IRequest, ReadOnlyStatus.IsAware {
+
+    private static final long serialVersionUID = 3485202417651045389L;
+
+    private static final ImmutableMap<String, String> ALL_GROUPS_CONTEXT = ImmutableMap.of(Login.OMERO_GROUP, "-1");
+
+    private static final int BATCH_SIZE = 256;
+
+    public static class Factory extends ObjectFactoryRegistry {
+        private final ObjectFactory factory;
+        public Factory(final ChecksumVerifier checksumVerifier, final String managedDir,
+                final Set<String> managedRepoUuids) {
+            factory = new ObjectFactory(ice_staticId()) {
+                @Override
+                public Ice.Object create(String name) {
+                    return new VerifyChecksumsI(checksumVerifier, new File(managedDir), managedRepoUuids);
+                }};
+            }
+
+        @Override
+        public Map<String, ObjectFactory> createFactories(Communicator ic) {
+            return new ImmutableMap.Builder<String, ObjectFactory>()
+                    .put(ice_staticId(), factory).build();
+        }
+    }
+
+    private final ChecksumVerifier checksumVerifier;
+
+    private final File managedDir;
+
+    private final Set<String> managedRepoUuids;
+
+    private final VerifyChecksumsResponse response = new VerifyChecksumsResponse();
+
+    private Helper helper;
+
+    private List<List<Long>> batches;
+
+    /**
+     * Construct a new checksum verification request.
+     * @param checksumVerifier the verifier which computes the checksums
+     * @param managedDir the root directory of the managed repository
+     * @param managedRepoUuids the UUIDs of the managed repositories using that directory
+     */
+    public VerifyChecksumsI(ChecksumVerifier checksumVerifier, File managedDir, Set<String> managedRepoUuids) {
+        this.checksumVerifier = checksumVerifier;
+        this.managedDir = managedDir;
+        this.managedRepoUuids = managedRepoUuids;
+        response.mismatchedFileIds = new ArrayList<Long>();
+        response.unreadableFileIds = new ArrayList<Long>();
+        response.uncheckedFileIds = new ArrayList<Long>();
+    }
+
+    @Override
+    public Map<String, String> getCallContext() {
+        return new HashMap<String, String>(ALL_GROUPS_CONTEXT);
+    }
+
+    @Override
+    public void init(Helper helper) {
+        this.helper = helper;
+        final List<Long> ids = fileIds == null ? new ArrayList<Long>() : new ArrayList<Long>(new LinkedHashSet<Long>(fileIds));
+        batches = Lists.partition(ids, BATCH_SIZE);
+        helper.setSteps(Math.max(1, batches.size()));
+    }
+
+    @Override
+    public Object step(int step) throws Cancel {
+        helper.assertStep(step);
+        if (batches.isEmpty()) {
+            return new ArrayList<ChecksumVerifier.FileChecksum>();
+        }
+        final List<Long> batch = batches.get(step);
+        final Collection<OriginalFile> files = loadFiles(helper.getSession(), batch);
+        final Set<Long> checked = new HashSet<Long>();
+        final List<ChecksumVerifier.FileChecksum> checksums = new ArrayList<ChecksumVerifier.FileChecksum>();
+        for (final OriginalFile file : files) {
+            final ChecksumAlgorithm hasher = file.getHasher();
+            if (hasher != null && file.getHash() != null) {
+                final File serverFile = new FsFile(file.getPath() + file.getName()).toFile(managedDir);
+                checksums.add(new ChecksumVerifier.FileChecksum(file.getId(), serverFile,
+                        ChecksumAlgorithmMapper.getChecksumType(hasher), file.getHash(), null));
+                checked.add(file.getId());
+            }
+        }
+        for (final Long id : batch) {
+            if (!checked.contains(id)) {
+                response.uncheckedFileIds.add(id);
+            }
+        }
+        try {
+            checksumVerifier.compute(checksums);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw helper.cancel(new ERR(), ie, "interrupted");
+        }
+        return checksums;
+    }
+
+    /**
+     * Load those of the given original files that are in the managed repository.
+     * @param session the Hibernate session
+     * @param ids the IDs of original files
+     * @return the original files, with their hasher joined
+     */
+    @SuppressWarnings("unchecked")
+    private Collection<OriginalFile> loadFiles(Session session, List<Long> ids) {
+        if (managedRepoUuids.isEmpty()) {
+            return new ArrayList<OriginalFile>();
+        }
+        final String hql = "FROM OriginalFile o LEFT OUTER JOIN FETCH o.hasher WHERE o.id IN (:ids) AND o.repo IN (:repos)";
+        final Query query = session.createQuery(hql);
+        query.setParameterList("ids", ids);
+        query.setParameterList("repos", new ArrayList<String>(managedRepoUuids));
+        return new LinkedHashSet<OriginalFile>(query.list());
+    }
+
+    @Override
+    public void finish() {
+        // no-op
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void buildResponse(int step, Object object) {
+        helper.assertResponse(step);
+        for (final ChecksumVerifier.FileChecksum checksum : (List<ChecksumVerifier.FileChecksum>) object) {
+            response.bytesRead += checksum.getBytesRead();
+            if (checksum.getFailure() != null) {
+                response.unreadableFileIds.add(checksum.getId());
+            } else if (checksum.isMismatch()) {
+                response.mismatchedFileIds.add(checksum.getId());
+            }
+        }
+        if (helper.isLast(step)) {
+            helper.setResponseIfNull(response);
+        }
+    }
+
+    @Override
+    public Response getResponse() {
+        return helper.getResponse();
+    }
+
+    @Override
+    public boolean isReadOnly(ReadOnlyStatus readOnly) {
+        return true;
+    }
+}
@@ -22,10 +22,16 @@ package omero.cmd.graphs;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,12 +41,14 @@ import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.SetMultimap;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import ome.api.IQuery;
 import ome.io.bioformats.BfPyramidPixelBuffer;
 import ome.io.nio.PixelsService;
 import ome.io.nio.ThumbnailService;
 import ome.model.IObject;
+import ome.model.meta.ExperimenterGroup;
 import ome.parameters.Parameters;
 import ome.security.ACLVoter;
 import ome.security.basic.LightAdminPrivileges;
@@ -76,12 +84,28 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
 
     private static final Set<GraphPolicy.Ability> REQUIRED_ABILITIES = ImmutableSet.of();
 
+    /* which classes and properties "contain" original files */
+    private static final Map<String, String> FILE_PROPERTIES = ImmutableMap.<String, String>of(
+            "FileAnnotation", "file", "FilesetEntry", "originalFile", "JobOriginalFileLink", "child",
+            "PixelsOriginalFileMap", "parent", "Roi", "source");
+
+    /* for the containers of original files, to which class the usage should be attributed */
+    private static final Map<String, String> FILE_ATTRIBUTIONS = ImmutableMap.<String, String>of(
+            "JobOriginalFileLink", "Job", "PixelsOriginalFileMap", "Pixels");
+
+    /* how many threads check the sizes of the files of pixels and thumbnails when aggregating usage by group */
+    public static final int STAT_THREADS = 8;
+
+    /* how many pixels or thumbnails to query at once when aggregating usage by group */
+    private static final int STAT_BATCH_SIZE = 1000;
+
     private final ACLVoter aclVoter;
     private final GraphPathBean graphPathBean;
     private final Set<Class<? extends IObject>> legalClasses;
     private final GraphPolicy graphPolicy;
     private PixelsService pixelsService;
     private ThumbnailService thumbnailService;
+    private ExecutorService statExecutor = MoreExecutors.sameThreadExecutor();
 
     private Helper helper;
     private GraphHelper graphHelper;
@@ -90,6 +114,9 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
     private SetMultimap<String, Long> targetMultimap = null;
     private GraphTraversal.PlanExecutor processor;
 
+    /* if only groups are targeted then their IDs, empty if all groups, otherwise null as the model graph is traversed */
+    private Set<Long> aggregateGroupIds = null;
+
     /* keep track of disk usage totals */
     private final Usage usage = new Usage();
     /* original file ID to types that refer to them */
@@ -130,6 +157,15 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
         this.thumbnailService = thumbnailService;
     }
 
+    /**
+     * Provided by {@link omero.cmd.RequestObjectFactoryRegistry}, shared by all requests.
+     * If not set then the file sizes are found by the request's own thread.
+     * @param statExecutor the executor with which to find the sizes of the files of pixels and thumbnails
+     */
+    public void setStatExecutor(ExecutorService statExecutor) {
+        this.statExecutor = statExecutor;
+    }
+
     /* CMD REQUEST FRAMEWORK */
 
     @Override
@@ -160,6 +196,11 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
         try {
             switch (step) {
             case 0:
+                aggregateGroupIds = getAggregateGroupIds();
+                if (aggregateGroupIds != null) {
+                    aggregateOriginalFiles();
+                    return null;
+                }
                 if (targetObjects != null) {
                     targetMultimap = graphHelper.getTargetMultimap(legalClasses, targetObjects);
                 } else {
@@ -182,6 +223,9 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
                 }
                 return null;
             case 1:
+                if (aggregateGroupIds != null) {
+                    return null;
+                }
                 final Map.Entry<SetMultimap<String, Long>, SetMultimap<String, Long>> plan =
                         graphTraversal.planOperation(targetMultimap, true, true);
                 targetMultimap.clear();
@@ -193,12 +237,23 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
                 }
                 return null;
             case 2:
+                if (aggregateGroupIds != null) {
+                    return null;
+                }
                 processor = graphTraversal.processTargets();
                 return null;
             case 3:
+                if (aggregateGroupIds != null) {
+                    aggregateFilesOnDisk("Pixels");
+                    aggregateFilesOnDisk("Thumbnail");
+                    return null;
+                }
                 processor.execute();
                 return null;
             case 4:
+                if (aggregateGroupIds != null) {
+                    return null;
+                }
                 for (final Map.Entry<Long, OwnershipAndSize> fileIdSize : fileSizes.entrySet()) {
                     final Long fileId = fileIdSize.getKey();
                     final OwnershipAndSize fileSize = fileIdSize.getValue();
@@ -282,6 +337,42 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
                 return;
             }
             final LongPair ownership = new LongPair(owner, group);
+            addByType(ownership, type, 1, size);
+            if (bumpTotals) {
+                addTotal(ownership, 1, size);
+                bumpTotals = false;
+            }
+        }
+
+        /**
+         * Adjust counts and sizes by type according to given ownership, type and subtotals.
+         * Does not adjust the totals.
+         * @param owner the ID of an owner
+         * @param group the ID of a group
+         * @param type a type
+         * @param count a number of files
+         * @param size the total size of the files
+         */
+        void addByType(long owner, long group, String type, int count, long size) {
+            if (count > 0) {
+                addByType(new LongPair(owner, group), type, count, size);
+            }
+        }
+
+        /**
+         * Adjust the totals according to given ownership and subtotals.
+         * @param owner the ID of an owner
+         * @param group the ID of a group
+         * @param count a number of files
+         * @param size the total size of the files
+         */
+        void addTotal(long owner, long group, int count, long size) {
+            if (count > 0) {
+                addTotal(new LongPair(owner, group), count, size);
+            }
+        }
+
+        private void addByType(LongPair ownership, String type, int count, long size) {
             final Map<String, Integer> countByType;
             final Map<String, Long> sizeByType;
             if (countByTypeByWho.containsKey(ownership)) {
@@ -293,29 +384,21 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
                 countByTypeByWho.put(ownership, countByType);
                 sizeByTypeByWho.put(ownership, sizeByType);
             }
-            Long sizeThisType = sizeByType.get(type);
+            final Long sizeThisType = sizeByType.get(type);
             if (sizeThisType == null) {
-                countByType.put(type, Integer.valueOf(1));
+                countByType.put(type, count);
                 sizeByType.put(type, size);
             } else {
-                countByType.put(type, countByType.get(type) + 1);
+                countByType.put(type, countByType.get(type) + count);
                 sizeByType.put(type, sizeThisType + size);
             }
-            if (bumpTotals) {
-                Integer totalCount = totalCountByWho.get(ownership);
-                Long totalSize = totalSizeByWho.get(ownership);
-                if (totalCount == null) {
-                    totalCount = 0;
-                }
-                if (totalSize == null) {
-                    totalSize = 0L;
-                }
-                totalCount++;
-                totalSize += size;
-                totalCountByWho.put(ownership, totalCount);
-                totalSizeByWho.put(ownership, totalSize);
-                bumpTotals = false;
-            }
+        }
+
+        private void addTotal(LongPair ownership, int count, long size) {
+            final Integer totalCount = totalCountByWho.get(ownership);
+            final Long totalSize = totalSizeByWho.get(ownership);
+            totalCountByWho.put(ownership, totalCount == null ? count : totalCount + count);
+            totalSizeByWho.put(ownership, totalSize == null ? size : totalSize + size);
         }
 
         /**
@@ -391,6 +474,166 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
         return file.exists() ? file.length() : 0;
     }
 
+    /* DISK USAGE AGGREGATION BY GROUP */
+
+    /**
+     * Determine if only whole groups are targeted. Every object in a group is then included so the group's disk usage
+     * may be aggregated by grouped queries, without planning a traversal of the model graph.
+     * @return the IDs of the targeted groups, empty if all groups are targeted, or {@code null} if other objects are targeted
+     */
+    private Set<Long> getAggregateGroupIds() {
+        final Set<String> groupClass = Collections.singleton(ExperimenterGroup.class.getName());
+        boolean isAllGroups = false;
+        if (targetClasses != null && !targetClasses.isEmpty()) {
+            if (!groupClass.equals(graphHelper.getTargetSet(legalClasses, targetClasses))) {
+                return null;
+            }
+            isAllGroups = true;
+        }
+        final Set<Long> groupIds = new HashSet<Long>();
+        if (targetObjects != null && !targetObjects.isEmpty()) {
+            final SetMultimap<String, Long> targets = graphHelper.getTargetMultimap(legalClasses, targetObjects);
+            if (!groupClass.equals(targets.keySet())) {
+                return null;
+            }
+            groupIds.addAll(targets.values());
+        }
+        if (isAllGroups) {
+            return Collections.emptySet();
+        }
+        return groupIds.isEmpty() ? null : groupIds;
+    }
+
+    /**
+     * @param prefix the prefix for the properties of the queried object
+     * @return the HQL restricting the query to the targeted groups, may be empty
+     */
+    private String getGroupRestriction(String prefix) {
+        return aggregateGroupIds.isEmpty() ? "" : " AND " + prefix + "details.group.id IN (:groups)";
+    }
+
+    /**
+     * @return the parameters for the HQL given by {@link #getGroupRestriction(String)}
+     */
+    private Parameters getGroupParameters() {
+        final Parameters parameters = new Parameters();
+        if (!aggregateGroupIds.isEmpty()) {
+            parameters.addList("groups", new ArrayList<Long>(aggregateGroupIds));
+        }
+        return parameters;
+    }
+
+    /**
+     * Note the disk usage of the original files in the targeted groups, summed by ownership in the database.
+     */
+    private void aggregateOriginalFiles() {
+        final IQuery queryService = helper.getServiceFactory().getQueryService();
+        final String select = "SELECT f.details.owner.id, f.details.group.id, COUNT(f.id), SUM(f.size) ";
+        final String from = "FROM OriginalFile f WHERE f.size > 0" + getGroupRestriction("f.");
+        final String groupBy = " GROUP BY f.details.owner.id, f.details.group.id";
+        /* each file adds to the totals only once */
+        for (final Object[] resultRow : queryService.projection(select + from + groupBy, getGroupParameters())) {
+            if (resultRow != null) {
+                usage.addTotal((Long) resultRow[0], (Long) resultRow[1], ((Number) resultRow[2]).intValue(),
+                        ((Number) resultRow[3]).longValue());
+            }
+        }
+        /* each file adds to the subtotal of each type that contains it, or else to that of OriginalFile */
+        final StringBuilder uncontained = new StringBuilder(from);
+        for (final Map.Entry<String, String> fileProperty : FILE_PROPERTIES.entrySet()) {
+            final String className = fileProperty.getKey();
+            final String property = fileProperty.getValue();
+            String attribution = FILE_ATTRIBUTIONS.get(className);
+            if (attribution == null) {
+                attribution = className;
+            }
+            final String contained =
+                    " f.id IN (SELECT " + property + ".id FROM " + className + " WHERE " + property + " IS NOT NULL)";
+            uncontained.append(" AND NOT");
+            uncontained.append(contained);
+            final String hql = select + from + " AND" + contained + groupBy;
+            addByType(queryService.projection(hql, getGroupParameters()), attribution);
+        }
+        addByType(queryService.projection(select + uncontained + groupBy, getGroupParameters()), "OriginalFile");
+    }
+
+    /**
+     * Note the disk usage of the given type.
+     * @param resultRows query results of owner ID, group ID, file count and total size
+     * @param type the type to which to attribute the usage
+     */
+    private void addByType(List<Object[]> resultRows, String type) {
+        for (final Object[] resultRow : resultRows) {
+            if (resultRow != null) {
+                usage.addByType((Long) resultRow[0], (Long) resultRow[1], type, ((Number) resultRow[2]).intValue(),
+                        ((Number) resultRow[3]).longValue());
+            }
+        }
+    }
+
+    /**
+     * Get the sizes of the files on disk for the given object.
+     * @param className {@code "Pixels"} or {@code "Thumbnail"}
+     * @param id the object's ID
+     * @return the sizes of the object's files, {@code 0} for those that do not exist
+     */
+    private long[] getFileSizes(String className, long id) {
+        if ("Pixels".equals(className)) {
+            final String pixelsPath = pixelsService.getPixelsPath(id);
+            return new long[] {
+                    getFileSize(pixelsPath),
+                    getFileSize(pixelsPath + PixelsService.PYRAMID_SUFFIX),
+                    getFileSize(pixelsPath + PixelsService.PYRAMID_SUFFIX + BfPyramidPixelBuffer.PYR_LOCK_EXT)};
+        } else {
+            return new long[] {getFileSize(thumbnailService.getThumbnailPath(id))};
+        }
+    }
+
+    /**
+     * Note the disk usage of the files of the pixels or thumbnails in the targeted groups. The objects are queried in
+     * batches and the sizes of each batch's files are found concurrently.
+     * @param className {@code "Pixels"} or {@code "Thumbnail"}
+     * @throws InterruptedException if interrupted while waiting for the file sizes
+     * @throws ExecutionException if a file size could not be found
+     */
+    private void aggregateFilesOnDisk(final String className) throws InterruptedException, ExecutionException {
+        final IQuery queryService = helper.getServiceFactory().getQueryService();
+        final String hql = "SELECT id, details.owner.id, details.group.id FROM " + className + " WHERE id > :last" +
+                getGroupRestriction("") + " ORDER BY id";
+        long lastId = -1;
+        List<Object[]> resultRows;
+        do {
+            final Parameters parameters = getGroupParameters().addLong("last", lastId).page(0, STAT_BATCH_SIZE);
+            resultRows = queryService.projection(hql, parameters);
+            final List<Future<long[]>> fileSizes = new ArrayList<Future<long[]>>(resultRows.size());
+            for (final Object[] resultRow : resultRows) {
+                final long id = (Long) resultRow[0];
+                fileSizes.add(statExecutor.submit(new Callable<long[]>() {
+                    @Override
+                    public long[] call() {
+                        return getFileSizes(className, id);
+                    }
+                }));
+            }
+            try {
+                for (int index = 0; index < resultRows.size(); index++) {
+                    final Object[] resultRow = resultRows.get(index);
+                    final Long ownerId = (Long) resultRow[1];
+                    final Long groupId = (Long) resultRow[2];
+                    for (final long size : fileSizes.get(index).get()) {
+                        usage.bumpTotals().add(ownerId, groupId, className, size);
+                    }
+                    lastId = (Long) resultRow[0];
+                }
+            } finally {
+                /* the executor is shared so do not leave it work from a failed request */
+                for (final Future<long[]> fileSize : fileSizes) {
+                    fileSize.cancel(true);
+                }
+            }
+        } while (resultRows.size() == STAT_BATCH_SIZE);
+    }
+
     /**
      * A processor that notes disk usage and how to attribute it.
      * @author m.t.b.carroll@dundee.ac.uk
@@ -398,15 +641,6 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
      */
     private final class InternalProcessor extends BaseGraphTraversalProcessor {
 
-        /* which classes and properties "contain" original files */
-        private final Map<String, String> fileProperties = ImmutableMap.<String, String>of(
-                "FileAnnotation", "file", "FilesetEntry", "originalFile", "JobOriginalFileLink", "child",
-                "PixelsOriginalFileMap", "parent", "Roi", "source");
-
-        /* for the containers of original files, to which class the usage should be attributed */
-        private final Map<String, String> attributions = ImmutableMap.<String, String>of(
-                "JobOriginalFileLink", "Job", "PixelsOriginalFileMap", "Pixels");
-
         /* the query service */
         private final IQuery queryService = helper.getServiceFactory().getQueryService();
 
@@ -460,9 +694,9 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
                 }
             } else {
                 /* may contain an original file, if so then note which */
-                final String property = fileProperties.get(className);
+                final String property = FILE_PROPERTIES.get(className);
                 if (property != null) {
-                    String attribution = attributions.get(className);
+                    String attribution = FILE_ATTRIBUTIONS.get(className);
                     if (attribution == null) {
                         attribution = className;
                     }
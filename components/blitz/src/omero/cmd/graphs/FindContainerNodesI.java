@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package omero.cmd.graphs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Query;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import Ice.Communicator;
+
+import ome.model.internal.Permissions;
+import ome.services.util.ReadOnlyStatus;
+import ome.util.Utils;
+import omero.cmd.ERR;
+import omero.cmd.FindContainerNodes;
+import omero.cmd.FoundContainerNodes;
+import omero.cmd.HandleI.Cancel;
+import omero.cmd.Helper;
+import omero.cmd.IRequest;
+import omero.cmd.Response;
+import omero.util.ObjectFactoryRegistry;
+
+/**
+ * Lists container hierarchy nodes with a single HQL projection, without
+ * loading or converting model objects. Each request either lists the
+ * top-level nodes of a type or expands the given parent nodes by one level,
+ * so that clients may browse very large hierarchies lazily.
+ * @since 5.5.0
+ */
+@SuppressWarnings("serial")
+public class FindContainerNodesI extends FindContainerNodes implements IRequest, ReadOnlyStatus.IsAware {
+
+    /* the type of the children of each container type, and the link from the parent to the child */
+    private static final ImmutableMap<String, Map.Entry<String, String>> CHILDREN =
+            ImmutableMap.of(
+                    "Project", Maps.immutableEntry("Dataset", "ProjectDatasetLink"),
+                    "Dataset", Maps.immutableEntry("Image", "DatasetImageLink"),
+                    "Screen", Maps.immutableEntry("Plate", "ScreenPlateLink"));
+
+    /* HQL to count the children of a node aliased as "node" */
+    private static final ImmutableMap<String, String> CHILD_COUNTS = ImmutableMap.of(
+            "Project", "(SELECT COUNT(*) FROM ProjectDatasetLink WHERE parent = node)",
+            "Dataset", "(SELECT COUNT(*) FROM DatasetImageLink WHERE parent = node)",
+            "Screen", "(SELECT COUNT(*) FROM ScreenPlateLink WHERE parent = node)",
+            "Plate", "(SELECT COUNT(*) FROM Well WHERE plate = node)");
+
+    /* the links that make a top-level node of a type not an orphan */
+    private static final ImmutableMap<String, String> PARENT_LINKS = ImmutableMap.of(
+            "Dataset", "ProjectDatasetLink",
+            "Plate", "ScreenPlateLink");
+
+    public static class Factory extends ObjectFactoryRegistry {
+        private final ObjectFactory factory;
+        public Factory() {
+            factory = new ObjectFactory(ice_staticId()) {
+                @Override
+                public Ice.Object create(String name) {
+                    return new FindContainerNodesI();
+                }};
+            }
+
+        @Override
+        public Map<String, ObjectFactory> createFactories(Communicator ic) {
+            return new ImmutableMap.Builder<String, ObjectFactory>()
+                    .put(ice_staticId(), factory).build();
+        }
+    }
+
+    private Helper helper;
+
+    private String nodeType;
+
+    private boolean isTopLevel;
+
+    @Override
+    public Map<String, String> getCallContext() {
+        return null;
+    }
+
+    @Override
+    public void init(Helper helper) {
+        this.helper = helper;
+        helper.setSteps(1);
+        isTopLevel = parentIds == null || parentIds.isEmpty();
+        if (isTopLevel) {
+            if (!CHILD_COUNTS.containsKey(type)) {
+                throw helper.cancel(new ERR(), new IllegalArgumentException(), "bad-type", "type", String.valueOf(type));
+            }
+            nodeType = type;
+        } else {
+            if (!CHILDREN.containsKey(type)) {
+                throw helper.cancel(new ERR(), new IllegalArgumentException(), "bad-type", "type", String.valueOf(type));
+            }
+            nodeType = CHILDREN.get(type).getKey();
+        }
+        if (offset < 0 || limit < 0) {
+            throw helper.cancel(new ERR(), new IllegalArgumentException(), "bad-paging");
+        }
+    }
+
+    /**
+     * @return the HQL query for the nodes, selecting the parent ID, node ID, name,
+     * owner ID, group ID, permissions and, if applicable, the child count
+     */
+    private String getQuery() {
+        final List<String> selectTerms = new ArrayList<String>();
+        selectTerms.add(isTopLevel ? "node.id" : "link.parent.id");
+        selectTerms.add("node.id");
+        selectTerms.add("node.name");
+        selectTerms.add("node.details.owner.id");
+        selectTerms.add("node.details.group.id");
+        selectTerms.add("node.details.permissions");
+        final String childCount = CHILD_COUNTS.get(nodeType);
+        if (childCount != null) {
+            selectTerms.add(childCount);
+        }
+        final StringBuilder query = new StringBuilder("SELECT ");
+        query.append(Joiner.on(", ").join(selectTerms));
+        if (isTopLevel) {
+            query.append(" FROM " + nodeType + " AS node");
+            final List<String> whereTerms = new ArrayList<String>();
+            if (ownerIds != null && !ownerIds.isEmpty()) {
+                whereTerms.add("node.details.owner.id IN (:owners)");
+            }
+            if (orphan && PARENT_LINKS.containsKey(nodeType)) {
+                whereTerms.add("NOT EXISTS (SELECT 1 FROM " + PARENT_LINKS.get(nodeType) + " WHERE child = node)");
+            }
+            if (!whereTerms.isEmpty()) {
+                query.append(" WHERE " + Joiner.on(" AND ").join(whereTerms));
+            }
+            query.append(" ORDER BY node.id");
+        } else {
+            query.append(" FROM " + CHILDREN.get(type).getValue() + " AS link JOIN link.child AS node");
+            query.append(" WHERE link.parent.id IN (:parents)");
+            query.append(" ORDER BY link.parent.id, node.id");
+        }
+        return query.toString();
+    }
+
+    @Override
+    public Object step(int step) throws Cancel {
+        helper.assertStep(step);
+        final Query query = helper.getSession().createQuery(getQuery());
+        if (isTopLevel) {
+            if (ownerIds != null && !ownerIds.isEmpty()) {
+                query.setParameterList("owners", ownerIds);
+            }
+        } else {
+            query.setParameterList("parents", parentIds);
+        }
+        if (offset > 0) {
+            query.setFirstResult(offset);
+        }
+        if (limit > 0) {
+            query.setMaxResults(limit);
+        }
+        @SuppressWarnings("unchecked")
+        final List<Object[]> results = query.list();
+        final FoundContainerNodes response = new FoundContainerNodes();
+        response.type = nodeType;
+        response.parentIds = new ArrayList<Long>(results.size());
+        response.ids = new ArrayList<Long>(results.size());
+        response.names = new ArrayList<String>(results.size());
+        response.ownerIds = new ArrayList<Long>(results.size());
+        response.groupIds = new ArrayList<Long>(results.size());
+        response.permissions = new ArrayList<Long>(results.size());
+        response.childCounts = new ArrayList<Long>(results.size());
+        for (final Object[] result : results) {
+            response.parentIds.add(isTopLevel ? -1L : (Long) result[0]);
+            response.ids.add((Long) result[1]);
+            response.names.add((String) result[2]);
+            response.ownerIds.add((Long) result[3]);
+            response.groupIds.add((Long) result[4]);
+            response.permissions.add((Long) Utils.internalForm((Permissions) result[5]));
+            response.childCounts.add(result.length > 6 ? ((Number) result[6]).longValue() : 0L);
+        }
+        return response;
+    }
+
+    @Override
+    public void finish() {
+        // no-op
+    }
+
+    @Override
+    public void buildResponse(int step, Object object) {
+        helper.assertResponse(step);
+        if (helper.isLast(step)) {
+            helper.setResponseIfNull((Response) object);
+        }
+    }
+
+    @Override
+    public Response getResponse() {
+        return helper.getResponse();
+    }
+
+    @Override
+    public boolean isReadOnly(ReadOnlyStatus readOnly) {
+        return true;
+    }
+}
@@ -23,8 +23,10 @@ package omero.gateway;
 
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -152,6 +154,9 @@ class Connector
      * instances are stored separately */
     private final Multimap<String, StatefulServiceInterfacePrx> statefulServices;
 
+    /** The stateful services returned to the pool, per service name. */
+    private final Map<String, Deque<StatefulServiceInterfacePrx>> idleServices;
+
     /** Map of importStores to prevent re-lookup */
     private final Map<OMEROMetadataStoreClient, String> importStores;
 
@@ -243,6 +248,7 @@ class Connector
         reServices = Multimaps.<Long, RenderingEnginePrx>
         synchronizedMultimap(
                 HashMultimap.<Long, RenderingEnginePrx>create());
+        idleServices = new HashMap<String, Deque<StatefulServiceInterfacePrx>>();
 
         derived = CacheBuilder.newBuilder().build();
     }
@@ -655,6 +661,9 @@ class Connector
         if (unsecureClient != null) {
             unsecureClient.closeSession();
         }
+        synchronized (idleServices) {
+            idleServices.clear();
+        }
         entryEncrypted = secureClient.joinSession(uuid);
         if (unsecureClient != null) { //we are in unsecured mode
             unsecureClient = null;
@@ -765,19 +774,58 @@ class Connector
      */
      boolean keepSessionAlive()
     {
-        boolean success = true;
+        return endKeepSessionAlive(beginKeepSessionAlive());
+    }
+
+    /**
+     * Starts keeping the services alive without waiting for the server, so
+     * that the requests for several connectors can be sent in one batch.
+     * Pass the result to {@link #endKeepSessionAlive(List)}.
+     *
+     * @return The pending requests.
+     */
+     List<Ice.AsyncResult> beginKeepSessionAlive()
+    {
+        List<Ice.AsyncResult> pending = new ArrayList<Ice.AsyncResult>(2);
         try {
-            entryEncrypted.keepAllAlive(null);
+            pending.add(entryEncrypted.begin_keepAllAlive(null));
+            if (entryUnencrypted != null)
+                pending.add(entryUnencrypted.begin_keepAllAlive(null));
         } catch (Exception e) {
-            success = false;
-            logger.warn(this, new LogMessage("Failed encrypted keep alive: " ,e));
+            logger.warn(this, new LogMessage("Failed to keep alive: ", e));
+            pending.add(null);
         }
-        try {
-            if (entryUnencrypted != null && success)
-                entryUnencrypted.keepAllAlive(null);
-        } catch (Exception e) {
-            success = false;
-            logger.warn(this, new LogMessage("failed unencrypted keep alive: ", e));
+        return pending;
+    }
+
+    /**
+     * Waits for the keep alive requests started by
+     * {@link #beginKeepSessionAlive()}.
+     * Returns <code>true</code> if success, <code>false</code> otherwise.
+     *
+     * @param pending The pending requests.
+     * @return See above.
+     */
+     boolean endKeepSessionAlive(List<Ice.AsyncResult> pending)
+    {
+        boolean success = true;
+        for (int i = 0; i < pending.size(); i++) {
+            Ice.AsyncResult r = pending.get(i);
+            if (r == null) {
+                success = false;
+                continue;
+            }
+            try {
+                if (i == 0)
+                    entryEncrypted.end_keepAllAlive(r);
+                else
+                    entryUnencrypted.end_keepAllAlive(r);
+            } catch (Exception e) {
+                success = false;
+                logger.warn(this, new LogMessage(i == 0
+                        ? "Failed encrypted keep alive: "
+                        : "failed unencrypted keep alive: ", e));
+            }
         }
 
         if (success) {
@@ -822,6 +870,20 @@ class Connector
         }
     }
 
+    /**
+     * Returns <code>true</code> if the specified proxy was created by this
+     * connector and has not been closed yet, <code>false</code> otherwise.
+     * 
+     * @param proxy The proxy to check.
+     * @return See above.
+     */
+     boolean isOwner(StatefulServiceInterfacePrx proxy)
+    {
+        if (proxy instanceof RenderingEnginePrx)
+            return reServices.containsValue(proxy);
+        return statefulServices.containsValue(proxy);
+    }
+
     /**
      * Shuts downs the rendering engine.
      * 
@@ -856,6 +918,9 @@ class Connector
     /** Shuts down the stateful services.*/
      void shutdownStateful() {
         Collection<StatefulServiceInterfacePrx> proxies = null;
+        synchronized (idleServices) {
+            idleServices.clear();
+        }
         synchronized (statefulServices) {
             proxies = statefulServices.values();
             statefulServices.clear();
@@ -973,6 +1038,102 @@ class Connector
         });
     }
     
+    //
+    // Pooling
+    //
+
+    /**
+     * Creates a new connector joining the session of this connector. The new
+     * connector uses its own connection and its own stateful services.
+     *
+     * @param args The arguments with which the session was created or
+     *             <code>null</code> to connect to the server of the context.
+     * @return See above.
+     * @throws Exception If the session cannot be joined.
+     */
+     Connector join(List<String> args) throws Exception
+    {
+        ServerInformation server = context.getServerInformation();
+        client client;
+        if (args != null)
+            client = new client(args.toArray(new String[args.size()]));
+        else if (server.getPort() > 0)
+            client = new client(server.getHostname(), server.getPort());
+        else
+            client = new client(server.getHostname());
+        ServiceFactoryPrx prx = client.joinSession(secureClient.getSessionId());
+        this.pcs.firePropertyChange(Gateway.PROP_SESSION_CREATED, null,
+                client.getSessionId());
+        Connector c = new Connector(context.copy(), client, prx,
+                unsecureClient == null, username, logger);
+        for (PropertyChangeListener l : this.pcs.getPropertyChangeListeners())
+            c.addPropertyChangeListener(l);
+        this.pcs.firePropertyChange(Gateway.PROP_CONNECTOR_CREATED, null,
+                client.getSessionId());
+        return c;
+    }
+
+    /**
+     * Returns an idle stateful service previously passed to
+     * {@link #release(String, StatefulServiceInterfacePrx, int)} or creates a
+     * new one.
+     *
+     * @param name The name of the service.
+     * @return See above.
+     * @throws DSOutOfServiceException If the service cannot be created.
+     */
+     StatefulServiceInterfacePrx borrow(String name)
+            throws DSOutOfServiceException
+    {
+        synchronized (idleServices) {
+            Deque<StatefulServiceInterfacePrx> idle = idleServices.get(name);
+            if (idle != null && !idle.isEmpty())
+                return idle.pop();
+        }
+        return create(name, unsecureClient == null);
+    }
+
+    /**
+     * Keeps a stateful service for re-use by
+     * {@link #borrow(String)}, or closes it if there are already
+     * <code>maxIdle</code> idle services of that name.
+     *
+     * @param name The name of the service.
+     * @param proxy The service.
+     * @param maxIdle The maximum number of idle services of that name.
+     */
+     void release(String name, StatefulServiceInterfacePrx proxy,
+             int maxIdle)
+    {
+        synchronized (idleServices) {
+            Deque<StatefulServiceInterfacePrx> idle = idleServices.get(name);
+            if (idle == null) {
+                idle = new ArrayDeque<StatefulServiceInterfacePrx>();
+                idleServices.put(name, idle);
+            }
+            if (idle.size() < maxIdle) {
+                idle.push(proxy);
+                return;
+            }
+        }
+        close(proxy);
+    }
+
+    /**
+     * Returns the number of idle stateful services.
+     *
+     * @return See above.
+     */
+     int getIdleCount()
+    {
+        int n = 0;
+        synchronized (idleServices) {
+            for (Deque<StatefulServiceInterfacePrx> idle : idleServices.values())
+                n += idle.size();
+        }
+        return n;
+    }
+
     //
     // HELPERS
     //
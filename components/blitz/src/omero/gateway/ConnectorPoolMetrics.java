@@ -0,0 +1,169 @@
+/*
+ *------------------------------------------------------------------------------
+ *  Copyright (C) 2018 University of Dundee. All rights reserved.
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ *------------------------------------------------------------------------------
+ */
+package omero.gateway;
+
+/**
+ * A snapshot of the usage of the {@link Gateway}'s connector pool, see
+ * {@link Gateway#setConnectorPoolSize(int)}.
+ *
+ * @since 5.5.0
+ */
+public class ConnectorPoolMetrics {
+
+    /** The number of connectors */
+    private final int connectors;
+
+    /** The number of borrowed stateful services */
+    private final int borrowed;
+
+    /** The number of idle stateful services */
+    private final int idle;
+
+    /** The total number of borrow requests */
+    private final long borrowCount;
+
+    /** The total number of returned stateful services */
+    private final long returnCount;
+
+    /** The number of connectors created by joining an existing session */
+    private final long joinCount;
+
+    /** The number of batched keep alive rounds */
+    private final long keepAliveCount;
+
+    /** The number of connectors which failed to be kept alive */
+    private final long keepAliveFailureCount;
+
+    /**
+     * Creates a new instance
+     *
+     * @param connectors
+     *            The number of connectors
+     * @param borrowed
+     *            The number of borrowed stateful services
+     * @param idle
+     *            The number of idle stateful services
+     * @param borrowCount
+     *            The total number of borrow requests
+     * @param returnCount
+     *            The total number of returned stateful services
+     * @param joinCount
+     *            The number of connectors created by joining a session
+     * @param keepAliveCount
+     *            The number of batched keep alive rounds
+     * @param keepAliveFailureCount
+     *            The number of connectors which failed to be kept alive
+     */
+    ConnectorPoolMetrics(int connectors, int borrowed, int idle,
+            long borrowCount, long returnCount, long joinCount,
+            long keepAliveCount, long keepAliveFailureCount) {
+        this.connectors = connectors;
+        this.borrowed = borrowed;
+        this.idle = idle;
+        this.borrowCount = borrowCount;
+        this.returnCount = returnCount;
+        this.joinCount = joinCount;
+        this.keepAliveCount = keepAliveCount;
+        this.keepAliveFailureCount = keepAliveFailureCount;
+    }
+
+    /**
+     * Returns the number of connectors
+     *
+     * @return See above.
+     */
+    public int getConnectors() {
+        return connectors;
+    }
+
+    /**
+     * Returns the number of stateful services currently borrowed
+     *
+     * @return See above.
+     */
+    public int getBorrowed() {
+        return borrowed;
+    }
+
+    /**
+     * Returns the number of stateful services waiting to be borrowed again
+     *
+     * @return See above.
+     */
+    public int getIdle() {
+        return idle;
+    }
+
+    /**
+     * Returns the total number of borrow requests
+     *
+     * @return See above.
+     */
+    public long getBorrowCount() {
+        return borrowCount;
+    }
+
+    /**
+     * Returns the total number of returned stateful services
+     *
+     * @return See above.
+     */
+    public long getReturnCount() {
+        return returnCount;
+    }
+
+    /**
+     * Returns the number of connectors created by joining an existing session
+     *
+     * @return See above.
+     */
+    public long getJoinCount() {
+        return joinCount;
+    }
+
+    /**
+     * Returns the number of batched keep alive rounds
+     *
+     * @return See above.
+     */
+    public long getKeepAliveCount() {
+        return keepAliveCount;
+    }
+
+    /**
+     * Returns the number of connectors which failed to be kept alive
+     *
+     * @return See above.
+     */
+    public long getKeepAliveFailureCount() {
+        return keepAliveFailureCount;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectorPoolMetrics [connectors=" + connectors
+                + ", borrowed=" + borrowed + ", idle=" + idle
+                + ", borrowCount=" + borrowCount + ", returnCount="
+                + returnCount + ", joinCount=" + joinCount
+                + ", keepAliveCount=" + keepAliveCount
+                + ", keepAliveFailureCount=" + keepAliveFailureCount + "]";
+    }
+}
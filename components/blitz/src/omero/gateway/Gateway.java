@@ -33,12 +33,16 @@ import java.util.ResourceBundle;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
@@ -63,7 +67,9 @@ import omero.api.ITypesPrx;
 import omero.api.IUpdatePrx;
 import omero.api.RawFileStorePrx;
 import omero.api.RawPixelsStorePrx;
+import omero.api.RawPixelsStorePrxHelper;
 import omero.api.RenderingEnginePrx;
+import omero.api.RenderingEnginePrxHelper;
 import omero.api.SearchPrx;
 import omero.api.ServiceFactoryPrx;
 import omero.api.StatefulServiceInterfacePrx;
@@ -182,6 +188,36 @@ public class Gateway implements AutoCloseable {
     /** Flag to indicate that executor threads should be shutdown on disconnect */
     private boolean executorShutdownOnDisconnect = false;
 
+    /** The default maximum number of idle pooled services per connector */
+    public static final int DEFAULT_MAX_IDLE_SERVICES = 4;
+
+    /** The maximum number of connectors per group */
+    private volatile int connectorPoolSize = 1;
+
+    /** The maximum number of idle pooled services per connector */
+    private volatile int maxIdleServices = DEFAULT_MAX_IDLE_SERVICES;
+
+    /** Used to hand out the pooled connectors in turn */
+    private final AtomicInteger nextConnector = new AtomicInteger();
+
+    /** The borrowed stateful services and the connector they belong to */
+    private final ConcurrentMap<StatefulServiceInterfacePrx, Connector> borrowedServices = new ConcurrentHashMap<StatefulServiceInterfacePrx, Connector>();
+
+    /** The total number of borrow requests */
+    private final AtomicLong borrowCount = new AtomicLong();
+
+    /** The total number of returned services */
+    private final AtomicLong returnCount = new AtomicLong();
+
+    /** The number of connectors created by joining a session */
+    private final AtomicLong joinCount = new AtomicLong();
+
+    /** The number of keep alive rounds */
+    private final AtomicLong keepAliveCount = new AtomicLong();
+
+    /** The number of connectors which could not be kept alive */
+    private final AtomicLong keepAliveFailureCount = new AtomicLong();
+
     /**
      * Creates a new Gateway instance
      * @param log A {@link Logger}
@@ -240,6 +276,63 @@ public class Gateway implements AutoCloseable {
     public <T> Future<T> submit(Callable<T> task) {
         return executorService.submit(task);
     }
+
+    /**
+     * Sets the number of connectors kept per group. With a size greater than
+     * one, additional connectors are created on demand by joining the session
+     * of the group's first connector, and the calls to
+     * {@link #getConnector(SecurityContext)} (and hence to the service
+     * getters) are spread over the connectors in turn. Each connector uses
+     * its own connection and its own stateful services, so that several
+     * threads can e.g. fetch pixel data concurrently, see
+     * {@link #borrowPixelsStore(SecurityContext)}.
+     * 
+     * @param size
+     *            The number of connectors per group (default: 1)
+     */
+    public void setConnectorPoolSize(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("Pool size must be positive");
+        this.connectorPoolSize = size;
+    }
+
+    /**
+     * Returns the number of connectors kept per group
+     * 
+     * @return See above.
+     */
+    public int getConnectorPoolSize() {
+        return connectorPoolSize;
+    }
+
+    /**
+     * Sets the maximum number of returned stateful services of each type
+     * kept for re-use per connector. Services returned beyond that limit are
+     * closed.
+     * 
+     * @param maxIdle
+     *            The maximum number of idle services (default:
+     *            {@link #DEFAULT_MAX_IDLE_SERVICES})
+     */
+    public void setMaxIdleServices(int maxIdle) {
+        this.maxIdleServices = Math.max(0, maxIdle);
+    }
+
+    /**
+     * Returns a snapshot of the connector pool usage
+     * 
+     * @return See above.
+     */
+    public ConnectorPoolMetrics getConnectorPoolMetrics() {
+        List<Connector> connectors = getAllConnectors();
+        int idle = 0;
+        for (Connector c : connectors)
+            idle += c.getIdleCount();
+        return new ConnectorPoolMetrics(connectors.size(),
+                borrowedServices.size(), idle, borrowCount.get(),
+                returnCount.get(), joinCount.get(), keepAliveCount.get(),
+                keepAliveFailureCount.get());
+    }
     
     // Public connection handling methods
 
@@ -837,6 +930,113 @@ public class Gateway implements AutoCloseable {
         return null;
     }
 
+    /**
+     * Borrows a {@link RawPixelsStorePrx} from the pool; a previously
+     * returned instance is re-used if available. The pixels id has to be
+     * set again. Pass the service to
+     * {@link #returnPixelsStore(RawPixelsStorePrx)} once it is not needed
+     * anymore.
+     * 
+     * @param ctx
+     *            The {@link SecurityContext}
+     * @return See above.
+     * @throws DSOutOfServiceException
+     *             Thrown if the service cannot be initialized.
+     */
+    public RawPixelsStorePrx borrowPixelsStore(SecurityContext ctx)
+            throws DSOutOfServiceException {
+        return RawPixelsStorePrxHelper.uncheckedCast(borrowService(ctx,
+                omero.constants.RAWPIXELSSTORE.value));
+    }
+
+    /**
+     * Returns a {@link RawPixelsStorePrx} obtained by
+     * {@link #borrowPixelsStore(SecurityContext)} to the pool
+     * 
+     * @param store
+     *            The service
+     */
+    public void returnPixelsStore(RawPixelsStorePrx store) {
+        returnService(omero.constants.RAWPIXELSSTORE.value, store);
+    }
+
+    /**
+     * Borrows a {@link RenderingEnginePrx} from the pool; a previously
+     * returned instance is re-used if available. The pixels have to be
+     * looked up and the rendering settings loaded again. Pass the service
+     * to {@link #returnRenderingEngine(RenderingEnginePrx)} once it is not
+     * needed anymore.
+     * 
+     * @param ctx
+     *            The {@link SecurityContext}
+     * @return See above.
+     * @throws DSOutOfServiceException
+     *             Thrown if the service cannot be initialized.
+     */
+    public RenderingEnginePrx borrowRenderingEngine(SecurityContext ctx)
+            throws DSOutOfServiceException {
+        return RenderingEnginePrxHelper.uncheckedCast(borrowService(ctx,
+                omero.constants.RENDERINGENGINE.value));
+    }
+
+    /**
+     * Returns a {@link RenderingEnginePrx} obtained by
+     * {@link #borrowRenderingEngine(SecurityContext)} to the pool
+     * 
+     * @param re
+     *            The service
+     */
+    public void returnRenderingEngine(RenderingEnginePrx re) {
+        returnService(omero.constants.RENDERINGENGINE.value, re);
+    }
+
+    /**
+     * Borrows a stateful service from one of the pooled connectors
+     * 
+     * @param ctx
+     *            The {@link SecurityContext}
+     * @param name
+     *            The name of the service
+     * @return See above.
+     * @throws DSOutOfServiceException
+     *             Thrown if the service cannot be initialized.
+     */
+    private StatefulServiceInterfacePrx borrowService(SecurityContext ctx,
+            String name) throws DSOutOfServiceException {
+        Connector c = getConnector(ctx, true, false);
+        StatefulServiceInterfacePrx prx = c.borrow(name);
+        borrowedServices.put(prx, c);
+        borrowCount.incrementAndGet();
+        return prx;
+    }
+
+    /**
+     * Returns a borrowed stateful service to the connector it belongs to
+     * 
+     * @param name
+     *            The name of the service
+     * @param prx
+     *            The service
+     */
+    private void returnService(String name, StatefulServiceInterfacePrx prx) {
+        if (prx == null)
+            return;
+        Connector c = borrowedServices.remove(prx);
+        if (c == null) {
+            if (log != null)
+                log.warn(this, "Closing service which was not borrowed: "
+                        + prx);
+            try {
+                prx.close();
+            } catch (Exception e) {
+                // ignore
+            }
+            return;
+        }
+        returnCount.incrementAndGet();
+        c.release(name, prx, maxIdleServices);
+    }
+
     /**
      * Returns the {@link IPixelsPrx} service.
      * 
@@ -1230,16 +1430,27 @@ public class Gateway implements AutoCloseable {
         } catch (Exception e) {
             throw new DSOutOfServiceException("Network not available");
         }
-        Iterator<Connector> i = getAllConnectors().iterator();
-        Connector c;
-        while (i.hasNext()) {
-            c = i.next();
+        // Send the keep alive requests for all connectors first and only
+        // then wait for the responses, so that a round takes a single
+        // round trip however many connectors are pooled.
+        List<Connector> connectors = new ArrayList<Connector>();
+        List<List<Ice.AsyncResult>> pending = new ArrayList<List<Ice.AsyncResult>>();
+        for (Connector c : getAllConnectors()) {
             if (c.needsKeepAlive()) {
-                if (!c.keepSessionAlive()) {
-                    // Session has died, e. g. due to server restart.
-                    // Remove connectors, so new ones will be created as requested.
-                    groupConnectorMap.removeAll(c.getGroupID());
-                }
+                connectors.add(c);
+                pending.add(c.beginKeepSessionAlive());
+            }
+        }
+        if (connectors.isEmpty())
+            return;
+        keepAliveCount.incrementAndGet();
+        for (int i = 0; i < connectors.size(); i++) {
+            Connector c = connectors.get(i);
+            if (!c.endKeepSessionAlive(pending.get(i))) {
+                keepAliveFailureCount.incrementAndGet();
+                // Session has died, e. g. due to server restart.
+                // Remove connectors, so new ones will be created as requested.
+                groupConnectorMap.removeAll(c.getGroupID());
             }
         }
     }
@@ -1384,7 +1595,9 @@ public class Gateway implements AutoCloseable {
     public void closeService(SecurityContext ctx,
             StatefulServiceInterfacePrx svc) {
         try {
-            Connector c = getConnector(ctx, false, true);
+            Connector c = getOwner(ctx, svc);
+            if (c == null)
+                c = getConnector(ctx, false, true);
             if (c != null) {
                 c.close(svc);
             } else {
@@ -1396,6 +1609,32 @@ public class Gateway implements AutoCloseable {
         }
     }
 
+    /**
+     * Returns the connector of the group that created the given service. With
+     * a pool of connectors this is not necessarily the one that
+     * {@link #getConnector(SecurityContext, boolean, boolean)} selects.
+     * 
+     * @param ctx
+     *            The {@link SecurityContext}
+     * @param svc
+     *            The service
+     * @return The connector or <code>null</code> if none of the group's
+     *         connectors has the service
+     */
+    private Connector getOwner(SecurityContext ctx,
+            StatefulServiceInterfacePrx svc) {
+        List<Connector> clist;
+        synchronized (groupConnectorMap) {
+            clist = new ArrayList<Connector>(
+                    groupConnectorMap.get(ctx.getGroupID()));
+        }
+        for (Connector c : clist) {
+            if (c.isOwner(svc))
+                return c;
+        }
+        return null;
+    }
+
     /**
      * Create a {@link RawPixelsStorePrx}
      * 
@@ -1507,10 +1746,8 @@ public class Gateway implements AutoCloseable {
             throw new DSOutOfServiceException("Null SecurityContext");
         }
 
-        Connector c = null;
-        List<Connector> clist = groupConnectorMap.get(ctx.getGroupID());
-        if (clist.size() > 0) {
-            c = clist.get(0);
+        Connector c = selectConnector(ctx.getGroupID());
+        if (c != null) {
             if (c.needsKeepAlive()) {
                 // Check if network is up before keeping service otherwise
                 // we block until timeout.
@@ -1527,6 +1764,8 @@ public class Gateway implements AutoCloseable {
                     c = null;
                 }
             }
+            if (c != null && recreate)
+                c = growPool(c);
         }
 
         // We are going to create a connector and activate a session.
@@ -1556,6 +1795,59 @@ public class Gateway implements AutoCloseable {
         return c;
     }
 
+    /**
+     * Selects the connector to use for the given group. Unless pooling is
+     * enabled this is always the first connector of the group.
+     * 
+     * @param groupId
+     *            The group id
+     * @return The connector or <code>null</code> if there is none
+     */
+    private Connector selectConnector(long groupId) {
+        synchronized (groupConnectorMap) {
+            List<Connector> clist = groupConnectorMap.get(groupId);
+            if (clist.isEmpty())
+                return null;
+            if (connectorPoolSize <= 1)
+                return clist.get(0);
+            int index = (nextConnector.getAndIncrement() & Integer.MAX_VALUE)
+                    % clist.size();
+            return clist.get(index);
+        }
+    }
+
+    /**
+     * Adds a connector joining the session of the given connector if the pool
+     * of the group is not full yet.
+     * 
+     * @param c
+     *            The connector selected for the group
+     * @return The new connector or <code>c</code> if the pool is full or the
+     *         session could not be joined
+     */
+    private Connector growPool(Connector c) {
+        if (connectorPoolSize <= 1
+                || groupConnectorMap.get(c.getGroupID()).size() >= connectorPoolSize)
+            return c;
+        Connector joined;
+        try {
+            joined = c.join(login.getArguments());
+        } catch (Throwable e) {
+            if (log != null)
+                log.warn(this, new LogMessage("Could not join session", e));
+            return c;
+        }
+        synchronized (groupConnectorMap) {
+            if (groupConnectorMap.get(c.getGroupID()).size() < connectorPoolSize) {
+                groupConnectorMap.put(c.getGroupID(), joined);
+                joinCount.incrementAndGet();
+                return joined;
+            }
+        }
+        joined.close(true);
+        return c;
+    }
+
     /**
      * Shuts down the connectors created while creating/importing data for other
      * users.
@@ -1582,7 +1874,15 @@ public class Gateway implements AutoCloseable {
         Map<SecurityContext, Set<Long>> l = new HashMap<SecurityContext, Set<Long>>();
         Iterator<Connector> i = getAllConnectors().iterator();
         while (i.hasNext()) {
-            l.putAll(i.next().getRenderingEngines());
+            /* pooled connectors share their context so merge their engines */
+            for (Map.Entry<SecurityContext, Set<Long>> e : i.next()
+                    .getRenderingEngines().entrySet()) {
+                Set<Long> ids = l.get(e.getKey());
+                if (ids == null)
+                    l.put(e.getKey(), e.getValue());
+                else
+                    ids.addAll(e.getValue());
+            }
         }
         return l;
     }
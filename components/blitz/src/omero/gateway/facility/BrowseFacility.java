@@ -29,10 +29,14 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
 
+import omero.RLong;
+import omero.RType;
+import omero.ServerError;
 import omero.api.IContainerPrx;
 import omero.api.IQueryPrx;
 import omero.api.IScriptPrx;
@@ -61,6 +65,8 @@ import omero.gateway.model.WellData;
 import omero.gateway.util.PojoMapper;
 import omero.gateway.util.Pojos;
 
+import com.google.common.collect.Lists;
+
 /**
  * A {@link Facility} for browsing the data hierarchy and retrieving
  * {@link ProjectData}, {@link DatasetData}, etc.
@@ -948,32 +954,53 @@ public class BrowseFacility extends Facility {
             return result;
 
         try {
-            IQueryPrx proxy = gateway.getQueryService(ctx);
-            StringBuilder sb = new StringBuilder();
-            ParametersI param = new ParametersI();
-            param.addIds(wellIds);
-            sb.append("select well from Well as well ");
-            sb.append("left outer join fetch well.plate as pt ");
-            sb.append("left outer join fetch well.wellSamples as ws ");
-            sb.append("left outer join fetch ws.plateAcquisition as pa ");
-            sb.append("left outer join fetch ws.image as img ");
-            sb.append("left outer join fetch img.pixels as pix ");
-            sb.append("left outer join fetch pix.pixelsType as pt ");
-            sb.append("where well.id in (:ids)");
-
-            List<IObject> results = proxy.findAllByQuery(sb.toString(), param);
-            Iterator<IObject> i = results.iterator();
-            WellData well;
-            while (i.hasNext()) {
-                well = new WellData((Well) i.next());
-                result.add(well);
-            }
+            result.addAll(loadWells(ctx, wellIds));
         } catch (Throwable t) {
             handleException(this, t, "Could not load wells");
         }
         return result;
     }
 
+    /**
+     * Loads the wells with the given ids
+     *
+     * @param ctx
+     *            The {@link SecurityContext}
+     * @param wellIds
+     *            The ids of the wells to load
+     * @return See above
+     * @throws DSOutOfServiceException
+     *             If the connection is broken, or not logged in
+     * @throws ServerError
+     *             If the query failed
+     */
+    private List<WellData> loadWells(SecurityContext ctx,
+            Collection<Long> wellIds) throws DSOutOfServiceException,
+            ServerError {
+        IQueryPrx proxy = gateway.getQueryService(ctx);
+        StringBuilder sb = new StringBuilder();
+        ParametersI param = new ParametersI();
+        param.addIds(wellIds);
+        // distinct as fetching the well samples repeats each well
+        sb.append("select distinct well from Well as well ");
+        sb.append("left outer join fetch well.plate as p ");
+        sb.append("left outer join fetch well.wellSamples as ws ");
+        sb.append("left outer join fetch ws.plateAcquisition as pa ");
+        sb.append("left outer join fetch ws.image as img ");
+        sb.append("left outer join fetch img.pixels as pix ");
+        sb.append("left outer join fetch pix.pixelsType as pt ");
+        sb.append("where well.id in (:ids) ");
+        sb.append("order by well.id");
+
+        List<IObject> results = proxy.findAllByQuery(sb.toString(), param);
+        List<WellData> result = new ArrayList<WellData>(results.size());
+        Iterator<IObject> i = results.iterator();
+        while (i.hasNext()) {
+            result.add(new WellData((Well) i.next()));
+        }
+        return result;
+    }
+
     /**
      * Loads the wells for a given plate
      * @param ctx The {@link SecurityContext}
@@ -1144,21 +1171,7 @@ public class BrowseFacility extends Facility {
             return Collections.emptyList();
 
         try {
-            List<Long> idsList = new ArrayList<Long>(ids.size());
-            for (long id : ids)
-                idsList.add(id);
-
-            IContainerPrx service = gateway.getPojosService(ctx);
-            List<Image> images = service.getImages(
-                    PojoMapper.getModelType(ImageData.class).getName(),
-                    idsList, params);
-
-            Collection<ImageData> result = new ArrayList<ImageData>(
-                    images.size());
-            for (Image img : images)
-                result.add((ImageData) PojoMapper.asDataObject(img));
-
-            return result;
+            return loadImages(ctx, new ArrayList<Long>(ids), params);
         } catch (Throwable t) {
             handleException(this, t, "Could not load images");
         }
@@ -1166,6 +1179,34 @@ public class BrowseFacility extends Facility {
         return Collections.emptyList();
     }
 
+    /**
+     * Loads the images with the given ids and maps them to {@link ImageData}s
+     *
+     * @param ctx
+     *            The {@link SecurityContext}
+     * @param ids
+     *            The ids of the images to load
+     * @param params
+     *            Custom parameters, can be <code>null</code>
+     * @return See above
+     * @throws DSOutOfServiceException
+     *             If the connection is broken, or not logged in
+     * @throws ServerError
+     *             If the images could not be loaded
+     */
+    private List<ImageData> loadImages(SecurityContext ctx, List<Long> ids,
+            Parameters params) throws DSOutOfServiceException, ServerError {
+        IContainerPrx service = gateway.getPojosService(ctx);
+        List<Image> images = service.getImages(
+                PojoMapper.getModelType(ImageData.class).getName(), ids,
+                params);
+
+        List<ImageData> result = new ArrayList<ImageData>(images.size());
+        for (Image img : images)
+            result.add((ImageData) PojoMapper.asDataObject(img));
+        return result;
+    }
+
     /**
      * Get orphaned images for a certain user
      *
@@ -1322,6 +1363,239 @@ public class BrowseFacility extends Facility {
         return Collections.emptyList();
     }
 
+    /** Paged loading */
+
+    /**
+     * Retrieves hierarchy trees rooted by the given nodes, loading and
+     * mapping up to {@link PagedIterator#DEFAULT_PARALLELISM} pages of root
+     * nodes concurrently. The objects are returned in the order of the
+     * pages, each page as soon as it is available. If no root ids are
+     * specified all root nodes are loaded in one page, see
+     * {@link #getHierarchy(SecurityContext, Class, List, Parameters)}.
+     *
+     * @param ctx
+     *            The security context.
+     * @param rootType
+     *            The type of node to handle.
+     * @param rootIDs
+     *            The ids of the root nodes.
+     * @param options
+     *            The retrieval options.
+     * @param pageSize
+     *            The number of root nodes per page
+     * @return See above.
+     */
+    public PagedIterator<DataObject> getHierarchyPaged(
+            final SecurityContext ctx, Class rootType, List<Long> rootIDs,
+            final Parameters options, int pageSize) {
+        List<Callable<List<DataObject>>> pages = new ArrayList<Callable<List<DataObject>>>();
+        if (rootType != null) {
+            final String type = PojoMapper.getModelType(rootType).getName();
+            List<List<Long>> idPages;
+            if (CollectionUtils.isEmpty(rootIDs))
+                idPages = Collections.<List<Long>> singletonList(null);
+            else
+                idPages = Lists.partition(new ArrayList<Long>(rootIDs),
+                        Math.max(1, pageSize));
+            for (final List<Long> ids : idPages) {
+                pages.add(new Callable<List<DataObject>>() {
+                    @Override
+                    public List<DataObject> call() throws Exception {
+                        try {
+                            IContainerPrx service = gateway
+                                    .getPojosService(ctx);
+                            return new ArrayList<DataObject>(PojoMapper
+                                    .<DataObject> convertToDataObjects(service
+                                            .loadContainerHierarchy(type, ids,
+                                                    options)));
+                        } catch (Throwable t) {
+                            handleException(BrowseFacility.this, t,
+                                    "Could not load hierarchy");
+                        }
+                        return Collections.emptyList();
+                    }
+                });
+            }
+        }
+        return new PagedIterator<DataObject>(gateway, pages,
+                PagedIterator.DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Loads the images with the given ids page by page, loading and mapping
+     * up to {@link PagedIterator#DEFAULT_PARALLELISM} pages concurrently.
+     *
+     * @param ctx
+     *            The {@link SecurityContext}
+     * @param ids
+     *            The ids of the images to load
+     * @param params
+     *            Custom parameters, can be <code>null</code>
+     * @param pageSize
+     *            The number of images per page
+     * @return See above
+     */
+    public PagedIterator<ImageData> getImagesPaged(SecurityContext ctx,
+            Collection<Long> ids, ParametersI params, int pageSize) {
+        List<Long> idsList = ids == null ? Collections.<Long> emptyList()
+                : new ArrayList<Long>(ids);
+        return pageImages(ctx, idsList, params, pageSize);
+    }
+
+    /**
+     * Loads the images belonging to the given datasets page by page. Only
+     * the image ids are loaded up front, the images themselves are then
+     * loaded and mapped with up to
+     * {@link PagedIterator#DEFAULT_PARALLELISM} pages in flight. In contrast
+     * to {@link #getImagesForDatasets(SecurityContext, Collection)} an image
+     * linked to several of the datasets is only returned once.
+     *
+     * @param ctx
+     *            The {@link SecurityContext}
+     * @param datasetIds
+     *            The ids of the datasets
+     * @param pageSize
+     *            The number of images per page
+     * @return See above
+     * @throws DSOutOfServiceException
+     *             If the connection is broken, or not logged in
+     * @throws DSAccessException
+     *             If an error occurred while trying to retrieve data from OMERO
+     *             service.
+     */
+    public PagedIterator<ImageData> getImagesForDatasetsPaged(
+            SecurityContext ctx, Collection<Long> datasetIds, int pageSize)
+            throws DSOutOfServiceException, DSAccessException {
+        List<Long> imageIds = Collections.emptyList();
+        if (CollectionUtils.isNotEmpty(datasetIds)) {
+            ParametersI param = new ParametersI();
+            param.addIds(datasetIds);
+            imageIds = loadIds(ctx, "select distinct link.child.id "
+                    + "from DatasetImageLink as link "
+                    + "where link.parent.id in (:ids) "
+                    + "order by link.child.id", param,
+                    "Could not load images");
+        }
+        return pageImages(ctx, imageIds, null, pageSize);
+    }
+
+    /**
+     * Loads the wells of the given plate page by page. Only the well ids are
+     * loaded up front, the wells themselves are then loaded and mapped with
+     * up to {@link PagedIterator#DEFAULT_PARALLELISM} pages in flight.
+     *
+     * @param ctx
+     *            The {@link SecurityContext}
+     * @param plateId
+     *            The ID of the plate
+     * @param pageSize
+     *            The number of wells per page
+     * @return See above
+     * @throws DSOutOfServiceException
+     *             If the connection is broken, or not logged in
+     * @throws DSAccessException
+     *             If an error occurred while trying to retrieve data from OMERO
+     *             service.
+     */
+    public PagedIterator<WellData> getWellsPaged(final SecurityContext ctx,
+            long plateId, int pageSize) throws DSOutOfServiceException,
+            DSAccessException {
+        List<Callable<List<WellData>>> pages = new ArrayList<Callable<List<WellData>>>();
+        if (plateId >= 0) {
+            ParametersI param = new ParametersI();
+            param.addLong("plateID", plateId);
+            List<Long> wellIds = loadIds(ctx, "select well.id from Well as well "
+                    + "where well.plate.id = :plateID order by well.id",
+                    param, "Could not load wells");
+            for (final List<Long> ids : Lists.partition(wellIds,
+                    Math.max(1, pageSize))) {
+                pages.add(new Callable<List<WellData>>() {
+                    @Override
+                    public List<WellData> call() throws Exception {
+                        try {
+                            return loadWells(ctx, ids);
+                        } catch (Throwable t) {
+                            handleException(BrowseFacility.this, t,
+                                    "Could not load wells");
+                        }
+                        return Collections.emptyList();
+                    }
+                });
+            }
+        }
+        return new PagedIterator<WellData>(gateway, pages,
+                PagedIterator.DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Creates a {@link PagedIterator} over the images with the given ids
+     *
+     * @param ctx
+     *            The {@link SecurityContext}
+     * @param ids
+     *            The ids of the images to load
+     * @param params
+     *            Custom parameters, can be <code>null</code>
+     * @param pageSize
+     *            The number of images per page
+     * @return See above
+     */
+    private PagedIterator<ImageData> pageImages(final SecurityContext ctx,
+            List<Long> ids, final ParametersI params, int pageSize) {
+        List<Callable<List<ImageData>>> pages = new ArrayList<Callable<List<ImageData>>>();
+        for (final List<Long> page : Lists.partition(ids,
+                Math.max(1, pageSize))) {
+            pages.add(new Callable<List<ImageData>>() {
+                @Override
+                public List<ImageData> call() throws Exception {
+                    try {
+                        return loadImages(ctx, page, params);
+                    } catch (Throwable t) {
+                        handleException(BrowseFacility.this, t,
+                                "Could not load images");
+                    }
+                    return Collections.emptyList();
+                }
+            });
+        }
+        return new PagedIterator<ImageData>(gateway, pages,
+                PagedIterator.DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Runs a projection returning a single id column
+     *
+     * @param ctx
+     *            The {@link SecurityContext}
+     * @param query
+     *            The HQL query
+     * @param param
+     *            The query parameters
+     * @param errorMessage
+     *            The message used if the query fails
+     * @return The ids
+     * @throws DSOutOfServiceException
+     *             If the connection is broken, or not logged in
+     * @throws DSAccessException
+     *             If an error occurred while trying to retrieve data from OMERO
+     *             service.
+     */
+    private List<Long> loadIds(SecurityContext ctx, String query,
+            ParametersI param, String errorMessage)
+            throws DSOutOfServiceException, DSAccessException {
+        try {
+            IQueryPrx proxy = gateway.getQueryService(ctx);
+            List<List<RType>> rows = proxy.projection(query, param);
+            List<Long> ids = new ArrayList<Long>(rows.size());
+            for (List<RType> row : rows)
+                ids.add(((RLong) row.get(0)).getValue());
+            return ids;
+        } catch (Throwable t) {
+            handleException(this, t, errorMessage);
+        }
+        return Collections.emptyList();
+    }
+
     /**
      * Loads the folders for the given Ids. {@link FolderData} objects will be
      * fully initialized. (See {@link #getFolders(SecurityContext, Collection)} for
@@ -0,0 +1,168 @@
+/*
+ *------------------------------------------------------------------------------
+ *  Copyright (C) 2018 University of Dundee. All rights reserved.
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ *------------------------------------------------------------------------------
+ */
+package omero.gateway.facility;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import omero.gateway.Gateway;
+import omero.gateway.model.DataObject;
+
+/**
+ * Iterates over {@link DataObject}s which are loaded page by page. Up to
+ * a fixed number of pages are fetched and mapped concurrently through
+ * {@link Gateway#submit(Callable)}; the objects are returned in page order
+ * as soon as the page they belong to has arrived.
+ * <p>
+ * A page which could not be loaded is reported by a
+ * {@link PageLoadException} thrown from {@link #hasNext()} or
+ * {@link #next()}. Call {@link #close()} to cancel the pending requests if
+ * the iteration is abandoned early.
+ * </p>
+ *
+ * @param <T>
+ *            The type of the objects
+ * @since 5.5.0
+ */
+public class PagedIterator<T extends DataObject> implements Iterator<T>,
+        AutoCloseable {
+
+    /** The default number of objects per page */
+    public static final int DEFAULT_PAGE_SIZE = 500;
+
+    /** The default number of pages loaded concurrently */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /**
+     * Thrown if a page could not be loaded. The cause is usually a
+     * {@link omero.gateway.exception.DSAccessException} or
+     * {@link omero.gateway.exception.DSOutOfServiceException}.
+     */
+    public static class PageLoadException extends RuntimeException {
+
+        private static final long serialVersionUID = 7529473820156742913L;
+
+        /**
+         * Creates a new instance
+         *
+         * @param cause
+         *            The reason the page could not be loaded
+         */
+        PageLoadException(Throwable cause) {
+            super("Could not load page", cause);
+        }
+    }
+
+    /** Reference to the {@link Gateway} */
+    private final Gateway gateway;
+
+    /** The pages which have not been submitted yet */
+    private final Iterator<Callable<List<T>>> pages;
+
+    /** The pages which are being loaded, in order */
+    private final Deque<Future<List<T>>> inFlight = new ArrayDeque<Future<List<T>>>();
+
+    /** The maximum number of pages loaded concurrently */
+    private final int parallelism;
+
+    /** The objects of the current page */
+    private Iterator<T> current = Collections.<T> emptyList().iterator();
+
+    /**
+     * Creates a new instance and starts loading the first pages
+     *
+     * @param gateway
+     *            Reference to the {@link Gateway}
+     * @param pages
+     *            The tasks loading and mapping each page
+     * @param parallelism
+     *            The maximum number of pages loaded concurrently
+     */
+    PagedIterator(Gateway gateway, List<Callable<List<T>>> pages,
+            int parallelism) {
+        this.gateway = gateway;
+        this.pages = pages.iterator();
+        this.parallelism = Math.max(1, parallelism);
+        fill();
+    }
+
+    /**
+     * Submits pages until the maximum number of pages are in flight
+     */
+    private void fill() {
+        while (inFlight.size() < parallelism && pages.hasNext()) {
+            inFlight.add(gateway.submit(pages.next()));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            Future<List<T>> next = inFlight.poll();
+            if (next == null)
+                return false;
+            fill();
+            try {
+                current = next.get().iterator();
+            } catch (ExecutionException e) {
+                close();
+                throw new PageLoadException(e.getCause());
+            } catch (InterruptedException e) {
+                close();
+                Thread.currentThread().interrupt();
+                throw new PageLoadException(e);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return current.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Cancels the pages which have not been loaded yet
+     */
+    @Override
+    public void close() {
+        while (pages.hasNext())
+            pages.next();
+        Future<List<T>> f;
+        while ((f = inFlight.poll()) != null)
+            f.cancel(true);
+        current = Collections.<T> emptyList().iterator();
+    }
+}
@@ -31,6 +31,7 @@ import omero.gateway.exception.DataSourceException;
 import omero.gateway.model.PixelsData;
 import omero.gateway.rnd.DataSink;
 import omero.gateway.rnd.Plane2D;
+import omero.gateway.rnd.TileCache;
 import omero.romio.PlaneDef;
 
 import org.apache.commons.collections.MapIterator;
@@ -49,6 +50,12 @@ public class RawDataFacility extends Facility implements AutoCloseable {
     /** Cache the {@link DataSink}s for re-use (keys: ctx.groupid and pixelsId) */
     private MultiKeyMap cache = new MultiKeyMap();
 
+    /** The optional cache for the tiles and planes, shared by the DataSinks */
+    private TileCache tileCache;
+
+    /** Flag indicating to prefetch the tiles adjacent to a requested tile */
+    private boolean prefetch;
+
     /**
      * Creates a new instance
      * 
@@ -212,6 +219,38 @@ public class RawDataFacility extends Facility implements AutoCloseable {
         }
     }
 
+    /**
+     * Enables caching of the fetched tiles and planes. The cache can be
+     * shared with other {@link RawDataFacility} instances; it is not cleared
+     * when this facility is closed.
+     * 
+     * @param tileCache
+     *            The cache to use or <code>null</code> to disable caching.
+     * @param prefetch
+     *            Pass <code>true</code> to fetch the tiles adjacent to a
+     *            requested tile in the background (using the {@link Gateway}
+     *            executor), <code>false</code> otherwise.
+     */
+    public void setTileCache(TileCache tileCache, boolean prefetch) {
+        this.tileCache = tileCache;
+        this.prefetch = prefetch;
+        MapIterator it = cache.mapIterator();
+        while (it.hasNext()) {
+            it.next();
+            ((DataSink) it.getValue()).setTileCache(tileCache, prefetch);
+        }
+    }
+
+    /**
+     * Returns the cache used for the tiles and planes, may be
+     * <code>null</code>.
+     * 
+     * @return See above.
+     */
+    public TileCache getTileCache() {
+        return tileCache;
+    }
+
     /**
      * Retrieves a data sink corresponding the pixels.
      *
@@ -230,6 +269,7 @@ public class RawDataFacility extends Facility implements AutoCloseable {
         DataSink ds = (DataSink) cache.get(ctx.getGroupID(), pixels.getId());
         if (ds == null) {
             ds = new DataSink(ctx, pixels, gateway);
+            ds.setTileCache(tileCache, prefetch);
             cache.put(ctx.getGroupID(), pixels.getId(), ds);
         }
         return ds;
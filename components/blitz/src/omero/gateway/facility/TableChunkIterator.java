@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package omero.gateway.facility;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import omero.ServerError;
+import omero.gateway.Gateway;
+import omero.gateway.facility.PagedIterator.PageLoadException;
+import omero.gateway.model.TableChunk;
+import omero.grid.Data;
+import omero.grid.TablePrx;
+
+/**
+ * Streams an OMERO.table as {@link TableChunk}s of consecutive row ranges.
+ * Up to a fixed number of ranges are read concurrently through
+ * {@link Gateway#submit(Callable)}; the chunks are returned in row order.
+ * If a condition is given then each range is first queried with it and only
+ * the matching rows of the requested columns are read, so that the rows are
+ * filtered and projected by the server in a single pass over the table.
+ * Ranges without matching rows are skipped.
+ * <p>
+ * A range which could not be read is reported by a {@link PageLoadException}
+ * thrown from {@link #hasNext()} or {@link #next()}. The table is closed when
+ * the iteration is complete; call {@link #close()} to cancel the pending reads
+ * and close the table if the iteration is abandoned early.
+ * </p>
+ *
+ * @since 5.5.0
+ */
+public class TableChunkIterator implements Iterator<TableChunk>, AutoCloseable {
+
+    /** The default number of rows per chunk */
+    public static final int DEFAULT_CHUNK_SIZE = 10000;
+
+    /** Reference to the {@link Gateway} */
+    private final Gateway gateway;
+
+    /** Reference to the {@link TablesFacility}, for logging */
+    private final TablesFacility facility;
+
+    /** The table being read */
+    private final TablePrx table;
+
+    /** The indices of the columns to read */
+    private final long[] columns;
+
+    /** The condition the rows must match, or <code>null</code> for all rows */
+    private final String condition;
+
+    /** The index after the last row to read */
+    private final long stop;
+
+    /** The number of rows per chunk */
+    private final int chunkSize;
+
+    /** The maximum number of chunks read concurrently */
+    private final int parallelism;
+
+    /** The ranges which are being read, in order */
+    private final Deque<Future<TableChunk>> inFlight = new ArrayDeque<Future<TableChunk>>();
+
+    /** The index of the first row of the next range to submit */
+    private long next;
+
+    /** The next chunk to return */
+    private TableChunk current;
+
+    /** If the table has been closed */
+    private boolean closed = false;
+
+    /** The number of ranges whose reads have started but not finished */
+    private final AtomicInteger running = new AtomicInteger();
+
+    /**
+     * Creates a new instance and starts reading the first chunks
+     *
+     * @param facility
+     *            Reference to the {@link TablesFacility}
+     * @param gateway
+     *            Reference to the {@link Gateway}
+     * @param table
+     *            The table to read, which will be closed by this iterator
+     * @param columns
+     *            The indices of the columns to read
+     * @param condition
+     *            The condition the rows must match (can be <code>null</code>)
+     * @param start
+     *            The index of the first row to read
+     * @param stop
+     *            The index after the last row to read
+     * @param chunkSize
+     *            The number of rows per chunk
+     * @param parallelism
+     *            The maximum number of chunks read concurrently
+     */
+    TableChunkIterator(TablesFacility facility, Gateway gateway,
+            TablePrx table, long[] columns, String condition, long start,
+            long stop, int chunkSize, int parallelism) {
+        this.facility = facility;
+        this.gateway = gateway;
+        this.table = table;
+        this.columns = columns;
+        this.condition = condition;
+        this.next = start;
+        this.stop = stop;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.parallelism = Math.max(1, parallelism);
+        fill();
+    }
+
+    /**
+     * Reads a range of rows
+     *
+     * @param from
+     *            The index of the first row of the range
+     * @param to
+     *            The index after the last row of the range
+     * @return The chunk or <code>null</code> if no rows match the condition
+     * @throws ServerError
+     *             If the table could not be read
+     */
+    private TableChunk read(long from, long to) throws ServerError {
+        if (condition == null)
+            return new TableChunk(from, table.read(columns, from, to));
+        long[] rows = table.getWhereList(condition, null, from, to, 0);
+        if (rows == null || rows.length == 0)
+            return null;
+        Data data = table.slice(columns, rows);
+        return new TableChunk(from, data);
+    }
+
+    /**
+     * Submits ranges until the maximum number of ranges are in flight
+     */
+    private void fill() {
+        while (inFlight.size() < parallelism && next < stop) {
+            final long from = next;
+            final long to = Math.min(stop, from + chunkSize);
+            next = to;
+            inFlight.add(gateway.submit(new Callable<TableChunk>() {
+                @Override
+                public TableChunk call() throws Exception {
+                    running.incrementAndGet();
+                    try {
+                        return read(from, to);
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                }
+            }));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (current == null) {
+            Future<TableChunk> f = inFlight.poll();
+            if (f == null) {
+                close();
+                return false;
+            }
+            fill();
+            try {
+                current = f.get();
+            } catch (ExecutionException e) {
+                close();
+                throw new PageLoadException(e.getCause());
+            } catch (InterruptedException e) {
+                close();
+                Thread.currentThread().interrupt();
+                throw new PageLoadException(e);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public TableChunk next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        TableChunk chunk = current;
+        current = null;
+        return chunk;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns the number of ranges which are being read. After
+     * {@link #close()} no further ranges are read and this falls to zero
+     * once the reads which were already under way return.
+     *
+     * @return See above.
+     */
+    public int getRunningReads() {
+        return running.get();
+    }
+
+    /**
+     * Cancels the ranges which have not been read yet and closes the table
+     */
+    @Override
+    public void close() {
+        next = stop;
+        Future<TableChunk> f;
+        while ((f = inFlight.poll()) != null)
+            f.cancel(true);
+        current = null;
+        if (!closed) {
+            closed = true;
+            try {
+                table.close();
+            } catch (ServerError e) {
+                facility.logError(facility, "Could not close table", e);
+            }
+        }
+    }
+}
@@ -33,6 +33,7 @@ import omero.gateway.exception.DSOutOfServiceException;
 import omero.gateway.model.AnnotationData;
 import omero.gateway.model.DataObject;
 import omero.gateway.model.FileAnnotationData;
+import omero.gateway.model.TableChunk;
 import omero.gateway.model.TableData;
 import omero.gateway.model.TableDataColumn;
 import omero.gateway.util.Pojos;
@@ -496,6 +497,126 @@ public class TablesFacility extends Facility {
         return null;
     }
 
+    /**
+     * Stream the rows of a table which match a condition, reading up to
+     * {@link PagedIterator#DEFAULT_PARALLELISM} chunks of
+     * {@link TableChunkIterator#DEFAULT_CHUNK_SIZE} rows concurrently
+     *
+     * @param ctx
+     *            The {@link SecurityContext}
+     * @param fileId
+     *            The id of the {@link OriginalFile} which stores the table
+     * @param condition
+     *            The query string (can be <code>null</code> in which case all
+     *            rows are read)
+     * @param columns
+     *            The columns to read (can be left unspecified, in which case
+     *            all columns will be read)
+     * @return The chunks of the table, see
+     *         {@link #readTable(SecurityContext, long, String, long[], long, long, int, int)}
+     * @throws DSOutOfServiceException
+     *             If the connection is broken, or not logged in
+     * @throws DSAccessException
+     *             If an error occurred while trying to retrieve data from OMERO
+     *             service.
+     */
+    public TableChunkIterator readTable(SecurityContext ctx, long fileId,
+            String condition, long... columns) throws DSOutOfServiceException,
+            DSAccessException {
+        return readTable(ctx, fileId, condition, columns, 0, 0,
+                TableChunkIterator.DEFAULT_CHUNK_SIZE,
+                PagedIterator.DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Stream the rows of a table which match a condition. The rows are read
+     * in chunks of consecutive ranges, several of which are read
+     * concurrently; if a condition is given, each range is queried with it
+     * and only the matching rows of the given columns are read. The values are
+     * returned as primitive arrays without conversion, see {@link TableChunk}.
+     * The returned iterator keeps the table open until it is exhausted or
+     * closed.
+     *
+     * @param ctx
+     *            The {@link SecurityContext}
+     * @param fileId
+     *            The id of the {@link OriginalFile} which stores the table
+     * @param condition
+     *            The query string (can be <code>null</code> in which case all
+     *            rows are read)
+     * @param columns
+     *            The columns to read (can be <code>null</code> or empty, in
+     *            which case all columns will be read)
+     * @param start
+     *            The index of the first row to consider
+     * @param stop
+     *            The index of the last+1 row to consider (can be
+     *            <code>0</code> for the number of rows of the table)
+     * @param chunkSize
+     *            The number of rows per chunk
+     * @param parallelism
+     *            The maximum number of chunks read concurrently
+     * @return The chunks of the table, or <code>null</code> if the table
+     *         could not be opened
+     * @throws DSOutOfServiceException
+     *             If the connection is broken, or not logged in
+     * @throws DSAccessException
+     *             If an error occurred while trying to retrieve data from OMERO
+     *             service.
+     */
+    public TableChunkIterator readTable(SecurityContext ctx, long fileId,
+            String condition, long[] columns, long start, long stop,
+            int chunkSize, int parallelism) throws DSOutOfServiceException,
+            DSAccessException {
+        if (fileId < 0)
+            return null;
+
+        TablePrx table = null;
+        try {
+            OriginalFile file = new OriginalFileI(fileId, false);
+            SharedResourcesPrx sr = gateway.getSharedResources(ctx);
+            if (!sr.areTablesEnabled()) {
+                throw new DSAccessException(
+                        "Tables feature is not enabled on this server!");
+            }
+
+            table = sr.openTable(file);
+
+            if (columns == null || columns.length == 0) {
+                int nCols = table.getHeaders().length;
+                columns = new long[nCols];
+                for (int i = 0; i < nCols; i++) {
+                    columns[i] = i;
+                }
+            }
+
+            long nRows = table.getNumberOfRows();
+            if (start < 0)
+                start = 0;
+            if (stop <= 0 || stop > nRows)
+                stop = nRows;
+            if (start > stop)
+                throw new IllegalArgumentException(
+                        "start value can't be greater than stop value");
+
+            TableChunkIterator result = new TableChunkIterator(this, gateway,
+                    table, columns, condition, start, stop, chunkSize,
+                    parallelism);
+            table = null;
+            return result;
+        } catch (Exception e) {
+            handleException(this, e, "Could not load table data");
+        } finally {
+            if (table != null)
+                try {
+                    table.close();
+                } catch (ServerError e) {
+                    logError(this, "Could not close table", e);
+                }
+        }
+        return null;
+    }
+
     /**
      * Get all available tables for a the specified object
      *
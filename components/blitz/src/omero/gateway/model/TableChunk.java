@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package omero.gateway.model;
+
+import omero.grid.BoolColumn;
+import omero.grid.Column;
+import omero.grid.Data;
+import omero.grid.DoubleColumn;
+import omero.grid.FileColumn;
+import omero.grid.ImageColumn;
+import omero.grid.LongColumn;
+import omero.grid.PlateColumn;
+import omero.grid.RoiColumn;
+import omero.grid.StringColumn;
+import omero.grid.WellColumn;
+
+/**
+ * A contiguous range of an OMERO.table, holding the values of the read
+ * columns as primitive arrays exactly as they were sent by the server. In
+ * contrast to {@link TableData} the values are not converted into objects,
+ * so a chunk is cheap to create and to consume.
+ * <p>
+ * If the rows were filtered by a condition then only the matching rows of the
+ * range are held; their indices are given by {@link #getRowNumbers()}.
+ * </p>
+ *
+ * @since 5.5.0
+ */
+public class TableChunk {
+
+    /** The index of the first row of the range which was read */
+    private final long offset;
+
+    /** The indices of the rows held in this chunk */
+    private final long[] rowNumbers;
+
+    /** The columns which were read */
+    private final Column[] columns;
+
+    /**
+     * Creates a new instance
+     *
+     * @param offset
+     *            The index of the first row of the range which was read
+     * @param data
+     *            The data read from the table
+     */
+    public TableChunk(long offset, Data data) {
+        this.offset = offset;
+        this.rowNumbers = data.rowNumbers == null ? new long[0]
+                : data.rowNumbers;
+        this.columns = data.columns == null ? new Column[0] : data.columns;
+    }
+
+    /**
+     * Returns the index of the first row of the range which was read
+     *
+     * @return See above.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the indices of the rows held in this chunk
+     *
+     * @return See above.
+     */
+    public long[] getRowNumbers() {
+        return rowNumbers;
+    }
+
+    /**
+     * Returns the number of rows held in this chunk
+     *
+     * @return See above.
+     */
+    public int getNumberOfRows() {
+        return rowNumbers.length;
+    }
+
+    /**
+     * Returns the number of columns held in this chunk
+     *
+     * @return See above.
+     */
+    public int getNumberOfColumns() {
+        return columns.length;
+    }
+
+    /**
+     * Returns the name of a column
+     *
+     * @param index
+     *            The index of the column in this chunk
+     * @return See above.
+     */
+    public String getColumnName(int index) {
+        return columns[index].name;
+    }
+
+    /**
+     * Returns a column as sent by the server, e.g. for the array and mask
+     * columns which have no primitive accessor
+     *
+     * @param index
+     *            The index of the column in this chunk
+     * @return See above.
+     */
+    public Column getColumn(int index) {
+        return columns[index];
+    }
+
+    /**
+     * Returns the values of a long column or of a column of object ids
+     *
+     * @param index
+     *            The index of the column in this chunk
+     * @return See above.
+     */
+    public long[] getLongs(int index) {
+        Column col = columns[index];
+        if (col instanceof LongColumn)
+            return ((LongColumn) col).values;
+        if (col instanceof ImageColumn)
+            return ((ImageColumn) col).values;
+        if (col instanceof RoiColumn)
+            return ((RoiColumn) col).values;
+        if (col instanceof WellColumn)
+            return ((WellColumn) col).values;
+        if (col instanceof PlateColumn)
+            return ((PlateColumn) col).values;
+        if (col instanceof FileColumn)
+            return ((FileColumn) col).values;
+        throw wrongType(col, "long");
+    }
+
+    /**
+     * Returns the values of a double column
+     *
+     * @param index
+     *            The index of the column in this chunk
+     * @return See above.
+     */
+    public double[] getDoubles(int index) {
+        Column col = columns[index];
+        if (col instanceof DoubleColumn)
+            return ((DoubleColumn) col).values;
+        throw wrongType(col, "double");
+    }
+
+    /**
+     * Returns the values of a boolean column
+     *
+     * @param index
+     *            The index of the column in this chunk
+     * @return See above.
+     */
+    public boolean[] getBooleans(int index) {
+        Column col = columns[index];
+        if (col instanceof BoolColumn)
+            return ((BoolColumn) col).values;
+        throw wrongType(col, "boolean");
+    }
+
+    /**
+     * Returns the values of a string column
+     *
+     * @param index
+     *            The index of the column in this chunk
+     * @return See above.
+     */
+    public String[] getStrings(int index) {
+        Column col = columns[index];
+        if (col instanceof StringColumn)
+            return ((StringColumn) col).values;
+        throw wrongType(col, "String");
+    }
+
+    private static IllegalArgumentException wrongType(Column col,
+            String type) {
+        return new IllegalArgumentException("Column " + col.name + " ("
+                + col.getClass().getSimpleName() + ") has no " + type
+                + " values");
+    }
+}
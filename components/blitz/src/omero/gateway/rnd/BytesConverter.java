@@ -20,6 +20,8 @@
  */
 package omero.gateway.rnd;
 
+import java.nio.ByteBuffer;
+
 import omero.util.ReadOnlyByteArray;
 
 /** 
@@ -71,4 +73,17 @@ abstract class BytesConverter
      */
     public abstract double pack(ReadOnlyByteArray data, int offset, int length);
 
+    /**
+     * Converts the pixel value starting at the given position of a big-endian
+     * buffer into a <code>double</code>. The buffer is read with absolute
+     * gets, so its position is left untouched and the buffer may be shared
+     * between threads.
+     *
+     * @param data The buffer containing the bytes to convert.
+     * @param offset The position of the first byte making up the pixel value.
+     * @param length The number of bytes that make up the pixel value.
+     * @return See above.
+     */
+    public abstract double pack(ByteBuffer data, int offset, int length);
+
 }
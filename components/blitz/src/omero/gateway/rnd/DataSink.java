@@ -21,6 +21,10 @@
 package omero.gateway.rnd;
 
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
 
 import omero.ServerError;
 import omero.api.RawPixelsStorePrx;
@@ -29,7 +33,6 @@ import omero.gateway.SecurityContext;
 import omero.gateway.exception.DSOutOfServiceException;
 import omero.gateway.exception.DataSourceException;
 import omero.romio.PlaneDef;
-import omero.util.ReadOnlyByteArray;
 import omero.gateway.model.PixelsData;
 
 /** 
@@ -89,7 +92,17 @@ public class DataSink implements AutoCloseable
 
     /**Reference to the SecurityContext.*/
     private SecurityContext ctx;
-    
+
+    /** The optional cache for the fetched tiles and planes.*/
+    private volatile TileCache tileCache;
+
+    /** Flag indicating to fetch the neighbouring tiles in the background.*/
+    private volatile boolean prefetch;
+
+    /** The tiles currently fetched in the background.*/
+    private final ConcurrentMap<TileCache.Key, Future<byte[]>> pending =
+            new ConcurrentHashMap<TileCache.Key, Future<byte[]>>();
+
     /**
      * Creates a new instance.
      *
@@ -149,18 +162,21 @@ public class DataSink implements AutoCloseable
                     throws DataSourceException
     {
         //Retrieve data
-        Plane2D plane = null;
-        byte[] data = null; 
-        try {
-            data = store.getPlane(z, c, t);
-        } catch (Exception e) {
-            String p = "("+z+", "+c+", "+t+")";
-            throw new DataSourceException("Cannot retrieve the plane "+p, e);
+        TileCache.Key key = new TileCache.Key(source.getId(), z, t, c, 0, 0,
+                source.getSizeX(), source.getSizeY());
+        byte[] data = getCached(key);
+        if (data == null) {
+            try {
+                data = store.getPlane(z, c, t);
+            } catch (Exception e) {
+                String p = "("+z+", "+c+", "+t+")";
+                throw new DataSourceException("Cannot retrieve the plane "+p,
+                        e);
+            }
+            cache(key, data);
         }
-        ReadOnlyByteArray array = new ReadOnlyByteArray(data, 0, data.length);
-        plane = new Plane2D(array, source.getSizeX(), source.getSizeY(), 
+        return new Plane2D(data, source.getSizeX(), source.getSizeY(),
                 bytesPerPixels, strategy);
-        return plane;
     }
 
     /**
@@ -187,16 +203,127 @@ public class DataSink implements AutoCloseable
      */
     public Plane2D getTile(int z, int t, int c, int x,
             int y, int w, int h) throws DataSourceException {
-        byte[] data = null;
+        TileCache.Key key = new TileCache.Key(source.getId(), z, t, c, x, y,
+                w, h);
+        byte[] data = getCached(key);
+        if (data == null) {
+            try {
+                data = store.getTile(z, c, t, x, y, w, h);
+            } catch (Exception e) {
+                String p = "(" + z + ", " + c + ", " + t + ", " + x + ", " + y
+                        + ", " + w + ", " + h + ")";
+                throw new DataSourceException("Cannot retrieve the plane " + p,
+                        e);
+            }
+            cache(key, data);
+        }
+        if (prefetch && tileCache != null)
+            prefetchNeighbours(key);
+        return new Plane2D(data, w, h, bytesPerPixels, strategy);
+    }
+
+    /**
+     * Sets the cache used for the tiles and planes fetched by this instance.
+     *
+     * @param tileCache
+     *            The cache or <code>null</code> to disable caching.
+     * @param prefetch
+     *            Pass <code>true</code> to fetch the tiles adjacent to a
+     *            requested tile in the background, <code>false</code>
+     *            otherwise. Ignored if no cache is set.
+     */
+    public void setTileCache(TileCache tileCache, boolean prefetch) {
+        this.tileCache = tileCache;
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Returns the cached data for the given region, waiting for a pending
+     * background fetch of that region if needed.
+     *
+     * @param key The region.
+     * @return The data or <code>null</code> if not cached.
+     */
+    private byte[] getCached(TileCache.Key key) {
+        TileCache cache = tileCache;
+        if (cache == null)
+            return null;
+        Future<byte[]> f = pending.get(key);
+        if (f != null) {
+            try {
+                return f.get();
+            } catch (Exception e) {
+                // Fall back to a regular request
+            }
+        }
+        return cache.get(key);
+    }
+
+    /**
+     * Adds the given region to the cache, if any.
+     *
+     * @param key The region.
+     * @param data The data.
+     */
+    private void cache(TileCache.Key key, byte[] data) {
+        TileCache cache = tileCache;
+        if (cache != null)
+            cache.put(key, data);
+    }
+
+    /**
+     * Fetches the tiles to the left, right, top and bottom of the given tile
+     * in the background, clipped to the extent of the plane.
+     *
+     * @param key The tile just requested.
+     */
+    private void prefetchNeighbours(TileCache.Key key) {
+        int sizeX = source.getSizeX();
+        int sizeY = source.getSizeY();
+        int[][] origins = { { key.x - key.w, key.y }, { key.x + key.w, key.y },
+                { key.x, key.y - key.h }, { key.x, key.y + key.h } };
+        for (int[] origin : origins) {
+            int x = origin[0];
+            int y = origin[1];
+            if (x < 0 || y < 0 || x >= sizeX || y >= sizeY)
+                continue;
+            int w = Math.min(key.w, sizeX - x);
+            int h = Math.min(key.h, sizeY - y);
+            prefetch(new TileCache.Key(key.pixelsId, key.z, key.t, key.c, x,
+                    y, w, h));
+        }
+    }
+
+    /**
+     * Fetches the given region in the background unless it is already cached
+     * or being fetched.
+     *
+     * @param key The region.
+     */
+    private void prefetch(final TileCache.Key key) {
+        final TileCache cache = tileCache;
+        if (cache == null || pending.containsKey(key) || cache.contains(key))
+            return;
+        Callable<byte[]> task = new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                try {
+                    byte[] data = store.getTile(key.z, key.c, key.t, key.x,
+                            key.y, key.w, key.h);
+                    cache.put(key, data);
+                    return data;
+                } finally {
+                    pending.remove(key);
+                }
+            }
+        };
         try {
-            data = store.getTile(z, c, t, x, y, w, h);
+            Future<byte[]> f = gw.submit(task);
+            if (pending.putIfAbsent(key, f) != null || f.isDone())
+                pending.remove(key, f);
         } catch (Exception e) {
-            String p = "(" + z + ", " + c + ", " + t + ", " + x + ", " + y
-                    + ", " + w + ", " + h + ")";
-            throw new DataSourceException("Cannot retrieve the plane " + p, e);
+            // Prefetching is best effort only
         }
-        ReadOnlyByteArray array = new ReadOnlyByteArray(data, 0, data.length);
-        return new Plane2D(array, w, h, bytesPerPixels, strategy);
     }
 
     /**
@@ -260,6 +387,9 @@ public class DataSink implements AutoCloseable
 
     @Override
     public void close() {
+        for (Future<byte[]> f : pending.values())
+            f.cancel(true);
+        pending.clear();
         gw.closeService(ctx, store);
     }
 }
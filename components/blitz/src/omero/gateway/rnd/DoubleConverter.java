@@ -20,6 +20,8 @@
  */
 package omero.gateway.rnd;
 
+import java.nio.ByteBuffer;
+
 import omero.util.ReadOnlyByteArray;
 
 /** 
@@ -71,4 +73,13 @@ public class DoubleConverter
         return Double.longBitsToDouble(r);
     }
 
+    /**
+     * Implemented as specified by {@link BytesConverter}
+     * @see BytesConverter#pack(ByteBuffer, int, int)
+     */
+    public double pack(ByteBuffer data, int offset, int length)
+    {
+        return data.getDouble(offset);
+    }
+
 }
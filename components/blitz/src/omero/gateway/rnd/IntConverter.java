@@ -20,6 +20,8 @@
  */
 package omero.gateway.rnd;
 
+import java.nio.ByteBuffer;
+
 import omero.util.ReadOnlyByteArray;
 
 /** 
@@ -74,4 +76,23 @@ public class IntConverter
         return r;
     }
 
+    /**
+     * Implemented as specified by {@link BytesConverter}
+     * @see BytesConverter#pack(ByteBuffer, int, int)
+     */
+    public double pack(ByteBuffer data, int offset, int length)
+    {
+        switch (length) {
+            case 1: return data.get(offset);
+            case 2: return data.getShort(offset);
+            case 4: return data.getInt(offset);
+            default:
+                long r = 0;
+                for (int k = 0; k < length; ++k)
+                    r |= (long) (data.get(offset+k)&0xFF)<<(length-k-1)*8;
+                int pad = 64-length*8;
+                return (r<<pad)>>pad;
+        }
+    }
+
 }
@@ -20,10 +20,15 @@
  */
 package omero.gateway.rnd;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import omero.util.ReadOnlyByteArray;
 
 /** 
  * Holds structure used to mapped the raw pixels data.
+ * The pixel values are decoded on access straight from the buffer received
+ * from the server, no intermediate copy of the plane is kept.
  *
  * @author Jean-Marie Burel &nbsp;&nbsp;&nbsp;&nbsp;
  * <a href="mailto:j.burel@dundee.ac.uk">j.burel@dundee.ac.uk</a>
@@ -41,15 +46,15 @@ public class Plane2D
     /** The number of elements along the x-axis. */
     private int sizeX;
 
-    /** The original array. */
-    private ReadOnlyByteArray data;
+    /** The number of elements along the y-axis. */
+    private int sizeY;
+
+    /** The original data, big-endian as sent by the server. */
+    private ByteBuffer data;
 
     /** Strategy used to transform original data. */
     private BytesConverter strategy;
 
-    /** The converted raw data. */
-    private double[][] mappedData;
-
     /** 
      * Determines the offset value.
      *
@@ -63,20 +68,17 @@ public class Plane2D
     }
 
     /**
-     * Converts the raw data.
+     * Copies the content of the slice into a new array.
      *
-     * @param sizeY The number of pixels along the y-axis.
+     * @param data The slice to copy.
+     * @return See above.
      */
-    private void mappedData(int sizeY)
+    private static byte[] toArray(ReadOnlyByteArray data)
     {
-        mappedData = new double[sizeX][sizeY];
-        int offset;
-        for (int x = 0; x < sizeX; x++) {
-            for (int y = 0; y < sizeY; y++) {
-                offset = calculateOffset(x, y);
-                mappedData[x][y] = strategy.pack(data, offset, bytesPerPixel);
-            }
-        }
+        byte[] values = new byte[data.length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = data.get(i);
+        return values;
     }
 
     /**
@@ -90,12 +92,28 @@ public class Plane2D
      */
     public Plane2D(ReadOnlyByteArray data, int sizeX, int sizeY,
             int bytesPerPixel, BytesConverter strategy)
+    {
+        this(toArray(data), sizeX, sizeY, bytesPerPixel, strategy);
+    }
+
+    /**
+     * Creates a new instance wrapping the passed array, the array is not
+     * copied and must not be modified afterwards.
+     *
+     * @param data The array of byte.
+     * @param sizeX The number of pixels along the x-axis.
+     * @param sizeY The number of pixels along the y-axis.
+     * @param bytesPerPixel The number of bytes per pixel.
+     * @param strategy Strategy to transform pixel.
+     */
+    Plane2D(byte[] data, int sizeX, int sizeY, int bytesPerPixel,
+            BytesConverter strategy)
     {
         this.bytesPerPixel = bytesPerPixel;
-        this.data = data;
+        this.data = ByteBuffer.wrap(data).order(ByteOrder.BIG_ENDIAN);
         this.strategy = strategy;
         this.sizeX = sizeX;
-        mappedData(sizeY);
+        this.sizeY = sizeY;
     }
 
     /**
@@ -108,7 +126,10 @@ public class Plane2D
      */
     public double getPixelValue(int x, int y)
     {
-        return mappedData[x][y];
+        if (x < 0 || x >= sizeX || y < 0 || y >= sizeY)
+            throw new ArrayIndexOutOfBoundsException(
+                    "("+x+", "+y+") not in plane of size "+sizeX+"x"+sizeY);
+        return strategy.pack(data, calculateOffset(x, y), bytesPerPixel);
     }
 
     /**
@@ -117,7 +138,46 @@ public class Plane2D
      * @return See above.
      */
     public double[][] getPixelValues() {
-        return copyArray(mappedData);
+        double[][] values = new double[sizeX][sizeY];
+        int offset = 0;
+        for (int y = 0; y < sizeY; y++) {
+            for (int x = 0; x < sizeX; x++) {
+                values[x][y] = strategy.pack(data, offset, bytesPerPixel);
+                offset += bytesPerPixel;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns the pixels values of a row, decoded directly from the
+     * underlying buffer.
+     *
+     * @param y The y-coordinate of the row.
+     * @param values The array to fill or <code>null</code> to allocate a
+     *               new one of length <code>sizeX</code>.
+     * @return See above.
+     */
+    public double[] getRow(int y, double[] values) {
+        if (values == null)
+            values = new double[sizeX];
+        int offset = calculateOffset(0, y);
+        for (int x = 0; x < sizeX; x++) {
+            values[x] = strategy.pack(data, offset, bytesPerPixel);
+            offset += bytesPerPixel;
+        }
+        return values;
+    }
+
+    /**
+     * Returns a read-only view of the raw big-endian data. The view shares
+     * the content of the buffer received from the server.
+     *
+     * @return See above.
+     */
+    public ByteBuffer getRawData()
+    {
+        return data.asReadOnlyBuffer().order(ByteOrder.BIG_ENDIAN);
     }
 
     /**
@@ -130,20 +190,4 @@ public class Plane2D
     {
         return data.get(offset);
     }
-    
-    /**
-     * Simply copies a 2-dimensional double array
-     * 
-     * @param src
-     *            The array to copy
-     * @return A copy of the array
-     */
-    private double[][] copyArray(double[][] src) {
-        int length = src.length;
-        double[][] target = new double[length][src[0].length];
-        for (int i = 0; i < length; i++) {
-            System.arraycopy(src[i], 0, target[i], 0, src[i].length);
-        }
-        return target;
-    }
 }
@@ -0,0 +1,426 @@
+/*
+ *------------------------------------------------------------------------------
+ *  Copyright (C) 2018 University of Dundee. All rights reserved.
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ *------------------------------------------------------------------------------
+ */
+package omero.gateway.rnd;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A byte-bounded, least-recently-used cache of the raw tile and plane data
+ * fetched by the {@link DataSink}s. Once the in-memory budget is exceeded the
+ * least recently used tiles are dropped or, if a spill directory was
+ * specified, written to that directory and read back on the next request.
+ * A tile read back is removed from the spill directory, which is itself
+ * bounded: once its budget is exceeded the least recently spilled tiles are
+ * deleted. The same instance can be shared by several
+ * {@link omero.gateway.facility.RawDataFacility} instances and is safe for
+ * concurrent use.
+ *
+ * @since 5.5.0
+ */
+public class TileCache {
+
+    /** The default in-memory budget (64 MB). */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /** The default spill directory budget (512 MB). */
+    public static final long DEFAULT_MAX_SPILL_BYTES = 512L * 1024 * 1024;
+
+    /** The maximum number of bytes held in memory. */
+    private final long maxBytes;
+
+    /** The directory evicted tiles are written to, may be <code>null</code>. */
+    private final File spillDirectory;
+
+    /** The maximum number of bytes held in the spill directory. */
+    private final long maxSpillBytes;
+
+    /** The cached tiles in access order. */
+    private final LinkedHashMap<Key, byte[]> tiles = new LinkedHashMap<Key, byte[]>(
+            16, 0.75f, true);
+
+    /** The number of bytes currently held in memory. */
+    private long currentBytes;
+
+    /** The sizes of the spilled tiles in the order they were spilled. */
+    private final LinkedHashMap<Key, Integer> spilled = new LinkedHashMap<Key, Integer>();
+
+    /** The number of bytes currently held in the spill directory. */
+    private long spilledBytes;
+
+    /** The number of requests served from memory. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** The number of requests served from the spill directory. */
+    private final AtomicLong spillHits = new AtomicLong();
+
+    /** The number of requests which had to go to the server. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Identifies a region of a plane of a given pixels set.
+     */
+    static final class Key {
+
+        /** The pixels set. */
+        final long pixelsId;
+
+        /** The region coordinates. */
+        final int z, t, c, x, y, w, h;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param pixelsId The id of the pixels set.
+         * @param z The z-section.
+         * @param t The timepoint.
+         * @param c The channel.
+         * @param x The x coordinate.
+         * @param y The y coordinate.
+         * @param w The width of the region.
+         * @param h The height of the region.
+         */
+        Key(long pixelsId, int z, int t, int c, int x, int y, int w, int h) {
+            this.pixelsId = pixelsId;
+            this.z = z;
+            this.t = t;
+            this.c = c;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (pixelsId ^ (pixelsId >>> 32));
+            result = 31 * result + z;
+            result = 31 * result + t;
+            result = 31 * result + c;
+            result = 31 * result + x;
+            result = 31 * result + y;
+            result = 31 * result + w;
+            result = 31 * result + h;
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return pixelsId == other.pixelsId && z == other.z && t == other.t
+                    && c == other.c && x == other.x && y == other.y
+                    && w == other.w && h == other.h;
+        }
+
+        @Override
+        public String toString() {
+            return pixelsId + "_" + z + "_" + t + "_" + c + "_" + x + "_" + y
+                    + "_" + w + "_" + h;
+        }
+    }
+
+    /**
+     * Creates a new in-memory cache using {@link #DEFAULT_MAX_BYTES}.
+     */
+    public TileCache() {
+        this(DEFAULT_MAX_BYTES, null);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxBytes
+     *            The maximum number of bytes to hold in memory.
+     * @param spillDirectory
+     *            The directory evicted tiles are written to. Pass
+     *            <code>null</code> to simply drop evicted tiles.
+     */
+    public TileCache(long maxBytes, File spillDirectory) {
+        this(maxBytes, spillDirectory, DEFAULT_MAX_SPILL_BYTES);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxBytes
+     *            The maximum number of bytes to hold in memory.
+     * @param spillDirectory
+     *            The directory evicted tiles are written to. Pass
+     *            <code>null</code> to simply drop evicted tiles.
+     * @param maxSpillBytes
+     *            The maximum number of bytes to hold in the spill directory.
+     */
+    public TileCache(long maxBytes, File spillDirectory, long maxSpillBytes) {
+        if (maxBytes <= 0 || maxSpillBytes <= 0)
+            throw new IllegalArgumentException("Cache size must be positive");
+        if (spillDirectory != null && !spillDirectory.isDirectory()
+                && !spillDirectory.mkdirs())
+            throw new IllegalArgumentException("Cannot create directory "
+                    + spillDirectory);
+        this.maxBytes = maxBytes;
+        this.spillDirectory = spillDirectory;
+        this.maxSpillBytes = maxSpillBytes;
+    }
+
+    /**
+     * Returns the cached data for the given region or <code>null</code>.
+     *
+     * @param key The region.
+     * @return See above.
+     */
+    byte[] get(Key key) {
+        byte[] data;
+        synchronized (tiles) {
+            data = tiles.get(key);
+        }
+        if (data != null) {
+            hits.incrementAndGet();
+            return data;
+        }
+        data = readSpilled(key);
+        if (data != null) {
+            spillHits.incrementAndGet();
+            put(key, data);
+            return data;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Returns <code>true</code> if data for the given region is available
+     * without a server round trip.
+     *
+     * @param key The region.
+     * @return See above.
+     */
+    boolean contains(Key key) {
+        synchronized (tiles) {
+            if (tiles.containsKey(key))
+                return true;
+        }
+        synchronized (spilled) {
+            return spilled.containsKey(key);
+        }
+    }
+
+    /**
+     * Adds the data of the given region to the cache.
+     *
+     * @param key The region.
+     * @param data The raw data as sent by the server.
+     */
+    void put(Key key, byte[] data) {
+        if (data.length > maxBytes)
+            return;
+        List<Map.Entry<Key, byte[]>> evicted = new ArrayList<Map.Entry<Key, byte[]>>();
+        synchronized (tiles) {
+            byte[] previous = tiles.put(key, data);
+            if (previous != null)
+                currentBytes -= previous.length;
+            currentBytes += data.length;
+            Iterator<Map.Entry<Key, byte[]>> i = tiles.entrySet().iterator();
+            while (currentBytes > maxBytes && i.hasNext()) {
+                Map.Entry<Key, byte[]> e = i.next();
+                currentBytes -= e.getValue().length;
+                i.remove();
+                evicted.add(e);
+            }
+        }
+        for (Map.Entry<Key, byte[]> e : evicted)
+            spill(e.getKey(), e.getValue());
+    }
+
+    /**
+     * Removes all the tiles from memory and from the spill directory,
+     * including any left there by previous instances.
+     */
+    public void clear() {
+        synchronized (tiles) {
+            tiles.clear();
+            currentBytes = 0;
+        }
+        synchronized (spilled) {
+            spilled.clear();
+            spilledBytes = 0;
+        }
+        if (spillDirectory != null) {
+            File[] files = spillDirectory.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    if (f.getName().endsWith(".tile"))
+                        f.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes currently held in memory.
+     *
+     * @return See above.
+     */
+    public long getSize() {
+        synchronized (tiles) {
+            return currentBytes;
+        }
+    }
+
+    /**
+     * Returns the number of bytes currently held in the spill directory.
+     *
+     * @return See above.
+     */
+    public long getSpillSize() {
+        synchronized (spilled) {
+            return spilledBytes;
+        }
+    }
+
+    /**
+     * Returns the maximum number of bytes held in memory.
+     *
+     * @return See above.
+     */
+    public long getMaxSize() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the number of requests served from memory.
+     *
+     * @return See above.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of requests served from the spill directory.
+     *
+     * @return See above.
+     */
+    public long getSpillHitCount() {
+        return spillHits.get();
+    }
+
+    /**
+     * Returns the number of requests which were not cached.
+     *
+     * @return See above.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the file the given region is spilled to.
+     *
+     * @param key The region.
+     * @return See above.
+     */
+    private File getSpillFile(Key key) {
+        return new File(spillDirectory, key + ".tile");
+    }
+
+    /**
+     * Writes an evicted region to the spill directory, if any, deleting the
+     * least recently spilled regions if the directory's budget is exceeded.
+     *
+     * @param key The region.
+     * @param data The data.
+     */
+    private void spill(Key key, byte[] data) {
+        if (spillDirectory == null || data.length > maxSpillBytes)
+            return;
+        synchronized (spilled) {
+            if (spilled.containsKey(key))
+                return;
+        }
+        File f = getSpillFile(key);
+        File tmp = new File(spillDirectory, key + "."
+                + Thread.currentThread().getId() + ".tmp");
+        try {
+            Files.write(tmp.toPath(), data);
+            if (!tmp.renameTo(f)) {
+                tmp.delete();
+                return;
+            }
+        } catch (IOException e) {
+            // The spill directory is a best effort only
+            tmp.delete();
+            return;
+        }
+        List<Key> deleted = new ArrayList<Key>();
+        synchronized (spilled) {
+            Integer previous = spilled.put(key, data.length);
+            if (previous != null)
+                spilledBytes -= previous;
+            spilledBytes += data.length;
+            Iterator<Map.Entry<Key, Integer>> i = spilled.entrySet().iterator();
+            while (spilledBytes > maxSpillBytes && i.hasNext()) {
+                Map.Entry<Key, Integer> e = i.next();
+                spilledBytes -= e.getValue();
+                i.remove();
+                deleted.add(e.getKey());
+            }
+        }
+        for (Key k : deleted)
+            getSpillFile(k).delete();
+    }
+
+    /**
+     * Reads a region from the spill directory and removes it from there, as
+     * it is then held in memory again.
+     *
+     * @param key The region.
+     * @return The data or <code>null</code> if the region was not spilled.
+     */
+    private byte[] readSpilled(Key key) {
+        if (spillDirectory == null)
+            return null;
+        synchronized (spilled) {
+            Integer size = spilled.remove(key);
+            if (size == null)
+                return null;
+            spilledBytes -= size;
+        }
+        File f = getSpillFile(key);
+        try {
+            return Files.readAllBytes(f.toPath());
+        } catch (IOException e) {
+            return null;
+        } finally {
+            f.delete();
+        }
+    }
+}
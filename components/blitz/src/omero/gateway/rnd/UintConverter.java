@@ -20,6 +20,8 @@
  */
 package omero.gateway.rnd;
 
+import java.nio.ByteBuffer;
+
 import omero.util.ReadOnlyByteArray;
 
 /** 
@@ -78,4 +80,22 @@ public class UintConverter
         return r;
     }
 
+    /**
+     * Implemented as specified by {@link BytesConverter}
+     * @see BytesConverter#pack(ByteBuffer, int, int)
+     */
+    public double pack(ByteBuffer data, int offset, int length)
+    {
+        switch (length) {
+            case 1: return data.get(offset)&0xFF;
+            case 2: return data.getShort(offset)&0xFFFF;
+            case 4: return data.getInt(offset)&0xFFFFFFFFL;
+            default:
+                long r = 0;
+                for (int k = 0; k < length; ++k)
+                    r |= (long) (data.get(offset+k)&0xFF)<<(length-k-1)*8;
+                return r;
+        }
+    }
+
 }
@@ -270,6 +270,42 @@ public class ImportCandidatesTest {
         FileUtils.deleteQuietly(fakeFolder);
     }
 
+    @Test
+    /**
+     * Tests that scanning with several threads finds the same filesets, in
+     * the same order, as scanning with a single thread
+     */
+    public void testConcurrentScan() throws Exception {
+        File fakeFolder = TempFileManager.create_path("ImportCandidatesTest_5",
+                "", true);
+
+        for (int d = 0; d < 3; d++) {
+            File dir = new File(fakeFolder, "dir" + d);
+            dir.mkdir();
+            echo("test1_T<1-4>.fake", new File(dir, "test1.pattern"));
+            echo("test1_T<3-6>.fake", new File(dir, "test2.pattern"));
+            for (int t = 1; t <= 6; t++) {
+                echo("", new File(dir, "test1_T" + t + ".fake"));
+            }
+            echo("", new File(dir, "single" + d + ".fake"));
+        }
+
+        String[] files = new String[] { fakeFolder.getAbsolutePath() };
+
+        List<ImportContainer> serial = createImportCandidates(files, 1);
+        List<ImportContainer> concurrent = createImportCandidates(files, 4);
+
+        Assert.assertEquals(info(files, concurrent), 9, concurrent.size());
+        Assert.assertEquals(info(files, concurrent), serial.size(),
+                concurrent.size());
+        for (int i = 0; i < serial.size(); i++) {
+            Assert.assertEquals(serial.get(i).getFile(),
+                    concurrent.get(i).getFile());
+        }
+
+        FileUtils.deleteQuietly(fakeFolder);
+    }
+
     /**
      * Creates a ImportCandidates from the provided files and returns its
      * ImportContainers.
@@ -279,6 +315,21 @@ public class ImportCandidatesTest {
      * @return The ImportContainers
      */
     private List<ImportContainer> createImportCandidates(String[] files) {
+        return createImportCandidates(files, 1);
+    }
+
+    /**
+     * Creates a ImportCandidates from the provided files, scanning with the
+     * given number of threads, and returns its ImportContainers.
+     * 
+     * @param files
+     *            The file to import
+     * @param threads
+     *            The number of threads to scan with
+     * @return The ImportContainers
+     */
+    private List<ImportContainer> createImportCandidates(String[] files,
+            int threads) {
         ImportConfig config = new ImportConfig();
         OMEROWrapper w = new OMEROWrapper(config);
         IObserver o = new IObserver() {
@@ -286,7 +337,8 @@ public class ImportCandidatesTest {
                 // nothing to do
             }
         };
-        return (new ImportCandidates(w, files, o)).getContainers();
+        return (new ImportCandidates(ImportCandidates.DEPTH, threads, w,
+                files, o)).getContainers();
     }
 
     /**
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.blitz.repo;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import ome.system.metrics.DefaultMetrics;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.Snapshot;
+import omero.grid.ImportStage;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link ImportMetrics} aggregates import profiles by stage.
+ *
+ * @since 5.5.0
+ */
+public class ImportMetricsTest {
+
+    private Metrics metrics;
+
+    private ImportMetrics importMetrics;
+
+    @BeforeMethod
+    public void setup() {
+        metrics = new DefaultMetrics();
+        importMetrics = new ImportMetrics(metrics);
+    }
+
+    private long count(String name) {
+        return metrics.counter(importMetrics, name).getCount();
+    }
+
+    private Snapshot millis(String stage) {
+        return metrics.histogram(importMetrics, stage + ".millis").getSnapshot();
+    }
+
+    /**
+     * Each stage of each profile adds to the counters and the histogram of
+     * that stage.
+     */
+    @Test
+    public void testRecord() {
+        importMetrics.record("first", Arrays.asList(
+                new ImportStage("upload", 100, 2, 2048),
+                new ImportStage("minmax", 30, 8, 4096)));
+        importMetrics.record("second", Arrays.asList(
+                new ImportStage("upload", 300, 1, 1024)));
+
+        Assert.assertEquals(count("imports"), 2);
+
+        Assert.assertEquals(count("upload.totalMillis"), 400);
+        Assert.assertEquals(count("upload.count"), 3);
+        Assert.assertEquals(count("upload.bytes"), 3072);
+        final Snapshot upload = millis("upload");
+        Assert.assertEquals(upload.size(), 2);
+        Assert.assertEquals(upload.getMin(), 100);
+        Assert.assertEquals(upload.getMax(), 300);
+
+        Assert.assertEquals(count("minmax.totalMillis"), 30);
+        Assert.assertEquals(count("minmax.count"), 8);
+        Assert.assertEquals(count("minmax.bytes"), 4096);
+        final Snapshot minmax = millis("minmax");
+        Assert.assertEquals(minmax.size(), 1);
+        Assert.assertEquals(minmax.getMax(), 30);
+
+        Assert.assertEquals(millis("scan").size(), 0);
+    }
+
+    /**
+     * Imports without a profile are not counted.
+     */
+    @Test
+    public void testRecordEmpty() {
+        importMetrics.record("none", null);
+        importMetrics.record("empty", Collections.<ImportStage>emptyList());
+        Assert.assertEquals(count("imports"), 0);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.blitz.repo;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import loci.formats.meta.IMinMaxStore;
+import ome.formats.importer.ImportConfig;
+import ome.formats.importer.ImportSize;
+import ome.formats.importer.OMEROWrapper;
+import ome.io.nio.ConfiguredTileSizes;
+import omero.model.Pixels;
+import omero.model.PixelsI;
+import omero.util.TempFileManager;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that reading the series of a multi-series image in parallel yields
+ * the same min/max values and checksums as reading them one after another.
+ *
+ * @since 5.5.0
+ */
+public class PixelDataParserTest {
+
+    private static final int SERIES = 3, SIZE_C = 2;
+
+    private File fake;
+
+    private ExecutorService executor;
+
+    private List<Pixels> pixels;
+
+    /**
+     * Records the min/max values that are reported, by series and channel.
+     */
+    private static class MinMaxStore implements IMinMaxStore {
+
+        final Map<String, double[]> minMax = new ConcurrentHashMap<String, double[]>();
+
+        @Override
+        public void setChannelGlobalMinMax(int channel, double minimum,
+                double maximum, int series) {
+            minMax.put(series + "/" + channel, new double[] {minimum, maximum});
+        }
+    }
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        fake = TempFileManager.create_path("pixeldataparsertest",
+                "&series=" + SERIES + "&sizeC=" + SIZE_C + "&sizeZ=2&sizeX=64&sizeY=64.fake");
+        FileUtils.touch(fake);
+        executor = Executors.newFixedThreadPool(2);
+        pixels = new ArrayList<Pixels>();
+        for (int series = 0; series < SERIES; series++) {
+            final Pixels p = new PixelsI();
+            p.setSizeX(omero.rtypes.rint(64));
+            p.setSizeY(omero.rtypes.rint(64));
+            p.setSizeZ(omero.rtypes.rint(2));
+            p.setSizeC(omero.rtypes.rint(SIZE_C));
+            p.setSizeT(omero.rtypes.rint(1));
+            pixels.add(p);
+        }
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+        FileUtils.deleteQuietly(fake);
+    }
+
+    private OMEROWrapper open() throws Exception {
+        final OMEROWrapper reader = new OMEROWrapper(new ImportConfig());
+        reader.setId(fake.getAbsolutePath());
+        return reader;
+    }
+
+    private static List<String> hex(MessageDigest[] mds) {
+        final List<String> hex = new ArrayList<String>();
+        for (final MessageDigest md : mds) {
+            hex.add(md == null ? null : Hex.encodeHexString(md.digest()));
+        }
+        return hex;
+    }
+
+    @Test(timeOut = 30000)
+    public void testParallelSeriesHaveMinMax() throws Throwable {
+        final MinMaxStore sequentialStore = new MinMaxStore();
+        final PixelDataParser sequentialParser = new PixelDataParser(new ConfiguredTileSizes());
+        final MessageDigest[] sequential = new MessageDigest[SERIES];
+        final OMEROWrapper reader = open();
+        try {
+            reader.setMinMaxRequired(true);
+            reader.setMinMaxStore(sequentialStore);
+            for (int series = 0; series < SERIES; series++) {
+                reader.setSeries(series);
+                sequential[series] = sequentialParser.parseData(reader, series,
+                        new ImportSize(fake.getName(), pixels.get(series), reader.getDimensionOrder()));
+            }
+        } finally {
+            reader.close();
+        }
+
+        final MinMaxStore parallelStore = new MinMaxStore();
+        final PixelDataParser parallelParser = new PixelDataParser(new ConfiguredTileSizes());
+        final MessageDigest[] parallel = parallelParser.parseDataBySeries(pixels, parallelStore,
+                executor, 2, new Callable<OMEROWrapper>() {
+            @Override
+            public OMEROWrapper call() throws Exception {
+                return open();
+            }
+        });
+
+        Assert.assertEquals(parallelParser.getPlanesRead(), SERIES * SIZE_C * 2);
+        Assert.assertEquals(parallelParser.getBytesRead(), sequentialParser.getBytesRead());
+        Assert.assertEquals(hex(parallel), hex(sequential));
+        Assert.assertEquals(parallelStore.minMax.size(), SERIES * SIZE_C);
+        for (int series = 0; series < SERIES; series++) {
+            Assert.assertNotNull(parallel[series]);
+            for (int channel = 0; channel < SIZE_C; channel++) {
+                final String key = series + "/" + channel;
+                Assert.assertEquals(parallelStore.minMax.get(key), sequentialStore.minMax.get(key), key);
+            }
+        }
+    }
+}
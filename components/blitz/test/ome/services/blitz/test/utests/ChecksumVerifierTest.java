@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.blitz.test.utests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import ome.services.blitz.repo.ChecksumVerifier;
+import ome.util.checksum.ChecksumProviderFactory;
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Test that the {@link ChecksumVerifier} computes the same checksums as the checksum providers
+ * and reports mismatches and unreadable files.
+ * @since 5.5.0
+ */
+public class ChecksumVerifierTest {
+
+    private final ChecksumProviderFactory checksumProviderFactory = new ChecksumProviderFactoryImpl();
+
+    private final List<File> files = new ArrayList<File>();
+
+    private ChecksumVerifier verifier;
+
+    @BeforeClass
+    public void setup() throws IOException {
+        verifier = new ChecksumVerifier(checksumProviderFactory, 3);
+        final Random random = new Random(1234);
+        /* include files both smaller and larger than the read buffer */
+        for (final int size : new int[] {0, 1, 4096, (1 << 20) + 17, 3 << 20}) {
+            final byte[] content = new byte[size];
+            random.nextBytes(content);
+            final File file = File.createTempFile("ChecksumVerifierTest", ".bin");
+            file.deleteOnExit();
+            try (final OutputStream out = new FileOutputStream(file)) {
+                out.write(content);
+            }
+            files.add(file);
+        }
+    }
+
+    @AfterClass
+    public void teardown() {
+        verifier.close();
+        for (final File file : files) {
+            file.delete();
+        }
+    }
+
+    private String checksum(ChecksumType type, File file) {
+        return checksumProviderFactory.getProvider(type).putFile(file.getPath()).checksumAsString();
+    }
+
+    /**
+     * Test that existing checksums are verified and new checksums computed in the same read.
+     */
+    @Test
+    public void testExpectedAndNewChecksums() throws InterruptedException {
+        final List<ChecksumVerifier.FileChecksum> checksums = new ArrayList<ChecksumVerifier.FileChecksum>();
+        long id = 0;
+        for (final File file : files) {
+            checksums.add(new ChecksumVerifier.FileChecksum(id++, file,
+                    ChecksumType.MD5, checksum(ChecksumType.MD5, file), ChecksumType.SHA1));
+        }
+        verifier.compute(checksums);
+        for (int index = 0; index < files.size(); index++) {
+            final ChecksumVerifier.FileChecksum checksum = checksums.get(index);
+            Assert.assertNull(checksum.getFailure());
+            Assert.assertFalse(checksum.isMismatch());
+            Assert.assertEquals(checksum.getNewChecksum(), checksum(ChecksumType.SHA1, files.get(index)));
+            Assert.assertEquals(checksum.getBytesRead(), files.get(index).length());
+        }
+    }
+
+    /**
+     * Test that an incorrect checksum is reported as a mismatch.
+     */
+    @Test
+    public void testMismatch() throws InterruptedException {
+        final File file = files.get(2);
+        final ChecksumVerifier.FileChecksum correct =
+                new ChecksumVerifier.FileChecksum(1, file, ChecksumType.SHA1, checksum(ChecksumType.SHA1, file), null);
+        final ChecksumVerifier.FileChecksum incorrect =
+                new ChecksumVerifier.FileChecksum(2, file, ChecksumType.SHA1, checksum(ChecksumType.MD5, file), null);
+        final List<ChecksumVerifier.FileChecksum> checksums = new ArrayList<ChecksumVerifier.FileChecksum>();
+        checksums.add(correct);
+        checksums.add(incorrect);
+        verifier.compute(checksums);
+        Assert.assertFalse(correct.isMismatch());
+        Assert.assertTrue(incorrect.isMismatch());
+        Assert.assertNull(incorrect.getNewChecksum());
+    }
+
+    /**
+     * Test that a missing file is reported as unreadable rather than as a mismatch.
+     */
+    @Test
+    public void testMissingFile() throws InterruptedException {
+        final File file = new File(files.get(0).getPath() + ".missing");
+        final ChecksumVerifier.FileChecksum missing =
+                new ChecksumVerifier.FileChecksum(1, file, ChecksumType.MD5, "d41d8cd98f00b204e9800998ecf8427e", null);
+        final List<ChecksumVerifier.FileChecksum> checksums = new ArrayList<ChecksumVerifier.FileChecksum>();
+        checksums.add(missing);
+        verifier.compute(checksums);
+        Assert.assertNotNull(missing.getFailure());
+        Assert.assertFalse(missing.isMismatch());
+    }
+}
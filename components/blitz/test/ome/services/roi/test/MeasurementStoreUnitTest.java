@@ -163,11 +163,74 @@ public class MeasurementStoreUnitTest extends MockObjectTestCase {
 
     @Test(expectedExceptions = ApiUsageException.class)
     public void testSaveMustFollowAddRowsFails() throws Exception {
-        fail();
+
+        Column[] cols = new Column[] { new StringColumn(), new LongColumn() };
+        initialize(cols);
+
+        mea = noRois();
+        mea.addRows(new Object[][] { new Object[] { "Roi:1", 1L } });
+        mea.addRows(new Object[][] { new Object[] { "Roi:2", 0L } });
+
     }
 
     public void testSaveMustFollowAddRowsPasses() throws Exception {
-        fail();
+
+        Column[] cols = new Column[] { new StringColumn(), new LongColumn() };
+        initialize(cols);
+        data(cols, 1);
+        data(cols, 2);
+
+        mea = noRois();
+        mea.addRows(new Object[][] { new Object[] { "Roi:1", 1L } });
+        mea.save();
+        mea.addRows(new Object[][] {//
+                new Object[] { "Roi:2", 0L },//
+                        new Object[] { "Roi:3", 1L } //
+                });
+        mea.save();
+        tMock.verify();
+
+    }
+
+    public void testRowGroups() throws Exception {
+
+        Column[] cols = new Column[] { new StringColumn(), new LongColumn() };
+        initialize(cols);
+        data(cols, 2);
+        data(cols, 1);
+
+        mea = new MeasurementStore(update, table, 2, 1000);
+        mea.initialize(new String[] { "roi_lsid", "value_1" }, new String[] {},
+                new Class[] { String.class, Long.class }, null);
+        mea.addRows(new Object[][] {//
+                new Object[] { "Roi:1", 1L },//
+                        new Object[] { "Roi:2", 0L },//
+                        new Object[] { "Roi:3", 1L } //
+                });
+        mea.save();
+        tMock.verify();
+
+    }
+
+    public void testPartialRowGroupFlushedOnSave() throws Exception {
+
+        Column[] cols = new Column[] { new StringColumn(), new LongColumn() };
+        initialize(cols);
+        data(cols, 2);
+
+        mea = new MeasurementStore(update, table, 2, 1000);
+        mea.initialize(new String[] { "roi_lsid", "value_1" }, new String[] {},
+                new Class[] { String.class, Long.class }, null);
+        mea.addColumns(new Object[] {
+                new String[] { "Roi:1", "Roi:2", "Roi:3" },
+                new long[] { 1L, 0L, 1L } }, 3);
+        // only the full row group has been sent
+        tMock.verify();
+
+        data(cols, 1);
+        mea.save();
+        tMock.verify();
+
     }
 
     private Map<XmlAnnotation, List<ImageAnnotationLink>> imagemodel() {
@@ -316,6 +379,14 @@ public class MeasurementStoreUnitTest extends MockObjectTestCase {
     // Helpers
     // =========================================================================
 
+    OmeroMeasurementStore noRois() throws Exception {
+        OmeroMeasurementStore store = new MeasurementStore(update, table);
+        store.initialize(new String[] { "roi_lsid", "value_1" },
+                new String[] {}, new Class[] { String.class, Long.class },
+                null);
+        return store;
+    }
+
     boolean colmatch(Column[] testcols, Column[] foundcols, Integer size) {
 
         boolean failed = false;
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.roi.test;
+
+import java.nio.ByteBuffer;
+
+import ome.services.roi.GeomTool;
+import ome.services.roi.ScanlineStats;
+import ome.services.roi.ShapeSpans;
+import ome.util.PixelData;
+import omero.model.SmartShape;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the rasterization of shapes into spans and the statistics of their
+ * pixel values.
+ * @since 5.5.0
+ */
+@Test(groups = { "unit", "rois" })
+public class ShapeSpansTest {
+
+    private final GeomTool geomTool = new GeomTool(null, null, null);
+
+    /**
+     * @param width the width of the region
+     * @param height the height of the region
+     * @return 8-bit pixel data for the region where each pixel's value is its offset
+     */
+    private PixelData region(int width, int height) {
+        final byte[] bytes = new byte[width * height];
+        for (int index = 0; index < bytes.length; index++) {
+            bytes[index] = (byte) index;
+        }
+        return new PixelData("uint8", ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Test that shapes are clipped to the image.
+     */
+    public void testClipping() {
+        final ShapeSpans inside = ShapeSpans.rasterize((SmartShape) geomTool.rect(0, 0, 10, 10), 20, 20);
+        Assert.assertEquals(inside.getPointCount(), 100);
+        final ShapeSpans overlapping = ShapeSpans.rasterize((SmartShape) geomTool.rect(15, 15, 10, 10), 20, 20);
+        Assert.assertEquals(overlapping.getPointCount(), 25);
+        Assert.assertEquals(overlapping.getMaxX(), 19);
+        Assert.assertEquals(overlapping.getMaxY(), 19);
+        final ShapeSpans outside = ShapeSpans.rasterize((SmartShape) geomTool.rect(30, 30, 10, 10), 20, 20);
+        Assert.assertTrue(outside.isEmpty());
+        Assert.assertFalse(outside.intersects(0, 0, 20, 20));
+    }
+
+    /**
+     * Test that points reported out of row order, as for lines, are merged
+     * into spans without repeats.
+     */
+    public void testLinePoints() {
+        final ShapeSpans diagonal = ShapeSpans.rasterize((SmartShape) geomTool.ln(9, 0, 0, 9), 20, 20);
+        Assert.assertEquals(diagonal.getPointCount(), 10);
+        Assert.assertEquals(diagonal.getMinX(), 0);
+        Assert.assertEquals(diagonal.getMaxX(), 9);
+        Assert.assertEquals(diagonal.getMinY(), 0);
+        Assert.assertEquals(diagonal.getMaxY(), 9);
+        final ScanlineStats.Accumulator stats = new ScanlineStats.Accumulator();
+        diagonal.accumulate(region(10, 10), 0, 0, 10, 10, stats);
+        Assert.assertEquals(stats.getCount(), 10);
+        Assert.assertEquals(stats.getMin(), 9.0);
+        Assert.assertEquals(stats.getMax(), 90.0);
+
+        final ShapeSpans horizontal = ShapeSpans.rasterize((SmartShape) geomTool.ln(9, 5, 0, 5), 20, 20);
+        Assert.assertEquals(horizontal.getPointCount(), 10);
+        Assert.assertEquals(horizontal.getMinY(), horizontal.getMaxY());
+    }
+
+    /**
+     * Test that the statistics are the same however the plane is split into regions.
+     */
+    public void testAccumulateAcrossRegions() {
+        final ShapeSpans spans = ShapeSpans.rasterize((SmartShape) geomTool.rect(2, 3, 4, 5), 10, 10);
+        final ScanlineStats.Accumulator whole = new ScanlineStats.Accumulator();
+        spans.accumulate(region(10, 10), 0, 0, 10, 10, whole);
+        Assert.assertEquals(whole.getCount(), 20);
+        Assert.assertEquals(whole.getMin(), 32.0);
+        Assert.assertEquals(whole.getMax(), 75.0);
+
+        /* the same plane, read as four tiles */
+        final ScanlineStats.Accumulator tiled = new ScanlineStats.Accumulator();
+        final PixelData plane = region(10, 10);
+        for (int tileY = 0; tileY < 10; tileY += 5) {
+            for (int tileX = 0; tileX < 10; tileX += 5) {
+                final byte[] bytes = new byte[25];
+                for (int y = 0; y < 5; y++) {
+                    for (int x = 0; x < 5; x++) {
+                        bytes[y * 5 + x] = (byte) plane.getPixelValue((tileY + y) * 10 + tileX + x);
+                    }
+                }
+                spans.accumulate(new PixelData("uint8", ByteBuffer.wrap(bytes)), tileX, tileY, 5, 5, tiled);
+            }
+        }
+        Assert.assertEquals(tiled.getCount(), whole.getCount());
+        Assert.assertEquals(tiled.getMin(), whole.getMin());
+        Assert.assertEquals(tiled.getMax(), whole.getMax());
+        Assert.assertEquals(tiled.getSum(), whole.getSum());
+        Assert.assertEquals(tiled.getSumOfSquares(), whole.getSumOfSquares());
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package omero.gateway.rnd;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the client-side tile cache and the decoding of the cached
+ * buffers into {@link Plane2D}s.
+ * @since 5.5.0
+ */
+@Test(groups = "unit")
+public class TileCacheTest {
+
+    private static TileCache.Key key(int x) {
+        return new TileCache.Key(1L, 0, 0, 0, x, 0, 16, 16);
+    }
+
+    /**
+     * Test that the least recently used tiles are evicted first once the
+     * byte budget is exceeded.
+     */
+    @Test
+    public void testEviction() {
+        final TileCache cache = new TileCache(100, null);
+        cache.put(key(0), new byte[40]);
+        cache.put(key(1), new byte[40]);
+        Assert.assertNotNull(cache.get(key(0)));
+        cache.put(key(2), new byte[40]);
+        Assert.assertEquals(cache.getSize(), 80);
+        Assert.assertNotNull(cache.get(key(0)));
+        Assert.assertNull(cache.get(key(1)));
+        Assert.assertNotNull(cache.get(key(2)));
+        Assert.assertEquals(cache.getHitCount(), 3);
+        Assert.assertEquals(cache.getMissCount(), 1);
+    }
+
+    /**
+     * Test that evicted tiles are read back from the spill directory.
+     * @throws Exception unexpected
+     */
+    @Test
+    public void testSpill() throws Exception {
+        final File dir = Files.createTempDirectory("tiles").toFile();
+        try {
+            final TileCache cache = new TileCache(50, dir);
+            final byte[] first = new byte[40];
+            first[3] = 7;
+            cache.put(key(0), first);
+            cache.put(key(1), new byte[40]);
+            Assert.assertTrue(cache.contains(key(0)));
+            final byte[] read = cache.get(key(0));
+            Assert.assertEquals(read, first);
+            Assert.assertEquals(cache.getSpillHitCount(), 1);
+            cache.clear();
+            Assert.assertFalse(cache.contains(key(0)));
+            Assert.assertEquals(cache.getSize(), 0);
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * Test that tiles read back from the spill directory are deleted from
+     * there and that the least recently spilled tiles are deleted once the
+     * spill directory's budget is exceeded.
+     * @throws Exception unexpected
+     */
+    @Test
+    public void testSpillBounded() throws Exception {
+        final File dir = Files.createTempDirectory("tiles").toFile();
+        try {
+            final TileCache cache = new TileCache(50, dir, 100);
+            for (int x = 0; x < 4; x++) {
+                cache.put(key(x), new byte[40]);
+            }
+            /* tiles 0 to 2 are spilled but only 1 and 2 fit */
+            Assert.assertEquals(cache.getSpillSize(), 80);
+            Assert.assertEquals(dir.list().length, 2);
+            Assert.assertFalse(cache.contains(key(0)));
+            Assert.assertNull(cache.get(key(0)));
+            /* reading tile 1 back spills tile 3 in its place */
+            Assert.assertNotNull(cache.get(key(1)));
+            Assert.assertEquals(cache.getSpillSize(), 80);
+            Assert.assertEquals(dir.list().length, 2);
+            Assert.assertTrue(cache.contains(key(2)));
+            Assert.assertTrue(cache.contains(key(3)));
+            Assert.assertNotNull(cache.get(key(2)));
+            Assert.assertNotNull(cache.get(key(3)));
+            Assert.assertEquals(cache.getSpillHitCount(), 3);
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * Test that values decoded from the wrapped buffer match the
+     * byte-by-byte conversion.
+     */
+    @Test
+    public void testPlaneDecoding() {
+        final byte[] data = new byte[2 * 3 * 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 37);
+        }
+        final String[] types = {DataSink.INT_16, DataSink.UINT_16};
+        for (final String type : types) {
+            final BytesConverter converter = BytesConverter.getConverter(type);
+            final Plane2D plane = new Plane2D(data, 3, 2, 2, converter);
+            final double[][] values = plane.getPixelValues();
+            final omero.util.ReadOnlyByteArray array =
+                    new omero.util.ReadOnlyByteArray(data, 0, data.length);
+            for (int y = 0; y < 2; y++) {
+                for (int x = 0; x < 3; x++) {
+                    final double expected = converter.pack(array, 2 * (3 * y + x), 2);
+                    Assert.assertEquals(plane.getPixelValue(x, y), expected);
+                    Assert.assertEquals(values[x][y], expected);
+                }
+            }
+        }
+    }
+}
@@ -41,6 +41,9 @@ import com.google.common.io.Files;
  */
 public class AbstractChecksumProvider implements ChecksumProvider {
 
+    /* the size of the chunks in which direct buffers are copied for hashing */
+    private static final int DIRECT_CHUNK_SIZE = 1 << 16;
+
     private final HashFunction hashFunction;
 
     private Hasher hasher;
@@ -83,11 +86,17 @@ public class AbstractChecksumProvider implements ChecksumProvider {
         this.verifyState(this.hashBytes, this.hashString);
         if (byteBuffer.hasArray()) {
             this.hasher.putBytes(byteBuffer.array(), 0, byteBuffer.limit());
-            return this;
         } else {
-            throw new IllegalArgumentException("Supplied ByteBuffer has " +
-                    "inaccessible array.");
+            /* copy the content of direct buffers in chunks, leaving the buffer untouched */
+            final ByteBuffer source = byteBuffer.duplicate();
+            final byte[] chunk = new byte[Math.min(source.remaining(), DIRECT_CHUNK_SIZE)];
+            while (source.hasRemaining()) {
+                final int length = Math.min(source.remaining(), chunk.length);
+                source.get(chunk, 0, length);
+                this.hasher.putBytes(chunk, 0, length);
+            }
         }
+        return this;
     }
 
     /**
@@ -69,8 +69,10 @@ public interface ChecksumProvider {
 
     /**
      * Updates the internal checksum value with data from a byte buffer.
-     * If the array underlying the byte buffer is not accessible, throws an
-     * IllegalArgumentException.
+     * If the byte buffer is backed by an accessible array then that array
+     * is used up to the buffer's limit. Otherwise, as for direct and mapped
+     * buffers, the bytes from the buffer's position up to its limit are used.
+     * The position of the byte buffer is not changed.
      *
      * @param byteBuffer The input byte buffer.
      * @return ChecksumProvider
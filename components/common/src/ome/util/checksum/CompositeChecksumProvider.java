@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.util.checksum;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+
+/**
+ * A {@link ChecksumProvider} that computes the checksums of several algorithms
+ * at once. All input is passed to a provider for each algorithm so that, in
+ * particular, {@link #putFile(String)} reads a file only once however many
+ * checksums are required. The methods of {@link ChecksumProvider} that return a
+ * checksum return that of the first algorithm, the others are available from
+ * {@link #checksumAsBytes(ChecksumType)} and {@link #checksumAsString(ChecksumType)}.
+ *
+ * @since 5.5.0
+ */
+public class CompositeChecksumProvider implements ChecksumProvider {
+
+    /** The default size of the buffer used by {@link #putFile(String)}. */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private final ChecksumProviderFactory factory;
+
+    private final ImmutableList<ChecksumType> types;
+
+    private final int bufferSize;
+
+    private final Map<ChecksumType, ChecksumProvider> providers =
+            new EnumMap<ChecksumType, ChecksumProvider>(ChecksumType.class);
+
+    private final Map<ChecksumType, byte[]> checksums =
+            new EnumMap<ChecksumType, byte[]>(ChecksumType.class);
+
+    private boolean isChecksumCalculated = false;
+
+    /**
+     * Construct a provider of the checksums of the given algorithms.
+     * @param factory the factory for the provider of each algorithm
+     * @param types the algorithms, at least one
+     */
+    public CompositeChecksumProvider(ChecksumProviderFactory factory, Collection<ChecksumType> types) {
+        this(factory, types, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Construct a provider of the checksums of the given algorithms.
+     * @param factory the factory for the provider of each algorithm
+     * @param types the algorithms, at least one
+     * @param bufferSize the size of the buffer into which {@link #putFile(String)} reads
+     */
+    public CompositeChecksumProvider(ChecksumProviderFactory factory, Collection<ChecksumType> types,
+            int bufferSize) {
+        if (types.isEmpty()) {
+            throw new IllegalArgumentException("at least one checksum type is required");
+        }
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("buffer size must be positive");
+        }
+        this.factory = factory;
+        this.types = ImmutableList.copyOf(types);
+        this.bufferSize = bufferSize;
+        resetProviders();
+    }
+
+    private void resetProviders() {
+        providers.clear();
+        for (final ChecksumType type : types) {
+            if (!providers.containsKey(type)) {
+                providers.put(type, factory.getProvider(type));
+            }
+        }
+    }
+
+    /**
+     * @return the algorithms whose checksums are computed, the first being the one
+     * whose checksum is returned by {@link #checksumAsBytes()} and {@link #checksumAsString()}
+     */
+    public ImmutableList<ChecksumType> getTypes() {
+        return types;
+    }
+
+    /**
+     * @see ChecksumProvider#putBytes(byte[])
+     */
+    public ChecksumProvider putBytes(byte[] byteArray) {
+        return this.putBytes(byteArray, 0, byteArray.length);
+    }
+
+    /**
+     * @see ChecksumProvider#putBytes(byte[], int, int)
+     */
+    public ChecksumProvider putBytes(byte[] byteArray, int offset, int length) {
+        verifyState();
+        for (final ChecksumProvider provider : providers.values()) {
+            provider.putBytes(byteArray, offset, length);
+        }
+        return this;
+    }
+
+    /**
+     * @see ChecksumProvider#putBytes(ByteBuffer)
+     */
+    public ChecksumProvider putBytes(ByteBuffer byteBuffer) {
+        verifyState();
+        for (final ChecksumProvider provider : providers.values()) {
+            provider.putBytes(byteBuffer);
+        }
+        return this;
+    }
+
+    /**
+     * Reads the file through a {@link FileChannel} in a single pass.
+     * @see ChecksumProvider#putFile(String)
+     */
+    public ChecksumProvider putFile(String filePath) {
+        verifyState();
+        /* as for the other providers, previous input does not affect the checksum */
+        resetProviders();
+        final ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        try (final FileInputStream in = new FileInputStream(filePath)) {
+            final FileChannel channel = in.getChannel();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                if (buffer.hasRemaining()) {
+                    for (final ChecksumProvider provider : providers.values()) {
+                        provider.putBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                    }
+                }
+                buffer.clear();
+            }
+        } catch (IOException io) {
+            throw new RuntimeException(io);
+        }
+        return this;
+    }
+
+    /**
+     * @see ChecksumProvider#checksumAsBytes()
+     */
+    public byte[] checksumAsBytes() {
+        return checksumAsBytes(types.get(0));
+    }
+
+    /**
+     * @see ChecksumProvider#checksumAsString()
+     */
+    public String checksumAsString() {
+        return checksumAsString(types.get(0));
+    }
+
+    /**
+     * Returns a byte array representation of the checksum of the given algorithm.
+     * @param type one of the algorithms of this provider
+     * @return the checksum in a byte array
+     * @see ChecksumProvider#checksumAsBytes()
+     */
+    public byte[] checksumAsBytes(ChecksumType type) {
+        return getChecksum(type).clone();
+    }
+
+    /**
+     * Returns a <code>String</code> representing the checksum of the given algorithm in hex form.
+     * @param type one of the algorithms of this provider
+     * @return the hexadecimal value of the checksum
+     * @see ChecksumProvider#checksumAsString()
+     */
+    public String checksumAsString(ChecksumType type) {
+        return HashCode.fromBytes(getChecksum(type)).toString();
+    }
+
+    /**
+     * Get the checksum of the given algorithm, computing it only once
+     * because a provider's checksum may be retrieved only once.
+     * @param type one of the algorithms of this provider
+     * @return the checksum
+     */
+    private byte[] getChecksum(ChecksumType type) {
+        byte[] checksum = checksums.get(type);
+        if (checksum == null) {
+            final ChecksumProvider provider = providers.get(type);
+            if (provider == null) {
+                throw new IllegalArgumentException("not a checksum type of this provider: " + type);
+            }
+            checksum = provider.checksumAsBytes();
+            checksums.put(type, checksum);
+        }
+        isChecksumCalculated = true;
+        return checksum;
+    }
+
+    private void verifyState() {
+        if (isChecksumCalculated) {
+            throw new IllegalStateException("Checksum state already set. " +
+                    "Mutation illegal.");
+        }
+    }
+}
@@ -133,12 +133,25 @@ public abstract class AbstractChecksumProviderAlgorithmTest {
                 .get(ChecksumTestVector.ABC));
     }
 
-    @Test(expectedExceptions = IllegalArgumentException.class)
-    public void testChecksumAsBytesWithEmptyByteBufferShouldThrowIAE() {
-        byte[] actual = this.checksumProvider
+    @Test
+    public void testChecksumAsStringWithDirectByteBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(3);
+        buffer.put("abc".getBytes()).flip();
+        String actual = this.checksumProvider
+                .putBytes(buffer)
+                .checksumAsString();
+        Assert.assertEquals(actual, this.checksumValues
+                .get(ChecksumTestVector.ABC));
+        Assert.assertEquals(buffer.position(), 0);
+    }
+
+    @Test
+    public void testChecksumAsStringWithEmptyDirectByteBuffer() {
+        String actual = this.checksumProvider
                 .putBytes(ByteBuffer.allocateDirect(0))
-                .checksumAsBytes();
-        Assert.assertNull(actual);
+                .checksumAsString();
+        Assert.assertEquals(actual, this.checksumValues
+                .get(ChecksumTestVector.EMPTYARRAY));
     }
 
     @Test
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.util.checksum;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmarks of reading a file for its checksums. Compares the existing
+ * {@link ChecksumProvider#putFile(String)} with reading through a
+ * {@link FileChannel} into heap and direct buffers of various sizes, and with
+ * computing every algorithm's checksum in one pass with the
+ * {@link CompositeChecksumProvider}. This is not run by TestNG: run the
+ * {@link #main(String[])} method with the test classpath.
+ *
+ * @since 5.5.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChecksumProviderBenchmark {
+
+    private static final int FILE_SIZE = 16 << 20;
+
+    private final ChecksumProviderFactory factory = new ChecksumProviderFactoryImpl();
+
+    @Param({"MD5", "SHA1", "MURMUR128", "ADLER32"})
+    public String type;
+
+    @Param({"8192", "65536", "1048576"})
+    public int bufferSize;
+
+    private ChecksumType checksumType;
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        checksumType = ChecksumType.valueOf(type);
+        file = File.createTempFile("ChecksumProviderBenchmark", ".bin");
+        file.deleteOnExit();
+        final byte[] content = new byte[1 << 20];
+        final Random random = new Random(1234);
+        try (final OutputStream out = new FileOutputStream(file)) {
+            for (int written = 0; written < FILE_SIZE; written += content.length) {
+                random.nextBytes(content);
+                out.write(content);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        file.delete();
+    }
+
+    private String readChannel(ByteBuffer buffer) throws IOException {
+        final ChecksumProvider provider = factory.getProvider(checksumType);
+        try (final FileInputStream in = new FileInputStream(file)) {
+            final FileChannel channel = in.getChannel();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                provider.putBytes(buffer);
+                buffer.clear();
+            }
+        }
+        return provider.checksumAsString();
+    }
+
+    @Benchmark
+    public String putFile() {
+        return factory.getProvider(checksumType).putFile(file.getPath()).checksumAsString();
+    }
+
+    @Benchmark
+    public String channelHeapBuffer() throws IOException {
+        return readChannel(ByteBuffer.allocate(bufferSize));
+    }
+
+    @Benchmark
+    public String channelDirectBuffer() throws IOException {
+        return readChannel(ByteBuffer.allocateDirect(bufferSize));
+    }
+
+    @Benchmark
+    public String compositeAllTypes() {
+        return new CompositeChecksumProvider(factory, EnumSet.allOf(ChecksumType.class), bufferSize)
+                .putFile(file.getPath()).checksumAsString(checksumType);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ChecksumProviderBenchmark.class.getSimpleName()).build()).run();
+    }
+}
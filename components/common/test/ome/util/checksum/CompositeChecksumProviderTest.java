@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.util.checksum;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.springframework.util.ResourceUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.hash.HashCode;
+
+/**
+ * Test that the {@link CompositeChecksumProvider} computes the same checksums
+ * as the provider of each of its algorithms.
+ *
+ * @since 5.5.0
+ */
+@Test
+public class CompositeChecksumProviderTest {
+
+    private final ChecksumProviderFactory factory = new ChecksumProviderFactoryImpl();
+
+    private final List<ChecksumType> types = Arrays.asList(ChecksumType.SHA1, ChecksumType.MD5,
+            ChecksumType.CRC32, ChecksumType.FILE_SIZE);
+
+    /**
+     * Check that the composite provider has the same checksums as the single providers.
+     * @param composite the composite provider
+     * @param singles a single provider for each algorithm, given the same input
+     */
+    private void assertChecksums(CompositeChecksumProvider composite, List<ChecksumProvider> singles) {
+        for (int index = 0; index < types.size(); index++) {
+            Assert.assertEquals(composite.checksumAsString(types.get(index)), singles.get(index).checksumAsString());
+        }
+        Assert.assertEquals(composite.checksumAsString(), composite.checksumAsString(types.get(0)));
+        Assert.assertEquals(HashCode.fromBytes(composite.checksumAsBytes()).toString(), composite.checksumAsString());
+    }
+
+    private File getFile(String name) {
+        try {
+            return ResourceUtils.getFile("classpath:" + name);
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException("IOException during test set up.");
+        }
+    }
+
+    @Test
+    public void testPutBytes() {
+        final byte[] bytes = "defabcghi".getBytes();
+        final CompositeChecksumProvider composite = new CompositeChecksumProvider(factory, types);
+        composite.putBytes(bytes).putBytes(bytes, 3, 3);
+        final List<ChecksumProvider> singles = Arrays.asList(new ChecksumProvider[types.size()]);
+        for (int index = 0; index < types.size(); index++) {
+            singles.set(index, factory.getProvider(types.get(index)).putBytes(bytes).putBytes(bytes, 3, 3));
+        }
+        assertChecksums(composite, singles);
+    }
+
+    @Test
+    public void testPutDirectByteBuffer() {
+        final byte[] bytes = "abcdef".getBytes();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        final CompositeChecksumProvider composite = new CompositeChecksumProvider(factory, types);
+        composite.putBytes(buffer);
+        Assert.assertEquals(buffer.remaining(), bytes.length);
+        final List<ChecksumProvider> singles = Arrays.asList(new ChecksumProvider[types.size()]);
+        for (int index = 0; index < types.size(); index++) {
+            singles.set(index, factory.getProvider(types.get(index)).putBytes(bytes));
+        }
+        assertChecksums(composite, singles);
+    }
+
+    @Test
+    public void testPutFile() {
+        /* a buffer much smaller than the file exercises reading in many blocks */
+        for (final int bufferSize : new int[] {100, CompositeChecksumProvider.DEFAULT_BUFFER_SIZE}) {
+            for (final String name : new String[] {"test.jpg", "test.bmp"}) {
+                final String path = getFile(name).getAbsolutePath();
+                final CompositeChecksumProvider composite = new CompositeChecksumProvider(factory, types, bufferSize);
+                composite.putBytes("ignored".getBytes()).putFile(path);
+                final List<ChecksumProvider> singles = Arrays.asList(new ChecksumProvider[types.size()]);
+                for (int index = 0; index < types.size(); index++) {
+                    singles.set(index, factory.getProvider(types.get(index)).putFile(path));
+                }
+                assertChecksums(composite, singles);
+            }
+        }
+    }
+
+    @Test
+    public void testGetTypes() {
+        final CompositeChecksumProvider composite = new CompositeChecksumProvider(factory, types);
+        Assert.assertEquals(composite.getTypes(), types);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNoTypesShouldThrowIAE() {
+        new CompositeChecksumProvider(factory, EnumSet.noneOf(ChecksumType.class));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testOtherTypeShouldThrowIAE() {
+        new CompositeChecksumProvider(factory, types).checksumAsString(ChecksumType.MURMUR32);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testPutAfterChecksumShouldThrowISE() {
+        final CompositeChecksumProvider composite = new CompositeChecksumProvider(factory, types);
+        composite.putBytes("abc".getBytes()).checksumAsBytes();
+        composite.putBytes("abc".getBytes());
+    }
+}
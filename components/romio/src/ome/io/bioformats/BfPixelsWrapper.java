@@ -345,7 +345,7 @@ public class BfPixelsWrapper {
         return buffer;
     }
 
-    public byte[] getTile(int z, int c, int t, int x, int y, int w, int h,
+    public synchronized byte[] getTile(int z, int c, int t, int x, int y, int w, int h,
                           byte[] buffer) throws FormatException, IOException {
         return reader.openBytes(reader.getIndex(z, c, t), buffer, x, y, w, h);
     }
@@ -355,9 +355,10 @@ public class BfPixelsWrapper {
      */
 
     /*
-     * Get a plane dealing with rgb/interleaving if necessary
+     * Get a plane dealing with rgb/interleaving if necessary. Synchronized, as
+     * is getTile, because the reader is not safe for concurrent use.
      */
-    private byte[] getWholePlane(int z, int c, int t, byte[] plane)
+    private synchronized byte[] getWholePlane(int z, int c, int t, byte[] plane)
             throws IOException, FormatException
     {
         int planeNumber;
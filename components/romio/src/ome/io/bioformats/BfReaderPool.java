@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.io.bioformats;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+
+import loci.formats.FormatException;
+import loci.formats.IFormatReader;
+import loci.formats.ReaderWrapper;
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps Bio-Formats readers that have been opened on a file so that opening
+ * the same file again need not even deserialize its memo. Readers are leased
+ * with {@link #lease(String, int, Callable)}: closing the lease returns its
+ * reader to the pool, still open, where it may be leased again for the same
+ * file and series. The number of idle readers is limited, the least recently
+ * returned being closed first, and readers left idle for too long are closed.
+ *
+ * @since 5.5.0
+ */
+public class BfReaderPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BfReaderPool.class);
+
+    /**
+     * A reader waiting in the pool.
+     */
+    private static class Idle {
+        final String path;
+        final int series;
+        final IFormatReader reader;
+        final long since = System.currentTimeMillis();
+
+        Idle(String path, int series, IFormatReader reader) {
+            this.path = path;
+            this.series = series;
+            this.reader = reader;
+        }
+    }
+
+    /**
+     * A reader leased from the pool. Opening it on the file for which it
+     * was leased does nothing if its reader is already open on that file.
+     * Closing it returns its reader to the pool; opening it again then
+     * leases another reader. While closed, only its flattened resolutions
+     * may be set or queried before it is opened again: that setting is
+     * remembered and applied to the reader that it next leases.
+     */
+    private class Lease extends ReaderWrapper {
+
+        private final Callable<IFormatReader> factory;
+
+        private final int series;
+
+        /* the file on which the reader is open */
+        private String path;
+
+        /* the requested flattened resolutions, null if none were requested */
+        private Boolean flattenedResolutions;
+
+        Lease(IFormatReader reader, String path, int series, Callable<IFormatReader> factory) {
+            super(reader);
+            this.factory = factory;
+            this.series = series;
+            this.path = path;
+        }
+
+        @Override
+        public void setId(String id) throws FormatException, IOException {
+            if (reader == null) {
+                reader = checkout(id, series);
+                if (reader != null) {
+                    if (flattenedResolutions == null
+                            || flattenedResolutions == reader.hasFlattenedResolutions()) {
+                        path = id;
+                        return;
+                    }
+                    /* the pooled reader cannot be reconfigured */
+                    reader.close();
+                }
+                try {
+                    reader = factory.call();
+                } catch (Exception e) {
+                    throw new FormatException("failed to create reader for " + id, e);
+                }
+                if (flattenedResolutions != null) {
+                    reader.setFlattenedResolutions(flattenedResolutions);
+                }
+            } else if (id.equals(path)) {
+                return;
+            } else if (path != null) {
+                reader.close();
+                path = null;
+            }
+            reader.setId(id);
+            path = id;
+        }
+
+        @Override
+        public void setFlattenedResolutions(boolean flatten) {
+            flattenedResolutions = flatten;
+            /* an open reader may not be reconfigured but may already suit */
+            if (reader != null && (path == null || flatten != reader.hasFlattenedResolutions())) {
+                super.setFlattenedResolutions(flatten);
+            }
+        }
+
+        @Override
+        public boolean hasFlattenedResolutions() {
+            if (reader == null) {
+                return flattenedResolutions == null || flattenedResolutions;
+            }
+            return super.hasFlattenedResolutions();
+        }
+
+        @Override
+        public void close(boolean fileOnly) throws IOException {
+            if (reader == null) {
+                return;
+            }
+            if (fileOnly) {
+                /* the reader can no longer be read without being opened again */
+                reader.close(true);
+                path = null;
+            } else {
+                close();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader == null) {
+                return;
+            }
+            final IFormatReader toReturn = reader;
+            reader = null;
+            if (path == null) {
+                toReturn.close();
+            } else {
+                checkin(path, toReturn.getSeries(), toReturn);
+                path = null;
+            }
+        }
+    }
+
+    private final int maxIdle;
+
+    private final long idleTimeout;
+
+    private final LinkedList<Idle> idle = new LinkedList<Idle>();
+
+    private final Timer timer = new Timer("BfReaderPool", true);
+
+    private Counter hits, misses, evictions;
+
+    /**
+     * @param maxIdle the most readers to keep open while idle, {@code 0} to
+     * close readers immediately
+     * @param idleTimeout how long to keep an idle reader open, in milliseconds
+     */
+    public BfReaderPool(int maxIdle, long idleTimeout) {
+        this.maxIdle = Math.max(0, maxIdle);
+        this.idleTimeout = idleTimeout;
+        setMetrics(new NullMetrics());
+        if (this.maxIdle > 0 && idleTimeout > 0) {
+            final long period = Math.max(1000, idleTimeout / 2);
+            timer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    evictIdle();
+                }
+            }, period, period);
+        }
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.hits = metrics.counter(this, "hits");
+        this.misses = metrics.counter(this, "misses");
+        this.evictions = metrics.counter(this, "evictions");
+    }
+
+    /**
+     * Lease a reader for a series of a file. If the pool has a reader open on
+     * the file and series then that is leased, otherwise a new one is created.
+     * @param path the file to be read
+     * @param series the series to be read
+     * @param factory creates a reader, not yet opened on any file
+     * @return the reader, to be closed when no longer used
+     * @throws Exception if a new reader could not be created
+     */
+    public IFormatReader lease(String path, int series, Callable<IFormatReader> factory) throws Exception {
+        final IFormatReader reader = checkout(path, series);
+        if (reader == null) {
+            return new Lease(factory.call(), null, series, factory);
+        } else {
+            return new Lease(reader, path, series, factory);
+        }
+    }
+
+    /**
+     * @return the number of readers that are idle in the pool
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Take from the pool a reader open on a series of a file.
+     * @return the reader, set to the series, or {@code null} if there is none
+     */
+    private IFormatReader checkout(String path, int series) {
+        IFormatReader reader = null;
+        synchronized (this) {
+            final ListIterator<Idle> iterator = idle.listIterator(idle.size());
+            while (iterator.hasPrevious()) {
+                final Idle entry = iterator.previous();
+                if (entry.series == series && entry.path.equals(path)) {
+                    iterator.remove();
+                    reader = entry.reader;
+                    break;
+                }
+            }
+        }
+        if (reader == null) {
+            misses.inc();
+        } else {
+            hits.inc();
+            reader.setSeries(series);
+        }
+        return reader;
+    }
+
+    /**
+     * Return to the pool a reader open on a series of a file.
+     */
+    private void checkin(String path, int series, IFormatReader reader) {
+        final List<IFormatReader> toClose = new ArrayList<IFormatReader>();
+        synchronized (this) {
+            if (maxIdle > 0) {
+                idle.add(new Idle(path, series, reader));
+            } else {
+                toClose.add(reader);
+            }
+            while (idle.size() > maxIdle) {
+                toClose.add(idle.removeFirst().reader);
+                evictions.inc();
+            }
+        }
+        close(toClose);
+    }
+
+    /**
+     * Close the readers that have been idle for longer than the timeout.
+     */
+    private void evictIdle() {
+        final long cutoff = System.currentTimeMillis() - idleTimeout;
+        final List<IFormatReader> toClose = new ArrayList<IFormatReader>();
+        synchronized (this) {
+            final Iterator<Idle> iterator = idle.iterator();
+            while (iterator.hasNext()) {
+                final Idle entry = iterator.next();
+                if (entry.since < cutoff) {
+                    iterator.remove();
+                    toClose.add(entry.reader);
+                    evictions.inc();
+                }
+            }
+        }
+        close(toClose);
+    }
+
+    private static void close(List<IFormatReader> readers) {
+        for (final IFormatReader reader : readers) {
+            try {
+                reader.close();
+            } catch (Throwable t) {
+                LOGGER.warn("failed to close idle reader", t);
+            }
+        }
+    }
+
+    /**
+     * Called by Spring on destruction: closes the idle readers.
+     */
+    public void destroy() {
+        timer.cancel();
+        final List<IFormatReader> toClose = new ArrayList<IFormatReader>();
+        synchronized (this) {
+            for (final Idle entry : idle) {
+                toClose.add(entry.reader);
+            }
+            idle.clear();
+        }
+        close(toClose);
+    }
+}
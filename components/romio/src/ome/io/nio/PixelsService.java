@@ -13,6 +13,7 @@ import java.nio.ByteOrder;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import loci.formats.ChannelFiller;
 import loci.formats.ChannelSeparator;
@@ -27,6 +28,7 @@ import ome.conditions.LockTimeout;
 import ome.conditions.MissingPyramidException;
 import ome.conditions.ResourceError;
 import ome.io.bioformats.BfPixelBuffer;
+import ome.io.bioformats.BfReaderPool;
 import ome.io.bioformats.BfPyramidPixelBuffer;
 import ome.io.bioformats.MemoizerFallback;
 import ome.io.bioformats.MemoizerReadOnly;
@@ -106,6 +108,9 @@ public class PixelsService extends AbstractFileSystemService
 	
 	private IQuery iQuery;
 
+	/** Pool of open readers for reuse, may be {@code null}. */
+	private BfReaderPool readerPool;
+
 	/** Null plane byte array. */
 	public static final byte[] nullPlane = new byte[] { -128, 127, -128, 127,
 			-128, 127, -128, 127, -128, 127, // 10
@@ -222,6 +227,14 @@ public class PixelsService extends AbstractFileSystemService
         this.minmaxTimes = metrics.timer(this, "minmaxTimes");
     }
 
+    /**
+     * Sets the pool from which readers of original files are leased, so that
+     * files which are opened repeatedly stay open between uses.
+     */
+    public void setReaderPool(BfReaderPool readerPool) {
+        this.readerPool = readerPool;
+    }
+
     public long getMemoizerWait() {
         return memoizerWait;
     }
@@ -578,6 +591,11 @@ public class PixelsService extends AbstractFileSystemService
                     if (bfPixelBuffer.getResolutionLevels() > 1) {
                         return bfPixelBuffer;
                     }
+                    try {
+                        bfPixelBuffer.close();
+                    } catch (IOException e) {
+                        log.warn("Failed to close BfPixelBuffer: " + originalFilePath, e);
+                    }
                 }
                 // throws if loop should exit!
                 handleMissingPyramid(pixels, pixelsPyramidFilePath);
@@ -820,7 +838,7 @@ public class PixelsService extends AbstractFileSystemService
         // from getPixelBuffer
         final String originalFilePath = getOriginalFilePath(pixels);
         final int series = getSeries(pixels);
-        final IFormatReader reader = createBfReader();
+        final IFormatReader reader = createBfReader(originalFilePath, series);
         reader.setId(originalFilePath); // Called by BfPixelsBuffer elsewhere.
         reader.setSeries(series);
         return reader;
@@ -845,6 +863,34 @@ public class PixelsService extends AbstractFileSystemService
         return reader;
     }
 
+    /**
+     * Create an {@link IFormatReader} for reading a series of a file. If a
+     * reader pool is set then the reader is leased from it: closing the
+     * reader returns it to the pool and, if a pooled reader is already open
+     * on the file, {@link IFormatReader#setId(String)} does not reopen it.
+     * @param filePath the file to be read
+     * @param series the series to be read
+     * @return the reader, as from {@link #createBfReader()} if there is no pool
+     */
+    protected IFormatReader createBfReader(String filePath, int series) {
+        if (readerPool == null) {
+            return createBfReader();
+        }
+        try {
+            return readerPool.lease(filePath, series, new Callable<IFormatReader>() {
+                @Override
+                public IFormatReader call() {
+                    return createBfReader();
+                }
+            });
+        } catch (RuntimeException re) {
+            throw re;
+        } catch (Exception e) {
+            /* cannot happen as createBfReader throws no checked exceptions */
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Helper method to properly log any exceptions raised by Bio-Formats.
      * @param filePath Non-null.
@@ -855,7 +901,7 @@ public class PixelsService extends AbstractFileSystemService
                                               final int series) {
         try
         {
-            IFormatReader reader = createBfReader();
+            IFormatReader reader = createBfReader(filePath, series);
             BfPixelBuffer pixelBuffer = new BfPixelBuffer(filePath, reader);
             pixelBuffer.setSeries(series);
             log.info(String.format("Creating BfPixelBuffer: %s Series: %d",
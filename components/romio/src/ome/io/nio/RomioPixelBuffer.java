@@ -162,7 +162,12 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
         }
     }
 
-    private FileChannel getFileChannel() throws FileNotFoundException {
+    /**
+     * Opens the file on first use. Synchronized so that concurrent readers
+     * share a single channel; reads themselves map regions of the channel
+     * and need no further locking.
+     */
+    private synchronized FileChannel getFileChannel() throws FileNotFoundException {
         if (channel == null) {
             file = new RandomAccessFile(getPath(), "rw");
             channel = file.getChannel();
@@ -177,7 +182,7 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
      * @throws IOException
      *             if an I/O error occurs.
      */
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
         if (channel != null) {
             try {
                 channel.close();
@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.io.nio;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.util.PixelData;
+
+/**
+ * Computes histograms of a region of a plane by reading only the tiles of a
+ * {@link PixelBuffer} that cover the region, at the buffer's current
+ * resolution level, so this works for pyramid-backed buffers too. The
+ * channels are binned concurrently, each by its own thread, though the tiles
+ * are read from the buffer one at a time.
+ * <p>
+ * Pixel values of up to 16 bits are first counted by value then binned, so
+ * the plane's minimum and maximum come from the same read. Other pixel types
+ * are binned directly, reading the plane twice if its minimum and maximum are
+ * not given.
+ * </p>
+ *
+ * @since 5.5.0
+ */
+public class TileHistogram {
+
+    /**
+     * The maximum number of channels to bin at once.
+     */
+    public static final int MAX_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(MAX_THREADS, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "TileHistogram-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Visits the pixels of the tiles of a region.
+     */
+    private interface TileVisitor {
+        /**
+         * @param tile the pixel data of a tile, ordered by row
+         * @param width the width of the tile
+         * @param height the height of the tile
+         */
+        void visit(PixelData tile, int width, int height);
+    }
+
+    private final PixelBuffer buffer;
+
+    private final int z, t, x, y, w, h, binCount;
+
+    private final int sizeX, sizeY;
+
+    /**
+     * Prepare to compute histograms of a region of a plane. The region is
+     * clipped to the plane.
+     * @param buffer the pixel buffer from which to read, at its current resolution level
+     * @param z the Z of the plane
+     * @param t the T of the plane
+     * @param x the left of the region
+     * @param y the top of the region
+     * @param w the width of the region
+     * @param h the height of the region
+     * @param binCount the number of bins in each histogram
+     */
+    public TileHistogram(PixelBuffer buffer, int z, int t, int x, int y, int w, int h, int binCount) {
+        this.buffer = buffer;
+        this.z = z;
+        this.t = t;
+        this.sizeX = buffer.getSizeX();
+        this.sizeY = buffer.getSizeY();
+        this.x = Math.max(0, x);
+        this.y = Math.max(0, y);
+        this.w = Math.min(sizeX, x + w) - this.x;
+        this.h = Math.min(sizeY, y + h) - this.y;
+        this.binCount = binCount;
+    }
+
+    /**
+     * Compute the histograms of the given channels.
+     * @param ranges the channels, each with the minimum and maximum values of the histogram's range,
+     * or with {@code null} to use the minimum and maximum of the channel's plane
+     * @return the histogram of each channel, in the same order
+     * @throws IOException if the pixel data could not be read
+     */
+    public Map<Integer, int[]> getHistograms(Map<Integer, double[]> ranges) throws IOException {
+        final Map<Integer, int[]> histograms = new LinkedHashMap<Integer, int[]>();
+        if (ranges.size() < 2) {
+            for (final Map.Entry<Integer, double[]> range : ranges.entrySet()) {
+                histograms.put(range.getKey(), getHistogram(range.getKey(), range.getValue()));
+            }
+            return histograms;
+        }
+        final Map<Integer, Future<int[]>> results = new LinkedHashMap<Integer, Future<int[]>>();
+        try {
+            for (final Map.Entry<Integer, double[]> range : ranges.entrySet()) {
+                results.put(range.getKey(), executor.submit(new Callable<int[]>() {
+                    @Override
+                    public int[] call() throws IOException {
+                        return getHistogram(range.getKey(), range.getValue());
+                    }
+                }));
+            }
+            for (final Map.Entry<Integer, Future<int[]>> result : results.entrySet()) {
+                histograms.put(result.getKey(), result.getValue().get());
+            }
+        } catch (ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while computing histograms", ie);
+        } finally {
+            for (final Future<int[]> result : results.values()) {
+                result.cancel(true);
+            }
+        }
+        return histograms;
+    }
+
+    /**
+     * Compute the histogram of a channel.
+     * @param c the channel
+     * @param range the minimum and maximum values of the histogram's range,
+     * or {@code null} to use the minimum and maximum of the channel's plane
+     * @return the histogram
+     * @throws IOException if the pixel data could not be read
+     */
+    private int[] getHistogram(int c, double[] range) throws IOException {
+        final int[] histogram = new int[binCount];
+        if (w <= 0 || h <= 0) {
+            return histogram;
+        }
+        if (!buffer.isFloat() && buffer.getByteWidth() <= 2) {
+            /* count each value then bin the counts, bit pixels having a byte width of zero */
+            final int bits = Math.max(1, 8 * buffer.getByteWidth());
+            final int offset = buffer.isSigned() ? 1 << bits - 1 : 0;
+            final long[] regionCounts = new long[1 << bits];
+            visitTiles(c, x, y, w, h, new ValueCounter(regionCounts, offset));
+            if (range == null) {
+                final long[] planeCounts;
+                if (w == sizeX && h == sizeY) {
+                    planeCounts = regionCounts;
+                } else {
+                    planeCounts = new long[1 << bits];
+                    visitTiles(c, 0, 0, sizeX, sizeY, new ValueCounter(planeCounts, offset));
+                }
+                int first = 0;
+                while (planeCounts[first] == 0) {
+                    first++;
+                }
+                int last = planeCounts.length - 1;
+                while (planeCounts[last] == 0) {
+                    last--;
+                }
+                range = new double[] {first - offset, last - offset};
+            }
+            final Binner binner = new Binner(histogram, range[0], range[1]);
+            for (int index = 0; index < regionCounts.length; index++) {
+                if (regionCounts[index] > 0) {
+                    binner.add(index - offset, (int) regionCounts[index]);
+                }
+            }
+        } else {
+            if (range == null) {
+                final MinMaxFinder finder = new MinMaxFinder();
+                visitTiles(c, 0, 0, sizeX, sizeY, finder);
+                range = new double[] {finder.min, finder.max};
+            }
+            visitTiles(c, x, y, w, h, new Binner(histogram, range[0], range[1]));
+        }
+        return histogram;
+    }
+
+    /**
+     * Visit the tiles that cover a region of a channel's plane, aligned to
+     * the buffer's tiles.
+     * @param c the channel
+     * @param left the left of the region
+     * @param top the top of the region
+     * @param width the width of the region
+     * @param height the height of the region
+     * @param visitor the visitor of each tile
+     * @throws IOException if the pixel data could not be read
+     */
+    private void visitTiles(int c, int left, int top, int width, int height, TileVisitor visitor)
+            throws IOException {
+        final Dimension tileSize;
+        synchronized (buffer) {
+            tileSize = buffer.getTileSize();
+        }
+        final int tileWidth = tileSize == null ? sizeX : tileSize.width;
+        final int tileHeight = tileSize == null ? sizeY : tileSize.height;
+        final int right = left + width;
+        final int bottom = top + height;
+        for (int tileY = top - top % tileHeight; tileY < bottom; tileY += tileHeight) {
+            final int fromY = Math.max(top, tileY);
+            final int toY = Math.min(bottom, tileY + tileHeight);
+            for (int tileX = left - left % tileWidth; tileX < right; tileX += tileWidth) {
+                final int fromX = Math.max(left, tileX);
+                final int toX = Math.min(right, tileX + tileWidth);
+                final PixelData tile;
+                synchronized (buffer) {
+                    tile = buffer.getTile(z, c, t, fromX, fromY, toX - fromX, toY - fromY);
+                }
+                try {
+                    visitor.visit(tile, toX - fromX, toY - fromY);
+                } finally {
+                    tile.dispose();
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts how often each value of up to 16 bits occurs.
+     */
+    private static class ValueCounter implements TileVisitor {
+        private final long[] counts;
+        private final int offset;
+
+        /**
+         * @param counts the counts, indexed by value plus offset
+         * @param offset the offset that makes the smallest value zero
+         */
+        ValueCounter(long[] counts, int offset) {
+            this.counts = counts;
+            this.offset = offset;
+        }
+
+        @Override
+        public void visit(PixelData tile, int width, int height) {
+            final ByteBuffer data = tile.getData();
+            final int size = width * height;
+            if (tile.javaType() == PixelData.BYTE) {
+                if (tile.isSigned()) {
+                    for (int index = 0; index < size; index++) {
+                        counts[data.get(index) + offset]++;
+                    }
+                } else {
+                    for (int index = 0; index < size; index++) {
+                        counts[data.get(index) & 0xFF]++;
+                    }
+                }
+            } else if (tile.javaType() == PixelData.SHORT) {
+                if (tile.isSigned()) {
+                    for (int index = 0; index < size; index++) {
+                        counts[data.getShort(index << 1) + offset]++;
+                    }
+                } else {
+                    for (int index = 0; index < size; index++) {
+                        counts[data.getShort(index << 1) & 0xFFFF]++;
+                    }
+                }
+            } else {
+                for (int index = 0; index < size; index++) {
+                    counts[(int) tile.getPixelValue(index) + offset]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the minimum and maximum value.
+     */
+    private static class MinMaxFinder implements TileVisitor {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+
+        @Override
+        public void visit(PixelData tile, int width, int height) {
+            final ByteBuffer data = tile.getData();
+            final int size = width * height;
+            double min = this.min;
+            double max = this.max;
+            if (tile.javaType() == PixelData.INT && tile.isSigned()) {
+                for (int index = 0; index < size; index++) {
+                    final int value = data.getInt(index << 2);
+                    if (value < min) min = value;
+                    if (value > max) max = value;
+                }
+            } else if (tile.javaType() == PixelData.INT) {
+                for (int index = 0; index < size; index++) {
+                    final long value = data.getInt(index << 2) & 0xFFFFFFFFL;
+                    if (value < min) min = value;
+                    if (value > max) max = value;
+                }
+            } else if (tile.javaType() == PixelData.FLOAT) {
+                for (int index = 0; index < size; index++) {
+                    final float value = data.getFloat(index << 2);
+                    if (value < min) min = value;
+                    if (value > max) max = value;
+                }
+            } else if (tile.javaType() == PixelData.DOUBLE) {
+                for (int index = 0; index < size; index++) {
+                    final double value = data.getDouble(index << 3);
+                    if (value < min) min = value;
+                    if (value > max) max = value;
+                }
+            } else {
+                for (int index = 0; index < size; index++) {
+                    final double value = tile.getPixelValue(index);
+                    if (value < min) min = value;
+                    if (value > max) max = value;
+                }
+            }
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    /**
+     * Bins values into a histogram.
+     */
+    private static class Binner implements TileVisitor {
+        private final int[] histogram;
+        private final double min;
+        private final double binRange;
+
+        /**
+         * @param histogram the histogram to which to add
+         * @param min the minimum value of the histogram's range
+         * @param max the maximum value of the histogram's range
+         */
+        Binner(int[] histogram, double min, double max) {
+            this.histogram = histogram;
+            this.min = min;
+            this.binRange = (max - min + 1) / histogram.length;
+        }
+
+        /**
+         * Add a value to the histogram.
+         * @param value the value
+         * @param count how many times the value occurs
+         */
+        void add(double value, int count) {
+            int bin = (int) ((value - min) / binRange);
+            // if there are more bins than values (binRange < 1) the bin will be offset by -1.
+            // e.g. min=0.0, max=127.0, binCount=256: a pixel with max value 127.0 would go
+            // into bin 254 (expected: 255). Therefore increment by one for these cases.
+            if (bin > 0 && binRange < 1)
+                bin++;
+
+            if (bin >= 0 && bin < histogram.length)
+                histogram[bin] += count;
+        }
+
+        @Override
+        public void visit(PixelData tile, int width, int height) {
+            final ByteBuffer data = tile.getData();
+            final int size = width * height;
+            if (tile.javaType() == PixelData.INT && tile.isSigned()) {
+                for (int index = 0; index < size; index++) {
+                    add(data.getInt(index << 2), 1);
+                }
+            } else if (tile.javaType() == PixelData.INT) {
+                for (int index = 0; index < size; index++) {
+                    add(data.getInt(index << 2) & 0xFFFFFFFFL, 1);
+                }
+            } else if (tile.javaType() == PixelData.FLOAT) {
+                for (int index = 0; index < size; index++) {
+                    add(data.getFloat(index << 2), 1);
+                }
+            } else if (tile.javaType() == PixelData.DOUBLE) {
+                for (int index = 0; index < size; index++) {
+                    add(data.getDouble(index << 3), 1);
+                }
+            } else {
+                for (int index = 0; index < size; index++) {
+                    add(tile.getPixelValue(index), 1);
+                }
+            }
+        }
+    }
+}
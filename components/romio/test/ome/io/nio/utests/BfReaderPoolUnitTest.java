@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.io.nio.utests;
+
+import java.util.concurrent.Callable;
+
+import loci.formats.IFormatReader;
+import loci.formats.in.FakeReader;
+import ome.io.bioformats.BfReaderPool;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link BfReaderPool} reuses open readers.
+ * @since 5.5.0
+ */
+public class BfReaderPoolUnitTest {
+
+    private static final String PATH = "pool&sizeX=64&sizeY=64&series=2.fake";
+
+    private static final String OTHER_PATH = "other&sizeX=64&sizeY=64.fake";
+
+    private BfReaderPool pool;
+
+    private int created;
+
+    private final Callable<IFormatReader> factory = new Callable<IFormatReader>() {
+        @Override
+        public IFormatReader call() {
+            created++;
+            return new FakeReader();
+        }
+    };
+
+    @BeforeMethod
+    public void setup() {
+        pool = new BfReaderPool(2, 60000);
+        created = 0;
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        pool.destroy();
+    }
+
+    private IFormatReader open(String path, int series) throws Exception {
+        final IFormatReader reader = pool.lease(path, series, factory);
+        reader.setFlattenedResolutions(false);
+        reader.setId(path);
+        reader.setSeries(series);
+        return reader;
+    }
+
+    @Test
+    public void testReaderReused() throws Exception {
+        IFormatReader reader = open(PATH, 1);
+        Assert.assertEquals(reader.getSizeX(), 64);
+        reader.close();
+        Assert.assertEquals(pool.getIdleCount(), 1);
+        reader = open(PATH, 1);
+        Assert.assertEquals(created, 1);
+        Assert.assertEquals(pool.getIdleCount(), 0);
+        Assert.assertEquals(reader.getSeries(), 1);
+        Assert.assertEquals(reader.getSizeX(), 64);
+        reader.close();
+        Assert.assertEquals(pool.getIdleCount(), 1);
+    }
+
+    @Test
+    public void testReaderPerSeriesAndFile() throws Exception {
+        open(PATH, 0).close();
+        open(PATH, 1).close();
+        Assert.assertEquals(created, 2);
+        open(OTHER_PATH, 0).close();
+        Assert.assertEquals(created, 3);
+        Assert.assertEquals(pool.getIdleCount(), 2);
+        /* the least recently returned was closed */
+        open(PATH, 0).close();
+        Assert.assertEquals(created, 4);
+        open(OTHER_PATH, 0).close();
+        Assert.assertEquals(created, 4);
+    }
+
+    @Test
+    public void testLeaseReopened() throws Exception {
+        final IFormatReader reader = open(PATH, 0);
+        reader.close();
+        /* as when a pixel buffer reopens its reader */
+        reader.setFlattenedResolutions(false);
+        Assert.assertFalse(reader.hasFlattenedResolutions());
+        reader.setId(PATH);
+        Assert.assertFalse(reader.hasFlattenedResolutions());
+        Assert.assertEquals(created, 1);
+        Assert.assertEquals(pool.getIdleCount(), 0);
+        Assert.assertEquals(reader.getSizeX(), 64);
+        reader.close();
+        Assert.assertEquals(pool.getIdleCount(), 1);
+    }
+
+    @Test
+    public void testNoPooling() throws Exception {
+        pool.destroy();
+        pool = new BfReaderPool(0, 0);
+        open(PATH, 0).close();
+        open(PATH, 0).close();
+        Assert.assertEquals(created, 2);
+        Assert.assertEquals(pool.getIdleCount(), 0);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.io.nio.utests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.PixelsService;
+import ome.io.nio.TileHistogram;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+
+/**
+ * Tests that {@link TileHistogram} bins pixel values as a simple pass over
+ * the whole plane would.
+ * @since 5.5.0
+ */
+public class TileHistogramUnitTest {
+
+    private static final String ROOT =
+        PathUtil.getInstance().getTemporaryDataFilePath();
+
+    private static final int SIZE_X = 97;
+
+    private static final int SIZE_Y = 61;
+
+    private static final int SIZE_C = 3;
+
+    private long pixelsId = 1;
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(new File(ROOT));
+    }
+
+    /**
+     * Create a pixel buffer whose every plane has varied values.
+     * @param pixelsType the pixels type
+     * @return the pixel buffer
+     */
+    private PixelBuffer createBuffer(String pixelsType) throws Exception {
+        final Pixels pixels = new Pixels();
+        pixels.setId(pixelsId++);
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        pixels.setSizeZ(1);
+        pixels.setSizeC(SIZE_C);
+        pixels.setSizeT(1);
+        final PixelsType type = new PixelsType();
+        type.setValue(pixelsType);
+        pixels.setPixelsType(type);
+        final PixelBuffer buffer = new PixelsService(ROOT)._getPixelBuffer(pixels, true);
+        for (int c = 0; c < SIZE_C; c++) {
+            final PixelData plane = new PixelData(pixelsType,
+                    ByteBuffer.wrap(new byte[buffer.getPlaneSize().intValue()]));
+            for (int index = 0; index < SIZE_X * SIZE_Y; index++) {
+                plane.setPixelValue(index, (index * 7919L + c * 31) % 1000 - (plane.isSigned() ? 300 : 0));
+            }
+            buffer.setPlane(plane.getData(), 0, c, 0);
+        }
+        return buffer;
+    }
+
+    /**
+     * Bin the values of a region of a plane in the simplest way.
+     */
+    private int[] expected(PixelBuffer buffer, int c, int x, int y, int w, int h, int binCount, double[] range)
+            throws Exception {
+        final PixelData plane = buffer.getPlane(0, c, 0);
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (int index = 0; index < plane.size(); index++) {
+            min = Math.min(min, plane.getPixelValue(index));
+            max = Math.max(max, plane.getPixelValue(index));
+        }
+        if (range != null) {
+            min = range[0];
+            max = range[1];
+        }
+        final double binRange = (max - min + 1) / binCount;
+        final int[] histogram = new int[binCount];
+        for (int pxy = y; pxy < y + h; pxy++) {
+            for (int pxx = x; pxx < x + w; pxx++) {
+                int bin = (int) ((plane.getPixelValue(pxy * SIZE_X + pxx) - min) / binRange);
+                if (bin > 0 && binRange < 1)
+                    bin++;
+                if (bin >= 0 && bin < binCount)
+                    histogram[bin]++;
+            }
+        }
+        return histogram;
+    }
+
+    private void assertHistograms(String pixelsType) throws Exception {
+        final PixelBuffer buffer = createBuffer(pixelsType);
+        try {
+            final Map<Integer, double[]> ranges = new LinkedHashMap<Integer, double[]>();
+            ranges.put(0, null);
+            ranges.put(2, new double[] {100, 600});
+            for (final int[] region : new int[][] {{0, 0, SIZE_X, SIZE_Y}, {10, 5, 30, 40}, {80, 50, 40, 40}}) {
+                final int x = region[0], y = region[1];
+                final int w = Math.min(SIZE_X, x + region[2]) - x, h = Math.min(SIZE_Y, y + region[3]) - y;
+                for (final int binCount : new int[] {16, 2000}) {
+                    final Map<Integer, int[]> histograms =
+                            new TileHistogram(buffer, 0, 0, region[0], region[1], region[2], region[3], binCount)
+                            .getHistograms(ranges);
+                    Assert.assertEquals(histograms.keySet(), ranges.keySet());
+                    for (final Map.Entry<Integer, double[]> range : ranges.entrySet()) {
+                        final int c = range.getKey();
+                        Assert.assertEquals(histograms.get(c),
+                                expected(buffer, c, x, y, w, h, binCount, range.getValue()));
+                    }
+                }
+            }
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void testUnsignedShort() throws Exception {
+        assertHistograms("uint16");
+    }
+
+    @Test
+    public void testSignedShort() throws Exception {
+        assertHistograms("int16");
+    }
+
+    @Test
+    public void testFloat() throws Exception {
+        assertHistograms("float");
+    }
+
+    @Test
+    public void testUnsignedInt() throws Exception {
+        assertHistograms("uint32");
+    }
+}
@@ -14,6 +14,7 @@ package ome.logic;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -22,8 +23,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 import ome.annotations.RolesAllowed;
 import ome.api.IContainer;
@@ -59,9 +58,6 @@ import org.hibernate.Session;
 import org.springframework.orm.hibernate3.HibernateCallback;
 import org.springframework.transaction.annotation.Transactional;
 
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Sets;
-
 /**
  * implementation of the Pojos service interface.
  *
@@ -111,30 +107,21 @@ public class PojosImpl extends AbstractLevel2Service implements IContainer {
         /**
          * @{inheritDoc}
          */
-        public void prepareLookups(String toType, String fromType, Collection<Long> fromIds) {
-            super.prepareLookups(toType, fromType, fromIds);
-        }
-
-        /**
-         * @{inheritDoc}
-         */
-        public ImmutableSet<Long> doLookup(String toType, String fromType, Long fromId) {
-            return super.doLookup(toType, fromType, fromId);
+        public RelatedIds doBulkQuery(String toType, String fromType, long[] fromIds) {
+            return super.doBulkQuery(toType, fromType, fromIds);
         }
 
         /**
-         * Perform {@link #prepareLookups(String, String, Collection)} and {@link #doLookup(String, String, Long)}
-         * for the given arguments and add the results to <code>toIdsAccumulator</code>.
+         * Perform {@link #doBulkLookup(String, String, long[])} for the given arguments
+         * and merge the results with <code>toIds</code>.
          * @param fromType the query objects' type, not <code>null</code>
          * @param toType the type of the objects to which the query objects may be related, not <code>null</code>
-         * @param fromIds the query objects' database IDs, none <code>null</code>
-         * @param toIdsAccumulator collection into which to store the related objects' database IDs, not <code>null</code>
+         * @param fromIds the query objects' database IDs, sorted and distinct
+         * @param toIds database IDs of objects of the related type, sorted and distinct
+         * @return the union of <code>toIds</code> and the related objects' database IDs, sorted and distinct
          */
-        public void noteLookups(String fromType, String toType, Collection<Long> fromIds, Collection<Long> toIdsAccumulator) {
-            super.prepareLookups(toType, fromType, fromIds);
-            for (final Long fromId : fromIds) {
-                toIdsAccumulator.addAll(super.doLookup(toType, fromType, fromId));
-            }
+        public long[] noteLookups(String fromType, String toType, long[] fromIds, long[] toIds) {
+            return union(toIds, super.doBulkLookup(toType, fromType, fromIds));
         }
     }
 
@@ -514,51 +501,68 @@ public class PojosImpl extends AbstractLevel2Service implements IContainer {
 
         final HierarchyNavigatorPlain hierarchyNavigator = new HierarchyNavigatorPlain(iQuery);
 
-        hierarchyNavigator.noteLookups("Project", "Dataset", projectIds, datasetIds);
-        hierarchyNavigator.noteLookups("Dataset", "Image", datasetIds, imageIds);
-        hierarchyNavigator.noteLookups("Screen", "Plate", screenIds, plateIds);
-        hierarchyNavigator.noteLookups("Plate", "Well", plateIds, wellIds);
-        hierarchyNavigator.noteLookups("Well", "Image", wellIds, imageIds);
-        hierarchyNavigator.noteLookups("Fileset", "Image", filesetIds, imageIds);
-
-        Set<Long> oldFolderIds  = folderIds;
-        Set<Long> newFolderIds  = new HashSet<Long>();
-
-        while (true) {
-            hierarchyNavigator.noteLookups("Folder", "Folder", oldFolderIds, newFolderIds);
-
-            if (newFolderIds.isEmpty()) {
-                break;
-            } else {
-                folderIds.addAll(newFolderIds);
-                oldFolderIds = newFolderIds;
-                newFolderIds = new HashSet<Long>();
-            }
+        final long[] datasets = hierarchyNavigator.noteLookups("Project", "Dataset",
+                HierarchyNavigator.toSortedIds(projectIds), HierarchyNavigator.toSortedIds(datasetIds));
+        final long[] plates = hierarchyNavigator.noteLookups("Screen", "Plate",
+                HierarchyNavigator.toSortedIds(screenIds), HierarchyNavigator.toSortedIds(plateIds));
+        final long[] wells = hierarchyNavigator.noteLookups("Plate", "Well",
+                plates, HierarchyNavigator.toSortedIds(wellIds));
+        final long[] filesets = HierarchyNavigator.toSortedIds(filesetIds);
+        long[] images = HierarchyNavigator.toSortedIds(imageIds);
+        images = hierarchyNavigator.noteLookups("Dataset", "Image", datasets, images);
+        images = hierarchyNavigator.noteLookups("Well", "Image", wells, images);
+        images = hierarchyNavigator.noteLookups("Fileset", "Image", filesets, images);
+
+        long[] folders = HierarchyNavigator.toSortedIds(folderIds);
+        long[] newFolders = folders;
+
+        while (newFolders.length > 0) {
+            newFolders = HierarchyNavigator.difference(
+                    hierarchyNavigator.noteLookups("Folder", "Folder", newFolders, new long[0]), folders);
+            folders = HierarchyNavigator.union(folders, newFolders);
         }
 
-        hierarchyNavigator.noteLookups("Folder", "Image", folderIds, imageIds);
+        images = hierarchyNavigator.noteLookups("Folder", "Image", folders, images);
 
         /* note which filesets are associated with referenced images */
 
-        final Set<Long> filesetIdsRequired = new HashSet<Long>();
-        hierarchyNavigator.noteLookups("Image", "Fileset", imageIds, filesetIdsRequired);
+        final long[] filesetsRequired = hierarchyNavigator.noteLookups("Image", "Fileset", images, new long[0]);
 
         /* make sure that associated filesets have all their images referenced */
 
         final Map<Long, Map<Boolean, List<Long>>> imagesBySplitFilesets = new HashMap<Long, Map<Boolean, List<Long>>>();
-        final Set<Long> filesetIdsMissing = Sets.difference(filesetIdsRequired, filesetIds);
-        hierarchyNavigator.prepareLookups("Image", "Fileset", filesetIdsMissing);
-        for (final long filesetIdMissing : filesetIdsMissing) {
-            final Set<Long> imageIdsRequiredUnordered = hierarchyNavigator.doLookup("Image", "Fileset", filesetIdMissing);
-            final SortedSet<Long> imageIdsRequired = new TreeSet<Long>(imageIdsRequiredUnordered);
-            final Set<Long> includedImageIds = Sets.intersection(imageIdsRequired, imageIds);
-            final Set<Long> excludedImageIds = Sets.difference(imageIdsRequired, includedImageIds);
+        final long[] filesetsMissing = HierarchyNavigator.difference(filesetsRequired, filesets);
+        final HierarchyNavigator.RelatedIds filesetImages =
+                hierarchyNavigator.doBulkQuery("Image", "Fileset", filesetsMissing);
+        int start = 0;
+        while (start < filesetImages.size()) {
+            /* the pairs are sorted by fileset then by image so merge-join each fileset's images with those referenced */
+            final long filesetId = filesetImages.getFromId(start);
+            final List<Long> includedImageIds = new ArrayList<Long>();
+            final List<Long> excludedImageIds = new ArrayList<Long>();
+            int imageIndex = Arrays.binarySearch(images, filesetImages.getToId(start));
+            if (imageIndex < 0) {
+                imageIndex = -imageIndex - 1;
+            }
+            int end = start;
+            while (end < filesetImages.size() && filesetImages.getFromId(end) == filesetId) {
+                final long imageId = filesetImages.getToId(end++);
+                while (imageIndex < images.length && images[imageIndex] < imageId) {
+                    imageIndex++;
+                }
+                if (imageIndex < images.length && images[imageIndex] == imageId) {
+                    includedImageIds.add(imageId);
+                } else {
+                    excludedImageIds.add(imageId);
+                }
+            }
             if (!excludedImageIds.isEmpty()) {
                 final Map<Boolean, List<Long>> partitionedImages = new HashMap<Boolean, List<Long>>(2);
-                partitionedImages.put(true,  new ArrayList<Long>(includedImageIds));
-                partitionedImages.put(false, new ArrayList<Long>(excludedImageIds));
-                imagesBySplitFilesets.put(filesetIdMissing, partitionedImages);
+                partitionedImages.put(true,  includedImageIds);
+                partitionedImages.put(false, excludedImageIds);
+                imagesBySplitFilesets.put(filesetId, partitionedImages);
             }
+            start = end;
         }
         return imagesBySplitFilesets;
     }
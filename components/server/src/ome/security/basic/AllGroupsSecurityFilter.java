@@ -64,6 +64,8 @@ public class AllGroupsSecurityFilter extends AbstractSecurityFilter {
 
     final SqlAction sql;
 
+    final SecurityLookupCache lookupCache;
+
     /**
      * Default constructor which calls all the necessary setters for this
      * {@link FactoryBean}. Also calls {@link #setDefaultFilterCondition(String)}.
@@ -82,8 +84,20 @@ public class AllGroupsSecurityFilter extends AbstractSecurityFilter {
     }
 
     public AllGroupsSecurityFilter(SqlAction sql, Roles roles) {
+        this(sql, roles, null);
+    }
+
+    /**
+     * @param sql an SQL action instance
+     * @param roles the security roles
+     * @param lookupCache the cache of group permissions, may be {@code null}
+     *            to load the group of each object from the session
+     */
+    public AllGroupsSecurityFilter(SqlAction sql, Roles roles,
+            SecurityLookupCache lookupCache) {
         super(roles);
         this.sql = sql;
+        this.lookupCache = lookupCache;
     }
 
     protected String myFilterCondition() {
@@ -139,16 +153,13 @@ public class AllGroupsSecurityFilter extends AbstractSecurityFilter {
         final Long g = d.getGroup().getId();
 
         // ticket:8798 - load permissions for group of object regardless.
-        final ExperimenterGroup group = (ExperimenterGroup) session.get(ExperimenterGroup.class, g);
-        Permissions p = group.getDetails().getPermissions();
-
-        if (p == null) {
-            // Don't know why this is happening, but must do something to
-            // force reloading.
-            p = ome.util.Utils.toPermissions(sql.getGroupPermissions(g));
-            group.getDetails().setPermissions(p);
-            log.warn(String.format(
-                "Forced to reload permissions for group %s: %s", g, p));
+        // Across all groups BasicACLVoter notes the permissions of the loaded
+        // group so only a specific group can use the shared cache.
+        final Permissions p;
+        if (lookupCache != null && c.getCurrentGroupId() >= 0) {
+            p = lookupCache.getGroupPermissions(g);
+        } else {
+            p = loadGroupPermissions(session, g);
         }
 
         if (share || admin) {
@@ -199,6 +210,23 @@ public class AllGroupsSecurityFilter extends AbstractSecurityFilter {
     // ~ Helpers
     // =========================================================================
 
+    private Permissions loadGroupPermissions(Session session, Long g) {
+        final ExperimenterGroup group = (ExperimenterGroup) session.get(ExperimenterGroup.class, g);
+        Permissions p = group.getDetails().getPermissions();
+
+        if (p == null) {
+            // Don't know why this is happening, but must do something to
+            // force reloading.
+            p = lookupCache == null
+                    ? ome.util.Utils.toPermissions(sql.getGroupPermissions(g))
+                    : lookupCache.getGroupPermissions(g);
+            group.getDetails().setPermissions(p);
+            log.warn(String.format(
+                "Forced to reload permissions for group %s: %s", g, p));
+        }
+        return p;
+    }
+
     protected Collection<Long> configGroup(EventContext ec, List<Long> list) {
         Collection<Long> rv = null;
 
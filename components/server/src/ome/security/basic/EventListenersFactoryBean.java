@@ -128,8 +128,15 @@ public class EventListenersFactoryBean extends AbstractFactoryBean {
         this.debugAll = debug;
     }
 
+    protected SecurityLookupCache lookupCache = null;
+
+    /** for setter injection */
+    public void setLookupCache(SecurityLookupCache lookupCache) {
+        this.lookupCache = lookupCache;
+    }
+
     protected void overrides() {
-        override("merge", new MergeEventListener(cd, th));
+        override("merge", new MergeEventListener(cd, th, lookupCache));
         override("save", new SaveEventListener(cd, th));
         override(new String[] { "replicate", "update" }, getDisablingProxy());
     }
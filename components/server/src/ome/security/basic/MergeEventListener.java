@@ -55,12 +55,25 @@ public class MergeEventListener extends IdTransferringMergeEventListener {
 
     private final TokenHolder th;
 
+    private final SecurityLookupCache lookupCache;
+
     /** main constructor. Requires a non-null security system */
     public MergeEventListener(CurrentDetails cd, TokenHolder th) {
+        this(cd, th, null);
+    }
+
+    /**
+     * @param cd the current details
+     * @param th the token holder
+     * @param lookupCache the cache of enumeration IDs, may be {@code null}
+     */
+    public MergeEventListener(CurrentDetails cd, TokenHolder th,
+            SecurityLookupCache lookupCache) {
         Assert.notNull(cd);
         Assert.notNull(th);
         this.cd = cd;
         this.th = th;
+        this.lookupCache = lookupCache;
     }
 
     @Override
@@ -141,9 +154,7 @@ public class MergeEventListener extends IdTransferringMergeEventListener {
         if (IEnum.class.isAssignableFrom(cls)) {
             String value = ((IEnum) event.getOriginal()).getValue();
             Class type = ((IEnum) event.getOriginal()).getClass();
-            Criteria c = event.getSession().createCriteria(type).add(
-                    Restrictions.eq("value", value));
-            extant = (IEnum) c.uniqueResult();
+            extant = findEnum(event.getSession(), type, value);
             if (null != extant) {
                 log("Using existing Enum(", event.getEntityName(),
                         ") with value:", value);
@@ -189,6 +200,32 @@ public class MergeEventListener extends IdTransferringMergeEventListener {
     // ~ Helpers
     // =========================================================================
 
+    /**
+     * Finds the existing enumeration with the given value. A cached ID is
+     * resolved via the session which, unlike a query, neither flushes the
+     * session nor reaches the database if the enumeration is already loaded.
+     */
+    private IEnum findEnum(EventSource source, Class<? extends IEnum> type,
+            String value) {
+        if (lookupCache != null) {
+            final Long id = lookupCache.getEnumerationId(type, value);
+            if (id != null) {
+                final IEnum extant = (IEnum) source.get(type, id);
+                if (extant != null && value.equals(extant.getValue())) {
+                    return extant;
+                }
+                lookupCache.invalidateEnumerations(Utils.trueClass(type).getName());
+            }
+        }
+        Criteria c = source.createCriteria(type).add(
+                Restrictions.eq("value", value));
+        IEnum extant = (IEnum) c.uniqueResult();
+        if (extant != null && lookupCache != null) {
+            lookupCache.putEnumerationId(type, value, extant.getId());
+        }
+        return extant;
+    }
+
     protected void fillReplacement(MergeEvent event) {
         if (event.getOriginal() instanceof IObject) {
             IObject obj = (IObject) event.getOriginal();
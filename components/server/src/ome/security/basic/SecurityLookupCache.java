@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.security.basic;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import ome.conditions.InternalException;
+import ome.model.IEnum;
+import ome.model.internal.Permissions;
+import ome.services.messages.EventLogsMessage;
+import ome.services.sessions.events.UserGroupUpdateEvent;
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+import ome.util.SqlAction;
+import ome.util.Utils;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Server-wide cache of the small, rarely changing lookups which the security
+ * layer otherwise repeats against the database for every loaded object:
+ * the permissions of groups and the IDs of enumeration values.
+ * Group permissions are dropped on every {@link UserGroupUpdateEvent}, and
+ * enumeration values whenever an {@link EventLogsMessage} reports a change
+ * to their type. Since both are published before the transaction commits,
+ * the entries are dropped again once it completes so that no concurrent
+ * reader can cache the superseded rows. Hits and misses are exported
+ * through {@link Metrics}.
+ * <p>
+ * The events are published only within this server process. Where several
+ * server processes share a database, a change made through one of them is
+ * therefore seen by the others only once their entries expire, after at
+ * most {@value #EXPIRY_MINUTES} minutes.
+ * </p>
+ * @since 5.5.0
+ */
+public class SecurityLookupCache implements ApplicationListener<ApplicationEvent> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SecurityLookupCache.class);
+
+    /* entries are additionally expired as a safety net for changes made outside of this server */
+    public static final long EXPIRY_MINUTES = 10;
+
+    private static final long MAXIMUM_SIZE = 10000;
+
+    private final SqlAction sql;
+
+    private final Cache<Long, Long> groupPermissions;
+
+    private final Cache<String, Long> enumerationIds;
+
+    private final Counter groupHits, groupMisses, enumHits, enumMisses;
+
+    /**
+     * Construct a new security lookup cache. Expected to be instantiated via Spring.
+     * @param sql the SQL action for loading group permissions
+     * @param metrics the metrics to which the hits and misses are exported
+     */
+    public SecurityLookupCache(SqlAction sql, Metrics metrics) {
+        this(sql, metrics, Ticker.systemTicker());
+    }
+
+    /**
+     * Construct a new security lookup cache whose entries expire by the given clock.
+     * @param sql the SQL action for loading group permissions
+     * @param metrics the metrics to which the hits and misses are exported
+     * @param ticker the source of time for the expiry of entries
+     */
+    public SecurityLookupCache(SqlAction sql, Metrics metrics, Ticker ticker) {
+        this.sql = sql;
+        this.groupPermissions = CacheBuilder.newBuilder()
+                .expireAfterWrite(EXPIRY_MINUTES, TimeUnit.MINUTES).ticker(ticker)
+                .maximumSize(MAXIMUM_SIZE).recordStats().build();
+        this.enumerationIds = CacheBuilder.newBuilder()
+                .expireAfterWrite(EXPIRY_MINUTES, TimeUnit.MINUTES).ticker(ticker)
+                .maximumSize(MAXIMUM_SIZE).recordStats().build();
+        this.groupHits = metrics.counter(this, "groupPermissionsHits");
+        this.groupMisses = metrics.counter(this, "groupPermissionsMisses");
+        this.enumHits = metrics.counter(this, "enumerationHits");
+        this.enumMisses = metrics.counter(this, "enumerationMisses");
+    }
+
+    /**
+     * Get the permissions of the given group.
+     * @param groupId the ID of a group
+     * @return a new instance of the group's permissions, may be freely modified by the caller
+     */
+    public Permissions getGroupPermissions(final long groupId) {
+        final boolean[] isLoaded = new boolean[] {false};
+        final Long permissions;
+        try {
+            permissions = groupPermissions.get(groupId, new Callable<Long>() {
+                @Override
+                public Long call() {
+                    isLoaded[0] = true;
+                    return sql.getGroupPermissions(groupId);
+                }
+            });
+        } catch (ExecutionException e) {
+            final String message = "failed to load permissions for group " + groupId;
+            LOGGER.error(message, e.getCause());
+            throw new InternalException(message);
+        }
+        if (isLoaded[0]) {
+            groupMisses.inc();
+        } else {
+            groupHits.inc();
+        }
+        return Utils.toPermissions(permissions);
+    }
+
+    /**
+     * Get the ID of the given enumeration value, if it has been cached.
+     * @param enumClass the model class of the enumeration
+     * @param value the value of the enumeration (case-sensitive)
+     * @return the ID of the enumeration, or {@code null} if it is not cached
+     */
+    public Long getEnumerationId(Class<? extends IEnum> enumClass, String value) {
+        final Long id = enumerationIds.getIfPresent(enumerationKey(enumClass, value));
+        if (id == null) {
+            enumMisses.inc();
+        } else {
+            enumHits.inc();
+        }
+        return id;
+    }
+
+    /**
+     * Note the ID of the given enumeration value.
+     * @param enumClass the model class of the enumeration
+     * @param value the value of the enumeration (case-sensitive)
+     * @param id the ID of the enumeration
+     */
+    public void putEnumerationId(Class<? extends IEnum> enumClass, String value, long id) {
+        enumerationIds.put(enumerationKey(enumClass, value), id);
+    }
+
+    /**
+     * @return the fraction of group permission lookups that were served from the cache
+     */
+    public double getGroupPermissionsHitRatio() {
+        return groupPermissions.stats().hitRate();
+    }
+
+    /**
+     * @return the fraction of enumeration lookups that were served from the cache
+     */
+    public double getEnumerationHitRatio() {
+        return enumerationIds.stats().hitRate();
+    }
+
+    /**
+     * Drop all cached group permissions.
+     */
+    public void invalidateGroupPermissions() {
+        groupPermissions.invalidateAll();
+    }
+
+    /**
+     * Drop all cached values of the given enumeration.
+     * @param enumClassName the name of the model class of the enumeration
+     */
+    public void invalidateEnumerations(String enumClassName) {
+        final String prefix = enumClassName + ':';
+        final Iterator<String> keys = enumerationIds.asMap().keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().startsWith(prefix)) {
+                keys.remove();
+            }
+        }
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof UserGroupUpdateEvent) {
+            invalidateGroupPermissions();
+            afterCompletion(null);
+        } else if (event instanceof EventLogsMessage) {
+            for (final String entityType : ((EventLogsMessage) event).getEntityTypes()) {
+                if (isEnumeration(entityType)) {
+                    invalidateEnumerations(entityType);
+                    afterCompletion(entityType);
+                }
+            }
+        }
+    }
+
+    /**
+     * Repeat the invalidation once the current transaction, if any, completes.
+     * @param enumClassName the enumeration to invalidate, or {@code null} for the group permissions
+     */
+    private void afterCompletion(final String enumClassName) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                if (enumClassName == null) {
+                    invalidateGroupPermissions();
+                } else {
+                    invalidateEnumerations(enumClassName);
+                }
+            }
+        });
+    }
+
+    private static boolean isEnumeration(String entityType) {
+        try {
+            return IEnum.class.isAssignableFrom(Class.forName(entityType));
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static String enumerationKey(Class<? extends IEnum> enumClass, String value) {
+        return Utils.trueClass(enumClass).getName() + ':' + value;
+    }
+}
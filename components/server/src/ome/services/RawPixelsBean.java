@@ -14,9 +14,11 @@ import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import ome.annotations.RolesAllowed;
 import ome.api.IPixels;
@@ -31,6 +33,7 @@ import ome.io.nio.DimensionsOutOfBoundsException;
 import ome.io.nio.PixelBuffer;
 import ome.io.nio.PixelsService;
 import ome.io.nio.RomioPixelBuffer;
+import ome.io.nio.TileHistogram;
 import ome.model.core.Channel;
 import ome.model.core.Pixels;
 import ome.parameters.Parameters;
@@ -86,9 +89,15 @@ public class RawPixelsBean extends AbstractStatefulBean implements
     /** is file service checking for disk overflow */
     private transient boolean diskSpaceChecking;
 
-    /** A copy buffer for the pixel retrieval. */
-    private transient byte[] readBuffer;
-    
+    /**
+     * read-write lock so that reads of pixel data run concurrently while
+     * changes of state, such as loading pixels or writing data, are exclusive.
+     *
+     * It is safe for the lock to be serialized. On de-serialization, it will be
+     * in the unlocked state.
+     */
+    private final ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
+
     /** Pixels set cache. */
     private transient Map<Long, Pixels> pixelsCache;
 
@@ -114,16 +123,16 @@ public class RawPixelsBean extends AbstractStatefulBean implements
         this.omeroDataDir = omeroDataDir;
     }
 
-    public synchronized Class<? extends ServiceInterface> getServiceInterface() {
+    public Class<? extends ServiceInterface> getServiceInterface() {
         return RawPixelsStore.class;
     }
 
-    public synchronized final void setPixelsMetadata(IPixels metaService) {
+    public final void setPixelsMetadata(IPixels metaService) {
         getBeanHelper().throwIfAlreadySet(this.metadataService, metaService);
         metadataService = metaService;
     }
 
-    public synchronized final void setPixelsData(PixelsService dataService) {
+    public final void setPixelsData(PixelsService dataService) {
         getBeanHelper().throwIfAlreadySet(this.dataService, dataService);
         this.dataService = dataService;
     }
@@ -134,7 +143,7 @@ public class RawPixelsBean extends AbstractStatefulBean implements
      * @param iRepositoryInfo
      *            an <code>IRepositoryInfo</code>
      */
-    public synchronized final void setIRepositoryInfo(IRepositoryInfo iRepositoryInfo) {
+    public final void setIRepositoryInfo(IRepositoryInfo iRepositoryInfo) {
         getBeanHelper()
                 .throwIfAlreadySet(this.iRepositoryInfo, iRepositoryInfo);
         this.iRepositoryInfo = iRepositoryInfo;
@@ -144,7 +153,7 @@ public class RawPixelsBean extends AbstractStatefulBean implements
      * SQL action Bean injector
      * @param sql a <code>SqlAction</code>
      */
-    public synchronized final void setSqlAction(SqlAction sql) {
+    public final void setSqlAction(SqlAction sql) {
         getBeanHelper().throwIfAlreadySet(this.sql, sql);
         this.sql = sql;
     }
@@ -155,80 +164,103 @@ public class RawPixelsBean extends AbstractStatefulBean implements
     // See documentation on JobBean#passivate
     @RolesAllowed("user")
     @Transactional(readOnly = true)    
-    public synchronized void passivate() {
+    public void passivate() {
 	// Nothing necessary
     }
 
     // See documentation on JobBean#activate
     @RolesAllowed("user")
     @Transactional(readOnly = true)    
-    public synchronized void activate() {
-        if (id != null) {
-            reset = id;
-            id = null;
+    public void activate() {
+        rwl.writeLock().lock();
+
+        try {
+            if (id != null) {
+                reset = id;
+                id = null;
+            }
+        } finally {
+            rwl.writeLock().unlock();
         }
     }
 
     @RolesAllowed("user")
     @Transactional(readOnly = false)
-    public synchronized Pixels save() {
-        if (isModified()) {
-            Long id = (pixelsInstance == null) ? null : pixelsInstance.getId();
-            if (id == null) {
-                return null;
-            }
+    public Pixels save() {
+        rwl.writeLock().lock();
 
-            try {
-                byte[] hash = buffer.calculateMessageDigest();
-                pixelsInstance.setSha1(Hex.encodeHexString(hash));
+        try {
+            if (isModified()) {
+                Long id = (pixelsInstance == null) ? null : pixelsInstance.getId();
+                if (id == null) {
+                    return null;
+                }
 
-            } catch (RuntimeException re) {
-                // ticket:3140
-                if (re.getCause() instanceof FileNotFoundException) {
-                    String msg = "Cannot find path. Deleted? " + buffer;
-                    log.warn(msg);
-                    clean(); // Prevent a second exception on close.
-                    throw new ResourceError(msg);
+                try {
+                    byte[] hash = buffer.calculateMessageDigest();
+                    pixelsInstance.setSha1(Hex.encodeHexString(hash));
+
+                } catch (RuntimeException re) {
+                    // ticket:3140
+                    if (re.getCause() instanceof FileNotFoundException) {
+                        String msg = "Cannot find path. Deleted? " + buffer;
+                        log.warn(msg);
+                        clean(); // Prevent a second exception on close.
+                        throw new ResourceError(msg);
+                    }
+                    throw re;
+                } catch (IOException e) {
+                    log.warn("calculateMessageDigest failed on " + buffer, e);
+                    throw new ResourceError(e.getMessage());
                 }
-                throw re;
-            } catch (IOException e) {
-                log.warn("calculateMessageDigest failed on " + buffer, e);
-                throw new ResourceError(e.getMessage());
-            }
 
-            iUpdate.flush();
-            modified = false;
-            return new ShallowCopy().copy(pixelsInstance);
+                iUpdate.flush();
+                modified = false;
+                return new ShallowCopy().copy(pixelsInstance);
+            }
+            return null;
+        } finally {
+            rwl.writeLock().unlock();
         }
-        return null;
     }
 
     @RolesAllowed("user")
     @Transactional(readOnly = false)
-    public synchronized void close() {
+    public void close() {
+        rwl.writeLock().lock();
+
         try {
-            save();
-        } catch (RootException root) {
-            // ticket:3140
-            // if one of our exceptions, then just rethrow
-            throw root;
-        } catch (RuntimeException re) {
-            Long id = (pixelsInstance == null ? null : pixelsInstance.getId());
-            log.error("Failed to update pixels: " + id, re);
+            try {
+                save();
+            } catch (RootException root) {
+                // ticket:3140
+                // if one of our exceptions, then just rethrow
+                throw root;
+            } catch (RuntimeException re) {
+                Long id = (pixelsInstance == null ? null : pixelsInstance.getId());
+                log.error("Failed to update pixels: " + id, re);
+            } finally {
+                clean();
+            }
         } finally {
-            clean();
+            rwl.writeLock().unlock();
         }
     }
 
-    public synchronized void clean() {
-        dataService = null;
-        pixelsInstance = null;
+    public void clean() {
+        rwl.writeLock().lock();
+
         try {
-            closePixelBuffer();
+            dataService = null;
+            pixelsInstance = null;
+            try {
+                closePixelBuffer();
+            } finally {
+                buffer = null;
+                pixelsCache = null;
+            }
         } finally {
-            buffer = null;
-            readBuffer = null;
-            pixelsCache = null;
+            rwl.writeLock().unlock();
         }
     }
 
@@ -236,7 +268,7 @@ public class RawPixelsBean extends AbstractStatefulBean implements
      * Close the active pixel buffer, cleaning up any potential messes left by
      * the pixel buffer itself.
      */
-    private synchronized void closePixelBuffer() {
+    private void closePixelBuffer() {
         try {
             if (buffer != null) {
                 buffer.close();
@@ -251,76 +283,101 @@ public class RawPixelsBean extends AbstractStatefulBean implements
     }
 
     @RolesAllowed("user")
-    public synchronized void setPixelsId(long pixelsId, boolean bypassOriginalFile) {
-        if (id == null || id.longValue() != pixelsId) {
-            id = new Long(pixelsId);
-            pixelsInstance = null;
-            closePixelBuffer();
-            buffer = null;
-            reset = null;
+    public void setPixelsId(long pixelsId, boolean bypassOriginalFile) {
+        rwl.writeLock().lock();
 
-            if (pixelsCache != null && pixelsCache.containsKey(pixelsId))
-            {
-            	pixelsInstance = pixelsCache.get(pixelsId);
-            }
-            else
-            {
-            	pixelsInstance = iQuery.findByQuery(
-            			"select p from Pixels as p " +
-            			"join fetch p.pixelsType "+ 
-            			"left outer join fetch p.channels as c " +
-            			"left outer join fetch c.logicalChannel as lc " +
-            			"left outer join fetch c.statsInfo " +
-            			"where p.id = :id",
-            			new Parameters().addId(id));
-            }
+        try {
+            if (id == null || id.longValue() != pixelsId) {
+                id = new Long(pixelsId);
+                pixelsInstance = null;
+                closePixelBuffer();
+                buffer = null;
+                reset = null;
+
+                if (pixelsCache != null && pixelsCache.containsKey(pixelsId))
+                {
+                    pixelsInstance = pixelsCache.get(pixelsId);
+                }
+                else
+                {
+                    pixelsInstance = iQuery.findByQuery(
+                            "select p from Pixels as p " +
+                            "join fetch p.pixelsType "+ 
+                            "left outer join fetch p.channels as c " +
+                            "left outer join fetch c.logicalChannel as lc " +
+                            "left outer join fetch c.statsInfo " +
+                            "where p.id = :id",
+                            new Parameters().addId(id));
+                }
 
-            if (pixelsInstance == null)
-            {
-                throw new ValidationException("Cannot read pixels id=" + id);
-            }
+                if (pixelsInstance == null)
+                {
+                    throw new ValidationException("Cannot read pixels id=" + id);
+                }
 
-            try {
-                buffer = dataService.getPixelBuffer(pixelsInstance, true);
-            } catch (RuntimeException re) {
-                // Rolling back to let the next setPixelsId try again
-                // since this is most likely our MissingPyramidException.
-                // If it's anything more serious, then the instance
-                // should most likely be closed.
-                id = null;
-                throw re;
+                try {
+                    buffer = dataService.getPixelBuffer(pixelsInstance, true);
+                } catch (RuntimeException re) {
+                    // Rolling back to let the next setPixelsId try again
+                    // since this is most likely our MissingPyramidException.
+                    // If it's anything more serious, then the instance
+                    // should most likely be closed.
+                    id = null;
+                    throw re;
+                }
             }
+        } finally {
+            rwl.writeLock().unlock();
         }
     }
 
     @RolesAllowed("user")
-    public synchronized long getPixelsId() {
-        errorIfNotLoaded();
+    public long getPixelsId() {
+        readLockLoaded();
 
-        return id.longValue();
+        try {
+            return id.longValue();
+        } finally {
+            rwl.readLock().unlock();
+        }
     }
 
     @RolesAllowed("user")
     public String getPixelsPath() {
-        errorIfNotLoaded();
+        readLockLoaded();
 
-        return buffer.getPath();
+        try {
+            return buffer.getPath();
+        } finally {
+            rwl.readLock().unlock();
+        }
     }
     
     @RolesAllowed("user")
-    public synchronized void prepare(Set<Long> pixelsIds)
+    public void prepare(Set<Long> pixelsIds)
     {
-    	pixelsCache = new MapMaker().makeMap();
-    	List<Pixels> pixelsList = iQuery.findAllByQuery(
-    			"select p from Pixels as p join fetch p.pixelsType " +
-        		"where p.id in (:ids)", new Parameters().addIds(pixelsIds));
-    	for (Pixels pixels : pixelsList)
-    	{
-    		pixelsCache.put(pixels.getId(), pixels);
-    	}
+        rwl.writeLock().lock();
+
+        try {
+            pixelsCache = new MapMaker().makeMap();
+            List<Pixels> pixelsList = iQuery.findAllByQuery(
+                    "select p from Pixels as p join fetch p.pixelsType " +
+                    "where p.id in (:ids)", new Parameters().addIds(pixelsIds));
+            for (Pixels pixels : pixelsList)
+            {
+                pixelsCache.put(pixels.getId(), pixels);
+            }
+        } finally {
+            rwl.writeLock().unlock();
+        }
     }
 
-    private synchronized void errorIfNotLoaded() {
+    /**
+     * Reloads the pixel buffer if the bean has been passivated or throws an
+     * {@link ApiUsageException} if the pixels id is not set. Must be called
+     * with the write lock held.
+     */
+    private void errorIfNotLoaded() {
         // If we're not loaded because of passivation, then load.
         if (reset != null) {
             id = null;
@@ -334,83 +391,117 @@ public class RawPixelsBean extends AbstractStatefulBean implements
         }
     }
 
+    /**
+     * Acquires the read lock once the pixel buffer is loaded, briefly taking
+     * the write lock to reload it if the bean has been passivated. The caller
+     * must release the read lock; if an exception is thrown no lock is held.
+     */
+    private void readLockLoaded() {
+        rwl.readLock().lock();
+        if (reset == null && buffer != null) {
+            return;
+        }
+        rwl.readLock().unlock();
+        rwl.writeLock().lock();
+        try {
+            errorIfNotLoaded();
+            rwl.readLock().lock();
+        } finally {
+            rwl.writeLock().unlock();
+        }
+    }
+
     // ~ Delegation
     // =========================================================================
 
     @RolesAllowed("user")
-    public synchronized byte[] calculateMessageDigest() {
-        errorIfNotLoaded();
+    public byte[] calculateMessageDigest() {
+        readLockLoaded();
 
         try {
-            return buffer.calculateMessageDigest();
-        } catch (Exception e) {
-            handleException(e);
+            try {
+                return buffer.calculateMessageDigest();
+            } catch (Exception e) {
+                handleException(e);
+            }
+            return null;
+        } finally {
+            rwl.readLock().unlock();
         }
-        return null;
     }
 
     @RolesAllowed("user")
-    public synchronized byte[] getHypercube(List<Integer> offset, List<Integer> size, List<Integer> step) {
-        errorIfNotLoaded();
+    public byte[] getHypercube(List<Integer> offset, List<Integer> size, List<Integer> step) {
+        readLockLoaded();
 
-        int cubeSize = RomioPixelBuffer.safeLongToInteger(
-                buffer.getHypercubeSize(offset, size, step));
-        if (readBuffer == null || readBuffer.length != cubeSize) {
-            readBuffer = new byte[cubeSize];
-        }
         try {
-            readBuffer = buffer.getHypercubeDirect(offset, size, step,
-                    readBuffer);
-        } catch (Exception e) {
-            handleException(e);
+            int cubeSize = RomioPixelBuffer.safeLongToInteger(
+                    buffer.getHypercubeSize(offset, size, step));
+            byte[] bytes = new byte[cubeSize];
+            try {
+                bytes = buffer.getHypercubeDirect(offset, size, step,
+                        bytes);
+            } catch (Exception e) {
+                handleException(e);
+            }
+            return bytes;
+        } finally {
+            rwl.readLock().unlock();
         }
-        return readBuffer;
     }
 
     @RolesAllowed("user")
-    public synchronized byte[] getPlaneRegion(int z, int c, int t, int count, int offset) {
-        errorIfNotLoaded();
+    public byte[] getPlaneRegion(int z, int c, int t, int count, int offset) {
+        readLockLoaded();
 
-        int size = RomioPixelBuffer.safeLongToInteger(
-                buffer.getByteWidth() * (long) count);
-        if (readBuffer == null || readBuffer.length != size) {
-            readBuffer = new byte[size];
-        }
         try {
-            readBuffer = buffer.getPlaneRegionDirect(z, c, t, count, offset,
-                    readBuffer);
-        } catch (Exception e) {
-            handleException(e);
+            int size = RomioPixelBuffer.safeLongToInteger(
+                    buffer.getByteWidth() * (long) count);
+            byte[] bytes = new byte[size];
+            try {
+                bytes = buffer.getPlaneRegionDirect(z, c, t, count, offset,
+                        bytes);
+            } catch (Exception e) {
+                handleException(e);
+            }
+            return bytes;
+        } finally {
+            rwl.readLock().unlock();
         }
-        return readBuffer;
     }
 
     @RolesAllowed("user")
-    public synchronized byte[] getPlane(int arg0, int arg1, int arg2) {
-        errorIfNotLoaded();
+    public byte[] getPlane(int arg0, int arg1, int arg2) {
+        readLockLoaded();
 
-        int size = RomioPixelBuffer.safeLongToInteger(buffer.getPlaneSize());
-        if (readBuffer == null || readBuffer.length != size) {
-            readBuffer = new byte[size];
-        }
         try {
-            readBuffer = buffer.getPlaneDirect(arg0, arg1, arg2, readBuffer);
-        } catch (Exception e) {
-            handleException(e);
+            int size = RomioPixelBuffer.safeLongToInteger(buffer.getPlaneSize());
+            byte[] bytes = new byte[size];
+            try {
+                bytes = buffer.getPlaneDirect(arg0, arg1, arg2, bytes);
+            } catch (Exception e) {
+                handleException(e);
+            }
+            return bytes;
+        } finally {
+            rwl.readLock().unlock();
         }
-        return readBuffer;
     }
 
     @RolesAllowed("user")
-    public synchronized long getPlaneOffset(int arg0, int arg1, int arg2) {
-        errorIfNotLoaded();
+    public long getPlaneOffset(int arg0, int arg1, int arg2) {
+        readLockLoaded();
 
         try {
-            return buffer.getPlaneOffset(arg0, arg1, arg2);
-        } catch (Exception e) {
-            handleException(e);
+            try {
+                return buffer.getPlaneOffset(arg0, arg1, arg2);
+            } catch (Exception e) {
+                handleException(e);
+            }
+            return -1;
+        } finally {
+            rwl.readLock().unlock();
         }
-        return -1;
     }
 
     /*
@@ -418,355 +509,423 @@ public class RawPixelsBean extends AbstractStatefulBean implements
      * @see ome.io.nio.PixelBuffer#getPlaneSize()
      */
     @RolesAllowed("user")
-    public synchronized long getPlaneSize() {
-        errorIfNotLoaded();
+    public long getPlaneSize() {
+        readLockLoaded();
 
-        return buffer.getPlaneSize();
+        try {
+            return buffer.getPlaneSize();
+        } finally {
+            rwl.readLock().unlock();
+        }
     }
 
     @RolesAllowed("user")
-    public synchronized byte[] getRegion(int arg0, long arg1) {
-        errorIfNotLoaded();
-
-        PixelData pd = null;
-        byte[] bytes = null;
+    public byte[] getRegion(int arg0, long arg1) {
+        readLockLoaded();
 
         try {
-            pd = buffer.getRegion(arg0, arg1);
-            bytes = bufferAsByteArrayWithExceptionIfNull(pd.getData());
-        } catch (Exception e) {
-            handleException(e);
-        } finally {
-            if (pd != null) {
-                pd.dispose();
+            PixelData pd = null;
+            byte[] bytes = null;
+
+            try {
+                pd = buffer.getRegion(arg0, arg1);
+                bytes = bufferAsByteArrayWithExceptionIfNull(pd.getData());
+            } catch (Exception e) {
+                handleException(e);
+            } finally {
+                if (pd != null) {
+                    pd.dispose();
+                }
             }
+            return bytes;
+        } finally {
+            rwl.readLock().unlock();
         }
-        return bytes;
     }
 
     @RolesAllowed("user")
-    public synchronized byte[] getRow(int arg0, int arg1, int arg2, int arg3) {
-        errorIfNotLoaded();
+    public byte[] getRow(int arg0, int arg1, int arg2, int arg3) {
+        readLockLoaded();
 
-        int size = buffer.getRowSize();
-        if (readBuffer == null || readBuffer.length != size) {
-            readBuffer = new byte[size];
-        }
         try {
-            readBuffer = buffer
-                    .getRowDirect(arg0, arg1, arg2, arg3, readBuffer);
-        } catch (Exception e) {
-            handleException(e);
+            int size = buffer.getRowSize();
+            byte[] bytes = new byte[size];
+            try {
+                bytes = buffer
+                        .getRowDirect(arg0, arg1, arg2, arg3, bytes);
+            } catch (Exception e) {
+                handleException(e);
+            }
+            return bytes;
+        } finally {
+            rwl.readLock().unlock();
         }
-        return readBuffer;
     }
     
     @RolesAllowed("user")
-    public synchronized byte[] getCol(int arg0, int arg1, int arg2, int arg3) {
-        errorIfNotLoaded();
+    public byte[] getCol(int arg0, int arg1, int arg2, int arg3) {
+        readLockLoaded();
 
-        int size = buffer.getColSize();
-        if (readBuffer == null || readBuffer.length != size) {
-            readBuffer = new byte[size];
-        }
         try {
-            readBuffer = buffer
-                    .getColDirect(arg0, arg1, arg2, arg3, readBuffer);
-        } catch (Exception e) {
-            handleException(e);
+            int size = buffer.getColSize();
+            byte[] bytes = new byte[size];
+            try {
+                bytes = buffer
+                        .getColDirect(arg0, arg1, arg2, arg3, bytes);
+            } catch (Exception e) {
+                handleException(e);
+            }
+            return bytes;
+        } finally {
+            rwl.readLock().unlock();
         }
-        return readBuffer;
     }
 
     @RolesAllowed("user")
-    public synchronized long getRowOffset(int arg0, int arg1, int arg2, int arg3) {
-        errorIfNotLoaded();
+    public long getRowOffset(int arg0, int arg1, int arg2, int arg3) {
+        readLockLoaded();
 
         try {
-            return buffer.getRowOffset(arg0, arg1, arg2, arg3);
-        } catch (Exception e) {
-            handleException(e);
+            try {
+                return buffer.getRowOffset(arg0, arg1, arg2, arg3);
+            } catch (Exception e) {
+                handleException(e);
+            }
+            return -1;
+        } finally {
+            rwl.readLock().unlock();
         }
-        return -1;
     }
 
     @RolesAllowed("user")
-    public synchronized int getRowSize() {
-        errorIfNotLoaded();
+    public int getRowSize() {
+        readLockLoaded();
 
-        return buffer.getRowSize();
+        try {
+            return buffer.getRowSize();
+        } finally {
+            rwl.readLock().unlock();
+        }
     }
 
     @RolesAllowed("user")
-    public synchronized byte[] getStack(int arg0, int arg1) {
-        errorIfNotLoaded();
+    public byte[] getStack(int arg0, int arg1) {
+        readLockLoaded();
 
-        int size = RomioPixelBuffer.safeLongToInteger(buffer.getStackSize());
-        if (readBuffer == null || readBuffer.length != size) {
-            readBuffer = new byte[size];
-        }
         try {
-            readBuffer = buffer.getStackDirect(arg0, arg1, readBuffer);
-        } catch (Exception e) {
-            handleException(e);
+            int size = RomioPixelBuffer.safeLongToInteger(buffer.getStackSize());
+            byte[] bytes = new byte[size];
+            try {
+                bytes = buffer.getStackDirect(arg0, arg1, bytes);
+            } catch (Exception e) {
+                handleException(e);
+            }
+            return bytes;
+        } finally {
+            rwl.readLock().unlock();
         }
-        return readBuffer;
     }
 
     @RolesAllowed("user")
-    public synchronized long getStackOffset(int arg0, int arg1) {
-        errorIfNotLoaded();
+    public long getStackOffset(int arg0, int arg1) {
+        readLockLoaded();
 
         try {
-            return buffer.getStackOffset(arg0, arg1);
-        } catch (Exception e) {
-            handleException(e);
+            try {
+                return buffer.getStackOffset(arg0, arg1);
+            } catch (Exception e) {
+                handleException(e);
+            }
+            return -1;
+        } finally {
+            rwl.readLock().unlock();
         }
-        return -1;
     }
 
     @RolesAllowed("user")
-    public synchronized long getStackSize() {
-        errorIfNotLoaded();
+    public long getStackSize() {
+        readLockLoaded();
 
-        return buffer.getStackSize();
+        try {
+            return buffer.getStackSize();
+        } finally {
+            rwl.readLock().unlock();
+        }
     }
 
     @RolesAllowed("user")
-    public synchronized byte[] getTimepoint(int arg0) {
-        errorIfNotLoaded();
+    public byte[] getTimepoint(int arg0) {
+        readLockLoaded();
 
-        int size = RomioPixelBuffer.safeLongToInteger(
-                buffer.getTimepointSize());
-        if (readBuffer == null || readBuffer.length != size) {
-            readBuffer = new byte[size];
-        }
         try {
-            readBuffer = buffer.getTimepointDirect(arg0, readBuffer);
-        } catch (Exception e) {
-            handleException(e);
+            int size = RomioPixelBuffer.safeLongToInteger(
+                    buffer.getTimepointSize());
+            byte[] bytes = new byte[size];
+            try {
+                bytes = buffer.getTimepointDirect(arg0, bytes);
+            } catch (Exception e) {
+                handleException(e);
+            }
+            return bytes;
+        } finally {
+            rwl.readLock().unlock();
         }
-        return readBuffer;
     }
 
     @RolesAllowed("user")
-    public synchronized long getTimepointOffset(int arg0) {
-        errorIfNotLoaded();
+    public long getTimepointOffset(int arg0) {
+        readLockLoaded();
 
         try {
-            return buffer.getTimepointOffset(arg0);
-        } catch (Exception e) {
-            handleException(e);
+            try {
+                return buffer.getTimepointOffset(arg0);
+            } catch (Exception e) {
+                handleException(e);
+            }
+            return -1;
+        } finally {
+            rwl.readLock().unlock();
         }
-        return -1;
     }
 
     @RolesAllowed("user")
-    public synchronized long getTimepointSize() {
-        errorIfNotLoaded();
+    public long getTimepointSize() {
+        readLockLoaded();
 
-        return buffer.getTimepointSize();
+        try {
+            return buffer.getTimepointSize();
+        } finally {
+            rwl.readLock().unlock();
+        }
     }
 
     @RolesAllowed("user")
-    public synchronized long getTotalSize() {
-        errorIfNotLoaded();
+    public long getTotalSize() {
+        readLockLoaded();
 
-        return buffer.getTotalSize();
+        try {
+            return buffer.getTotalSize();
+        } finally {
+            rwl.readLock().unlock();
+        }
     }
 
     @RolesAllowed("user")
-    public synchronized int getByteWidth() {
-        errorIfNotLoaded();
+    public int getByteWidth() {
+        readLockLoaded();
 
-        return buffer.getByteWidth();
+        try {
+            return buffer.getByteWidth();
+        } finally {
+            rwl.readLock().unlock();
+        }
     }
 
     @RolesAllowed("user")
-    public synchronized boolean isSigned() {
-        errorIfNotLoaded();
+    public boolean isSigned() {
+        readLockLoaded();
 
-        return buffer.isSigned();
+        try {
+            return buffer.isSigned();
+        } finally {
+            rwl.readLock().unlock();
+        }
     }
 
     @RolesAllowed("user")
-    public synchronized boolean isFloat() {
-        errorIfNotLoaded();
+    public boolean isFloat() {
+        readLockLoaded();
 
-        return buffer.isFloat();
+        try {
+            return buffer.isFloat();
+        } finally {
+            rwl.readLock().unlock();
+        }
     }
 
     @RolesAllowed("user")
-    public synchronized void setPlane(byte[] arg0, int arg1, int arg2, int arg3) {
-        errorIfNotLoaded();
-
-        if (diskSpaceChecking) {
-            iRepositoryInfo.sanityCheckRepository();
-        }
+    public void setPlane(byte[] arg0, int arg1, int arg2, int arg3) {
+        rwl.writeLock().lock();
 
         try {
-            buffer.setPlane(arg0, arg1, arg2, arg3);
-            modified();
-        } catch (Exception e) {
-            handleException(e);
+            errorIfNotLoaded();
+            if (diskSpaceChecking) {
+                iRepositoryInfo.sanityCheckRepository();
+            }
+
+            try {
+                buffer.setPlane(arg0, arg1, arg2, arg3);
+                modified();
+            } catch (Exception e) {
+                handleException(e);
+            }
+        } finally {
+            rwl.writeLock().unlock();
         }
     }
 
     @RolesAllowed("user")
-    public synchronized void setRegion(int arg0, long arg1, byte[] arg2) {
-        errorIfNotLoaded();
-
-        if (diskSpaceChecking) {
-            iRepositoryInfo.sanityCheckRepository();
-        }
+    public void setRegion(int arg0, long arg1, byte[] arg2) {
+        rwl.writeLock().lock();
 
         try {
-            buffer.setRegion(arg0, arg1, arg2);
-            modified();
-        } catch (Exception e) {
-            handleException(e);
+            errorIfNotLoaded();
+            if (diskSpaceChecking) {
+                iRepositoryInfo.sanityCheckRepository();
+            }
+
+            try {
+                buffer.setRegion(arg0, arg1, arg2);
+                modified();
+            } catch (Exception e) {
+                handleException(e);
+            }
+        } finally {
+            rwl.writeLock().unlock();
         }
     }
 
     @RolesAllowed("user")
-    public synchronized void setRow(byte[] arg0, int arg1, int arg2, int arg3, int arg4) {
-        errorIfNotLoaded();
-
-        if (diskSpaceChecking) {
-            iRepositoryInfo.sanityCheckRepository();
-        }
+    public void setRow(byte[] arg0, int arg1, int arg2, int arg3, int arg4) {
+        rwl.writeLock().lock();
 
         try {
-            ByteBuffer buf = ByteBuffer.wrap(arg0);
-            buffer.setRow(buf, arg1, arg2, arg3, arg4);
-            modified();
-        } catch (Exception e) {
-            handleException(e);
+            errorIfNotLoaded();
+            if (diskSpaceChecking) {
+                iRepositoryInfo.sanityCheckRepository();
+            }
+
+            try {
+                ByteBuffer buf = ByteBuffer.wrap(arg0);
+                buffer.setRow(buf, arg1, arg2, arg3, arg4);
+                modified();
+            } catch (Exception e) {
+                handleException(e);
+            }
+        } finally {
+            rwl.writeLock().unlock();
         }
     }
 
     @RolesAllowed("user")
-    public synchronized void setStack(byte[] arg0, int arg1, int arg2, int arg3) {
-        errorIfNotLoaded();
-
-        if (diskSpaceChecking) {
-            iRepositoryInfo.sanityCheckRepository();
-        }
+    public void setStack(byte[] arg0, int arg1, int arg2, int arg3) {
+        rwl.writeLock().lock();
 
         try {
-            buffer.setStack(arg0, arg1, arg2, arg3);
-            modified();
-        } catch (Exception e) {
-            handleException(e);
+            errorIfNotLoaded();
+            if (diskSpaceChecking) {
+                iRepositoryInfo.sanityCheckRepository();
+            }
+
+            try {
+                buffer.setStack(arg0, arg1, arg2, arg3);
+                modified();
+            } catch (Exception e) {
+                handleException(e);
+            }
+        } finally {
+            rwl.writeLock().unlock();
         }
     }
 
     @RolesAllowed("user")
-    public synchronized void setTimepoint(byte[] arg0, int arg1) {
-        errorIfNotLoaded();
-
-        if (diskSpaceChecking) {
-            iRepositoryInfo.sanityCheckRepository();
-        }
+    public void setTimepoint(byte[] arg0, int arg1) {
+        rwl.writeLock().lock();
 
         try {
-            buffer.setTimepoint(arg0, arg1);
-            modified();
-        } catch (Exception e) {
-            handleException(e);
+            errorIfNotLoaded();
+            if (diskSpaceChecking) {
+                iRepositoryInfo.sanityCheckRepository();
+            }
+
+            try {
+                buffer.setTimepoint(arg0, arg1);
+                modified();
+            } catch (Exception e) {
+                handleException(e);
+            }
+        } finally {
+            rwl.writeLock().unlock();
         }
     }
     
     @RolesAllowed("user")
-    public synchronized Map<Integer, int[]> getHistogram(int[] channels,
+    public Map<Integer, int[]> getHistogram(int[] channels,
             int binCount, boolean globalRange, PlaneDef plane) {
-        errorIfNotLoaded();
-
-        if (requiresPixelsPyramid())
-            throw new ApiUsageException(
-                    "This method can not handle tiled images yet.");
-
-        if (binCount <= 0)
-            binCount = DEFAULT_HISTOGRAM_BINSIZE;
-
-        int imgWidth = buffer.getSizeX();
-
-        int z = (plane != null && plane.getZ() >= 0) ? plane.getZ() : 0;
-        int t = (plane != null && plane.getT() >= 0) ? plane.getT() : 0;
-        int x = (plane != null && plane.getRegion() != null && plane
-                .getRegion().getX() >= 0) ? plane.getRegion().getX() : 0;
-        int y = (plane != null && plane.getRegion() != null && plane
-                .getRegion().getY() >= 0) ? plane.getRegion().getY() : 0;
-        int w = (plane != null && plane.getRegion() != null && plane
-                .getRegion().getWidth() > 0) ? plane.getRegion().getWidth()
-                : imgWidth;
-        int h = (plane != null && plane.getRegion() != null && plane
-                .getRegion().getHeight() > 0) ? plane.getRegion().getHeight()
-                : buffer.getSizeY();
-
-        Map<Integer, int[]> result = new HashMap<Integer, int[]>();
+        readLockLoaded();
 
         try {
+            if (binCount <= 0)
+                binCount = DEFAULT_HISTOGRAM_BINSIZE;
+
+            int imgWidth = buffer.getSizeX();
+
+            int z = (plane != null && plane.getZ() >= 0) ? plane.getZ() : 0;
+            int t = (plane != null && plane.getT() >= 0) ? plane.getT() : 0;
+            int x = (plane != null && plane.getRegion() != null && plane
+                    .getRegion().getX() >= 0) ? plane.getRegion().getX() : 0;
+            int y = (plane != null && plane.getRegion() != null && plane
+                    .getRegion().getY() >= 0) ? plane.getRegion().getY() : 0;
+            int w = (plane != null && plane.getRegion() != null && plane
+                    .getRegion().getWidth() > 0) ? plane.getRegion().getWidth()
+                    : imgWidth;
+            int h = (plane != null && plane.getRegion() != null && plane
+                    .getRegion().getHeight() > 0) ? plane.getRegion().getHeight()
+                    : buffer.getSizeY();
+
+            Map<Integer, int[]> result = new HashMap<Integer, int[]>();
+
+            // The histogram's range for each channel, or null if the plane's
+            // minimum and maximum are to be used.
+            Map<Integer, double[]> ranges = new LinkedHashMap<Integer, double[]>();
             for (int ch : channels) {
                 Channel channel = pixelsInstance.getChannel(ch);
                 if (channel == null)
                     continue;
-                PixelData px = buffer.getPlane(z, ch, t);
-                int[] data = new int[binCount];
-
-                double[] minmax = determineHistogramMinMax(px, channel,
-                        globalRange);
-                double min = minmax[0];
-                double max = minmax[1];
-
-                double range = max - min + 1;
-                double binRange = range / binCount;
-                for (int i = 0; i < px.size(); i++) {
-                    int pxx = i % imgWidth;
-                    int pxy = i / imgWidth;
-                    if (pxx >= x && pxx < (x + w) && pxy >= y && pxy < (y + h)) {
-                        int bin = (int) ((px.getPixelValue(i) - min) / binRange);
-                        // if there are more bins than values (binRange < 1) the bin will be offset by -1.
-                        // e.g. min=0.0, max=127.0, binCount=256: a pixel with max value 127.0 would go
-                        // into bin 254 (expected: 255). Therefore increment by one for these cases.
-                        if (bin > 0 && binRange < 1)
-                            bin++;
-
-                        if (bin >= 0 && bin < binCount)
-                            data[bin]++;
-                    }
-                }
-                result.put(ch, data);
+                ranges.put(ch, determineGlobalMinMax(channel, globalRange));
+            }
+
+            try {
+                result.putAll(new TileHistogram(buffer, z, t, x, y, w, h, binCount)
+                        .getHistograms(ranges));
+            } catch (Exception e) {
+                handleException(e);
             }
-        } catch (Exception e) {
-            handleException(e);
-        }
 
-        return result;
+            return result;
+        } finally {
+            rwl.readLock().unlock();
+        }
     }
 
     @RolesAllowed("user")
-    public synchronized Map<Integer, double[]> findMinMax(int[] channels) {
-        Map<Integer, double[]> result = new HashMap<Integer, double[]>();
-        
-        if (requiresPixelsPyramid())
-            return result;
+    public Map<Integer, double[]> findMinMax(int[] channels) {
+        readLockLoaded();
 
         try {
-            for (int ch : channels) {
-                Channel channel = pixelsInstance.getChannel(ch);
-                if (channel == null)
-                    continue;
-                int z = buffer.getSizeZ() > 1 ? (buffer.getSizeZ() - 1) / 2 : 0;
-                int t = buffer.getSizeT() > 1 ? (buffer.getSizeT() - 1) / 2 : 0;
-                PixelData px = buffer.getPlane(z, ch, t);
-                double[] minmax = determineHistogramMinMax(px, channel, false);
-                result.put(ch, minmax);
+            Map<Integer, double[]> result = new HashMap<Integer, double[]>();
+        
+            if (requiresPixelsPyramid())
+                return result;
+
+            try {
+                for (int ch : channels) {
+                    Channel channel = pixelsInstance.getChannel(ch);
+                    if (channel == null)
+                        continue;
+                    int z = buffer.getSizeZ() > 1 ? (buffer.getSizeZ() - 1) / 2 : 0;
+                    int t = buffer.getSizeT() > 1 ? (buffer.getSizeT() - 1) / 2 : 0;
+                    PixelData px = buffer.getPlane(z, ch, t);
+                    double[] minmax = determineHistogramMinMax(px, channel, false);
+                    result.put(ch, minmax);
+                }
+            } catch (IOException e) {
+                handleException(e);
             }
-        } catch (IOException e) {
-            handleException(e);
+            return result;
+        } finally {
+            rwl.readLock().unlock();
         }
-        return result;
     }
     
     // ~ Helpers
@@ -788,16 +947,11 @@ public class RawPixelsBean extends AbstractStatefulBean implements
      */
     private double[] determineHistogramMinMax(PixelData px, Channel channel,
             boolean useGlobal) {
-        double min, max;
+        double[] globalMinMax = determineGlobalMinMax(channel, useGlobal);
+        if (globalMinMax != null)
+            return globalMinMax;
 
-        if (useGlobal && channel != null && channel.getStatsInfo() != null) {
-            min = channel.getStatsInfo().getGlobalMin();
-            max = channel.getStatsInfo().getGlobalMax();
-            // if max == 1.0 the global min/max probably has not been
-            // calculated; fall back to plane min/max
-            if (max != 1.0)
-                return new double[] { min, max };
-        }
+        double min, max;
 
         StatsFactory sf = new StatsFactory();
         double[] pixelMinMax = sf.initPixelsRange(channel.getPixels());
@@ -813,13 +967,36 @@ public class RawPixelsBean extends AbstractStatefulBean implements
         return new double[] { min, max };
     }
     
-    private synchronized byte[] bufferAsByteArrayWithExceptionIfNull(ByteBuffer buffer) {
+    /**
+     * Get the global minimum and maximum value to use for the histogram, if
+     * useGlobal is <code>true</code> and the channel has stats calculated.
+     * 
+     * @param channel
+     *            The {@link Channel}
+     * @param useGlobal
+     *            Try to use the global minimum/maximum
+     * @return See above, or <code>null</code> if the minimum and maximum value
+     *         of the plane should be used instead
+     */
+    private double[] determineGlobalMinMax(Channel channel, boolean useGlobal) {
+        if (useGlobal && channel != null && channel.getStatsInfo() != null) {
+            double min = channel.getStatsInfo().getGlobalMin();
+            double max = channel.getStatsInfo().getGlobalMax();
+            // if max == 1.0 the global min/max probably has not been
+            // calculated; fall back to plane min/max
+            if (max != 1.0)
+                return new double[] { min, max };
+        }
+        return null;
+    }
+
+    private byte[] bufferAsByteArrayWithExceptionIfNull(ByteBuffer buffer) {
         byte[] b = new byte[buffer.capacity()];
         buffer.get(b, 0, buffer.capacity());
         return b;
     }
 
-    private synchronized void handleException(Exception e) {
+    private void handleException(Exception e) {
 
         if (e instanceof RootException) {
             throw (RootException) e; // Allow our own exceptions.
@@ -849,112 +1026,162 @@ public class RawPixelsBean extends AbstractStatefulBean implements
         throw new RuntimeException(e);
     }
 
-    public synchronized boolean isDiskSpaceChecking() {
-        return diskSpaceChecking;
+    public boolean isDiskSpaceChecking() {
+        rwl.readLock().lock();
+
+        try {
+            return diskSpaceChecking;
+        } finally {
+            rwl.readLock().unlock();
+        }
     }
 
-    public synchronized void setDiskSpaceChecking(boolean diskSpaceChecking) {
-        this.diskSpaceChecking = diskSpaceChecking;
+    public void setDiskSpaceChecking(boolean diskSpaceChecking) {
+        rwl.writeLock().lock();
+
+        try {
+            this.diskSpaceChecking = diskSpaceChecking;
+        } finally {
+            rwl.writeLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.api.RawPixelsStore#getResolutionLevels()
      */
     @RolesAllowed("user")
-    public synchronized int getResolutionLevels()
+    public int getResolutionLevels()
     {
-        errorIfNotLoaded();
-        return buffer.getResolutionLevels();
+        readLockLoaded();
+
+        try {
+            return buffer.getResolutionLevels();
+        } finally {
+            rwl.readLock().unlock();
+        }
     }
 
     @RolesAllowed("user")
-    public synchronized List<List<Integer>> getResolutionDescriptions()
+    public List<List<Integer>> getResolutionDescriptions()
     {
-        errorIfNotLoaded();
-        return buffer.getResolutionDescriptions();
+        readLockLoaded();
+
+        try {
+            return buffer.getResolutionDescriptions();
+        } finally {
+            rwl.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.api.RawPixelsStore#getTileSize()
      */
     @RolesAllowed("user")
-    public synchronized int[] getTileSize()
+    public int[] getTileSize()
     {
-        errorIfNotLoaded();
-        Dimension tileSize = buffer.getTileSize();
-        return new int[] { (int) tileSize.getWidth(),
-                           (int) tileSize.getHeight() };
+        readLockLoaded();
+
+        try {
+            Dimension tileSize = buffer.getTileSize();
+            return new int[] { (int) tileSize.getWidth(),
+                               (int) tileSize.getHeight() };
+        } finally {
+            rwl.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.api.RawPixelsStore#requiresPixelsPyramid()
      */
     @RolesAllowed("user")
-    public synchronized boolean requiresPixelsPyramid()
+    public boolean requiresPixelsPyramid()
     {
-        errorIfNotLoaded();
-        return dataService.requiresPixelsPyramid(pixelsInstance);
+        readLockLoaded();
+
+        try {
+            return dataService.requiresPixelsPyramid(pixelsInstance);
+        } finally {
+            rwl.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.api.RawPixelsStore#getResolutionLevel()
      */
     @RolesAllowed("user")
-    public synchronized int getResolutionLevel()
+    public int getResolutionLevel()
     {
-        errorIfNotLoaded();
-        return buffer.getResolutionLevel();
+        readLockLoaded();
+
+        try {
+            return buffer.getResolutionLevel();
+        } finally {
+            rwl.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.api.RawPixelsStore#setResolutionLevel(int)
      */
     @RolesAllowed("user")
-    public synchronized void setResolutionLevel(int resolutionLevel)
+    public void setResolutionLevel(int resolutionLevel)
     {
-        errorIfNotLoaded();
-        buffer.setResolutionLevel(resolutionLevel);
+        rwl.writeLock().lock();
+
+        try {
+            errorIfNotLoaded();
+            buffer.setResolutionLevel(resolutionLevel);
+        } finally {
+            rwl.writeLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.api.RawPixelsStore#getTile(int, int, int, int, int, int, int)
      */
     @RolesAllowed("user")
-    public synchronized byte[] getTile(int z, int c, int t, int x, int y, int w, int h)
+    public byte[] getTile(int z, int c, int t, int x, int y, int w, int h)
     {
-        errorIfNotLoaded();
+        readLockLoaded();
 
-        int size = RomioPixelBuffer.safeLongToInteger(
-                (long) w * (long) h * buffer.getByteWidth());
-        if (readBuffer == null || readBuffer.length != size) {
-            readBuffer = new byte[size];
-        }
         try {
-            readBuffer = buffer.getTileDirect(z, c, t, x, y, w, h, readBuffer);
-        } catch (Exception e) {
-            handleException(e);
+            int size = RomioPixelBuffer.safeLongToInteger(
+                    (long) w * (long) h * buffer.getByteWidth());
+            byte[] bytes = new byte[size];
+            try {
+                bytes = buffer.getTileDirect(z, c, t, x, y, w, h, bytes);
+            } catch (Exception e) {
+                handleException(e);
+            }
+            return bytes;
+        } finally {
+            rwl.readLock().unlock();
         }
-        return readBuffer;
     }
 
     /* (non-Javadoc)
      * @see ome.api.RawPixelsStore#setTile(byte[], int, int, int, int, int, int, int)
      */
     @RolesAllowed("user")
-    public synchronized void setTile(byte[] data, int z, int c, int t, int x, int y,
+    public void setTile(byte[] data, int z, int c, int t, int x, int y,
             int w, int h)
     {
-        errorIfNotLoaded();
-
-        if (diskSpaceChecking) {
-            iRepositoryInfo.sanityCheckRepository();
-        }
+        rwl.writeLock().lock();
 
         try {
-            buffer.setTile(data, z, c, t, x, y, w, h);
-            modified();
-        } catch (Exception e) {
-            handleException(e);
+            errorIfNotLoaded();
+            if (diskSpaceChecking) {
+                iRepositoryInfo.sanityCheckRepository();
+            }
+
+            try {
+                buffer.setTile(data, z, c, t, x, y, w, h);
+                modified();
+            } catch (Exception e) {
+                handleException(e);
+            }
+        } finally {
+            rwl.writeLock().unlock();
         }
     }
 
@@ -473,11 +473,13 @@ public class RenderingBean implements RenderingEngine, Serializable {
 
         try {
             final Map<byte[], Integer> overlays = getMasks(pd);
-            if (overlays.size() > 0) {
-                renderer.setOverlays(overlays);
-            }
             errorIfInvalidState();
-            return renderer.render(pd);
+            synchronized (renderer) {
+                if (overlays.size() > 0) {
+                    renderer.setOverlays(overlays);
+                }
+                return renderer.render(pd);
+            }
         } catch (IOException e) {
             log.error("IO error while rendering.", e);
             throw new ResourceError(e.getMessage());
@@ -496,28 +498,46 @@ public class RenderingBean implements RenderingEngine, Serializable {
      */
     @RolesAllowed("user")
     public int[] renderAsPackedInt(PlaneDef pd) {
-        rwl.writeLock().lock();
+        rwl.readLock().lock();
 
+        try {
+            return renderPackedInt(pd);
+        } finally {
+            rwl.readLock().unlock();
+        }
+    }
+
+    /**
+     * Renders the plane selected by <code>pd</code>. Concurrent renders share
+     * the read lock but the renderer keeps state for the duration of a
+     * render so is used by one thread at a time; the work around it, such as
+     * loading masks or compressing the result, is not serialized. Must be
+     * called with the read lock held.
+     *
+     * @param pd The plane to render.
+     * @return See above.
+     */
+    private int[] renderPackedInt(PlaneDef pd) {
         try {
             final Map<byte[], Integer> overlays = getMasks(pd);
-            if (overlays.size() > 0) {
-                renderer.setOverlays(overlays);
-            }
             errorIfInvalidState();
             checkPlaneDef(pd);
-            if (resolutionLevel != null)
-            {
-                renderer.setResolutionLevel(resolutionLevel);
+            synchronized (renderer) {
+                if (overlays.size() > 0) {
+                    renderer.setOverlays(overlays);
+                }
+                if (resolutionLevel != null)
+                {
+                    renderer.setResolutionLevel(resolutionLevel);
+                }
+                return renderer.renderAsPackedInt(pd, null);
             }
-            return renderer.renderAsPackedInt(pd, null);
         } catch (IOException e) {
             log.error("IO error while rendering.", e);
             throw new ResourceError(e.getMessage());
         } catch (QuantizationException e) {
             log.error("Quantization exception while rendering.", e);
             throw new InternalException(e.getMessage());
-        } finally {
-            rwl.writeLock().unlock();
         }
     }
 
@@ -528,18 +548,14 @@ public class RenderingBean implements RenderingEngine, Serializable {
      */
     @RolesAllowed("user")
     public byte[] renderCompressed(PlaneDef pd) {
-        rwl.writeLock().lock();
+        rwl.readLock().lock();
 
         ByteArrayOutputStream byteStream = null;
         try {
-            final Map<byte[], Integer> overlays = getMasks(pd);
-            if (overlays.size() > 0) {
-                renderer.setOverlays(overlays);
-            }
             int stride = pd.getStride();
             if (stride < 0) stride = 0;
             stride++;
-            int[] buf = renderAsPackedInt(pd);
+            int[] buf = renderPackedInt(pd);
             int sizeX = pixelsObj.getSizeX();
             int sizeY = pixelsObj.getSizeY();
             RegionDef region = pd.getRegion();
@@ -558,7 +574,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
             log.error("Could not compress rendered image.", e);
             throw new ResourceError(e.getMessage());
         } finally {
-            rwl.writeLock().unlock();
+            rwl.readLock().unlock();
             try {
                 if (byteStream != null) {
                     byteStream.close();
@@ -1699,13 +1715,13 @@ public class RenderingBean implements RenderingEngine, Serializable {
     @RolesAllowed("user")
     public int getResolutionLevel()
     {
-        rwl.writeLock().lock();
+        rwl.readLock().lock();
 
         try {
             errorIfInvalidState();
             return renderer.getResolutionLevel();
         } finally {
-            rwl.writeLock().unlock();
+            rwl.readLock().unlock();
         }
     }
 
@@ -1715,26 +1731,26 @@ public class RenderingBean implements RenderingEngine, Serializable {
     @RolesAllowed("user")
     public int getResolutionLevels()
     {
-        rwl.writeLock().lock();
+        rwl.readLock().lock();
 
         try {
             errorIfInvalidState();
             return renderer.getResolutionLevels();
         } finally {
-            rwl.writeLock().unlock();
+            rwl.readLock().unlock();
         }
     }
 
     @RolesAllowed("user")
     public List<List<Integer>> getResolutionDescriptions()
     {
-        rwl.writeLock().lock();
+        rwl.readLock().lock();
 
         try {
             errorIfInvalidState();
             return renderer.getResolutionDescriptions();
         } finally {
-            rwl.writeLock().unlock();
+            rwl.readLock().unlock();
         }
     }
 
@@ -1744,7 +1760,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
     @RolesAllowed("user")
     public int[] getTileSize()
     {
-        rwl.writeLock().lock();
+        rwl.readLock().lock();
 
         try {
             errorIfInvalidState();
@@ -1752,7 +1768,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
             return new int[] { (int) tileSize.getWidth(),
                                (int) tileSize.getHeight() };
         } finally {
-            rwl.writeLock().unlock();
+            rwl.readLock().unlock();
         }
     }
 
@@ -1762,13 +1778,13 @@ public class RenderingBean implements RenderingEngine, Serializable {
     @RolesAllowed("user")
     public boolean requiresPixelsPyramid()
     {
-        rwl.writeLock().lock();
+        rwl.readLock().lock();
 
         try {
             errorIfInvalidState();
             return pixDataSrv.requiresPixelsPyramid(pixelsObj);
         } finally {
-            rwl.writeLock().unlock();
+            rwl.readLock().unlock();
         }
     }
 
@@ -8,7 +8,9 @@ package ome.services.fulltext;
 import java.io.File;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -17,6 +19,7 @@ import ome.io.nio.OriginalFilesService;
 import ome.model.IObject;
 import ome.model.core.OriginalFile;
 import ome.services.messages.ReindexMessage;
+import ome.util.Utils;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -68,6 +71,17 @@ public abstract class BridgeHelper implements FieldBridge,
 
     protected ApplicationEventPublisher publisher;
 
+    /**
+     * Extracts the text of files off the indexing thread, if set.
+     */
+    protected FileContentExtractor extractor;
+
+    /**
+     * Objects queued by {@link #reindexLater(IObject)}, keyed by class and
+     * id so that each is reindexed only once.
+     */
+    private final Map<String, IObject> deferredReindex = new LinkedHashMap<String, IObject>();
+
     public final Logger logger() {
         return log;
     }
@@ -76,6 +90,10 @@ public abstract class BridgeHelper implements FieldBridge,
         this.publisher = publisher;
     }
 
+    public void setFileContentExtractor(FileContentExtractor extractor) {
+        this.extractor = extractor;
+    }
+
     /**
      * Method to be implemented by all {@link FieldBridge bridges}. The "value"
      * argument is an active Hibernate object, and so the full graph can be
@@ -231,10 +249,47 @@ public abstract class BridgeHelper implements FieldBridge,
         publisher.publishEvent(rm);
     }
 
+    /**
+     * Queues the given object to be reindexed when {@link #flushReindex()}
+     * is next called, typically at the end of an indexing run. Repeated
+     * requests for the same object are coalesced.
+     */
+    protected <T extends IObject> void reindexLater(T object) {
+        if (object == null || object.getId() == null) {
+            throw new ApiUsageException("Object cannot be null");
+        }
+        final String key = Utils.trueClass(object.getClass()).getName()
+                + ":" + object.getId();
+        synchronized (deferredReindex) {
+            if (!deferredReindex.containsKey(key)) {
+                deferredReindex.put(key, object);
+            }
+        }
+    }
+
+    /**
+     * Publishes a single {@link ReindexMessage} for all the objects queued by
+     * {@link #reindexLater(IObject)} since the last call.
+     *
+     * @return the number of objects for which reindexing was requested
+     */
+    public int flushReindex() {
+        final List<IObject> objects;
+        synchronized (deferredReindex) {
+            objects = new ArrayList<IObject>(deferredReindex.values());
+            deferredReindex.clear();
+        }
+        if (!objects.isEmpty()) {
+            reindexAll(objects);
+        }
+        return objects.size();
+    }
+
     /**
      * Attempts to parse the given {@link OriginalFile}. If any of the
      * necessary components is null, then it will return an empty, but not null
-     * {@link Iterable}. Also looks for the catch all parser under "*"
+     * {@link Iterable}. Also looks for the catch all parser under "*". If a
+     * {@link FileContentExtractor} is set then the file is parsed by that.
      * 
      * @param file
      *            Can be null.
@@ -248,13 +303,14 @@ public abstract class BridgeHelper implements FieldBridge,
                 String path = files.getFilesPath(file.getId());
                 String format = file.getMimetype();
                 FileParser parser = parsers.get(format);
-                if (parser != null) {
-                    return parser.parse(new File(path));
-                } else {
+                if (parser == null) {
                     parser = parsers.get("*");
-                    if (parser != null) {
-                        return parser.parse(new File(path));
+                }
+                if (parser != null) {
+                    if (extractor != null) {
+                        return extractor.extract(file, new File(path), parser);
                     }
+                    return parser.parse(new File(path));
                 }
             }
         }
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.fulltext;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import ome.model.core.OriginalFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Extracts the text of files for indexing on a pool of worker threads so
+ * that a slow or large file cannot stall the indexer. Each extraction has a
+ * budget of time and of characters: text beyond the character budget is
+ * dropped and an extraction that runs out of time contributes no text. The
+ * text extracted from files with a known hash is cached so that reindexing
+ * the objects to which a file is attached does not parse it again.
+ * <p>
+ * The time budget starts when a worker starts the extraction, not while it
+ * waits in the queue. Parsers need not heed interruption so a worker that
+ * outlives its budget is abandoned rather than waited for: it no longer
+ * counts toward the number of workers and a fresh thread takes the next
+ * extraction. The files whose extraction is abandoned are logged so that
+ * they may be reindexed.
+ * </p>
+ *
+ * @since 5.5.0
+ */
+@Deprecated
+public class FileContentExtractor {
+
+    private final static Logger log = LoggerFactory.getLogger(FileContentExtractor.class);
+
+    /**
+     * Runs the jobs. Threads are created as needed because a thread that
+     * is abandoned may remain busy; {@link #workers} bounds the number of
+     * jobs that run within their budget at once.
+     */
+    private final ExecutorService pool;
+
+    /** Abandons the jobs that run out of time. */
+    private final ScheduledThreadPoolExecutor timer;
+
+    /** A permit for each job that may run at once. */
+    private final Semaphore workers;
+
+    /** The jobs waiting for a permit, in order of submission. */
+    private final Queue<Job<?>> waiting = new ConcurrentLinkedQueue<Job<?>>();
+
+    private final long timeout;
+
+    private final int maxLength;
+
+    private final Cache<String, String> cache;
+
+    /**
+     * The extractions under way, by cache key, so that the same file is not
+     * extracted twice at once.
+     */
+    private final ConcurrentMap<String, Future<String>> running = new ConcurrentHashMap<String, Future<String>>();
+
+    /**
+     * @param threads the number of extractions to run at once
+     * @param timeout the time budget for each extraction, in milliseconds
+     * @param maxLength the most characters of text to extract from a file
+     * @param cacheSize the most characters of text to cache over all files,
+     * {@code 0} to disable caching
+     */
+    public FileContentExtractor(int threads, long timeout, int maxLength, long cacheSize) {
+        this.pool = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("FileContentExtractor-%d").setDaemon(true).build());
+        this.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                .setNameFormat("FileContentExtractor-timer-%d").setDaemon(true).build());
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.workers = new Semaphore(threads);
+        this.timeout = timeout;
+        this.maxLength = maxLength;
+        this.cache = CacheBuilder.newBuilder().maximumWeight(cacheSize).weigher(new Weigher<String, String>() {
+            @Override
+            public int weigh(String key, String text) {
+                return text.length();
+            }
+        }).build();
+    }
+
+    /**
+     * Called by Spring on destruction.
+     */
+    public void destroy() {
+        Job<?> job;
+        while ((job = waiting.poll()) != null) {
+            job.cancel(false);
+        }
+        timer.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    /**
+     * Runs a task on the pool within the time budget.
+     *
+     * @param description what the task does, for logging
+     * @param task the task
+     * @return the result of the task, or {@code null} if it failed or ran
+     *         out of time, in which case it is abandoned
+     */
+    public <T> T run(String description, Callable<T> task) {
+        final Job<T> job = new Job<T>(description, null, task);
+        submit(job);
+        return await(description, job);
+    }
+
+    /**
+     * Starts the extraction of the text of a file. The text is available
+     * from the returned {@link Reader}s, which wait for the extraction when
+     * first read, so several files may be extracted at once. The file is
+     * not parsed again if its text is already cached or being extracted.
+     *
+     * @param file the file as known to the database, used for the cache key
+     * @param path the file on disk
+     * @param parser the parser for the file's format
+     * @return the text of the file, never {@code null}
+     */
+    public Iterable<Reader> extract(OriginalFile file, final File path, final FileParser parser) {
+        final String key = cacheKey(file, parser);
+        if (key != null) {
+            final String cached = cache.getIfPresent(key);
+            if (cached != null) {
+                return Collections.<Reader>singletonList(new StringReader(cached));
+            }
+        }
+        final String description = file == null || file.getId() == null ?
+                "extracting text of " + path :
+                "extracting text of file #" + file.getId() + " at " + path;
+        Future<String> future = key == null ? null : running.get(key);
+        if (future == null || future.isCancelled()) {
+            final Job<String> job = new Job<String>(description, key, new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    final String text = read(parser.parse(path));
+                    if (key != null) {
+                        cache.put(key, text);
+                    }
+                    return text;
+                }
+            });
+            if (key != null) {
+                running.put(key, job);
+            }
+            submit(job);
+            future = job;
+        }
+        return reader(description, future);
+    }
+
+    /**
+     * @return a reader of the text that a task extracts, which waits for the
+     *         task when first read
+     */
+    private Iterable<Reader> reader(final String description, final Future<String> future) {
+        return Collections.<Reader>singletonList(new Reader() {
+
+            private Reader text = null;
+
+            private Reader text() {
+                if (text == null) {
+                    final String result = await(description, future);
+                    text = new StringReader(result == null ? "" : result);
+                }
+                return text;
+            }
+
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                return text().read(buffer, offset, length);
+            }
+
+            @Override
+            public void close() {
+                /* the extraction may be shared so is left to its budget */
+            }
+        });
+    }
+
+    /**
+     * Waits for a task. The task cannot outlive its budget once started
+     * because it is then abandoned.
+     *
+     * @return the result of the task, or {@code null} if it failed or ran
+     *         out of time
+     */
+    private <T> T await(String description, Future<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException ee) {
+            log.warn("Failed " + description, ee.getCause());
+        } catch (CancellationException ce) {
+            log.debug("Cancelled {}", description);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * Queues a job then starts as many waiting jobs as there are permits.
+     *
+     * @param job the job to queue
+     */
+    private void submit(Job<?> job) {
+        waiting.add(job);
+        dispatch();
+    }
+
+    /**
+     * Starts as many waiting jobs as there are permits.
+     */
+    private void dispatch() {
+        while (workers.tryAcquire()) {
+            final Job<?> job = waiting.poll();
+            if (job == null) {
+                workers.release();
+                /* a job queued while the permit was held may have missed it */
+                if (waiting.isEmpty()) {
+                    return;
+                }
+            } else {
+                job.holdsPermit.set(true);
+                pool.execute(job);
+            }
+        }
+    }
+
+    /**
+     * A task that holds a permit while it runs within its budget and is
+     * abandoned if it runs out of time.
+     *
+     * @param <T> the type of the task's result
+     */
+    private class Job<T> extends FutureTask<T> {
+
+        private final String description;
+
+        /** the key under which the job is {@link FileContentExtractor#running}, may be {@code null} */
+        private final String key;
+
+        /** if the job holds one of the {@link FileContentExtractor#workers} permits */
+        private final AtomicBoolean holdsPermit = new AtomicBoolean(false);
+
+        Job(String description, String key, Callable<T> task) {
+            super(task);
+            this.description = description;
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            final ScheduledFuture<?> deadline = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    abandon();
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+            try {
+                super.run();
+            } finally {
+                deadline.cancel(false);
+                release();
+            }
+        }
+
+        /**
+         * Gives up on the job if it is still running. Its thread may remain
+         * busy if the task ignores interruption so its permit is released
+         * for another thread to use.
+         */
+        private void abandon() {
+            if (cancel(true)) {
+                log.warn("Gave up {} after {} ms, reindex to retry", description, timeout);
+                release();
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (key != null) {
+                running.remove(key, this);
+            }
+        }
+
+        /**
+         * Releases the job's permit, if it still holds it, and starts the
+         * next waiting job.
+         */
+        private void release() {
+            if (holdsPermit.compareAndSet(true, false)) {
+                workers.release();
+                dispatch();
+            }
+        }
+    }
+
+    /**
+     * Reads parsed text up to the character budget, closing the readers.
+     *
+     * @param parsed the text as parsed
+     * @return the text
+     */
+    private String read(Iterable<Reader> parsed) throws IOException {
+        final StringBuilder text = new StringBuilder();
+        final char[] buffer = new char[8192];
+        for (final Reader reader : parsed) {
+            try {
+                int count;
+                while (text.length() < maxLength &&
+                        (count = reader.read(buffer, 0, Math.min(buffer.length, maxLength - text.length()))) >= 0) {
+                    text.append(buffer, 0, count);
+                }
+            } finally {
+                reader.close();
+            }
+            if (text.length() >= maxLength) {
+                log.info("Truncated text of file at {} characters", maxLength);
+                break;
+            }
+            /* keep words of consecutive chunks apart */
+            text.append(' ');
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return the key under which to cache the text of the file, or
+     *         {@code null} if its text is not to be cached
+     */
+    private static String cacheKey(OriginalFile file, FileParser parser) {
+        if (file == null || file.getHash() == null || file.getSize() == null) {
+            return null;
+        }
+        return parser.getClass().getName() + ":" + file.getSize() + ":" + file.getHash();
+    }
+}
@@ -169,7 +169,8 @@ public class FullTextBridge extends BridgeHelper {
         if (object instanceof ILink) {
             ILink link = (ILink) object;
             if (link.getChild() instanceof Annotation) {
-                reindex(link.getParent());
+                // many links may share a parent, e.g. on bulk tagging
+                reindexLater(link.getParent());
             }
         }
         if (object instanceof IAnnotated) {
@@ -335,6 +336,7 @@ public class FullTextBridge extends BridgeHelper {
                     if (bridge instanceof BridgeHelper) {
                         BridgeHelper helper = (BridgeHelper) bridge;
                         helper.setApplicationEventPublisher(publisher);
+                        helper.setFileContentExtractor(extractor);
                     }
                     bridge.set(name, object, document, opts);
                 } catch (Exception e) {
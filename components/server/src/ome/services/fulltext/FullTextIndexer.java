@@ -20,6 +20,14 @@
 package ome.services.fulltext;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import ome.model.IAnnotated;
 import ome.model.IGlobal;
 import ome.model.IMutable;
@@ -50,6 +58,8 @@ import org.springframework.context.ApplicationContextAware;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.google.common.collect.Iterables;
+
 /**
  * Simple action which can be done in an asynchronous thread in order to index
  * Hibernate entities. Attempts to index each {@link EventLog} passed from the
@@ -68,6 +78,11 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
      */
     public final static int DEFAULT_REPORTING_LOOPS = 100;
 
+    /**
+     * Most objects of a batch to load with each query.
+     */
+    private final static int PREFETCH_BATCH = 1000;
+
     abstract class Action {
         Class type;
         long id;
@@ -263,6 +278,9 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
 
         int count = 0;
 
+        // Take the whole batch first so that its objects can be loaded
+        // together rather than one query each.
+        final List<EventLog> eventLogs = new ArrayList<EventLog>();
         for (EventLog eventLog : loader) {
 
             if (dryRun) {
@@ -270,27 +288,58 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
             }
 
             if (eventLog != null) {
-                handleEventLog(session, eventLog);
-                count++;
+                eventLogs.add(eventLog);
             }
+        }
+
+        final Map<Class, Map<Long, IObject>> prefetched = prefetch(session, eventLogs);
+        final Set<String> indexed = new HashSet<String>();
+        for (EventLog eventLog : eventLogs) {
+            handleEventLog(session, eventLog, prefetched, indexed);
+            count++;
             session.flush();
             parserSession.closeParsedFiles();
-
         }
         return count;
     }
 
     protected void handleEventLog(FullTextSession session, EventLog eventLog) {
+        handleEventLog(session, eventLog,
+                Collections.<Class, Map<Long, IObject>>emptyMap(),
+                new HashSet<String>());
+    }
+
+    /**
+     * Indexes or purges the object of the given {@link EventLog}.
+     *
+     * @param prefetched objects already loaded for the batch, by class and id
+     * @param indexed the objects already indexed in this batch, as class:id,
+     * which are not indexed again
+     */
+    protected void handleEventLog(FullTextSession session, EventLog eventLog,
+            Map<Class, Map<Long, IObject>> prefetched, Set<String> indexed) {
         String act = eventLog.getAction();
         Class type = asClassOrNull(eventLog.getEntityType());
         if (type != null) {
             long id = eventLog.getEntityId();
+            final String key = type.getName() + ":" + id;
 
             Action action = null;
             if ("DELETE".equals(act)) {
+                indexed.remove(key);
                 action = new Purge(type, id);
             } else if ("REINDEX".equals(act) || "UPDATE".equals(act) || "INSERT".equals(act)) {
-                IObject obj = get(session, type, id);
+                if (indexed.contains(key)) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(String.format("Already indexed in this batch: %s", key));
+                    }
+                    return;
+                }
+                final Map<Long, IObject> ofType = prefetched.get(type);
+                IObject obj = ofType == null ? null : ofType.get(id);
+                if (obj == null) {
+                    obj = get(session, type, id);
+                }
                 if (obj == null) {
                     // This object was deleted before the indexer caught up with
                     // the INSERT/UDPDATE log. Though this isn't a problem itself,
@@ -300,6 +349,7 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
                             .getName(), id, eventLog));
                     action = new Purge(type, id);
                 } else {
+                    indexed.add(key);
                     action = new Index(obj);
                 }
             } else {
@@ -355,7 +405,63 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
         }
     }
 
+    /**
+     * Loads, per class, the objects that the given {@link EventLog}s are to
+     * index, with their annotations, rather than by a query per object.
+     *
+     * @return the objects loaded, by class and id
+     */
+    protected Map<Class, Map<Long, IObject>> prefetch(Session session,
+            List<EventLog> eventLogs) {
+        final Map<Class, Set<Long>> idsByType = new HashMap<Class, Set<Long>>();
+        for (EventLog eventLog : eventLogs) {
+            final String act = eventLog.getAction();
+            if ("REINDEX".equals(act) || "UPDATE".equals(act) || "INSERT".equals(act)) {
+                final Class type = asClassOrNull(eventLog.getEntityType());
+                if (type != null) {
+                    Set<Long> ids = idsByType.get(type);
+                    if (ids == null) {
+                        ids = new HashSet<Long>();
+                        idsByType.put(type, ids);
+                    }
+                    ids.add(eventLog.getEntityId());
+                }
+            }
+        }
+
+        final Map<Class, Map<Long, IObject>> prefetched = new HashMap<Class, Map<Long, IObject>>();
+        for (Map.Entry<Class, Set<Long>> entry : idsByType.entrySet()) {
+            final Class type = entry.getKey();
+            if (entry.getValue().size() < 2) {
+                continue;
+            }
+            final Map<Long, IObject> objects = new HashMap<Long, IObject>();
+            for (List<Long> ids : Iterables.partition(entry.getValue(), PREFETCH_BATCH)) {
+                final QueryBuilder qb = query(type);
+                qb.where().and("this.id in (:ids)");
+                qb.paramList("ids", ids);
+                for (Object obj : qb.query(session).list()) {
+                    objects.put(((IObject) obj).getId(), (IObject) obj);
+                }
+            }
+            prefetched.put(type, objects);
+        }
+        return prefetched;
+    }
+
     protected IObject get(Session session, Class type, long id) {
+        QueryBuilder qb = query(type);
+        qb.where().and("this.id = :id");
+        qb.param("id", id);
+
+        return (IObject) qb.query(session).uniqueResult();
+    }
+
+    /**
+     * @return a query for objects of the given class, fetching what will be
+     * indexed with them, to which the restriction on id is to be added
+     */
+    private QueryBuilder query(Class type) {
         QueryBuilder qb = new QueryBuilder();
         qb.select("this").from(type.getName(), "this");
         if (IAnnotated.class.isAssignableFrom(type)) {
@@ -372,9 +478,6 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
             qb.join("this.details.owner", "owner", false, true);
             qb.join("this.details.group", "group", false, true);
         }
-        qb.where().and("this.id = :id");
-        qb.param("id", id);
-
-        return (IObject) qb.query(session).uniqueResult();
+        return qb;
     }
 }
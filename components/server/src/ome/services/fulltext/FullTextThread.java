@@ -163,7 +163,14 @@ public class FullTextThread extends ExecutionThread {
                 this.executor.execute(callContext, getPrincipal(), PREPARE_INDEXING);
                 this.executor.execute(callContext, getPrincipal(), work);
             } finally {
-                DetailsFieldBridge.unlock();
+                try {
+                    final int reindexed = this.bridge.flushReindex();
+                    if (reindexed > 0) {
+                        log.debug("Requested reindexing of {} objects", reindexed);
+                    }
+                } finally {
+                    DetailsFieldBridge.unlock();
+                }
             }
         } else {
             log.info("Currently running; skipping");
@@ -35,17 +35,25 @@ public class ParserSession implements ApplicationListener {
         openFiles = new HashSet<ParserOpenFileMessage>();
     }
 
+    /**
+     * Files may be opened by the workers of a {@link FileContentExtractor}
+     * while the indexer closes those already parsed.
+     */
     public void onApplicationEvent(ApplicationEvent event) {
         if (event instanceof ParserOpenFileMessage) {
-            openFiles.add((ParserOpenFileMessage)event);
+            synchronized (openFiles) {
+                openFiles.add((ParserOpenFileMessage)event);
+            }
         }
     }
 
     public void closeParsedFiles() {
-        for (ParserOpenFileMessage file : openFiles) {
-            log.debug("Closing file: " + file);
-            file.close();
+        synchronized (openFiles) {
+            for (ParserOpenFileMessage file : openFiles) {
+                log.debug("Closing file: " + file);
+                file.close();
+            }
+            openFiles.clear();
         }
-        openFiles.clear();
     }
 }
@@ -9,7 +9,10 @@ package ome.services.fulltext.bridges;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import ome.io.nio.OriginalFilesService;
 import ome.model.IAnnotated;
@@ -156,22 +159,52 @@ public class TablesBridge extends BridgeHelper {
     }
 
     /**
-     * Process a single OMERO.tables file. This method is primarily responsible
+     * Process a single OMERO.tables file. If a
+     * {@link ome.services.fulltext.FileContentExtractor FileContentExtractor}
+     * is set, the file is scanned on one of its workers within its time
+     * budget, otherwise on this thread. The results are only applied, by
+     * {@link RowProcessor#finish()}, if the whole table was scanned.
+     */
+    protected void handleHdf5(final String path, final RowProcessor proc) {
+        final boolean scanned;
+        if (extractor == null) {
+            scanned = scanHdf5(path, proc);
+        } else {
+            scanned = Boolean.TRUE.equals(extractor.run("scanning table " + path,
+                    new Callable<Boolean>() {
+                        public Boolean call() {
+                            return scanHdf5(path, proc);
+                        }
+                    }));
+        }
+        if (scanned) {
+            proc.finish();
+        }
+    }
+
+    /**
+     * Scan a single OMERO.tables file. This method is primarily responsible
      * for iteration and the try/finally logic to guarantee cleanup, etc.
+     *
+     * @return if the table was scanned
      */
-    protected void handleHdf5(String path, RowProcessor proc) {
+    protected boolean scanHdf5(String path, RowProcessor proc) {
         NetcdfFile ncfile = null;
         try {
             ncfile = NetcdfFile.open(path);
             Table table = new Table(ncfile);
             if (!proc.initialize(table)) {
                 debug("Skipping %s", path);
-                return;
+                return false;
             }
 
             debug("Handling %s with %s rows", path, table.rows);
             StructureData sData = null;
             for (int x = 0; x < table.rows; x++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    debug("Interrupted scanning %s", path);
+                    return false;
+                }
                 // ////////////a/////////////////////////////
                 sData = (StructureData) table.structure.getObject(x);
                 if (!proc.processRow(x, sData)) {
@@ -179,9 +212,11 @@ public class TablesBridge extends BridgeHelper {
                 }
                 // //////////////////////////////////////////
             }
+            return true;
 
         } catch (IOException ioe) {
             log.error("trying to open " + path, ioe);
+            return false;
         } finally {
             if (null != ncfile) {
                 try {
@@ -222,6 +257,12 @@ public class TablesBridge extends BridgeHelper {
         }
 
         public abstract boolean processRow(int row, StructureData sData);
+
+        /**
+         * Applies the results of the rows processed. Called on the indexing
+         * thread once the table has been scanned.
+         */
+        public abstract void finish();
         
         protected long getLong(Array array) {
             Index index = array.getIndex();
@@ -246,6 +287,7 @@ public class TablesBridge extends BridgeHelper {
         final IObject object;
         final Document document;
         final LuceneOptions opts;
+        final List<String[]> fields = new ArrayList<String[]>();
 
         AttachRow(IObject object, Document document, LuceneOptions opts) {
             this.object = object;
@@ -272,24 +314,37 @@ public class TablesBridge extends BridgeHelper {
                 final String name = member.getName();
                 final Array array = sData.getArray(member);
                 final String str = getObject(array).toString();
-                trace("Add %s:%s to %s", name, str, object);
-                add(document, name, str, opts);
+                fields.add(new String[] {name, str});
             }
             return true;
         }
 
+        public void finish() {
+            for (String[] field : fields) {
+                trace("Add %s:%s to %s", field[0], field[1], object);
+                add(document, field[0], field[1], opts);
+            }
+        }
+
     }
 
     class RegisterRow extends RowProcessor {
+        final Set<Long> targetIds = new LinkedHashSet<Long>();
+
         public boolean processRow(int row, StructureData sData) {
             List<Member> members = sData.getMembers();
             Array targetArray = sData.getArray(members.get(targetCol));
-            long targetId = getLong(targetArray);
-            // Object reused since the id is copied in EventLogLoader
-            targetType.setId(targetId);
-            reindex(targetType);
+            targetIds.add(getLong(targetArray));
             return true;
         }
+
+        public void finish() {
+            for (Long targetId : targetIds) {
+                // Object reused since the id is copied in EventLogLoader
+                targetType.setId(targetId);
+                reindex(targetType);
+            }
+        }
     }
 
     // //////////////////////////////////////////////////////////////////////////
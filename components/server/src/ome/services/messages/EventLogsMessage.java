@@ -8,6 +8,7 @@ package ome.services.messages;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 import ome.model.meta.EventLog;
 import ome.util.messages.InternalMessage;
@@ -38,4 +39,11 @@ public class EventLogsMessage extends InternalMessage {
         }
         return rv;
     }
+
+    /**
+     * @return the names of the entity types for which logs will be saved
+     */
+    public Set<String> getEntityTypes() {
+        return logs.keySet();
+    }
 }
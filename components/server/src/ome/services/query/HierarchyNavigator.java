@@ -19,6 +19,7 @@
 
 package ome.services.query;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -35,6 +36,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
+import com.google.common.primitives.Longs;
 
 import ome.api.IQuery;
 import ome.parameters.Parameters;
@@ -49,9 +51,12 @@ public class HierarchyNavigator {
     /* This class and {@link HierarchyNavigatorWrap} are designed to make it easy to adjust the Java types
      * via which the model object hierarchy is navigated, and to make the HQL queries efficient
      * (batching, caching), at the small expense of constructing instances of simple Java objects.
-     * The methods are not public to avoid polluting users of subclasses of {@link HierarchyNavigatorWrap}.
+     * The navigation methods are not public to avoid polluting users of subclasses of {@link HierarchyNavigatorWrap}.
      */
 
+    /** how many query object IDs to include in each query of {@link #doBulkQuery(String, String, long[])} */
+    private static final int BULK_BATCH_SIZE = 1024;
+
     /** HQL queries to map from ID of first target type to that of the second */
     private static final ImmutableMap<Map.Entry<String, String>, String> hqlFromTo;
 
@@ -91,6 +96,50 @@ public class HierarchyNavigator {
         hqlFromTo = builder.build();
     }
 
+    /**
+     * Pairs of related object IDs, sorted by the query object's ID then by the related object's ID,
+     * held in primitive arrays so that large relations may be merge-joined without boxing.
+     */
+    public static class RelatedIds {
+        private final long[] fromIds;
+        private final long[] toIds;
+
+        private RelatedIds(long[] fromIds, long[] toIds) {
+            this.fromIds = fromIds;
+            this.toIds = toIds;
+        }
+
+        /**
+         * @return the number of pairs
+         */
+        public int size() {
+            return fromIds.length;
+        }
+
+        /**
+         * @param index the index of a pair
+         * @return the query object's ID from that pair
+         */
+        public long getFromId(int index) {
+            return fromIds[index];
+        }
+
+        /**
+         * @param index the index of a pair
+         * @return the related object's ID from that pair
+         */
+        public long getToId(int index) {
+            return toIds[index];
+        }
+
+        /**
+         * @return the distinct IDs of the related objects from all the pairs, sorted
+         */
+        public long[] getToIds() {
+            return toSortedIds(toIds);
+        }
+    }
+
     /** available query service */
     protected final IQuery iQuery;
 
@@ -180,4 +229,151 @@ public class HierarchyNavigator {
             return result;
         }
     }
+
+    /**
+     * Query the database in bulk for all the objects of a given type that relate to any of the given query objects.
+     * Bypasses the cache used by {@link #doLookup(String, String, Long)} so is suited to very many query objects.
+     * @param toType the type of the objects to which the query objects may be related, not <code>null</code>
+     * @param fromType the query objects' type, not <code>null</code>
+     * @param fromIds the query objects' database IDs, sorted and distinct as from {@link #toSortedIds(Collection)}
+     * @return the related pairs of database IDs
+     */
+    protected RelatedIds doBulkQuery(String toType, String fromType, long[] fromIds) {
+        /* collect the pairs, counting those for each query object */
+        long[] pairFromIds = new long[Math.max(16, fromIds.length)];
+        long[] pairToIds = new long[pairFromIds.length];
+        final int[] counts = new int[fromIds.length + 1];
+        int size = 0;
+        for (int batchStart = 0; batchStart < fromIds.length; batchStart += BULK_BATCH_SIZE) {
+            final int batchEnd = Math.min(fromIds.length, batchStart + BULK_BATCH_SIZE);
+            final List<Long> batch = Longs.asList(fromIds).subList(batchStart, batchEnd);
+            for (final Object[] queryResult : doQuery(toType, fromType, batch)) {
+                if (size == pairFromIds.length) {
+                    pairFromIds = Arrays.copyOf(pairFromIds, size << 1);
+                    pairToIds = Arrays.copyOf(pairToIds, size << 1);
+                }
+                pairFromIds[size] = (Long) queryResult[0];
+                pairToIds[size] = (Long) queryResult[1];
+                counts[Arrays.binarySearch(fromIds, pairFromIds[size]) + 1]++;
+                size++;
+            }
+        }
+        /* counting sort by query object */
+        for (int index = 1; index < counts.length; index++) {
+            counts[index] += counts[index - 1];
+        }
+        final int[] offsets = Arrays.copyOf(counts, fromIds.length);
+        final long[] sortedToIds = new long[size];
+        for (int index = 0; index < size; index++) {
+            sortedToIds[offsets[Arrays.binarySearch(fromIds, pairFromIds[index])]++] = pairToIds[index];
+        }
+        /* sort and deduplicate the related objects of each query object */
+        final long[] resultFromIds = new long[size];
+        final long[] resultToIds = new long[size];
+        int resultSize = 0;
+        for (int fromIndex = 0; fromIndex < fromIds.length; fromIndex++) {
+            final int start = counts[fromIndex];
+            final int end = counts[fromIndex + 1];
+            Arrays.sort(sortedToIds, start, end);
+            for (int index = start; index < end; index++) {
+                if (index == start || sortedToIds[index] != sortedToIds[index - 1]) {
+                    resultFromIds[resultSize] = fromIds[fromIndex];
+                    resultToIds[resultSize] = sortedToIds[index];
+                    resultSize++;
+                }
+            }
+        }
+        return new RelatedIds(Arrays.copyOf(resultFromIds, resultSize), Arrays.copyOf(resultToIds, resultSize));
+    }
+
+    /**
+     * Look up in bulk which objects of a given type relate to any of the given query objects.
+     * @param toType the type of the objects to which the query objects may be related, not <code>null</code>
+     * @param fromType the query objects' type, not <code>null</code>
+     * @param fromIds the query objects' database IDs, sorted and distinct as from {@link #toSortedIds(Collection)}
+     * @return the related objects' database IDs, sorted and distinct
+     */
+    protected long[] doBulkLookup(String toType, String fromType, long[] fromIds) {
+        if (fromIds.length == 0) {
+            return fromIds;
+        }
+        return doBulkQuery(toType, fromType, fromIds).getToIds();
+    }
+
+    /**
+     * @param ids some database IDs, none <code>null</code>
+     * @return the IDs, sorted and distinct
+     */
+    public static long[] toSortedIds(Collection<Long> ids) {
+        return toSortedIds(Longs.toArray(ids));
+    }
+
+    /**
+     * @param ids some database IDs, not modified by this method
+     * @return the IDs, sorted and distinct
+     */
+    private static long[] toSortedIds(long[] ids) {
+        final long[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        int size = 0;
+        for (int index = 0; index < sorted.length; index++) {
+            if (index == 0 || sorted[index] != sorted[index - 1]) {
+                sorted[size++] = sorted[index];
+            }
+        }
+        return size == sorted.length ? sorted : Arrays.copyOf(sorted, size);
+    }
+
+    /**
+     * Merge two sets of IDs.
+     * @param ids1 some IDs, sorted and distinct
+     * @param ids2 some IDs, sorted and distinct
+     * @return the IDs that are in either set, sorted and distinct
+     */
+    public static long[] union(long[] ids1, long[] ids2) {
+        final long[] union = new long[ids1.length + ids2.length];
+        int index1 = 0, index2 = 0, size = 0;
+        while (index1 < ids1.length && index2 < ids2.length) {
+            final long id1 = ids1[index1], id2 = ids2[index2];
+            if (id1 <= id2) {
+                index1++;
+                if (id1 == id2) {
+                    index2++;
+                }
+                union[size++] = id1;
+            } else {
+                index2++;
+                union[size++] = id2;
+            }
+        }
+        while (index1 < ids1.length) {
+            union[size++] = ids1[index1++];
+        }
+        while (index2 < ids2.length) {
+            union[size++] = ids2[index2++];
+        }
+        return size == union.length ? union : Arrays.copyOf(union, size);
+    }
+
+    /**
+     * Subtract one set of IDs from another.
+     * @param ids1 some IDs, sorted and distinct
+     * @param ids2 some IDs, sorted and distinct
+     * @return the IDs that are in the first set but not the second, sorted and distinct
+     */
+    public static long[] difference(long[] ids1, long[] ids2) {
+        final long[] difference = new long[ids1.length];
+        int index1 = 0, index2 = 0, size = 0;
+        while (index1 < ids1.length) {
+            final long id1 = ids1[index1];
+            while (index2 < ids2.length && ids2[index2] < id1) {
+                index2++;
+            }
+            if (index2 == ids2.length || ids2[index2] != id1) {
+                difference[size++] = id1;
+            }
+            index1++;
+        }
+        return size == difference.length ? difference : Arrays.copyOf(difference, size);
+    }
 }
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.scripts;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the hash of each script file along with the size and modification
+ * time of the file when it was hashed, so that unchanged scripts need not be
+ * rehashed. The manifest may be persisted to a file so that it survives
+ * restarts; if that file cannot be read or written then the manifest is simply
+ * rebuilt in memory.
+ * <p>
+ * As with any modification time check, a file that is changed within the
+ * timestamp granularity of the file system could keep its size and time. So,
+ * a hash is trusted only if the file was last modified well before it was
+ * hashed. Instances are thread-safe.
+ * </p>
+ *
+ * @since 5.5.0
+ */
+public class ScriptManifest {
+
+    /**
+     * Name of the file, hidden from the script repository, in which the
+     * manifest is persisted.
+     */
+    public final static String MANIFEST_NAME = ".omero-script-manifest";
+
+    /**
+     * How long, in milliseconds, after its last modification a file must have
+     * been hashed for its hash to be trusted while it remains unchanged.
+     */
+    final static long RACY_INTERVAL = 2000;
+
+    private final static Logger log = LoggerFactory.getLogger(ScriptManifest.class);
+
+    /**
+     * The state of a file when it was hashed. Immutable.
+     */
+    private static class Entry {
+        final long size;
+        final long lastModified;
+        final long hashedAt;
+        final String hash;
+
+        Entry(long size, long lastModified, long hashedAt, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hashedAt = hashedAt;
+            this.hash = hash;
+        }
+
+        /**
+         * @param file a file
+         * @return if this entry's hash may be trusted for the file
+         */
+        boolean isValidFor(File file) {
+            return size == file.length() && lastModified == file.lastModified() &&
+                    lastModified + RACY_INTERVAL < hashedAt;
+        }
+    }
+
+    /* entries by full name of the file relative to the repository root */
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    private final File persisted;
+
+    private boolean isDirty = false;
+
+    private boolean isLoaded = false;
+
+    /**
+     * @param persisted the file in which the manifest is persisted, may be {@code null} to keep it only in memory
+     */
+    public ScriptManifest(File persisted) {
+        this.persisted = persisted;
+    }
+
+    /**
+     * Get the hash of the given file, computing it only if the file has
+     * changed since the hash was last computed.
+     * @param repoFile a file in the repository
+     * @return the file's hash
+     */
+    public String getHash(RepoFile repoFile) {
+        final String path = repoFile.fullname();
+        final File file = repoFile.file();
+        synchronized (this) {
+            load();
+            final Entry entry = entries.get(path);
+            if (entry != null && entry.isValidFor(file)) {
+                return entry.hash;
+            }
+        }
+        /* note the file's state before hashing it so that a concurrent change is detected next time */
+        final long size = file.length();
+        final long lastModified = file.lastModified();
+        final long hashedAt = System.currentTimeMillis();
+        final String hash = repoFile.hash();
+        synchronized (this) {
+            entries.put(path, new Entry(size, lastModified, hashedAt, hash));
+            isDirty = true;
+        }
+        return hash;
+    }
+
+    /**
+     * Forget the hash of the given file.
+     * @param path the full name of a file relative to the repository root
+     */
+    public synchronized void invalidate(String path) {
+        load();
+        if (entries.remove(path) != null) {
+            isDirty = true;
+        }
+    }
+
+    /**
+     * Forget the hashes of all but the given files.
+     * @param paths the full names of files relative to the repository root
+     */
+    public synchronized void retainOnly(Collection<String> paths) {
+        load();
+        if (entries.keySet().retainAll(paths)) {
+            isDirty = true;
+        }
+    }
+
+    /**
+     * @return the number of files whose hashes are known
+     */
+    public synchronized int size() {
+        load();
+        return entries.size();
+    }
+
+    /**
+     * Read the persisted manifest, if not already read.
+     */
+    private void load() {
+        if (isLoaded) {
+            return;
+        }
+        isLoaded = true;
+        if (persisted == null || !persisted.isFile()) {
+            return;
+        }
+        try (final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(persisted), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                /* the path is last as it is the only field that may contain a tab */
+                final String[] fields = line.split("\t", 5);
+                if (fields.length == 5) {
+                    entries.put(fields[4], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2]), fields[3]));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.warn("Ignoring unreadable script manifest {}", persisted, e);
+            entries.clear();
+        }
+    }
+
+    /**
+     * Persist the manifest if it has changed since it was loaded or last saved.
+     * Failure to persist the manifest is logged but otherwise ignored.
+     */
+    public synchronized void save() {
+        if (persisted == null || !isDirty) {
+            return;
+        }
+        final File temporary = new File(persisted.getParentFile(), persisted.getName() + ".tmp");
+        try {
+            try (final Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8))) {
+                for (final Map.Entry<String, Entry> pathEntry : entries.entrySet()) {
+                    final Entry entry = pathEntry.getValue();
+                    writer.write(entry.size + "\t" + entry.lastModified + "\t" + entry.hashedAt + "\t" +
+                            entry.hash + "\t" + pathEntry.getKey() + "\n");
+                }
+            }
+            if (!temporary.renameTo(persisted)) {
+                throw new IOException("could not rename " + temporary);
+            }
+            isDirty = false;
+        } catch (IOException e) {
+            log.debug("Could not persist script manifest {}", persisted, e);
+            temporary.delete();
+        }
+    }
+}
@@ -8,8 +8,19 @@ package ome.services.scripts;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -17,6 +28,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import ome.api.local.LocalAdmin;
 import ome.conditions.InternalException;
@@ -109,6 +121,25 @@ public class ScriptRepoHelper extends OnContextRefreshedEventListener {
 
     private final String fileRepoSecretKey;
 
+    /**
+     * The hashes of the scripts on disk, so that only changed scripts need be
+     * rehashed.
+     */
+    private final ScriptManifest manifest;
+
+    /**
+     * The thread watching {@link #dir} for changes to scripts, if started by
+     * {@link #checkForScriptUpdates()}.
+     */
+    private Thread watcher = null;
+
+    /**
+     * Held while scripts are written and registered and while changes to
+     * scripts are registered, so that the {@link #watcher} neither reads a
+     * script that is still being written nor registers it a second time.
+     */
+    private final Object registration = new Object();
+
     /**
      * {@link IOFileFilter} set on {@link #handleContextRefreshedEvent(ContextRefreshedEvent).
      */
@@ -179,6 +210,7 @@ public class ScriptRepoHelper extends OnContextRefreshedEventListener {
         this.fileRepoSecretKey = sessionUuid;
         this.p = p;
         this.readOnly = readOnly;
+        this.manifest = new ScriptManifest(new File(this.dir, ScriptManifest.MANIFEST_NAME));
     }
 
     /**
@@ -210,7 +242,9 @@ public class ScriptRepoHelper extends OnContextRefreshedEventListener {
     }
 
     /**
-     * Check for updates to scripts, modifying database accordingly.
+     * Check for updates to scripts, modifying database accordingly, then
+     * start watching the repository so that later changes to scripts are
+     * registered as they occur.
      * Called when Blitz is configured.
      */
     public void checkForScriptUpdates() {
@@ -219,6 +253,147 @@ public class ScriptRepoHelper extends OnContextRefreshedEventListener {
             loadAll(true);
         } catch (RemovedSessionException rse) {
             log.error("Script failure!!! RemovedSession on startup: are we testing?");
+            return;
+        }
+        startWatching();
+    }
+
+    /**
+     * Start a daemon thread that watches the repository for changes and
+     * registers each changed script in the database. Does nothing if already
+     * watching or if the database is read-only.
+     */
+    public synchronized void startWatching() {
+        if (watcher != null || readOnly.isReadOnlyDb()) {
+            return;
+        }
+        final WatchService watchService;
+        try {
+            watchService = dir.toPath().getFileSystem().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn("Cannot watch {} for changes to scripts", dir, e);
+            return;
+        }
+        watcher = new Thread(new Watcher(watchService), "ScriptRepoWatcher-" + uuid);
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Stop watching the repository for changes.
+     */
+    public synchronized void stopWatching() {
+        if (watcher != null) {
+            watcher.interrupt();
+            watcher = null;
+        }
+    }
+
+    /**
+     * Watches the repository directory tree and passes batches of changed
+     * paths to {@link ScriptRepoHelper#loadChanged(Collection)}.
+     */
+    private class Watcher implements Runnable {
+
+        /** How long to wait, in milliseconds, for further changes before processing a batch. */
+        private static final long SETTLE_TIME = 500;
+
+        private final WatchService watchService;
+
+        private final Map<WatchKey, Path> watchedDirs = new HashMap<WatchKey, Path>();
+
+        Watcher(WatchService watchService) {
+            this.watchService = watchService;
+        }
+
+        /**
+         * Register the given directory and its subdirectories with the watch service.
+         */
+        private void register(final Path root) throws IOException {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path subdir, BasicFileAttributes attrs) throws IOException {
+                    if (!subdir.equals(root) && subdir.getFileName().toString().startsWith(".")) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    watchedDirs.put(subdir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), subdir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        /**
+         * Note the changes signaled by the given key.
+         * @return if the changes cannot be itemized so the whole repository must be checked
+         */
+        private boolean poll(WatchKey key, Set<Path> changed) throws IOException {
+            boolean isOverflow = false;
+            final Path parent = watchedDirs.get(key);
+            for (final WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || parent == null) {
+                    isOverflow = true;
+                    continue;
+                }
+                final Path child = parent.resolve((Path) event.context());
+                if (child.getFileName().toString().startsWith(".")) {
+                    /* hidden files include the manifest */
+                    continue;
+                }
+                if (Files.isDirectory(child)) {
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                        register(child);
+                        isOverflow = true;
+                    }
+                } else {
+                    changed.add(child);
+                }
+            }
+            if (!key.reset()) {
+                /* a watched directory was deleted, so were the scripts within */
+                watchedDirs.remove(key);
+                isOverflow = true;
+            }
+            return isOverflow;
+        }
+
+        @Override
+        public void run() {
+            try {
+                register(dir.toPath());
+                while (!Thread.currentThread().isInterrupted()) {
+                    final Set<Path> changed = new HashSet<Path>();
+                    boolean isOverflow = poll(watchService.take(), changed);
+                    WatchKey key;
+                    while ((key = watchService.poll(SETTLE_TIME, TimeUnit.MILLISECONDS)) != null) {
+                        isOverflow |= poll(key, changed);
+                    }
+                    try {
+                        if (isOverflow) {
+                            log.debug("checking all scripts for changes");
+                            loadAll(true);
+                        } else {
+                            final List<RepoFile> changedFiles = new ArrayList<RepoFile>(changed.size());
+                            for (final Path path : changed) {
+                                changedFiles.add(new RepoFile(dir, path.toFile()));
+                            }
+                            loadChanged(changedFiles);
+                        }
+                    } catch (RuntimeException re) {
+                        log.warn("failed to register changes to scripts", re);
+                    }
+                }
+            } catch (InterruptedException ie) {
+                /* stop watching */
+            } catch (ClosedWatchServiceException | IOException e) {
+                log.warn("stopped watching {} for changes to scripts", dir, e);
+            } finally {
+                try {
+                    watchService.close();
+                } catch (IOException ioe) {
+                    log.debug("failed to close watch service", ioe);
+                }
+            }
         }
     }
 
@@ -519,9 +694,11 @@ public class ScriptRepoHelper extends OnContextRefreshedEventListener {
             } else {
                 types.add(mimetype);
             }
+            final Set<String> paths = new HashSet<String>();
             while (it.hasNext()) {
                 f = it.next();
                 file = new RepoFile(dir, f);
+                paths.add(file.fullname());
                 Long id = findInDb(sqlAction, file, false); // non-scripts count
                 String hash = null;
                 OriginalFile ofile = null;
@@ -539,7 +716,7 @@ public class ScriptRepoHelper extends OnContextRefreshedEventListener {
                     }
 
                     if (modificationCheck) {
-                        hash = file.hash();
+                        hash = manifest.getHash(file);
                         if (!hash.equals(ofile.getHash())) {
                             if (readOnly.isReadOnlyDb()) {
                                 log.info("read-only database so ignoring modification of script ID {}", id);
@@ -558,13 +735,22 @@ public class ScriptRepoHelper extends OnContextRefreshedEventListener {
             }
             list.addAll(rv);
             removeMissingFilesFromDb(sqlAction, session, list);
+            manifest.retainOnly(paths);
+            manifest.save();
             return rv;
         }
     }
 
-    @SuppressWarnings("unchecked")
     private List<OriginalFile> loadAllScripts(final boolean modificationCheck,
             final String mimetype, final Principal pp) {
+        synchronized (registration) {
+            return loadAllScriptsLocked(modificationCheck, mimetype, pp);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<OriginalFile> loadAllScriptsLocked(final boolean modificationCheck,
+            final String mimetype, final Principal pp) {
         if (readOnly.isReadOnlyDb()) {
             return (List<OriginalFile>) ex.execute(pp, new LoadScripts(this, "LoadScripts (ro)") {
                 @Override
@@ -619,6 +805,61 @@ public class ScriptRepoHelper extends OnContextRefreshedEventListener {
         return loadAll(modificationCheck, null);
     }
 
+    /**
+     * Registers changes to only the given files, rather than walking all files
+     * in the repository as {@link #loadAll(boolean)} does. Each changed file is
+     * rehashed and, if its hash no longer matches the database, replaced as
+     * for {@link #loadAll(boolean)}; files that are new are added and those
+     * that no longer exist are unregistered.
+     *
+     * @param changed the files which may have been added, modified or removed
+     */
+    public void loadChanged(final Collection<RepoFile> changed) {
+        if (changed.isEmpty()) {
+            return;
+        }
+        synchronized (registration) {
+            loadChangedLocked(changed);
+        }
+    }
+
+    private void loadChangedLocked(final Collection<RepoFile> changed) {
+        for (final RepoFile file : changed) {
+            manifest.invalidate(file.fullname());
+        }
+        if (readOnly.isReadOnlyDb()) {
+            log.info("read-only database so ignoring changes to {} scripts", changed.size());
+            return;
+        }
+        ex.execute(p, new Executor.SimpleWork(this, "loadChanged", changed.size()) {
+            @Transactional(readOnly = false)
+            public Object doWork(Session session, ServiceFactory sf) {
+                final SqlAction sqlAction = getSqlAction();
+                for (final RepoFile file : changed) {
+                    final File f = file.file();
+                    if (f.isFile() && scriptFilter.accept(f)) {
+                        final Long id = findInDb(sqlAction, file, false);
+                        if (id == null) {
+                            addOrReplace(session, sqlAction, sf, file, null);
+                        } else {
+                            final OriginalFile ofile = load(id, session, sqlAction, true);
+                            if (ofile != null && !manifest.getHash(file).equals(ofile.getHash())) {
+                                addOrReplace(session, sqlAction, sf, file, id);
+                            }
+                        }
+                    } else {
+                        final Long id = findInDb(sqlAction, file, true);
+                        if (id != null) {
+                            unregister(id, sqlAction);
+                        }
+                    }
+                }
+                return null;
+            }
+        });
+        manifest.save();
+    }
+
     /**
      *
      * @param repoFile
@@ -723,7 +964,7 @@ public class ScriptRepoHelper extends OnContextRefreshedEventListener {
         ofile.setName(fileRepoSecretKey + repoFile.basename());
         ofile.setRepo(uuid);
         ofile.setHasher(hasher);
-        ofile.setHash(repoFile.hash());
+        ofile.setHash(manifest.getHash(repoFile));
         ofile.setSize(repoFile.length());
         ofile.getDetails().setGroup(group);
         setMimetype(ofile);
@@ -747,10 +988,51 @@ public class ScriptRepoHelper extends OnContextRefreshedEventListener {
     }
 
     public RepoFile write(RepoFile repo, String text) throws IOException {
-        FileUtils.writeStringToFile(repo.file(), text); // truncates itself. ticket:2337
+        synchronized (registration) {
+            FileUtils.writeStringToFile(repo.file(), text); // truncates itself. ticket:2337
+            manifest.invalidate(repo.fullname());
+        }
         return repo;
     }
 
+    /**
+     * Writes a script and registers it as a new file, replacing any old file,
+     * as {@link #write(String, String)} then
+     * {@link #addOrReplace(RepoFile, Long)} but without changes to scripts
+     * being registered in between.
+     *
+     * @param path the path of the script within the repository
+     * @param text the content of the script
+     * @param old the file to replace, may be {@code null}
+     * @return the new file
+     * @throws IOException if the script could not be written
+     */
+    public OriginalFile writeAndAdd(String path, String text, Long old) throws IOException {
+        synchronized (registration) {
+            return addOrReplace(write(path, text), old);
+        }
+    }
+
+    /**
+     * Writes a script and updates its registered file, as
+     * {@link #write(String, String)} then
+     * {@link #update(RepoFile, Long, Map)} but without changes to scripts
+     * being registered in between.
+     *
+     * @param path the path of the script within the repository
+     * @param text the content of the script
+     * @param id the ID of the script's file
+     * @param context the call context
+     * @return the updated file
+     * @throws IOException if the script could not be written
+     */
+    public OriginalFile writeAndUpdate(String path, String text, Long id,
+            Map<String,String> context) throws IOException {
+        synchronized (registration) {
+            return update(write(path, text), id, context);
+        }
+    }
+
     public OriginalFile load(final long id, final boolean check) {
         return (OriginalFile) ex.execute(p, new Executor.SimpleWork(this,
                 "load", id) {
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.sessions.stats;
+
+/**
+ * Implementation of {@link SessionStats} which keeps running totals of the
+ * objects loaded and updated by the current thread. The totals are never
+ * reset so that a caller can measure a single invocation, even a nested one,
+ * by taking the difference of the values before and after.
+ * Unlike the other counters no limits are enforced.
+ *
+ * @see ome.services.util.MethodStatistics
+ * @since 5.5.0
+ */
+public class PerCallStats implements SessionStats {
+
+    private final ThreadLocal<long[]> objects = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+
+    public void methodIn() {
+        // nothing
+    }
+
+    public long methodCount() {
+        return 0;
+    }
+
+    public void methodOut() {
+        // nothing
+    }
+
+    public void loadedObjects(int count) {
+        objects.get()[0] += count;
+    }
+
+    public void readBytes(int bytes) {
+        // nothing
+    }
+
+    public void updatedObjects(int count) {
+        objects.get()[1] += count;
+    }
+
+    public void writtenBytes(int bytes) {
+        // nothing
+    }
+
+    /**
+     * @return the number of objects loaded by the current thread so far
+     */
+    public long getObjectsRead() {
+        return objects.get()[0];
+    }
+
+    /**
+     * @return the number of objects updated by the current thread so far
+     */
+    public long getObjectsWritten() {
+        return objects.get()[1];
+    }
+}
@@ -10,11 +10,14 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 import ome.api.IShare;
@@ -64,6 +67,11 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.dao.EmptyResultDataAccessException;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
 /**
  * Implements {@link ShareStore} and provides functionality to work with binary
  * Ice data from the share. Also provides methods for verification if metadata
@@ -76,6 +84,53 @@ import org.springframework.dao.EmptyResultDataAccessException;
 public class BlobShareStore extends ShareStore implements
         ApplicationContextAware {
 
+    /** The maximum number of shares whose {@link ShareIndex} is cached. */
+    private static final long INDEX_CACHE_SIZE = 1000;
+
+    /** How many image IDs to query for reachable objects at once. */
+    private static final int IMAGE_BATCH_SIZE = 1000;
+
+    /**
+     * Queries for the IDs of the objects of each type that are reachable from
+     * the images in <code>:images</code>. The types are matched in order by
+     * {@link Class#isAssignableFrom(Class)} as in
+     * {@link #doContains(ShareData, Class, long)}.
+     */
+    private static final Map<Class<? extends IObject>, String> REACHABLE_QUERIES;
+
+    /**
+     * Types whose reachable objects are all created along with the image so
+     * need no per-object check after compilation of the index.
+     */
+    private static final Set<Class<? extends IObject>> FIXED_AT_IMPORT =
+            ImmutableSet.<Class<? extends IObject>>of(Pixels.class, Channel.class, PlaneInfo.class);
+
+    static {
+        final String pixels = "pixels.image.id IN (:images)";
+        final String instruments = "instrument.id IN (SELECT instrument.id FROM Image WHERE id IN (:images))";
+        final Map<Class<? extends IObject>, String> queries = new LinkedHashMap<Class<? extends IObject>, String>();
+        queries.put(Pixels.class, "SELECT id FROM Pixels WHERE image.id IN (:images)");
+        queries.put(RenderingDef.class, "SELECT id FROM RenderingDef WHERE " + pixels);
+        queries.put(ChannelBinding.class, "SELECT id FROM ChannelBinding WHERE renderingDef." + pixels);
+        queries.put(CodomainMapContext.class,
+                "SELECT id FROM CodomainMapContext WHERE channelBinding.renderingDef." + pixels);
+        queries.put(Thumbnail.class, "SELECT id FROM Thumbnail WHERE " + pixels);
+        queries.put(Channel.class, "SELECT id FROM Channel WHERE " + pixels);
+        queries.put(LogicalChannel.class, "SELECT logicalChannel.id FROM Channel WHERE " + pixels);
+        queries.put(PlaneInfo.class, "SELECT id FROM PlaneInfo WHERE " + pixels);
+        queries.put(ObjectiveSettings.class, "SELECT objectiveSettings.id FROM Image WHERE id IN (:images)");
+        queries.put(Objective.class, "SELECT id FROM Objective WHERE " + instruments);
+        queries.put(Detector.class, "SELECT id FROM Detector WHERE " + instruments);
+        queries.put(Dichroic.class, "SELECT id FROM Dichroic WHERE " + instruments);
+        queries.put(FilterSet.class, "SELECT id FROM FilterSet WHERE " + instruments);
+        queries.put(Filter.class, "SELECT id FROM Filter WHERE " + instruments);
+        queries.put(LightSource.class, "SELECT id FROM LightSource WHERE " + instruments);
+        queries.put(LightSettings.class, "SELECT id FROM LightSettings WHERE lightSource." + instruments);
+        queries.put(DetectorSettings.class, "SELECT id FROM DetectorSettings WHERE detector." + instruments
+                + " OR id IN (SELECT logicalChannel.detectorSettings.id FROM Channel WHERE " + pixels + ")");
+        REACHABLE_QUERIES = Collections.unmodifiableMap(queries);
+    }
+
     /**
      * Used <em>indirectly</em> to obtain sessions for querying and updating the
      * store during normal operation. Due to this classes late initialization,
@@ -91,6 +146,13 @@ public class BlobShareStore extends ShareStore implements
 
     protected Map<Long, List<Long>> obToImageCache = new HashMap<Long, List<Long>>();
 
+    /**
+     * The compiled index of each recently checked share, replaced when the
+     * share's version changes.
+     */
+    protected final Cache<Long, ShareIndex> indexCache =
+            CacheBuilder.newBuilder().maximumSize(INDEX_CACHE_SIZE).build();
+
     /**
      * Because there is a cyclic dependency (SF->ACLVoter->BlobStore->SF), we
      * have to lazy-load the session factory via the context.
@@ -149,6 +211,7 @@ public class BlobShareStore extends ShareStore implements
         share.setVersion((int) newOptLock);
         session.merge(share);
         synchronizeMembers(session, data);
+        indexCache.invalidate(data.id);
     }
 
     @Override
@@ -264,14 +327,107 @@ public class BlobShareStore extends ShareStore implements
         return CollectionUtils.containsAny(images, imgIDs);
     }
 
+    /**
+     * Uses the share's {@link ShareIndex}, compiling the reachable objects of
+     * the given type with one query for all the share's images. Only for types
+     * whose objects may be created after the image is it necessary to fall
+     * back to {@link #doContains(ShareData, Class, long)} if the object is not
+     * already in the index.
+     */
     @Override
     public <T extends IObject> boolean doContains(long sessionId, Class<T> kls,
             long objId) {
-        ShareData data = get(sessionId);
-        if (data == null) {
+        final ShareIndex index = getIndex(sessionId);
+        if (index == null) {
+            return false;
+        }
+        if (index.isShared(kls.getName(), objId) || isUnchecked(kls)) {
+            return true;
+        }
+        final Class<? extends IObject> type = getReachableType(kls);
+        if (type == null) {
+            return false;
+        }
+        if (!index.isCompiled(type)) {
+            index.compile(type, queryReachable(type, index.getImageIds()));
+        }
+        if (index.isReachable(type, objId)) {
+            return true;
+        } else if (FIXED_AT_IMPORT.contains(type) || index.getImageIds().isEmpty()) {
             return false;
+        } else if (doContains(index.getData(), kls, objId)) {
+            index.addReachable(type, objId);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Get the compiled index of the current version of the given share.
+     * @param shareId a share ID
+     * @return the share's index, or {@code null} if the share cannot be found or read
+     */
+    private ShareIndex getIndex(long shareId) {
+        final Share share = (Share) session().get(Share.class, shareId);
+        if (share == null) {
+            indexCache.invalidate(shareId);
+            return null;
+        }
+        final ShareIndex cached = indexCache.getIfPresent(shareId);
+        if (cached != null && Objects.equals(cached.getVersion(), share.getVersion())) {
+            return cached;
+        }
+        final ShareData data = parse(shareId, share.getData());
+        if (data == null) {
+            return null;
+        }
+        final ShareIndex index = new ShareIndex(data, share.getVersion());
+        indexCache.put(shareId, index);
+        return index;
+    }
+
+    /**
+     * @param kls a model class
+     * @return if objects of that class may be read through any share
+     */
+    private static boolean isUnchecked(Class<? extends IObject> kls) {
+        return StatsInfo.class.isAssignableFrom(kls)
+                || QuantumDef.class.isAssignableFrom(kls)
+                || LightPath.class.isAssignableFrom(kls)
+                || Microscope.class.isAssignableFrom(kls)
+                || TransmittanceRange.class.isAssignableFrom(kls);
+    }
+
+    /**
+     * @param kls a model class
+     * @return the type under which objects of that class that are reachable
+     * from images are indexed, or {@code null} if they are not reachable
+     */
+    private static Class<? extends IObject> getReachableType(Class<? extends IObject> kls) {
+        for (final Class<? extends IObject> type : REACHABLE_QUERIES.keySet()) {
+            if (type.isAssignableFrom(kls)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Query the objects of the given type that are reachable from the given images.
+     * @param type a type from {@link #REACHABLE_QUERIES}
+     * @param imageIds the IDs of images
+     * @return the IDs of the reachable objects
+     */
+    @SuppressWarnings("unchecked")
+    private List<Long> queryReachable(Class<? extends IObject> type, List<Long> imageIds) {
+        final List<Long> ids = new ArrayList<Long>();
+        final Session session = session();
+        for (final List<Long> batch : Lists.partition(imageIds, IMAGE_BATCH_SIZE)) {
+            ids.addAll((List<Long>) session.createQuery(REACHABLE_QUERIES.get(type))
+                    .setParameterList("images", batch).list());
         }
-        return doContains(data, kls, objId);
+        return ids;
     }
 
     @SuppressWarnings("unchecked")
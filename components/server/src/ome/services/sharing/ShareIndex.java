@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.sharing;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ome.model.IObject;
+import ome.model.core.Image;
+import ome.services.sharing.data.ShareData;
+
+/**
+ * A compiled index of the objects that may be read through a share, for a
+ * specific version of that share. Holds the IDs of the objects that were
+ * added to the share and, compiled on demand for each type, of the objects
+ * reachable from the share's images. The IDs are held in sets of primitive
+ * <code>long</code>s so that each membership check is a constant-time lookup.
+ * Instances are safe for use by multiple threads.
+ *
+ * @since 5.5.0
+ * @see BlobShareStore
+ */
+public class ShareIndex {
+
+    /**
+     * A minimal open-addressing hash set of <code>long</code> values.
+     * Not thread-safe.
+     */
+    static class LongSet {
+
+        private static final int MINIMUM_CAPACITY = 16;
+
+        /* zero marks an empty slot so is tracked separately */
+        private long[] slots;
+        private boolean hasZero = false;
+        private int size = 0;
+
+        LongSet() {
+            this(0);
+        }
+
+        LongSet(int expectedSize) {
+            int capacity = MINIMUM_CAPACITY;
+            while (capacity < expectedSize * 2) {
+                capacity <<= 1;
+            }
+            slots = new long[capacity];
+        }
+
+        private static int slot(long value, int mask) {
+            final long mixed = value * 0x9E3779B97F4A7C15L;
+            return (int) (mixed ^ (mixed >>> 32)) & mask;
+        }
+
+        /**
+         * @param value a value
+         * @return if the value was newly added to the set
+         */
+        boolean add(long value) {
+            if (value == 0) {
+                if (hasZero) {
+                    return false;
+                }
+                hasZero = true;
+                size++;
+                return true;
+            }
+            if ((size + 1) * 2 > slots.length) {
+                resize(slots.length << 1);
+            }
+            final int mask = slots.length - 1;
+            int index = slot(value, mask);
+            while (slots[index] != 0) {
+                if (slots[index] == value) {
+                    return false;
+                }
+                index = (index + 1) & mask;
+            }
+            slots[index] = value;
+            size++;
+            return true;
+        }
+
+        /**
+         * @param value a value
+         * @return if the value is in the set
+         */
+        boolean contains(long value) {
+            if (value == 0) {
+                return hasZero;
+            }
+            final int mask = slots.length - 1;
+            int index = slot(value, mask);
+            long slotValue;
+            while ((slotValue = slots[index]) != 0) {
+                if (slotValue == value) {
+                    return true;
+                }
+                index = (index + 1) & mask;
+            }
+            return false;
+        }
+
+        /**
+         * @return the number of values in the set
+         */
+        int size() {
+            return size;
+        }
+
+        private void resize(int capacity) {
+            final long[] oldSlots = slots;
+            slots = new long[capacity];
+            final int mask = capacity - 1;
+            for (final long value : oldSlots) {
+                if (value != 0) {
+                    int index = slot(value, mask);
+                    while (slots[index] != 0) {
+                        index = (index + 1) & mask;
+                    }
+                    slots[index] = value;
+                }
+            }
+        }
+    }
+
+    private final ShareData data;
+
+    private final Integer version;
+
+    private final List<Long> imageIds;
+
+    /* the IDs of the objects added to the share, by class name */
+    private final Map<String, LongSet> shared = new HashMap<String, LongSet>();
+
+    /* the IDs of the objects reachable from the share's images, by type */
+    private final Map<Class<? extends IObject>, LongSet> reachable =
+            new HashMap<Class<? extends IObject>, LongSet>();
+
+    /**
+     * Construct an index of the given share.
+     * @param data the share's data, not to be modified by the caller hereafter
+     * @param version the version of the share from which the data was parsed
+     */
+    public ShareIndex(ShareData data, Integer version) {
+        this.data = data;
+        this.version = version;
+        if (data.objectMap != null) {
+            for (final Map.Entry<String, List<Long>> objects : data.objectMap.entrySet()) {
+                final LongSet ids = new LongSet(objects.getValue().size());
+                for (final Long id : objects.getValue()) {
+                    if (id != null) {
+                        ids.add(id);
+                    }
+                }
+                shared.put(objects.getKey(), ids);
+            }
+        }
+        final List<Long> images = data.objectMap == null ? null : data.objectMap.get(Image.class.getName());
+        this.imageIds = images == null ? new ArrayList<Long>() : new ArrayList<Long>(images);
+    }
+
+    /**
+     * @return the share's data, which must not be modified
+     */
+    public ShareData getData() {
+        return data;
+    }
+
+    /**
+     * @return the version of the share from which this index was compiled
+     */
+    public Integer getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the IDs of the images in the share
+     */
+    public List<Long> getImageIds() {
+        return imageIds;
+    }
+
+    /**
+     * Check if an object was added to the share.
+     * @param className the object's class name
+     * @param id the object's ID
+     * @return if the object was added to the share
+     */
+    public boolean isShared(String className, long id) {
+        final LongSet ids = shared.get(className);
+        return ids != null && ids.contains(id);
+    }
+
+    /**
+     * @param type a type of object reachable from images
+     * @return if the reachable objects of that type have been compiled into this index
+     */
+    public synchronized boolean isCompiled(Class<? extends IObject> type) {
+        return reachable.containsKey(type);
+    }
+
+    /**
+     * Compile the reachable objects of a type into this index.
+     * @param type a type of object reachable from images
+     * @param ids the IDs of the objects of that type that are reachable from the share's images
+     */
+    public synchronized void compile(Class<? extends IObject> type, Collection<Long> ids) {
+        final LongSet set = new LongSet(ids.size());
+        for (final Long id : ids) {
+            if (id != null) {
+                set.add(id);
+            }
+        }
+        reachable.put(type, set);
+    }
+
+    /**
+     * Check if an object is known to be reachable from the share's images.
+     * @param type the type under which the object's reachability was compiled
+     * @param id the object's ID
+     * @return if the object is known to be reachable
+     */
+    public synchronized boolean isReachable(Class<? extends IObject> type, long id) {
+        final LongSet ids = reachable.get(type);
+        return ids != null && ids.contains(id);
+    }
+
+    /**
+     * Note that an object is reachable from the share's images,
+     * as for one created since the index was compiled. Has no effect
+     * if the type is not yet compiled.
+     * @param type the type under which the object's reachability was compiled
+     * @param id the object's ID
+     */
+    public synchronized void addReachable(Class<? extends IObject> type, long id) {
+        final LongSet ids = reachable.get(type);
+        if (ids != null) {
+            ids.add(id);
+        }
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.ClassUtils;
+
+import ome.api.ServiceInterface;
+import ome.services.sessions.stats.PerCallStats;
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+
+/**
+ * Collects per-method statistics of the service invocations passing through
+ * {@link ServiceHandler}: the latency distribution, the number of failed
+ * calls, and the objects read, objects written and bytes allocated by each
+ * call. Latencies are recorded into lock-free log-linear histograms with a
+ * relative precision of about 3%, so that percentiles can be queried at any
+ * time without blocking the invoking threads. The totals are additionally
+ * exported via {@link Metrics} under
+ * <code>ome.services.util.MethodStatistics.&lt;Interface&gt;.&lt;method&gt;.*</code>
+ * where the interface is the invoked service's API interface, so that
+ * methods inherited from a shared interface such as
+ * {@link ome.api.StatefulServiceInterface} are counted for each service.
+ * @since 5.5.0
+ */
+public class MethodStatistics {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodStatistics.class);
+
+    /**
+     * The state noted at the start of an invocation.
+     */
+    public static final class Call {
+
+        private final long start, objectsRead, objectsWritten, allocated;
+
+        private Call(long start, long objectsRead, long objectsWritten, long allocated) {
+            this.start = start;
+            this.objectsRead = objectsRead;
+            this.objectsWritten = objectsWritten;
+            this.allocated = allocated;
+        }
+    }
+
+    /**
+     * Lock-free histogram of non-negative values. The values below
+     * {@link #SUB_BUCKETS} are counted exactly, each larger power of two is
+     * split into {@link #SUB_BUCKETS} equally sized buckets.
+     */
+    static final class Buckets {
+
+        private static final int SUB_BITS = 5;
+
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        /* values are capped at 2^36 microseconds, or about 19 hours */
+        private static final int MAX_BITS = 36;
+
+        private final AtomicLongArray counts =
+                new AtomicLongArray(SUB_BUCKETS + (MAX_BITS - SUB_BITS) * SUB_BUCKETS);
+
+        private final AtomicLong sum = new AtomicLong();
+
+        private final AtomicLong max = new AtomicLong();
+
+        static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) Math.max(0, value);
+            }
+            final long capped = Math.min(value, (1L << MAX_BITS) - 1);
+            final int shift = 63 - Long.numberOfLeadingZeros(capped) - SUB_BITS;
+            return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((capped >>> shift) - SUB_BUCKETS);
+        }
+
+        /**
+         * @param index a bucket index
+         * @return the midpoint of the values counted by the given bucket
+         */
+        static long value(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            final int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+            final long lowest = (long) (SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+            return lowest + ((1L << shift) - 1) / 2;
+        }
+
+        void record(long value) {
+            counts.incrementAndGet(index(value));
+            sum.addAndGet(value);
+            long current;
+            while (value > (current = max.get())) {
+                if (max.compareAndSet(current, value)) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * @param quantiles the quantiles to compute, each between 0 and 1
+         * @return the value at each quantile, from a snapshot of the counts
+         */
+        long[] quantiles(double[] quantiles) {
+            final long[] snapshot = new long[counts.length()];
+            long total = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+            final long[] values = new long[quantiles.length];
+            if (total == 0) {
+                return values;
+            }
+            for (int q = 0; q < quantiles.length; q++) {
+                final long rank = Math.max(1, (long) Math.ceil(quantiles[q] * total));
+                long seen = 0;
+                for (int i = 0; i < snapshot.length; i++) {
+                    seen += snapshot[i];
+                    if (seen >= rank) {
+                        values[q] = value(i);
+                        break;
+                    }
+                }
+            }
+            return values;
+        }
+    }
+
+    /**
+     * The statistics of one method, shared by its overloads.
+     */
+    private static final class Entry {
+
+        final Buckets latency = new Buckets();
+
+        final AtomicLong calls = new AtomicLong(), errors = new AtomicLong(),
+                objectsRead = new AtomicLong(), objectsWritten = new AtomicLong(),
+                allocated = new AtomicLong();
+
+        final Counter callCounter, errorCounter, readCounter, writtenCounter, allocatedCounter;
+
+        Entry(Metrics metrics, Object owner, String name) {
+            callCounter = metrics.counter(owner, name + ".calls");
+            errorCounter = metrics.counter(owner, name + ".errors");
+            readCounter = metrics.counter(owner, name + ".objectsRead");
+            writtenCounter = metrics.counter(owner, name + ".objectsWritten");
+            allocatedCounter = metrics.counter(owner, name + ".allocatedBytes");
+        }
+    }
+
+    private final ConcurrentMap<Class<?>, ConcurrentMap<Method, Entry>> byMethod =
+            new ConcurrentHashMap<Class<?>, ConcurrentMap<Method, Entry>>();
+
+    private final ConcurrentMap<String, Entry> byName = new ConcurrentHashMap<String, Entry>();
+
+    private final Metrics metrics;
+
+    private final PerCallStats perCall;
+
+    private final com.sun.management.ThreadMXBean threads;
+
+    /**
+     * Construct new method statistics. Expected to be instantiated via Spring.
+     * @param metrics the metrics to which the totals are exported
+     * @param perCall the running totals of objects read and written by each thread
+     * @param trackAllocations if the bytes allocated by each call should be measured,
+     * ignored if the JVM does not support this
+     */
+    public MethodStatistics(Metrics metrics, PerCallStats perCall, boolean trackAllocations) {
+        this.metrics = metrics;
+        this.perCall = perCall;
+        this.threads = trackAllocations ? allocationTracker() : null;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationTracker() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean tracker = (com.sun.management.ThreadMXBean) bean;
+            if (tracker.isThreadAllocatedMemorySupported() && tracker.isThreadAllocatedMemoryEnabled()) {
+                return tracker;
+            }
+        }
+        LOGGER.info("allocated memory is not measured per thread by this JVM");
+        return null;
+    }
+
+    private long allocatedBytes() {
+        return threads == null ? 0 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Note the start of an invocation by the current thread.
+     * @return the state to pass to {@link #end(Call, Class, Method, boolean)}
+     */
+    public Call begin() {
+        return new Call(System.nanoTime(), perCall.getObjectsRead(), perCall.getObjectsWritten(), allocatedBytes());
+    }
+
+    /**
+     * Note the end of an invocation by the current thread.
+     * @param call the state returned by {@link #begin()}
+     * @param target the class of the invoked service
+     * @param method the invoked service method
+     * @param failed if the invocation threw an exception
+     */
+    public void end(Call call, Class<?> target, Method method, boolean failed) {
+        final long micros = (System.nanoTime() - call.start) / 1000;
+        final long read = perCall.getObjectsRead() - call.objectsRead;
+        final long written = perCall.getObjectsWritten() - call.objectsWritten;
+        final long allocated = threads == null ? 0 : allocatedBytes() - call.allocated;
+
+        final Entry entry = getEntry(target, method);
+        entry.latency.record(micros);
+        entry.calls.incrementAndGet();
+        entry.callCounter.inc();
+        if (failed) {
+            entry.errors.incrementAndGet();
+            entry.errorCounter.inc();
+        }
+        if (read > 0) {
+            entry.objectsRead.addAndGet(read);
+            entry.readCounter.inc(read);
+        }
+        if (written > 0) {
+            entry.objectsWritten.addAndGet(written);
+            entry.writtenCounter.inc(written);
+        }
+        if (allocated > 0) {
+            entry.allocated.addAndGet(allocated);
+            entry.allocatedCounter.inc(allocated);
+        }
+    }
+
+    private Entry getEntry(Class<?> target, Method method) {
+        final Class<?> key = target == null ? method.getDeclaringClass() : target;
+        ConcurrentMap<Method, Entry> targetMethods = byMethod.get(key);
+        if (targetMethods == null) {
+            final ConcurrentMap<Method, Entry> created = new ConcurrentHashMap<Method, Entry>();
+            targetMethods = byMethod.putIfAbsent(key, created);
+            if (targetMethods == null) {
+                targetMethods = created;
+            }
+        }
+        Entry entry = targetMethods.get(method);
+        if (entry == null) {
+            final String name = getName(target, method);
+            entry = byName.get(name);
+            if (entry == null) {
+                final Entry created = new Entry(metrics, this, name);
+                entry = byName.putIfAbsent(name, created);
+                if (entry == null) {
+                    entry = created;
+                }
+            }
+            targetMethods.putIfAbsent(method, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Find the name by which to report a method. This is qualified by the
+     * most specific of the service's API interfaces that has the method,
+     * otherwise by the interface or class that declares the method.
+     * @param target the class of the invoked service
+     * @param method the invoked service method
+     * @return the name of the method, such as <code>IQuery.findAllByQuery</code>
+     */
+    static String getName(Class<?> target, Method method) {
+        final Class<?> declaring = method.getDeclaringClass();
+        Class<?> api = declaring;
+        if (target != null) {
+            final String apiPackage = ClassUtils.getPackageName(ServiceInterface.class);
+            for (final Class<?> iface : ClassUtils.getAllInterfacesForClassAsSet(target)) {
+                if (apiPackage.equals(ClassUtils.getPackageName(iface))
+                        && ServiceInterface.class.isAssignableFrom(iface)
+                        && declaring.isAssignableFrom(iface) && api.isAssignableFrom(iface)) {
+                    api = iface;
+                }
+            }
+        }
+        return api.getSimpleName() + '.' + method.getName();
+    }
+
+    /**
+     * Report the statistics of the methods invoked so far. For each method the
+     * map contains <code>calls</code>, <code>errors</code>,
+     * <code>objectsRead</code>, <code>objectsWritten</code>,
+     * <code>allocatedBytes</code>, <code>meanMicros</code>,
+     * <code>maxMicros</code> and, for each requested quantile such as 0.99,
+     * an entry such as <code>p99Micros</code>.
+     * @param prefix only methods whose name, such as <code>IQuery.findAllByQuery</code>,
+     * starts with this prefix are reported, may be {@code null} to report all methods
+     * @param quantiles the latency quantiles to report, each between 0 and 1
+     * @return the statistics by method name
+     */
+    public SortedMap<String, Map<String, Long>> getStatistics(String prefix, double[] quantiles) {
+        final DecimalFormat format = new DecimalFormat("0.###", DecimalFormatSymbols.getInstance(Locale.ENGLISH));
+        final String[] quantileKeys = new String[quantiles.length];
+        for (int q = 0; q < quantiles.length; q++) {
+            if (quantiles[q] < 0 || quantiles[q] > 1) {
+                throw new IllegalArgumentException("quantile must be between 0 and 1: " + quantiles[q]);
+            }
+            quantileKeys[q] = "p" + format.format(quantiles[q] * 100) + "Micros";
+        }
+        final SortedMap<String, Map<String, Long>> statistics = new TreeMap<String, Map<String, Long>>();
+        for (final Map.Entry<String, Entry> named : byName.entrySet()) {
+            if (prefix != null && !named.getKey().startsWith(prefix)) {
+                continue;
+            }
+            final Entry entry = named.getValue();
+            final long calls = entry.calls.get();
+            final Map<String, Long> values = new LinkedHashMap<String, Long>();
+            values.put("calls", calls);
+            values.put("errors", entry.errors.get());
+            values.put("objectsRead", entry.objectsRead.get());
+            values.put("objectsWritten", entry.objectsWritten.get());
+            values.put("allocatedBytes", entry.allocated.get());
+            values.put("meanMicros", calls == 0 ? 0 : entry.latency.sum.get() / calls);
+            values.put("maxMicros", entry.latency.max.get());
+            final long[] latencies = entry.latency.quantiles(quantiles);
+            for (int q = 0; q < quantiles.length; q++) {
+                values.put(quantileKeys[q], latencies[q]);
+            }
+            statistics.put(named.getKey(), values);
+        }
+        return statistics;
+    }
+}
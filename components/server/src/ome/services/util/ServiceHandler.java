@@ -67,6 +67,8 @@ public class ServiceHandler implements MethodInterceptor, ApplicationListener {
 
     private final long methodTimeWarn;
 
+    private MethodStatistics methodStatistics;
+
     public void onApplicationEvent(ApplicationEvent arg0) {
         if (arg0 instanceof RegisterServiceCleanupMessage) {
             RegisterServiceCleanupMessage cleanup = (RegisterServiceCleanupMessage) arg0;
@@ -84,6 +86,14 @@ public class ServiceHandler implements MethodInterceptor, ApplicationListener {
         this.methodTimeError = methodTimeError;
     }
 
+    /**
+     * Records the latency and the objects read and written of each
+     * invocation, may be {@code null}.
+     */
+    public void setMethodStatistics(MethodStatistics methodStatistics) {
+        this.methodStatistics = methodStatistics;
+    }
+
     /**
      * @see org.aopalliance.intercept.MethodInterceptor#invoke(org.aopalliance.intercept.MethodInvocation)
      */
@@ -115,6 +125,8 @@ public class ServiceHandler implements MethodInterceptor, ApplicationListener {
         Object o;
         StringBuilder finalOutput = new StringBuilder();
 
+        final MethodStatistics.Call call = methodStatistics == null ? null : methodStatistics.begin();
+        boolean failed = false;
         StopWatch stopWatch = new Slf4JStopWatch();
         try {
 
@@ -124,6 +136,7 @@ public class ServiceHandler implements MethodInterceptor, ApplicationListener {
             stopWatch.stop("omero.call.success." + implClass.getName() + "." + mthd.getName());
             return o;
         } catch (Throwable t) {
+            failed = true;
             finalOutput.append(" Excp:\t");
             finalOutput.append(t.toString());
             stopWatch.stop("omero.call.exception");
@@ -145,6 +158,9 @@ public class ServiceHandler implements MethodInterceptor, ApplicationListener {
                 log.warn(msg);
             }
             cleanup();
+            if (call != null) {
+                methodStatistics.end(call, implClass, mthd, failed);
+            }
         }
 
     }
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.server.utests;
+
+import java.io.File;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.model.core.OriginalFile;
+import ome.services.fulltext.FileContentExtractor;
+import ome.services.fulltext.FileParser;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the budgets and the cache of the {@link FileContentExtractor}.
+ *
+ * @since 5.5.0
+ */
+@Test(groups = { "query", "fulltext" })
+public class FileContentExtractorTest {
+
+    private File file;
+
+    private FileContentExtractor extractor;
+
+    /**
+     * A parser that returns the given text after a delay, counting how
+     * often it is used.
+     */
+    private static class TestParser extends FileParser {
+
+        final AtomicInteger parses = new AtomicInteger();
+
+        final String text;
+
+        final long delay;
+
+        TestParser(String text, long delay) {
+            this.text = text;
+            this.delay = delay;
+        }
+
+        @Override
+        public Iterable<Reader> doParse(File file) throws Exception {
+            parses.incrementAndGet();
+            Thread.sleep(delay);
+            return wrap(new StringReader(text));
+        }
+    }
+
+    /**
+     * A parser that ignores interruption, as parsers may, and so stays busy
+     * until it is released.
+     */
+    private static class StuckParser extends FileParser {
+
+        final CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        public Iterable<Reader> doParse(File file) throws Exception {
+            while (true) {
+                try {
+                    released.await();
+                    return wrap(new StringReader("stuck"));
+                } catch (InterruptedException ie) {
+                    /* carry on regardless */
+                }
+            }
+        }
+    }
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        file = File.createTempFile("FileContentExtractorTest", ".txt");
+        FileUtils.writeStringToFile(file, "ignored");
+        extractor = new FileContentExtractor(2, 1000, 20, 1000);
+    }
+
+    @AfterMethod
+    public void teardown() {
+        extractor.destroy();
+        file.delete();
+    }
+
+    private static OriginalFile originalFile(String hash) {
+        final OriginalFile file = new OriginalFile();
+        file.setHash(hash);
+        file.setSize(7L);
+        return file;
+    }
+
+    private String extract(OriginalFile originalFile, FileParser parser) throws Exception {
+        return read(extractor.extract(originalFile, file, parser));
+    }
+
+    private static String read(Iterable<Reader> readers) throws Exception {
+        final StringBuilder text = new StringBuilder();
+        for (Reader reader : readers) {
+            text.append(IOUtils.toString(reader));
+            reader.close();
+        }
+        return text.toString().trim();
+    }
+
+    @Test
+    public void testCachedByHash() throws Exception {
+        final TestParser parser = new TestParser("the quick brown fox", 0);
+        Assert.assertEquals(extract(originalFile("abc"), parser), "the quick brown fox");
+        Assert.assertEquals(extract(originalFile("abc"), parser), "the quick brown fox");
+        Assert.assertEquals(parser.parses.get(), 1);
+        Assert.assertEquals(extract(originalFile("def"), parser), "the quick brown fox");
+        Assert.assertEquals(parser.parses.get(), 2);
+    }
+
+    @Test
+    public void testNotCachedWithoutHash() throws Exception {
+        final TestParser parser = new TestParser("the quick brown fox", 0);
+        extract(originalFile(null), parser);
+        extract(originalFile(null), parser);
+        Assert.assertEquals(parser.parses.get(), 2);
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        final TestParser parser = new TestParser("the quick brown fox jumps over the lazy dog", 0);
+        Assert.assertEquals(extract(originalFile("abc"), parser), "the quick brown fox");
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        final TestParser parser = new TestParser("the quick brown fox", 5000);
+        final long start = System.currentTimeMillis();
+        Assert.assertEquals(extract(originalFile("abc"), parser), "");
+        Assert.assertTrue(System.currentTimeMillis() - start < 4000);
+    }
+
+    /**
+     * The time budget starts when a worker starts the extraction, not when
+     * the extraction is queued or first read.
+     */
+    @Test
+    public void testQueuedTimeNotBudgeted() throws Exception {
+        extractor.destroy();
+        extractor = new FileContentExtractor(1, 1000, 20, 1000);
+        final TestParser parser = new TestParser("the quick brown fox", 600);
+        final Iterable<Reader> first = extractor.extract(originalFile("abc"), file, parser);
+        final Iterable<Reader> second = extractor.extract(originalFile("def"), file, parser);
+        Assert.assertEquals(read(second), "the quick brown fox");
+        Assert.assertEquals(read(first), "the quick brown fox");
+    }
+
+    /**
+     * Workers that outlive their budget are replaced so later files are
+     * still extracted.
+     */
+    @Test
+    public void testStuckWorkersReplaced() throws Exception {
+        final StuckParser stuck = new StuckParser();
+        try {
+            final long start = System.currentTimeMillis();
+            final Iterable<Reader> first = extractor.extract(originalFile("abc"), file, stuck);
+            final Iterable<Reader> second = extractor.extract(originalFile("def"), file, stuck);
+            final Iterable<Reader> third = extractor.extract(originalFile("ghi"), file,
+                    new TestParser("the quick brown fox", 0));
+            Assert.assertEquals(read(third), "the quick brown fox");
+            Assert.assertEquals(read(first), "");
+            Assert.assertEquals(read(second), "");
+            Assert.assertTrue(System.currentTimeMillis() - start < 4000);
+        } finally {
+            stuck.released.countDown();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.server.utests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ome.model.IObject;
+import ome.model.annotations.ImageAnnotationLink;
+import ome.model.annotations.TagAnnotation;
+import ome.model.core.Image;
+import ome.services.fulltext.FullTextBridge;
+import ome.services.messages.ReindexMessage;
+
+import org.apache.lucene.document.Document;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that indexing annotation links requests the reindexing of each
+ * parent only once.
+ *
+ * @since 5.5.0
+ */
+@Test(groups = { "query", "fulltext" })
+public class FullTextBridgeReindexTest {
+
+    private final List<ReindexMessage<?>> messages = new ArrayList<ReindexMessage<?>>();
+
+    private FullTextBridge bridge;
+
+    @BeforeMethod
+    public void setup() {
+        messages.clear();
+        bridge = new FullTextBridge();
+        bridge.setApplicationEventPublisher(new ApplicationEventPublisher() {
+            @Override
+            public void publishEvent(ApplicationEvent event) {
+                messages.add((ReindexMessage<?>) event);
+            }
+        });
+    }
+
+    /**
+     * Index a link between an image and a tag.
+     */
+    private void indexLink(long imageId, long tagId) {
+        final ImageAnnotationLink link = new ImageAnnotationLink(
+                new Image(imageId, false), new TagAnnotation(tagId, false));
+        bridge.set_annotations("details", link, new Document(), null);
+    }
+
+    @Test
+    public void testParentsReindexedOnce() {
+        for (long tagId = 1; tagId <= 3; tagId++) {
+            for (long imageId = 1; imageId <= 100; imageId++) {
+                indexLink(imageId, tagId);
+            }
+        }
+        Assert.assertTrue(messages.isEmpty(), "reindexing should wait for the flush");
+        Assert.assertEquals(bridge.flushReindex(), 100);
+        Assert.assertEquals(messages.size(), 1);
+        final List<Long> ids = new ArrayList<Long>();
+        for (IObject object : messages.get(0).objects) {
+            Assert.assertTrue(object instanceof Image);
+            ids.add(object.getId());
+        }
+        Assert.assertEquals(ids.size(), 100);
+        Assert.assertEquals(ids.get(0), Long.valueOf(1));
+        Assert.assertEquals(ids.get(99), Long.valueOf(100));
+    }
+
+    @Test
+    public void testFlushClearsQueue() {
+        indexLink(1, 1);
+        Assert.assertEquals(bridge.flushReindex(), 1);
+        Assert.assertEquals(bridge.flushReindex(), 0);
+        Assert.assertEquals(messages.size(), 1);
+        indexLink(1, 2);
+        Assert.assertEquals(bridge.flushReindex(), 1);
+        Assert.assertEquals(messages.size(), 2);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.server.utests;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import ome.api.IQuery;
+import ome.parameters.Parameters;
+import ome.services.query.HierarchyNavigator;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.TreeMultimap;
+import com.google.common.primitives.Longs;
+
+/**
+ * Tests the bulk lookups of {@link HierarchyNavigator} against a simulated query service.
+ * @since 5.5.0
+ */
+@Test(groups = "unit")
+public class HierarchyNavigatorBulkTest {
+
+    /**
+     * A hierarchy navigator that relates filesets to images as given.
+     */
+    private static class TestNavigator extends HierarchyNavigator {
+        int queryCount = 0;
+
+        TestNavigator(final TreeMultimap<Long, Long> filesetImages) {
+            super((IQuery) Proxy.newProxyInstance(IQuery.class.getClassLoader(), new Class<?>[] {IQuery.class},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            if (!"projection".equals(method.getName())) {
+                                throw new UnsupportedOperationException(method.getName());
+                            }
+                            final Parameters parameters = (Parameters) args[1];
+                            final Collection<?> ids = (Collection<?>) parameters.get(Parameters.IDS).value;
+                            final List<Object[]> results = new ArrayList<Object[]>();
+                            for (final Object id : ids) {
+                                for (final Long imageId : filesetImages.get((Long) id)) {
+                                    results.add(new Object[] {id, imageId});
+                                }
+                            }
+                            /* the database returns rows in no particular order */
+                            Collections.shuffle(results, new Random(4321));
+                            return results;
+                        }
+                    }));
+        }
+
+        HierarchyNavigator.RelatedIds query(long[] filesetIds) {
+            return doBulkQuery("Image", "Fileset", filesetIds);
+        }
+
+        long[] lookup(long[] filesetIds) {
+            return doBulkLookup("Image", "Fileset", filesetIds);
+        }
+    }
+
+    /**
+     * Test that bulk queries return the pairs sorted and distinct.
+     */
+    public void testBulkQuery() {
+        final TreeMultimap<Long, Long> filesetImages = TreeMultimap.create();
+        final Random random = new Random(1234);
+        for (long filesetId = 1; filesetId <= 3000; filesetId++) {
+            final int imageCount = random.nextInt(5);
+            for (int image = 0; image < imageCount; image++) {
+                filesetImages.put(filesetId, (long) random.nextInt(20000));
+            }
+        }
+        final TestNavigator navigator = new TestNavigator(filesetImages);
+        final long[] filesetIds = HierarchyNavigator.toSortedIds(Arrays.asList(3000L, 2L, 1L, 1500L, 2L, 4000L));
+        Assert.assertEquals(filesetIds, new long[] {1, 2, 1500, 3000, 4000});
+        final HierarchyNavigator.RelatedIds related = navigator.query(filesetIds);
+        final List<Long> expectedFrom = new ArrayList<Long>();
+        final List<Long> expectedTo = new ArrayList<Long>();
+        for (final long filesetId : filesetIds) {
+            for (final Long imageId : filesetImages.get(filesetId)) {
+                expectedFrom.add(filesetId);
+                expectedTo.add(imageId);
+            }
+        }
+        Assert.assertEquals(related.size(), expectedFrom.size());
+        for (int index = 0; index < related.size(); index++) {
+            Assert.assertEquals(related.getFromId(index), (long) expectedFrom.get(index));
+            Assert.assertEquals(related.getToId(index), (long) expectedTo.get(index));
+        }
+        final long[] allFilesetIds = Longs.toArray(filesetImages.keySet());
+        Assert.assertEquals(navigator.lookup(allFilesetIds),
+                HierarchyNavigator.toSortedIds(filesetImages.values()));
+        Assert.assertEquals(navigator.lookup(new long[0]).length, 0);
+    }
+
+    /**
+     * Test the merging of sets of IDs.
+     */
+    public void testSetOperations() {
+        final long[] ids1 = {1, 3, 5, 7, 9};
+        final long[] ids2 = {2, 3, 4, 9, 10};
+        Assert.assertEquals(HierarchyNavigator.union(ids1, ids2), new long[] {1, 2, 3, 4, 5, 7, 9, 10});
+        Assert.assertEquals(HierarchyNavigator.union(ids1, new long[0]), ids1);
+        Assert.assertEquals(HierarchyNavigator.difference(ids1, ids2), new long[] {1, 5, 7});
+        Assert.assertEquals(HierarchyNavigator.difference(ids2, ids1), new long[] {2, 4, 10});
+        Assert.assertEquals(HierarchyNavigator.difference(ids1, new long[0]), ids1);
+    }
+}
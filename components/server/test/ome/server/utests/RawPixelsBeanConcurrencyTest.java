@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.server.utests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.api.local.LocalQuery;
+import ome.io.bioformats.BfPyramidPixelBuffer;
+import ome.io.nio.ConfiguredTileSizes;
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.PixelsService;
+import ome.io.nio.RomioPixelBuffer;
+import ome.io.nio.TileSizes;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.services.RawPixelsBean;
+
+import org.apache.commons.io.FileUtils;
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Stress tests the reading of tiles through a single {@link RawPixelsBean}
+ * from many threads at once, as a web client fetching the tiles of an image
+ * does. Each tile read from a ROMIO buffer is slowed to simulate storage
+ * latency so that the reads can be seen to overlap. Tiles are also read from
+ * a pyramid, whose {@link BfPyramidPixelBuffer} still serializes its reads
+ * into the Bio-Formats reader, to check that they are correct when requested
+ * concurrently. Throughput is logged, not asserted, because it depends on
+ * the host.
+ *
+ * @since 5.5.0
+ */
+@Test(groups = { "unit" })
+public class RawPixelsBeanConcurrencyTest extends MockObjectTestCase {
+
+    private static final Logger log =
+            LoggerFactory.getLogger(RawPixelsBeanConcurrencyTest.class);
+
+    private static final int SIZE = 256;
+
+    private static final int TILE = 32;
+
+    private static final int THREADS = 8;
+
+    /** The simulated latency of reading a tile, in milliseconds. */
+    private static final long LATENCY = 10;
+
+    private File root;
+
+    private Pixels pixels;
+
+    private RawPixelsBean bean;
+
+    private SlowPixelBuffer buffer;
+
+    /**
+     * A pixel buffer whose tile reads take a while. It notes if its
+     * resolution level is set while a tile is being read.
+     */
+    private static class SlowPixelBuffer extends RomioPixelBuffer {
+
+        private final AtomicInteger reading = new AtomicInteger();
+
+        private final AtomicInteger maxReading = new AtomicInteger();
+
+        private final AtomicBoolean overlapped = new AtomicBoolean();
+
+        private volatile int resolutionLevel = 0;
+
+        SlowPixelBuffer(String path, Pixels pixels) {
+            super(path, pixels, true);
+        }
+
+        @Override
+        public byte[] getTileDirect(Integer z, Integer c, Integer t, Integer x,
+                Integer y, Integer w, Integer h, byte[] buffer) throws IOException {
+            final int readers = reading.incrementAndGet();
+            int max = maxReading.get();
+            while (max < readers && !maxReading.compareAndSet(max, readers)) {
+                max = maxReading.get();
+            }
+            try {
+                Thread.sleep(LATENCY);
+                return super.getTileDirect(z, c, t, x, y, w, h, buffer);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e.toString());
+            } finally {
+                reading.decrementAndGet();
+            }
+        }
+
+        @Override
+        public int getResolutionLevel() {
+            return resolutionLevel;
+        }
+
+        @Override
+        public void setResolutionLevel(int resolutionLevel) {
+            if (reading.get() > 0) {
+                overlapped.set(true);
+            }
+            this.resolutionLevel = resolutionLevel;
+        }
+    }
+
+    @Override
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        root = File.createTempFile("RawPixelsBeanConcurrencyTest", "");
+        root.delete();
+        root.mkdirs();
+
+        pixels = new Pixels(1L, true);
+        pixels.setSizeX(SIZE);
+        pixels.setSizeY(SIZE);
+        pixels.setSizeZ(1);
+        pixels.setSizeC(1);
+        pixels.setSizeT(1);
+        final PixelsType pixelsType = new PixelsType();
+        pixelsType.setValue("uint8");
+        pixelsType.setBitSize(8);
+        pixels.setPixelsType(pixelsType);
+
+        buffer = new SlowPixelBuffer(new File(root, "1").getPath(), pixels);
+        final byte[] plane = new byte[SIZE * SIZE];
+        for (int index = 0; index < plane.length; index++) {
+            plane[index] = value(index % SIZE, index / SIZE);
+        }
+        buffer.setPlane(plane, 0, 0, 0);
+        bean = newBean(buffer);
+    }
+
+    /**
+     * @param pixelBuffer the buffer from which the service is to read
+     * @return a service reading pixels from the given buffer
+     */
+    private RawPixelsBean newBean(final PixelBuffer pixelBuffer) {
+        final Mock mockQuery = mock(LocalQuery.class);
+        mockQuery.expects(once()).method("findByQuery").will(returnValue(pixels));
+        final RawPixelsBean newBean = new RawPixelsBean(false, root.getPath());
+        newBean.setQueryService((LocalQuery) mockQuery.proxy());
+        newBean.setPixelsData(new PixelsService(root.getPath()) {
+            @Override
+            public PixelBuffer getPixelBuffer(Pixels pixels, boolean write) {
+                return pixelBuffer;
+            }
+        });
+        newBean.setPixelsId(1L, false);
+        return newBean;
+    }
+
+    @Override
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        bean.clean();
+        FileUtils.deleteDirectory(root);
+        super.tearDown();
+    }
+
+    /**
+     * @param x the X coordinate of a pixel
+     * @param y the Y coordinate of a pixel
+     * @return the value of the pixel
+     */
+    private static byte value(int x, int y) {
+        return (byte) (x * 7 + y * 13);
+    }
+
+    /**
+     * Read tiles, checking that each has the expected pixel values.
+     * @param bean the service from which to read
+     * @param tiles the index of each tile to read, in row-major order
+     */
+    private static void readTiles(RawPixelsBean bean, List<Integer> tiles) {
+        final int across = SIZE / TILE;
+        for (final int tile : tiles) {
+            final int x = (tile % across) * TILE;
+            final int y = (tile / across) * TILE;
+            final byte[] data = bean.getTile(0, 0, 0, x, y, TILE, TILE);
+            assertEquals(TILE * TILE, data.length);
+            for (int index = 0; index < data.length; index++) {
+                assertEquals(value(x + index % TILE, y + index / TILE), data[index]);
+            }
+        }
+    }
+
+    /**
+     * Reads every tile of the plane twice over, split among the
+     * given number of threads.
+     * @param bean the service from which to read
+     * @param threads how many threads to read from
+     * @return the time taken, in milliseconds
+     */
+    private static long readAllTiles(final RawPixelsBean bean, int threads) throws Exception {
+        final int tileCount = (SIZE / TILE) * (SIZE / TILE);
+        final List<List<Integer>> work = new ArrayList<List<Integer>>();
+        for (int thread = 0; thread < threads; thread++) {
+            work.add(new ArrayList<Integer>());
+        }
+        for (int tile = 0; tile < 2 * tileCount; tile++) {
+            work.get(tile % threads).add(tile % tileCount);
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final long start = System.nanoTime();
+            final List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (final List<Integer> tiles : work) {
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        readTiles(bean, tiles);
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> result : results) {
+                result.get();
+            }
+            return (System.nanoTime() - start) / 1000000;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Test that tiles read through one service from many threads are correct
+     * and that the reads overlap rather than taking turns.
+     */
+    @Test
+    public void testConcurrentTileThroughput() throws Exception {
+        final long serial = readAllTiles(bean, 1);
+        assertEquals(1, buffer.maxReading.get());
+        final long concurrent = readAllTiles(bean, THREADS);
+        log.info(String.format("Read ROMIO tiles in %d ms from 1 thread, in %d ms from %d threads (%.1fx)",
+                serial, concurrent, THREADS, (double) serial / Math.max(1, concurrent)));
+        assertTrue("expected tile reads to overlap but at most " + buffer.maxReading.get() + " did",
+                buffer.maxReading.get() > 1);
+    }
+
+    /**
+     * Test that tiles read through one service from a pyramid from many
+     * threads are correct. The pyramid's reads do not yet overlap.
+     */
+    @Test
+    public void testConcurrentPyramidTiles() throws Exception {
+        final String path = new File(root, "1_pyramid").getPath();
+        final TileSizes sizes = new ConfiguredTileSizes(TILE, TILE, SIZE, SIZE);
+        final BfPyramidPixelBuffer writer = new BfPyramidPixelBuffer(sizes, pixels, path, true);
+        try {
+            for (int y = 0; y < SIZE; y += TILE) {
+                for (int x = 0; x < SIZE; x += TILE) {
+                    final byte[] tile = new byte[TILE * TILE];
+                    for (int index = 0; index < tile.length; index++) {
+                        tile[index] = value(x + index % TILE, y + index / TILE);
+                    }
+                    writer.setTile(tile, 0, 0, 0, x, y, TILE, TILE);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+
+        final RawPixelsBean pyramidBean = newBean(new BfPyramidPixelBuffer(sizes, pixels, path, false));
+        try {
+            final long serial = readAllTiles(pyramidBean, 1);
+            final long concurrent = readAllTiles(pyramidBean, THREADS);
+            log.info(String.format("Read pyramid tiles in %d ms from 1 thread, in %d ms from %d threads (%.1fx)",
+                    serial, concurrent, THREADS, (double) serial / Math.max(1, concurrent)));
+        } finally {
+            pyramidBean.clean();
+        }
+    }
+
+    /**
+     * Test that changing the resolution level, an exclusive operation, waits
+     * for the tiles being read.
+     */
+    @Test
+    public void testStateChangeDuringReads() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Long> reads = executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return readAllTiles(bean, THREADS);
+                }
+            });
+            for (int change = 0; change < 20; change++) {
+                bean.setResolutionLevel(change);
+                assertEquals(change, bean.getResolutionLevel());
+                Thread.sleep(LATENCY);
+            }
+            reads.get();
+            assertFalse("resolution level set during a tile read",
+                    buffer.overlapped.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.server.utests.sec;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import ome.model.enums.Format;
+import ome.model.internal.Permissions;
+import ome.security.basic.SecurityLookupCache;
+import ome.services.sessions.events.UserGroupUpdateEvent;
+import ome.system.metrics.NullMetrics;
+import ome.util.SqlAction;
+import ome.util.Utils;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Tests the hits, invalidation and expiry of {@link SecurityLookupCache}.
+ * @since 5.5.0
+ */
+@Test(groups = "unit")
+public class SecurityLookupCacheTest {
+
+    private static final long GROUP_ID = 3;
+
+    /* the group permissions in the simulated database */
+    private final Map<Long, Long> groupPermissions = new HashMap<Long, Long>();
+
+    private int queryCount;
+
+    private long nanos;
+
+    private SecurityLookupCache cache;
+
+    @BeforeMethod
+    public void setup() {
+        groupPermissions.clear();
+        groupPermissions.put(GROUP_ID, (Long) Utils.internalForm(Permissions.GROUP_PRIVATE));
+        queryCount = 0;
+        nanos = 0;
+        final SqlAction sql = (SqlAction) Proxy.newProxyInstance(SqlAction.class.getClassLoader(),
+                new Class<?>[] {SqlAction.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (!"getGroupPermissions".equals(method.getName())) {
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                        queryCount++;
+                        return groupPermissions.get(args[0]);
+                    }
+                });
+        cache = new SecurityLookupCache(sql, new NullMetrics(), new Ticker() {
+            @Override
+            public long read() {
+                return nanos;
+            }
+        });
+    }
+
+    /**
+     * Change the permissions of the group in the simulated database.
+     * @param permissions the new permissions
+     */
+    private void setPermissions(Permissions permissions) {
+        groupPermissions.put(GROUP_ID, (Long) Utils.internalForm(permissions));
+    }
+
+    /**
+     * @return the permissions of the group as given by the cache
+     */
+    private Object getPermissions() {
+        return Utils.internalForm(cache.getGroupPermissions(GROUP_ID));
+    }
+
+    /**
+     * Test that group permissions are queried only once then served from the cache.
+     */
+    public void testGroupPermissionsHit() {
+        Assert.assertEquals(getPermissions(), Utils.internalForm(Permissions.GROUP_PRIVATE));
+        setPermissions(Permissions.GROUP_READABLE);
+        Assert.assertEquals(getPermissions(), Utils.internalForm(Permissions.GROUP_PRIVATE));
+        Assert.assertEquals(queryCount, 1);
+        Assert.assertEquals(cache.getGroupPermissionsHitRatio(), 0.5);
+    }
+
+    /**
+     * Test that group permissions are queried again after a group update event.
+     */
+    public void testGroupPermissionsInvalidated() {
+        getPermissions();
+        setPermissions(Permissions.GROUP_READABLE);
+        cache.onApplicationEvent(new UserGroupUpdateEvent(this));
+        Assert.assertEquals(getPermissions(), Utils.internalForm(Permissions.GROUP_READABLE));
+        Assert.assertEquals(queryCount, 2);
+    }
+
+    /**
+     * Test that group permissions are queried again once they expire.
+     */
+    public void testGroupPermissionsExpired() {
+        getPermissions();
+        setPermissions(Permissions.GROUP_READABLE);
+        nanos += TimeUnit.MINUTES.toNanos(SecurityLookupCache.EXPIRY_MINUTES) - 1;
+        Assert.assertEquals(getPermissions(), Utils.internalForm(Permissions.GROUP_PRIVATE));
+        nanos += 1;
+        Assert.assertEquals(getPermissions(), Utils.internalForm(Permissions.GROUP_READABLE));
+        Assert.assertEquals(queryCount, 2);
+    }
+
+    /**
+     * Test that enumeration IDs are cached until invalidated or expired.
+     */
+    public void testEnumerations() {
+        Assert.assertNull(cache.getEnumerationId(Format.class, "text/plain"));
+        cache.putEnumerationId(Format.class, "text/plain", 5);
+        Assert.assertEquals(cache.getEnumerationId(Format.class, "text/plain"), Long.valueOf(5));
+        cache.invalidateEnumerations(Format.class.getName());
+        Assert.assertNull(cache.getEnumerationId(Format.class, "text/plain"));
+        cache.putEnumerationId(Format.class, "text/plain", 5);
+        nanos += TimeUnit.MINUTES.toNanos(SecurityLookupCache.EXPIRY_MINUTES);
+        Assert.assertNull(cache.getEnumerationId(Format.class, "text/plain"));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.server.utests.sharing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import ome.model.core.Image;
+import ome.model.core.Pixels;
+import ome.model.display.Thumbnail;
+import ome.services.sharing.ShareIndex;
+import ome.services.sharing.data.Obj;
+import ome.services.sharing.data.ShareData;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the compiled index of a share's objects.
+ * @since 5.5.0
+ */
+@Test(groups = "sharing")
+public class ShareIndexTest {
+
+    private ShareIndex createIndex(List<Long> imageIds, List<Long> datasetIds) {
+        final Map<String, List<Long>> objectMap = new HashMap<String, List<Long>>();
+        objectMap.put(Image.class.getName(), imageIds);
+        objectMap.put("ome.model.containers.Dataset", datasetIds);
+        final ShareData data = new ShareData(1L, 2L, Collections.<Long>emptyList(), Collections.<String>emptyList(),
+                objectMap, Collections.<Obj>emptyList(), true, 3L);
+        return new ShareIndex(data, 3);
+    }
+
+    /**
+     * Test that the objects added to the share are found by class name and ID.
+     */
+    public void testShared() {
+        final List<Long> imageIds = new ArrayList<Long>();
+        final Random random = new Random(1234);
+        for (int count = 0; count < 5000; count++) {
+            imageIds.add((long) random.nextInt(1000000));
+        }
+        final Set<Long> expected = new HashSet<Long>(imageIds);
+        final ShareIndex index = createIndex(imageIds, Arrays.asList(0L, 7L));
+        for (long id = 0; id < 1000000; id++) {
+            Assert.assertEquals(index.isShared(Image.class.getName(), id), expected.contains(id));
+        }
+        Assert.assertTrue(index.isShared("ome.model.containers.Dataset", 0));
+        Assert.assertTrue(index.isShared("ome.model.containers.Dataset", 7));
+        Assert.assertFalse(index.isShared("ome.model.containers.Dataset", 8));
+        Assert.assertFalse(index.isShared("ome.model.containers.Project", 7));
+        Assert.assertEquals(index.getImageIds(), imageIds);
+    }
+
+    /**
+     * Test that reachable objects are indexed only for their compiled type.
+     */
+    public void testReachable() {
+        final ShareIndex index = createIndex(Arrays.asList(1L, 2L), Collections.<Long>emptyList());
+        Assert.assertFalse(index.isCompiled(Pixels.class));
+        Assert.assertFalse(index.isReachable(Pixels.class, 11));
+        index.compile(Pixels.class, Arrays.asList(11L, 12L, -5L));
+        Assert.assertTrue(index.isCompiled(Pixels.class));
+        Assert.assertTrue(index.isReachable(Pixels.class, 11));
+        Assert.assertTrue(index.isReachable(Pixels.class, 12));
+        Assert.assertTrue(index.isReachable(Pixels.class, -5));
+        Assert.assertFalse(index.isReachable(Pixels.class, 13));
+        Assert.assertFalse(index.isReachable(Thumbnail.class, 11));
+        index.addReachable(Pixels.class, 13);
+        Assert.assertTrue(index.isReachable(Pixels.class, 13));
+        /* adding to an uncompiled type must not mark it as compiled */
+        index.addReachable(Thumbnail.class, 21);
+        Assert.assertFalse(index.isCompiled(Thumbnail.class));
+        Assert.assertFalse(index.isReachable(Thumbnail.class, 21));
+    }
+
+    /**
+     * Test that the version of the share is retained.
+     */
+    public void testVersion() {
+        Assert.assertEquals(createIndex(Collections.<Long>emptyList(), Collections.<Long>emptyList()).getVersion(),
+                Integer.valueOf(3));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.scripts.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import ome.services.scripts.RepoFile;
+import ome.services.scripts.ScriptManifest;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that the {@link ScriptManifest} rehashes only changed scripts.
+ * @since 5.5.0
+ */
+@Test(groups = "unit")
+public class ScriptManifestTest {
+
+    private File dir;
+
+    /**
+     * A script file that counts how often it is hashed.
+     */
+    private static class CountingRepoFile extends RepoFile {
+        int hashCount = 0;
+
+        CountingRepoFile(File root, String path) {
+            super(root, path);
+        }
+
+        @Override
+        public String hash() {
+            hashCount++;
+            return super.hash();
+        }
+    }
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("scripts").toFile();
+    }
+
+    @AfterMethod
+    public void teardown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    /**
+     * Write a script that was last modified in the past.
+     */
+    private CountingRepoFile write(String path, String text) throws IOException {
+        final CountingRepoFile file = new CountingRepoFile(dir, path);
+        FileUtils.writeStringToFile(file.file(), text, StandardCharsets.UTF_8.name());
+        Assert.assertTrue(file.file().setLastModified(System.currentTimeMillis() - 60000));
+        return file;
+    }
+
+    /**
+     * Test that a script is rehashed only when it changes.
+     */
+    public void testUnchangedScriptsAreNotRehashed() throws IOException {
+        final ScriptManifest manifest = new ScriptManifest(null);
+        final CountingRepoFile file = write("/a/test.py", "import omero");
+        final String hash = manifest.getHash(file);
+        Assert.assertEquals(hash, file.hash());
+        file.hashCount = 0;
+        Assert.assertEquals(manifest.getHash(file), hash);
+        Assert.assertEquals(file.hashCount, 0);
+        write("/a/test.py", "import omero.scripts");
+        Assert.assertNotEquals(manifest.getHash(file), hash);
+        Assert.assertEquals(file.hashCount, 1);
+        manifest.invalidate(file.fullname());
+        manifest.getHash(file);
+        Assert.assertEquals(file.hashCount, 2);
+    }
+
+    /**
+     * Test that a recently modified script is always rehashed as a change may not alter its size or time.
+     */
+    public void testRecentlyModifiedScriptsAreRehashed() throws IOException {
+        final ScriptManifest manifest = new ScriptManifest(null);
+        final CountingRepoFile file = write("/test.py", "import omero");
+        Assert.assertTrue(file.file().setLastModified(System.currentTimeMillis()));
+        manifest.getHash(file);
+        manifest.getHash(file);
+        Assert.assertEquals(file.hashCount, 2);
+    }
+
+    /**
+     * Test that the manifest is persisted and that forgotten scripts are not.
+     */
+    public void testManifestIsPersisted() throws IOException {
+        final File persisted = new File(dir, ScriptManifest.MANIFEST_NAME);
+        final ScriptManifest manifest = new ScriptManifest(persisted);
+        final CountingRepoFile file1 = write("/test1.py", "import omero");
+        final CountingRepoFile file2 = write("/b/test 2.py", "import omero.gateway");
+        final String hash2 = manifest.getHash(file2);
+        manifest.getHash(file1);
+        manifest.save();
+        Assert.assertTrue(persisted.isFile());
+
+        final ScriptManifest reloaded = new ScriptManifest(persisted);
+        Assert.assertEquals(reloaded.size(), 2);
+        reloaded.retainOnly(Collections.singleton(file2.fullname()));
+        Assert.assertEquals(reloaded.size(), 1);
+        Assert.assertEquals(reloaded.getHash(file2), hash2);
+        Assert.assertEquals(file2.hashCount, 1);
+        reloaded.save();
+        Assert.assertEquals(new ScriptManifest(persisted).size(), 1);
+    }
+}
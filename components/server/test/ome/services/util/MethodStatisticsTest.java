@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package ome.services.util;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.SortedMap;
+
+import ome.api.IQuery;
+import ome.api.RawFileStore;
+import ome.api.RawPixelsStore;
+import ome.api.StatefulServiceInterface;
+import ome.services.sessions.stats.PerCallStats;
+import ome.system.metrics.NullMetrics;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the per-method statistics recorded by the service handler.
+ * @since 5.5.0
+ */
+@Test(groups = "unit")
+public class MethodStatisticsTest {
+
+    private PerCallStats perCall;
+
+    private MethodStatistics statistics;
+
+    @BeforeMethod
+    public void setup() {
+        perCall = new PerCallStats();
+        statistics = new MethodStatistics(new NullMetrics(), perCall, true);
+    }
+
+    /**
+     * Objects loaded and updated during a call, including by nested calls,
+     * are attributed to the method.
+     */
+    @Test
+    public void testObjectsPerCall() throws Exception {
+        final Method find = IQuery.class.getMethod("find", Class.class, long.class);
+        final Method projection = IQuery.class.getMethod("projection", String.class, ome.parameters.Parameters.class);
+
+        final MethodStatistics.Call outer = statistics.begin();
+        perCall.loadedObjects(3);
+        final MethodStatistics.Call inner = statistics.begin();
+        perCall.loadedObjects(2);
+        perCall.updatedObjects(1);
+        final Class<?> query = Proxy.getProxyClass(IQuery.class.getClassLoader(), IQuery.class);
+        statistics.end(inner, query, projection, true);
+        statistics.end(outer, query, find, false);
+
+        final SortedMap<String, Map<String, Long>> result =
+                statistics.getStatistics(null, new double[] {0.5, 0.999});
+        Assert.assertEquals(result.keySet().size(), 2);
+        final Map<String, Long> outerStats = result.get("IQuery.find");
+        Assert.assertEquals(outerStats.get("calls").longValue(), 1);
+        Assert.assertEquals(outerStats.get("errors").longValue(), 0);
+        Assert.assertEquals(outerStats.get("objectsRead").longValue(), 5);
+        Assert.assertEquals(outerStats.get("objectsWritten").longValue(), 1);
+        Assert.assertTrue(outerStats.containsKey("p50Micros"));
+        Assert.assertTrue(outerStats.containsKey("p99.9Micros"));
+        final Map<String, Long> innerStats = result.get("IQuery.projection");
+        Assert.assertEquals(innerStats.get("errors").longValue(), 1);
+        Assert.assertEquals(innerStats.get("objectsRead").longValue(), 2);
+
+        Assert.assertEquals(statistics.getStatistics("IQuery.f", new double[0]).keySet().size(), 1);
+    }
+
+    /**
+     * Methods inherited from a shared interface are named by the service
+     * on which they are invoked.
+     */
+    @Test
+    public void testInheritedMethodsPerService() throws Exception {
+        final Method close = StatefulServiceInterface.class.getMethod("close");
+        final ClassLoader loader = StatefulServiceInterface.class.getClassLoader();
+        statistics.end(statistics.begin(), Proxy.getProxyClass(loader, RawPixelsStore.class), close, false);
+        statistics.end(statistics.begin(), Proxy.getProxyClass(loader, RawFileStore.class), close, false);
+        statistics.end(statistics.begin(), Proxy.getProxyClass(loader, RawFileStore.class), close, true);
+
+        final SortedMap<String, Map<String, Long>> result = statistics.getStatistics(null, new double[0]);
+        Assert.assertEquals(result.keySet().size(), 2);
+        Assert.assertEquals(result.get("RawPixelsStore.close").get("calls").longValue(), 1);
+        Assert.assertEquals(result.get("RawFileStore.close").get("calls").longValue(), 2);
+        Assert.assertEquals(result.get("RawFileStore.close").get("errors").longValue(), 1);
+    }
+
+    /**
+     * The buckets keep the values within about 3% of the recorded ones.
+     */
+    @Test
+    public void testQuantilePrecision() {
+        final long[] values = {0, 1, 31, 32, 33, 100, 999, 12345, 1000000, 123456789};
+        for (final long value : values) {
+            final MethodStatistics.Buckets buckets = new MethodStatistics.Buckets();
+            buckets.record(value);
+            final long reported = buckets.quantiles(new double[] {0.5})[0];
+            Assert.assertTrue(Math.abs(reported - value) <= value * 0.03, value + " reported as " + reported);
+        }
+    }
+
+    /**
+     * Quantiles are computed over all the recorded values.
+     */
+    @Test
+    public void testQuantiles() {
+        final MethodStatistics.Buckets buckets = new MethodStatistics.Buckets();
+        for (long value = 1; value <= 1000; value++) {
+            buckets.record(value);
+        }
+        final long[] quantiles = buckets.quantiles(new double[] {0.5, 0.99});
+        Assert.assertTrue(Math.abs(quantiles[0] - 500) <= 15, "median " + quantiles[0]);
+        Assert.assertTrue(Math.abs(quantiles[1] - 990) <= 30, "99th percentile " + quantiles[1]);
+    }
+}
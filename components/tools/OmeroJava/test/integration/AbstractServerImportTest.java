@@ -21,6 +21,7 @@ package integration;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import loci.formats.in.FakeReader;
@@ -40,6 +41,8 @@ import omero.cmd.HandlePrx;
 import omero.grid.ImportLocation;
 import omero.grid.ImportProcessPrx;
 import omero.grid.ImportRequest;
+import omero.grid.ImportResponse;
+import omero.grid.ImportStage;
 import omero.model.IObject;
 
 import org.testng.Assert;
@@ -109,7 +112,28 @@ public class AbstractServerImportTest extends AbstractServerTest {
         final ImportRequest req = (ImportRequest) handle.getRequest();
         final ImportCallback cb = lib.createCallback(proc, handle, container);
         cb.loop(60 * 60, 1000); // Wait 1 hr per step.
-        Assert.assertNotNull(cb.getImportResponse());
+        final ImportResponse rsp = cb.getImportResponse();
+        Assert.assertNotNull(rsp);
+        assertImportProfile(rsp.profile);
         return req.location;
     }
+
+    /**
+     * Assert that the profile of an import lists its stages in the order in
+     * which they ran.
+     *
+     * @param profile
+     *            the profile from the import response
+     */
+    protected void assertImportProfile(List<ImportStage> profile) {
+        Assert.assertNotNull(profile);
+        Assert.assertFalse(profile.isEmpty());
+        final List<String> stages = new ArrayList<String>();
+        for (final ImportStage stage : profile) {
+            Assert.assertTrue(stage.millis >= 0, stage.name);
+            stages.add(stage.name);
+        }
+        Assert.assertEquals(stages.subList(0, 4), Arrays.asList("upload", "scan", "metadata", "save"));
+        Assert.assertTrue(stages.containsAll(Arrays.asList("pixels", "overlays")), stages.toString());
+    }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package integration;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import omero.RLong;
+import omero.RType;
+import omero.api.LongPair;
+import omero.cmd.DiskUsage2;
+import omero.cmd.DiskUsage2Response;
+import omero.cmd.ManageImageBinaries;
+import omero.gateway.util.Requests;
+import omero.model.FileAnnotation;
+import omero.model.FileAnnotationI;
+import omero.model.Image;
+import omero.model.OriginalFile;
+import omero.model.Pixels;
+import omero.sys.EventContext;
+import omero.sys.ParametersI;
+
+import org.springframework.util.ResourceUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Integration tests for the {@link omero.cmd.DiskUsage2} request targeting whole groups, whose usage is aggregated by
+ * grouped queries rather than by traversing the model graph.
+ * @since 5.5.0
+ */
+@Test(groups = { "integration" })
+public class DiskUsageAggregateTest extends AbstractServerTest {
+
+    private EventContext ec;
+    private long imageId;
+    private long filesetId;
+
+    /**
+     * Submit a disk usage request for the given objects and return the server's response.
+     * @param objects the target objects
+     * @return the objects' disk usage
+     * @throws Exception if thrown during request execution
+     */
+    private DiskUsage2Response runDiskUsage(Map<java.lang.String, ? extends Collection<Long>> objects) throws Exception {
+        final DiskUsage2 request = Requests.diskUsage().target(objects).build();
+        return (DiskUsage2Response) doChange(request);
+    }
+
+    /**
+     * Populate a new group with an imported image that has a thumbnail and a file annotation.
+     * @throws Throwable unexpected
+     */
+    @BeforeClass
+    public void setup() throws Throwable {
+        ec = newUserAndGroup("rw----");
+
+        final File imageFile = ResourceUtils.getFile("classpath:tinyTest.d3d.dv");
+        final Pixels pixels = importFile(imageFile, "dv").get(0);
+        imageId = pixels.getImage().getId().getValue();
+        final List<List<RType>> results =
+                iQuery.projection("SELECT fileset.id FROM Image WHERE id = :id", new ParametersI().addId(imageId));
+        filesetId = ((RLong) results.get(0).get(0)).getValue();
+
+        final ManageImageBinaries mibRequest = new ManageImageBinaries();
+        mibRequest.imageId = imageId;
+        doChange(mibRequest);
+
+        final OriginalFile file = mmFactory.createOriginalFile();
+        file.setSize(omero.rtypes.rlong(1234));
+        FileAnnotation annotation = new FileAnnotationI();
+        annotation.setFile(file);
+        annotation = (FileAnnotation) iUpdate.saveAndReturnObject(annotation);
+        final Image image = (Image) iQuery.get("Image", imageId);
+        linkParentToChild(image, annotation);
+    }
+
+    /**
+     * Test that the aggregated usage of a group matches that found by traversing the group's contents.
+     * @throws Exception unexpected
+     */
+    @Test
+    public void testAggregateMatchesTraversal() throws Exception {
+        final DiskUsage2Response aggregate =
+                runDiskUsage(ImmutableMap.of("ExperimenterGroup", Collections.singleton(ec.groupId)));
+        final DiskUsage2Response traversal = runDiskUsage(ImmutableMap.of(
+                "Image", Collections.singleton(imageId), "Fileset", Collections.singleton(filesetId)));
+
+        Assert.assertEquals(aggregate.totalBytesUsed, traversal.totalBytesUsed);
+        Assert.assertEquals(aggregate.totalFileCount, traversal.totalFileCount);
+        Assert.assertEquals(aggregate.bytesUsedByReferer, traversal.bytesUsedByReferer);
+        Assert.assertEquals(aggregate.fileCountByReferer, traversal.fileCountByReferer);
+
+        final LongPair ownership = new LongPair(ec.userId, ec.groupId);
+        Assert.assertEquals(aggregate.totalBytesUsed.keySet(), Collections.singleton(ownership));
+        final Map<String, Long> byType = aggregate.bytesUsedByReferer.get(ownership);
+        Assert.assertEquals(byType.get("FileAnnotation"), Long.valueOf(1234));
+        Assert.assertTrue(byType.get("FilesetEntry") > 0);
+        Assert.assertTrue(byType.get("Thumbnail") > 0);
+    }
+}
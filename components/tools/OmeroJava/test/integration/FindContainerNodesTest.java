@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package integration;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import omero.cmd.FindContainerNodes;
+import omero.cmd.FoundContainerNodes;
+import omero.model.Dataset;
+import omero.model.Image;
+import omero.model.Plate;
+import omero.model.PlateI;
+import omero.model.Project;
+import omero.model.Screen;
+import omero.model.ScreenPlateLink;
+import omero.model.ScreenPlateLinkI;
+import omero.sys.EventContext;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Integration tests for the {@link omero.cmd.FindContainerNodes} request.
+ * @since 5.5.0
+ */
+@Test(groups = { "integration" })
+public class FindContainerNodesTest extends AbstractServerTest {
+
+    private EventContext owner;
+
+    /* a project with one dataset and an empty project */
+    private long projectId, emptyProjectId;
+
+    /* a dataset with two images and an empty dataset in no project */
+    private long datasetId, emptyDatasetId;
+
+    private long imageId1, imageId2;
+
+    /* a screen with one plate */
+    private long screenId;
+
+    /* a plate with one well and an empty plate in no screen */
+    private long plateId, emptyPlateId;
+
+    /**
+     * Create a container hierarchy in a new read-only group.
+     * @throws Exception unexpected
+     */
+    @BeforeClass
+    public void setup() throws Exception {
+        owner = newUserAndGroup("rwr---");
+
+        final Project project = (Project) iUpdate.saveAndReturnObject(mmFactory.simpleProject());
+        final Project emptyProject = (Project) iUpdate.saveAndReturnObject(mmFactory.simpleProject());
+        final Dataset dataset = (Dataset) iUpdate.saveAndReturnObject(mmFactory.simpleDataset());
+        final Dataset emptyDataset = (Dataset) iUpdate.saveAndReturnObject(mmFactory.simpleDataset());
+        final Image image1 = (Image) iUpdate.saveAndReturnObject(mmFactory.simpleImage());
+        final Image image2 = (Image) iUpdate.saveAndReturnObject(mmFactory.simpleImage());
+        linkParentToChild(project, dataset);
+        linkParentToChild(dataset, image1);
+        linkParentToChild(dataset, image2);
+
+        final Screen screen = (Screen) iUpdate.saveAndReturnObject(mmFactory.simpleScreen());
+        final Plate plate = (Plate) iUpdate.saveAndReturnObject(mmFactory.createPlate(1, 1, 1, 0, false));
+        Plate emptyPlate = new PlateI();
+        emptyPlate.setName(omero.rtypes.rstring("empty plate"));
+        emptyPlate = (Plate) iUpdate.saveAndReturnObject(emptyPlate);
+        final ScreenPlateLink link = new ScreenPlateLinkI();
+        link.setParent((Screen) screen.proxy());
+        link.setChild((Plate) plate.proxy());
+        iUpdate.saveAndReturnObject(link);
+
+        projectId = project.getId().getValue();
+        emptyProjectId = emptyProject.getId().getValue();
+        datasetId = dataset.getId().getValue();
+        emptyDatasetId = emptyDataset.getId().getValue();
+        imageId1 = image1.getId().getValue();
+        imageId2 = image2.getId().getValue();
+        screenId = screen.getId().getValue();
+        plateId = plate.getId().getValue();
+        emptyPlateId = emptyPlate.getId().getValue();
+    }
+
+    /**
+     * Build a request for the top-level nodes of the given type owned by the test user.
+     * @param type the type of node
+     * @return the request
+     */
+    private FindContainerNodes topLevel(String type) {
+        final FindContainerNodes request = new FindContainerNodes();
+        request.type = type;
+        request.ownerIds = Collections.singletonList(owner.userId);
+        return request;
+    }
+
+    /**
+     * Build a request for the children of the given nodes.
+     * @param type the type of the parent nodes
+     * @param parentIds the IDs of the parent nodes
+     * @return the request
+     */
+    private FindContainerNodes children(String type, Long... parentIds) {
+        final FindContainerNodes request = new FindContainerNodes();
+        request.type = type;
+        request.parentIds = Arrays.asList(parentIds);
+        return request;
+    }
+
+    /**
+     * Check that the response lists the expected nodes, all owned by the test user in the test group.
+     * @param response the response to the request
+     * @param type the expected type of the nodes
+     * @param ids the expected IDs of the nodes, in order
+     * @param childCounts the expected child counts of the nodes
+     */
+    private void assertNodes(FoundContainerNodes response, String type, List<Long> ids, List<Long> childCounts) {
+        Assert.assertEquals(response.type, type);
+        Assert.assertEquals(response.ids, ids);
+        Assert.assertEquals(response.childCounts, childCounts);
+        Assert.assertEquals(response.names.size(), ids.size());
+        for (int index = 0; index < ids.size(); index++) {
+            Assert.assertNotNull(response.names.get(index));
+            Assert.assertEquals((long) response.ownerIds.get(index), owner.userId);
+            Assert.assertEquals((long) response.groupIds.get(index), owner.groupId);
+        }
+    }
+
+    /**
+     * Test listing the top-level projects and datasets and their child counts.
+     * @throws Exception unexpected
+     */
+    @Test
+    public void testProjectsAndDatasets() throws Exception {
+        FoundContainerNodes response = (FoundContainerNodes) doChange(topLevel("Project"));
+        assertNodes(response, "Project", Arrays.asList(projectId, emptyProjectId), Arrays.asList(1L, 0L));
+        Assert.assertEquals(response.parentIds, Arrays.asList(-1L, -1L));
+
+        response = (FoundContainerNodes) doChange(topLevel("Dataset"));
+        assertNodes(response, "Dataset", Arrays.asList(datasetId, emptyDatasetId), Arrays.asList(2L, 0L));
+
+        final FindContainerNodes orphans = topLevel("Dataset");
+        orphans.orphan = true;
+        response = (FoundContainerNodes) doChange(orphans);
+        assertNodes(response, "Dataset", Collections.singletonList(emptyDatasetId), Collections.singletonList(0L));
+    }
+
+    /**
+     * Test listing the top-level screens and plates and their child counts.
+     * @throws Exception unexpected
+     */
+    @Test
+    public void testScreensAndPlates() throws Exception {
+        FoundContainerNodes response = (FoundContainerNodes) doChange(topLevel("Screen"));
+        assertNodes(response, "Screen", Collections.singletonList(screenId), Collections.singletonList(1L));
+
+        response = (FoundContainerNodes) doChange(topLevel("Plate"));
+        assertNodes(response, "Plate", Arrays.asList(plateId, emptyPlateId), Arrays.asList(1L, 0L));
+
+        final FindContainerNodes orphans = topLevel("Plate");
+        orphans.orphan = true;
+        response = (FoundContainerNodes) doChange(orphans);
+        assertNodes(response, "Plate", Collections.singletonList(emptyPlateId), Collections.singletonList(0L));
+    }
+
+    /**
+     * Test expanding nodes to list their children, including for empty containers.
+     * @throws Exception unexpected
+     */
+    @Test
+    public void testExpandNodes() throws Exception {
+        FoundContainerNodes response = (FoundContainerNodes) doChange(children("Project", projectId, emptyProjectId));
+        assertNodes(response, "Dataset", Collections.singletonList(datasetId), Collections.singletonList(2L));
+        Assert.assertEquals(response.parentIds, Collections.singletonList(projectId));
+
+        response = (FoundContainerNodes) doChange(children("Dataset", datasetId, emptyDatasetId));
+        assertNodes(response, "Image", Arrays.asList(imageId1, imageId2), Arrays.asList(0L, 0L));
+        Assert.assertEquals(response.parentIds, Arrays.asList(datasetId, datasetId));
+
+        response = (FoundContainerNodes) doChange(children("Screen", screenId));
+        assertNodes(response, "Plate", Collections.singletonList(plateId), Collections.singletonList(1L));
+
+        response = (FoundContainerNodes) doChange(children("Project", emptyProjectId));
+        assertNodes(response, "Dataset", Collections.<Long>emptyList(), Collections.<Long>emptyList());
+    }
+
+    /**
+     * Test that across all groups another member of the group sees the nodes but a user in another group does not.
+     * @throws Exception unexpected
+     */
+    @Test
+    public void testCrossGroupVisibility() throws Exception {
+        final FindContainerNodes request = topLevel("Project");
+        try {
+            newUserAndGroup("rwr---");
+            FoundContainerNodes response = (FoundContainerNodes) doChange(request, -1);
+            Assert.assertTrue(response.ids.isEmpty());
+
+            newUserInGroup(owner);
+            response = (FoundContainerNodes) doChange(request, -1);
+            assertNodes(response, "Project", Arrays.asList(projectId, emptyProjectId), Arrays.asList(1L, 0L));
+        } finally {
+            loginUser(owner);
+        }
+    }
+}
@@ -28,7 +28,7 @@ import java.util.Map.Entry;
 
 import ome.api.RawPixelsStore;
 import ome.io.nio.RomioPixelBuffer;
-import omero.ApiUsageException;
+import omero.MissingPyramidException;
 import omero.api.RawPixelsStorePrx;
 import omero.model.Image;
 import omero.model.Pixels;
@@ -369,22 +369,21 @@ public class RawPixelsStoreTest extends AbstractServerTest {
     }
 
     /**
-     * Tests that the histogram generation fails for big images
+     * Tests that the histogram generation is not refused for big images
      * 
      * @throws Exception
      *             Thrown if an error occurred.
      */
     @Test
-    public void testGetHistogramFail() throws Exception {
-        // Test fail, if called on big images
+    public void testGetHistogramBigImage() throws Exception {
         localSetUp(1, 10000, 10000, ModelMockFactory.UINT16);
         try {
-            svc.getHistogram(new int[] { 0 }, -1, true, new PlaneDef(
-                    omeis.providers.re.data.PlaneDef.XY, 0, 0, 0, 0, null, -1));
-            Assert.fail("The method getHistogram() can not handle big images and should "
-                    + "have thrown an ApiUsageException.");
-        } catch (ApiUsageException ex) {
-            // expected
+            Map<Integer, int[]> data = svc.getHistogram(new int[] { 0 }, -1, true,
+                    new PlaneDef(omeis.providers.re.data.PlaneDef.XY, 0, 0, 0, 0,
+                            new RegionDef(0, 0, 512, 512), -1));
+            Assert.assertEquals(data.get(0).length, 256);
+        } catch (MissingPyramidException ex) {
+            // the pyramid may not have been generated yet
         }
     }
     
@@ -12,6 +12,7 @@ import static org.testng.Assert.assertTrue;
 import java.awt.Color;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -24,6 +25,8 @@ import omero.api.IRoiPrx;
 import omero.api.RawPixelsStorePrx;
 import omero.api.RoiOptions;
 import omero.api.RoiResult;
+import omero.api.ShapeOptions;
+import omero.api.ShapePage;
 import omero.api.ShapeStats;
 import omero.grid.Column;
 import omero.grid.LongColumn;
@@ -37,6 +40,7 @@ import omero.model.FileAnnotation;
 import omero.model.FileAnnotationI;
 import omero.model.IObject;
 import omero.model.Image;
+import omero.model.ImageI;
 import omero.model.Line;
 import omero.model.LineI;
 import omero.model.Mask;
@@ -152,6 +156,212 @@ public class RoiServiceTest extends AbstractServerTest {
         }
     }
 
+    /**
+     * Tests the paged retrieval of an image's shapes. This test uses the
+     * <code>findShapes</code> method.
+     *
+     * @throws Exception
+     *             Thrown if an error occurred.
+     */
+    @Test
+    public void testFindShapesPaged() throws Exception {
+        IRoiPrx svc = factory.getRoiService();
+        Image image = (Image) iUpdate.saveAndReturnObject(mmFactory
+                .simpleImage());
+        Roi roi = new RoiI();
+        roi.setImage(image);
+        for (int i = 0; i < 5; i++) {
+            Rectangle rect = new RectangleI();
+            rect.setX(omero.rtypes.rdouble(10 * i));
+            rect.setY(omero.rtypes.rdouble(10));
+            rect.setWidth(omero.rtypes.rdouble(5));
+            rect.setHeight(omero.rtypes.rdouble(5));
+            rect.setTheZ(omero.rtypes.rint(i % 2));
+            rect.setTheT(omero.rtypes.rint(0));
+            roi.addShape(rect);
+        }
+        Polygon polygon = new PolygonI();
+        polygon.setPoints(omero.rtypes.rstring("1,1 4,1 4,4"));
+        roi.addShape(polygon);
+        roi = (RoiI) iUpdate.saveAndReturnObject(roi);
+        long imageId = image.getId().getValue();
+
+        /* read every shape, two at a time */
+        ShapeOptions options = new ShapeOptions();
+        options.limit = omero.rtypes.rint(2);
+        List<Long> ids = new ArrayList<Long>();
+        ShapePage page;
+        do {
+            page = svc.findShapes(imageId, options);
+            Assert.assertTrue(page.shapes.size() <= 2);
+            for (Shape shape : page.shapes) {
+                ids.add(shape.getId().getValue());
+                Assert.assertEquals(shape.getRoi().getId().getValue(),
+                        roi.getId().getValue());
+                Assert.assertFalse(shape.getRoi().isLoaded());
+            }
+            options.afterId = page.nextId;
+        } while (page.nextId != null);
+        Assert.assertEquals(ids.size(), 6);
+        List<Long> sorted = new ArrayList<Long>(ids);
+        Collections.sort(sorted);
+        Assert.assertEquals(ids, sorted);
+
+        /* the polygon is on every plane so matches any z */
+        options = new ShapeOptions();
+        options.theZ = omero.rtypes.rint(1);
+        page = svc.findShapes(imageId, options);
+        Assert.assertEquals(page.shapes.size(), 3);
+        Assert.assertNull(page.nextId);
+
+        /* only the first two rectangles and the polygon are near the origin */
+        options = new ShapeOptions();
+        options.boxX = omero.rtypes.rdouble(0);
+        options.boxY = omero.rtypes.rdouble(0);
+        options.boxWidth = omero.rtypes.rdouble(12);
+        options.boxHeight = omero.rtypes.rdouble(12);
+        page = svc.findShapes(imageId, options);
+        Assert.assertEquals(page.shapes.size(), 3);
+        for (Shape shape : page.shapes) {
+            if (shape instanceof Polygon) {
+                Assert.assertEquals(((Polygon) shape).getPoints().getValue(),
+                        "1,1 4,1 4,4");
+            }
+        }
+
+        /* only polygons */
+        options = new ShapeOptions();
+        options.shapes = Collections.singletonList("Polygon");
+        page = svc.findShapes(imageId, options);
+        Assert.assertEquals(page.shapes.size(), 1);
+        Assert.assertTrue(page.shapes.get(0) instanceof Polygon);
+    }
+
+    /**
+     * Creates a rectangle.
+     *
+     * @param x The x-coordinate of the top-left corner.
+     * @param y The y-coordinate of the top-left corner.
+     * @return See above.
+     */
+    private Rectangle createRectangle(double x, double y) {
+        Rectangle rect = new RectangleI();
+        rect.setX(omero.rtypes.rdouble(x));
+        rect.setY(omero.rtypes.rdouble(y));
+        rect.setWidth(omero.rtypes.rdouble(10));
+        rect.setHeight(omero.rtypes.rdouble(10));
+        rect.setTheZ(omero.rtypes.rint(0));
+        rect.setTheT(omero.rtypes.rint(0));
+        return rect;
+    }
+
+    /**
+     * Tests that <code>findShapes</code> finds the shapes in a region as
+     * they are added and moved, the server's index of the shapes being
+     * extended and rebuilt.
+     *
+     * @throws Exception
+     *             Thrown if an error occurred.
+     */
+    @Test
+    public void testFindShapesInRegion() throws Exception {
+        IRoiPrx svc = factory.getRoiService();
+        Image image = (Image) iUpdate.saveAndReturnObject(mmFactory
+                .simpleImage());
+        Roi roi = new RoiI();
+        roi.setImage(image);
+        roi.addShape(createRectangle(100, 100));
+        roi.addShape(createRectangle(5000, 100));
+        roi.addShape(createRectangle(100, 5000));
+        roi = (RoiI) iUpdate.saveAndReturnObject(roi);
+        long imageId = image.getId().getValue();
+
+        ShapeOptions options = new ShapeOptions();
+        options.theZ = omero.rtypes.rint(0);
+        options.theT = omero.rtypes.rint(0);
+        options.boxX = omero.rtypes.rdouble(0);
+        options.boxY = omero.rtypes.rdouble(0);
+        options.boxWidth = omero.rtypes.rdouble(1000);
+        options.boxHeight = omero.rtypes.rdouble(1000);
+        ShapePage page = svc.findShapes(imageId, options);
+        Assert.assertEquals(page.shapes.size(), 1);
+        Assert.assertEquals(((Rectangle) page.shapes.get(0)).getX()
+                .getValue(), 100.0);
+
+        /* a shape added in the region is found */
+        Roi added = new RoiI();
+        added.setImage(new ImageI(imageId, false));
+        added.addShape(createRectangle(900, 900));
+        added = (RoiI) iUpdate.saveAndReturnObject(added);
+        page = svc.findShapes(imageId, options);
+        Assert.assertEquals(page.shapes.size(), 2);
+
+        /* a shape moved out of the region is not found */
+        Rectangle moved = null;
+        for (Shape shape : roi.copyShapes()) {
+            Rectangle rect = (Rectangle) shape;
+            if (rect.getX().getValue() == 100 && rect.getY().getValue() == 100) {
+                moved = rect;
+            }
+        }
+        moved.setX(omero.rtypes.rdouble(3000));
+        iUpdate.saveAndReturnObject(moved);
+        page = svc.findShapes(imageId, options);
+        Assert.assertEquals(page.shapes.size(), 1);
+        Assert.assertEquals(((Rectangle) page.shapes.get(0)).getX()
+                .getValue(), 900.0);
+
+        /* pages of the region hold only shapes in the region */
+        options.boxWidth = omero.rtypes.rdouble(6000);
+        options.limit = omero.rtypes.rint(1);
+        List<Long> ids = new ArrayList<Long>();
+        do {
+            page = svc.findShapes(imageId, options);
+            for (Shape shape : page.shapes) {
+                ids.add(shape.getId().getValue());
+            }
+            options.afterId = page.nextId;
+        } while (page.nextId != null);
+        Assert.assertEquals(ids.size(), 3);
+    }
+
+    /**
+     * Tests that mask bytes are only returned by <code>findShapes</code>
+     * on request.
+     *
+     * @throws Exception
+     *             Thrown if an error occurred.
+     */
+    @Test
+    public void testFindShapesMaskBytes() throws Exception {
+        IRoiPrx svc = factory.getRoiService();
+        Image image = (Image) iUpdate.saveAndReturnObject(mmFactory
+                .simpleImage());
+        Roi roi = new RoiI();
+        roi.setImage(image);
+        Mask mask = new MaskI();
+        mask.setX(omero.rtypes.rdouble(0));
+        mask.setY(omero.rtypes.rdouble(0));
+        mask.setWidth(omero.rtypes.rdouble(8));
+        mask.setHeight(omero.rtypes.rdouble(1));
+        mask.setBytes(new byte[] {(byte) 0xA5});
+        roi.addShape(mask);
+        iUpdate.saveAndReturnObject(roi);
+        long imageId = image.getId().getValue();
+
+        ShapeOptions options = new ShapeOptions();
+        ShapePage page = svc.findShapes(imageId, options);
+        Assert.assertEquals(page.shapes.size(), 1);
+        mask = (Mask) page.shapes.get(0);
+        Assert.assertEquals(mask.getWidth().getValue(), 8.0);
+        Assert.assertNull(mask.getBytes());
+
+        options.maskBytes = true;
+        page = svc.findShapes(imageId, options);
+        mask = (Mask) page.shapes.get(0);
+        Assert.assertEquals(mask.getBytes(), new byte[] {(byte) 0xA5});
+    }
+
     /**
      * Tests the retrieval of ROI measurements. This test uses the
      * <code>getRoiMeasurements</code> method.
@@ -31,6 +31,7 @@ import java.util.Set;
 import omero.gateway.SecurityContext;
 import omero.gateway.exception.DSAccessException;
 import omero.gateway.exception.DSOutOfServiceException;
+import omero.gateway.facility.PagedIterator;
 import omero.model.IObject;
 import omero.model.Plate;
 import omero.model.Well;
@@ -384,6 +385,47 @@ public class BrowseFacilityTest extends GatewayTest {
         Collections.sort(loadedIds);
         Assert.assertEquals(loadedIds, wellIds);
      }
+
+    @Test
+    public void testGetWellsPaged() throws DSOutOfServiceException, DSAccessException {
+        // page size smaller than the number of wells to get several pages
+        PagedIterator<WellData> it = browseFacility.getWellsPaged(rootCtx,
+                wellsPlate.getId(), 2);
+        ArrayList<Long> loadedIds = new ArrayList<Long>();
+        while (it.hasNext()) {
+            WellData w = it.next();
+            Assert.assertEquals(w.getWellSamples().size(), 2);
+            loadedIds.add(w.getId());
+        }
+        Assert.assertEquals(loadedIds, wellIds);
+    }
+
+    @Test
+    public void testGetImagesPaged() throws DSOutOfServiceException, DSAccessException {
+        SecurityContext ctx = new SecurityContext(group.getId());
+
+        Collection<Long> ids = new ArrayList<Long>();
+        ids.add(img0.getId());
+        ids.add(img1.getId());
+        ids.add(img2.getId());
+        PagedIterator<ImageData> it = browseFacility.getImagesPaged(ctx, ids,
+                null, 1);
+        Collection<Long> loadedIds = new ArrayList<Long>();
+        while (it.hasNext())
+            loadedIds.add(it.next().getId());
+        Assert.assertEquals(loadedIds, ids);
+
+        Collection<Long> dsIds = new ArrayList<Long>();
+        dsIds.add(ds.getId());
+        dsIds.add(ds2.getId());
+        it = browseFacility.getImagesForDatasetsPaged(ctx, dsIds, 1);
+        loadedIds.clear();
+        while (it.hasNext())
+            loadedIds.add(it.next().getId());
+        Assert.assertEquals(loadedIds.size(), 2);
+        Assert.assertTrue(loadedIds.contains(img1.getId()));
+        Assert.assertTrue(loadedIds.contains(img2.getId()));
+    }
     
     private void initData() throws Exception {
         this.group = createGroup();
@@ -22,10 +22,16 @@ package integration.gateway;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import integration.AbstractServerTest;
 import omero.SecurityViolation;
+import omero.api.RawPixelsStorePrx;
+import omero.api.RenderingEnginePrx;
+import omero.gateway.ConnectorPoolMetrics;
 import omero.gateway.Gateway;
 import omero.gateway.JoinSessionCredentials;
 import omero.gateway.LoginCredentials;
@@ -121,6 +127,65 @@ public class GatewayUsageTest extends AbstractServerTest
     
     Boolean sessionActive = null;
 
+    @Test
+    public void testConnectorPool() throws Exception {
+        omero.client client = new omero.client();
+        String[] args = new String[4];
+        args[0] = "--omero.host=" + client.getProperty("omero.host");
+        args[1] = "--omero.port=" + client.getProperty("omero.port");
+        args[2] = "--omero.user=root";
+        args[3] = "--omero.pass=" + client.getProperty("omero.rootpass");
+        LoginCredentials c = new LoginCredentials(args);
+
+        try (Gateway gw = new Gateway(new SimpleLogger())) {
+            gw.setConnectorPoolSize(3);
+            ExperimenterData root = gw.connect(c);
+            SecurityContext ctx = new SecurityContext(root.getGroupId());
+            for (int i = 0; i < 5; i++) {
+                gw.getQueryService(ctx);
+            }
+            ConnectorPoolMetrics metrics = gw.getConnectorPoolMetrics();
+            Assert.assertEquals(metrics.getConnectors(), 3);
+            Assert.assertEquals(metrics.getJoinCount(), 2);
+
+            RawPixelsStorePrx store = gw.borrowPixelsStore(ctx);
+            Assert.assertEquals(gw.getConnectorPoolMetrics().getBorrowed(), 1);
+            gw.returnPixelsStore(store);
+            metrics = gw.getConnectorPoolMetrics();
+            Assert.assertEquals(metrics.getBorrowed(), 0);
+            Assert.assertEquals(metrics.getIdle(), 1);
+            Assert.assertEquals(metrics.getReturnCount(), 1);
+        }
+    }
+
+    @Test
+    public void testConnectorPoolCloseRenderingEngine() throws Exception {
+        omero.client client = new omero.client();
+        String[] args = new String[4];
+        args[0] = "--omero.host=" + client.getProperty("omero.host");
+        args[1] = "--omero.port=" + client.getProperty("omero.port");
+        args[2] = "--omero.user=root";
+        args[3] = "--omero.pass=" + client.getProperty("omero.rootpass");
+        LoginCredentials c = new LoginCredentials(args);
+
+        try (Gateway gw = new Gateway(new SimpleLogger())) {
+            gw.setConnectorPoolSize(3);
+            ExperimenterData root = gw.connect(c);
+            SecurityContext ctx = new SecurityContext(root.getGroupId());
+            List<RenderingEnginePrx> engines = new ArrayList<RenderingEnginePrx>();
+            for (long pixelsId = 1; pixelsId <= 3; pixelsId++) {
+                engines.add(gw.getRenderingService(ctx, pixelsId));
+            }
+            Assert.assertEquals(gw.getConnectorPoolMetrics().getConnectors(), 3);
+            for (RenderingEnginePrx engine : engines) {
+                gw.closeService(ctx, engine);
+            }
+            for (Set<Long> pixelsIds : gw.getRenderingEngines().values()) {
+                Assert.assertTrue(pixelsIds.isEmpty(), pixelsIds.toString());
+            }
+        }
+    }
+
     @Test
     public void testAutoClose() throws DSOutOfServiceException {
         omero.client client = new omero.client();
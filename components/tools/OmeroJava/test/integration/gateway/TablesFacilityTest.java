@@ -23,10 +23,12 @@ import java.util.Collection;
 import java.util.Random;
 import java.util.UUID;
 
+import omero.gateway.facility.TableChunkIterator;
 import omero.gateway.facility.TablesFacility;
 import omero.gateway.model.DatasetData;
 import omero.gateway.model.FileAnnotationData;
 import omero.gateway.model.ProjectData;
+import omero.gateway.model.TableChunk;
 import omero.gateway.model.TableData;
 import omero.gateway.model.TableDataColumn;
 
@@ -323,4 +325,107 @@ public class TablesFacilityTest extends GatewayTest {
             }
         }
     }
+
+    /**
+     * Check that the primitive values of a chunk match those of the table
+     * 
+     * @param chunk
+     *            The chunk
+     * @param expected
+     *            The whole table
+     */
+    private void assertChunk(TableChunk chunk, TableData expected) {
+        TableDataColumn[] cols = expected.getColumns();
+        Object[][] data = expected.getData();
+        Assert.assertEquals(chunk.getNumberOfColumns(), cols.length);
+        long[] rows = chunk.getRowNumbers();
+        for (int c = 0; c < cols.length; c++) {
+            Class<?> type = original.getColumns()[c].getType();
+            for (int i = 0; i < rows.length; i++) {
+                Object value = data[c][(int) rows[i]];
+                if (type.equals(String.class))
+                    Assert.assertEquals(chunk.getStrings(c)[i], value);
+                else if (type.equals(Long.class))
+                    Assert.assertEquals(chunk.getLongs(c)[i], value);
+                else if (type.equals(Double.class))
+                    Assert.assertEquals(chunk.getDoubles(c)[i], value);
+            }
+        }
+    }
+
+    @Test(dependsOnMethods = { "testUpdateTable" })
+    /**
+     * Read the whole table in chunks and compare to the table as read by
+     * getTable
+     * 
+     * @throws Exception
+     */
+    public void testReadTableChunks() throws Exception {
+        TableData expected = tablesFacility.getTable(rootCtx,
+                original.getOriginalFileId(), 0, nRows - 1);
+        int chunkSize = 300;
+        TableChunkIterator it = tablesFacility.readTable(rootCtx,
+                original.getOriginalFileId(), null, null, 0, 0, chunkSize, 3);
+        long nextRow = 0;
+        while (it.hasNext()) {
+            TableChunk chunk = it.next();
+            Assert.assertEquals(chunk.getOffset(), nextRow);
+            long[] rows = chunk.getRowNumbers();
+            Assert.assertEquals(rows.length,
+                    Math.min(chunkSize, nRows - nextRow));
+            for (long row : rows)
+                Assert.assertEquals(row, nextRow++);
+            assertChunk(chunk, expected);
+        }
+        Assert.assertEquals(nextRow, nRows);
+    }
+
+    @Test(dependsOnMethods = { "testReadTableChunks" })
+    /**
+     * Read the rows which match a condition and check that the ranges
+     * without matching rows are skipped
+     * 
+     * @throws Exception
+     */
+    public void testReadTableChunksWithCondition() throws Exception {
+        TableData expected = tablesFacility.getTable(rootCtx,
+                original.getOriginalFileId(), 0, nRows - 1);
+        TableChunkIterator it = tablesFacility.readTable(rootCtx,
+                original.getOriginalFileId(), "(column0=='" + searchForThis
+                        + "')", null, 0, 0, 100, 4);
+        int chunks = 0;
+        while (it.hasNext()) {
+            TableChunk chunk = it.next();
+            chunks++;
+            Assert.assertEquals(chunk.getOffset(), 0);
+            Assert.assertEquals(chunk.getRowNumbers(), new long[] { 0, 1 });
+            Assert.assertEquals(chunk.getStrings(0), new String[] {
+                    searchForThis, searchForThis });
+            assertChunk(chunk, expected);
+        }
+        Assert.assertEquals(chunks, 1);
+    }
+
+    @Test(dependsOnMethods = { "testReadTableChunksWithCondition" })
+    /**
+     * Close the iterator after the first chunk and check that no reads are
+     * left running
+     * 
+     * @throws Exception
+     */
+    public void testReadTableChunksClosedEarly() throws Exception {
+        TableChunkIterator it = tablesFacility.readTable(rootCtx,
+                original.getOriginalFileId(), null, null, 0, 0, 10, 4);
+        Assert.assertTrue(it.hasNext());
+        Assert.assertEquals(it.next().getOffset(), 0);
+        it.close();
+        Assert.assertFalse(it.hasNext());
+        long timeout = System.currentTimeMillis() + 10000;
+        while (it.getRunningReads() > 0
+                && System.currentTimeMillis() < timeout)
+            Thread.sleep(10);
+        Assert.assertEquals(it.getRunningReads(), 0);
+        Thread.sleep(100);
+        Assert.assertEquals(it.getRunningReads(), 0);
+    }
 }